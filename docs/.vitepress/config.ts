@@ -125,6 +125,7 @@ const config = defineConfig({
                   { text: "$compact", link: "/api/operation/compact" },
                   { text: "$cql", link: "/api/operation/cql" },
                   { text: "$disk-perf", link: "/api/operation/disk-perf" },
+                  { text: "$import", link: "/api/operation/import" },
                 ],
               },
               {
@@ -1,7 +1,18 @@
 (ns blaze.cql
   (:require
+   [blaze.elm.compiler.bytecode :as bytecode]
    [blaze.elm.compiler.external-data :as ed]
+   [blaze.elm.expression.subject-cache :as subject-cache]
    [blaze.module :refer [reg-collector]]))
 
 (reg-collector ::retrieve-total
   ed/retrieve-total)
+
+(reg-collector ::bytecode-classes-total
+  bytecode/classes-total)
+
+(reg-collector ::subject-cache-hits-total
+  subject-cache/hits-total)
+
+(reg-collector ::subject-cache-misses-total
+  subject-cache/misses-total)
@@ -0,0 +1,168 @@
+(ns blaze.elm.compiler.bytecode
+  "Compiles expression trees into JVM bytecode.
+
+  Expressions which provide a template (see `core/Template`) are fused together
+  with their operands into one Clojure function which is compiled to bytecode
+  by the Clojure compiler. Evaluating such a function calls the operator
+  implementations directly instead of dispatching `-eval` on every node of the
+  tree.
+
+  Operands without template are evaluated by the interpreter. They are passed
+  to the compiled function in an array, so that functions only depend on the
+  shape of the tree and can be shared between expressions.
+
+  Generated classes stay in metaspace. So their number is limited. After the
+  limit is reached, expressions of new shapes are interpreted."
+  (:refer-clojure :exclude [compile])
+  (:require
+   [blaze.elm.compiler.core :as core]
+   [blaze.elm.compiler.macros :refer [reify-expr]]
+   [prometheus.alpha :as prom :refer [defcounter]]
+   [taoensso.timbre :as log])
+  (:import
+   [com.github.benmanes.caffeine.cache Cache Caffeine]
+   [java.util.concurrent.atomic AtomicLong]
+   [java.util.function Function]))
+
+(set! *warn-on-reflection* true)
+
+(def ^:private leaves-sym
+  (with-meta 'leaves {:tag 'objects}))
+
+(defn- leaf-code [leaves idx]
+  (list `aget leaves-sym idx))
+
+(defn- emit-constant
+  "Emits the code of the constant `x`. Literals are inlined, everything else is
+  added to `leaves`."
+  [leaves x]
+  (if (or (nil? x) (boolean? x) (string? x) (keyword? x) (instance? Long x))
+    x
+    (leaf-code leaves (dec (count (vswap! leaves conj x))))))
+
+(defn- emit-leaf [leaves expr]
+  (if (core/static? expr)
+    (emit-constant leaves expr)
+    (list `core/-eval (leaf-code leaves (dec (count (vswap! leaves conj expr))))
+          'context 'resource 'scope)))
+
+(defn- emit [leaves expr]
+  (if-let [[emitter operands constants] (core/-template expr)]
+    (let [codes (-> (mapv (partial emit leaves) operands)
+                    (into (map (partial emit-constant leaves)) constants))]
+      (if (symbol? emitter)
+        (cons emitter codes)
+        (apply emitter codes)))
+    (emit-leaf leaves expr)))
+
+(defn- fn-form [code]
+  `(fn [~leaves-sym ~'context ~'resource ~'scope]
+     ~code))
+
+(def ^:const ^long default-max-classes
+  "The default maximum number of classes generated."
+  10000)
+
+(def ^:private ^:const ^long classes-per-fn
+  "The number of classes generated by evaluating one function form. Besides the
+  class of the function, `eval` generates a class wrapping the form."
+  2)
+
+(defcounter classes-total
+  "Number of classes generated by the bytecode compilation of CQL expressions."
+  {:namespace "blaze"
+   :subsystem "cql_bytecode"})
+
+(def ^:private ^AtomicLong num-classes
+  (AtomicLong.))
+
+(def ^:private ^Cache fns
+  "Compiled functions by form. Forms only contain the shape of the tree, so
+  they are shared between all expressions of that shape.
+
+  Functions are never evicted, because that wouldn't unload their classes. The
+  number of functions is bounded by the maximum number of classes instead."
+  (-> (Caffeine/newBuilder)
+      (.build)))
+
+(defn- reserve-classes!
+  "Returns true if the classes of one function can be generated without
+  exceeding `max-classes`."
+  [^long max-classes]
+  (loop []
+    (let [n (.get num-classes)]
+      (when (<= (+ n classes-per-fn) max-classes)
+        (if (.compareAndSet num-classes n (+ n classes-per-fn))
+          true
+          (recur))))))
+
+(defn- compile-fn [form]
+  (log/trace "Compile expression function:" form)
+  (let [f (eval form)]
+    (dotimes [_ classes-per-fn]
+      (prom/inc! classes-total))
+    f))
+
+(defn- fn-of
+  "Returns the compiled function of `form` or nil if it wasn't compiled before
+  and its classes would exceed `max-classes`."
+  [max-classes form]
+  (.get fns form (reify Function
+                   (apply [_ form]
+                     (when (reserve-classes! max-classes)
+                       (compile-fn form))))))
+
+(defn- fusable?
+  "Returns true if `expr` has a template and at least one of its operands has
+  also one, so that fusing them saves at least one `-eval` dispatch."
+  [expr]
+  (when-let [[_ operands] (core/-template expr)]
+    (boolean (some core/-template operands))))
+
+(declare compile)
+
+(defn- compiled-expr [expr max-classes f leaves]
+  (reify-expr core/Expression
+    (-attach-cache [_ cache]
+      (let [[attach & more] (core/-attach-cache expr cache)]
+        (into [#(update (attach) 0 compile max-classes)] more)))
+    (-patient-count [_]
+      (core/-patient-count expr))
+    (-resolve-refs [_ expression-defs]
+      (compile (core/-resolve-refs expr expression-defs) max-classes))
+    (-resolve-params [_ parameters]
+      (compile (core/-resolve-params expr parameters) max-classes))
+    (-optimize [_ db]
+      (compile (core/-optimize expr db) max-classes))
+    (-eval [_ context resource scope]
+      (f leaves context resource scope))
+    (-form [_]
+      (core/-form expr))))
+
+(defn compile
+  "Compiles `expr` into bytecode if it's an expression with template and at
+  least one operand with template. Returns `expr` unchanged otherwise.
+
+  Also returns `expr` unchanged if its shape wasn't compiled before and
+  compiling it would exceed `max-classes` generated classes overall.
+
+  The returned expression has the same form as `expr` and all transformations
+  like `-resolve-refs` or `-attach-cache` are delegated to `expr`, compiling
+  their results again."
+  ([expr]
+   (compile expr default-max-classes))
+  ([expr max-classes]
+   (if (fusable? expr)
+     (let [leaves (volatile! [])
+           form (fn-form (emit leaves expr))]
+       (if-let [f (fn-of max-classes form)]
+         (compiled-expr expr max-classes f (object-array @leaves))
+         expr))
+     expr)))
+
+(defn compile-if-enabled
+  "Compiles `expr` into bytecode if :bytecode-compilation is true in
+  `context`, generating at most :bytecode-max-classes classes."
+  [{:keys [bytecode-compilation bytecode-max-classes]
+    :or {bytecode-max-classes default-max-classes}} expr]
+  (cond-> expr bytecode-compilation (compile bytecode-max-classes)))
@@ -42,6 +42,18 @@
     for scoped expressions inside queries.")
   (-form [expression]))
 
+(defprotocol Template
+  (-template [expression]
+    "Returns a tuple of emitter, operands and constants used to compile
+    `expression` together with its operands into a single function or nil if
+    `expression` can only be interpreted.
+
+    The emitter is either the fully qualified symbol of a function which is
+    called with the evaluated operands followed by the constants or a function
+    which returns code if called with the code of the operands followed by the
+    code of the constants. That code can refer to the locals `context`,
+    `resource` and `scope` having the same meaning as in `-eval`."))
+
 (defn expr? [x]
   (satisfies? Expression x))
 
@@ -236,6 +248,13 @@
   (-form [expr]
     (mapv -form expr)))
 
+(extend-protocol Template
+  nil
+  (-template [_])
+
+  Object
+  (-template [_]))
+
 (defmulti compile*
   "Compiles `expression` in `context`.
 
@@ -19,7 +19,9 @@
    [blaze.elm.value-set :as vs]
    [blaze.fhir.spec.references :as fsr]
    [blaze.util :refer [str]]
-   [prometheus.alpha :as prom :refer [defcounter]]))
+   [prometheus.alpha :as prom :refer [defcounter]])
+  (:import
+   [clojure.lang Counted IReduceInit Sequential]))
 
 (set! *warn-on-reflection* true)
 
@@ -37,6 +39,76 @@
 (defn- value-set-clause [property value-set]
   [(str property ":in") (vs/url value-set)])
 
+(defn- compartment-id-set
+  "Returns the set of ids of all compartments of `eval-context` linked to a
+  resource of `type-query` in `db`.
+
+  Returns nil as soon as the set contains all compartments, because then it
+  wouldn't spare any compartment query."
+  [db eval-context type-query]
+  (with-open [batch-db (d/new-batch-db db)]
+    (let [num-compartments (d/type-total batch-db eval-context)]
+      (some->
+       (reduce
+        (fn [ids resource-handle]
+          (let [ids (reduce conj! ids (d/compartment-ids batch-db eval-context
+                                                         resource-handle))]
+            (if (<= num-compartments (count ids))
+              (reduced nil)
+              ids)))
+        (transient #{})
+        (throw-when (d/execute-query batch-db type-query)))
+       (persistent!)))))
+
+(defn- compartment-resources [db compartment-query id]
+  (coll/eduction (cr/resource-mapper db) (throw-when (d/execute-query db compartment-query id))))
+
+(deftype MatchedCompartmentResources [db compartment-query id]
+  Sequential
+  IReduceInit
+  (reduce [_ f init]
+    (.reduce ^IReduceInit (compartment-resources db compartment-query id) f init))
+  Counted
+  (count [_]
+    (.count ^Counted (compartment-resources db compartment-query id)))
+  Iterable
+  (iterator [_]
+    (.iterator ^Iterable (compartment-resources db compartment-query id))))
+
+(defn matched-compartment-resources?
+  "Returns true if `x` are the resources of a retrieve of a compartment that is
+  known to have at least one matching resource.
+
+  Expressions like exists can use this to skip the compartment query."
+  [x]
+  (instance? MatchedCompartmentResources x))
+
+(defn- population-compartment-query-expr
+  "Returns an expression like the compartment query expression that, if
+  evaluated with :population-eval? in the context, answers the retrieve with a
+  single type query for all compartments instead of a compartment query per
+  compartment.
+
+  Compartments not in the set get an empty list. The resources of compartments
+  in the set are returned as MatchedCompartmentResources which are only
+  queried if reduced.
+
+  The set of compartment ids is calculated on the first evaluation only,
+  because the expression is also used to evaluate single compartments only,
+  where the set wouldn't pay off."
+  [db eval-context data-type type-query compartment-query]
+  (let [ids (delay (compartment-id-set db eval-context type-query))]
+    (reify-expr core/Expression
+      (-eval [_ {:keys [db population-eval?]} {:keys [id]} _]
+        (prom/inc! retrieve-total)
+        (if-let [ids (when population-eval? @ids)]
+          (if (contains? ids id)
+            (->MatchedCompartmentResources db compartment-query id)
+            [])
+          (compartment-resources db compartment-query id)))
+      (-form [_]
+        `(~'retrieve ~data-type ~(d/query-clauses compartment-query))))))
+
 (defn- compartment-query-expr
   [node eval-context data-type clauses]
   (let [type-query (ac/join (d/compile-type-query node data-type clauses))
@@ -48,10 +120,11 @@
        ;; available, just return an empty list for further optimizations
         (if (coll/empty? (throw-when (d/execute-query db type-query)))
           []
-          expr))
+          (population-compartment-query-expr db eval-context data-type
+                                             type-query compartment-query)))
       (-eval [_ {:keys [db]} {:keys [id]} _]
         (prom/inc! retrieve-total)
-        (coll/eduction (cr/resource-mapper db) (throw-when (d/execute-query db compartment-query id))))
+        (compartment-resources db compartment-query id))
       (-form [_]
         `(~'retrieve ~data-type ~(d/query-clauses compartment-query))))))
 
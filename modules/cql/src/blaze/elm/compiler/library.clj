@@ -13,6 +13,7 @@
   (:require
    [blaze.anomaly :as ba :refer [if-ok when-ok]]
    [blaze.elm.compiler :as c]
+   [blaze.elm.compiler.bytecode :as bytecode]
    [blaze.elm.compiler.function :as function]
    [blaze.elm.compiler.library.resolve-refs :refer [resolve-refs]]
    [blaze.elm.expression :as expr]
@@ -25,7 +26,8 @@
   anomaly on errors."
   [context def]
   (let [context (assoc context :eval-context (:context def))]
-    (-> (ba/try-anomaly (update def :expression (partial c/compile context)))
+    (-> (ba/try-anomaly
+         (update def :expression #(bytecode/compile-if-enabled context (c/compile context %))))
         (ba/exceptionally #(assoc % :context context :elm/expression (:expression def))))))
 
 (defn- create-partial-function
@@ -110,7 +112,11 @@
 
   Returns an anomaly in case of errors.
 
-  There are currently no options."
+  Options:
+   * :bytecode-compilation - compiles expressions into JVM bytecode where
+       possible (see `blaze.elm.compiler.bytecode`)
+   * :bytecode-max-classes - the maximum number of classes generated by
+       bytecode compilation overall"
   [context library opts]
   (let [library (normalizer/normalize-library library)
         context (merge opts context {:library library})]
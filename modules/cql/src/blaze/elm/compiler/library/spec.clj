@@ -44,5 +44,12 @@
 (s/def ::c/context
   (s/keys :req-un [:blaze.db/node :blaze/terminology-service]))
 
+(s/def :blaze.elm.compiler.options/bytecode-compilation
+  boolean?)
+
+(s/def :blaze.elm.compiler.options/bytecode-max-classes
+  pos-int?)
+
 (s/def ::c/options
-  map?)
+  (s/keys :opt-un [:blaze.elm.compiler.options/bytecode-compilation
+                   :blaze.elm.compiler.options/bytecode-max-classes]))
@@ -7,6 +7,7 @@
    [blaze.anomaly :as ba]
    [blaze.coll.core :as coll]
    [blaze.elm.compiler.core :as core]
+   [blaze.elm.compiler.external-data :as ed]
    [blaze.elm.compiler.macros :refer [defbinop defunop reify-expr]]
    [blaze.elm.compiler.queries :as queries]
    [blaze.elm.protocols :as p]
@@ -71,7 +72,8 @@
   {:optimizations #{:first :non-distinct}
    :cache true}
   [list]
-  (some? (coll/first (coll/eduction (remove nil?) list))))
+  (or (ed/matched-compartment-resources? list)
+      (some? (coll/first (coll/eduction (remove nil?) list)))))
 
 ;; 20.9. Filter
 (defn- scoped-filter-op [source condition scope]
@@ -12,6 +12,18 @@
    [prometheus.alpha :as prom]))
 
 ;; 13.1. And
+(defn- emit-and [a b]
+  `(let [a# ~a]
+     (if (false? a#)
+       false
+       (let [b# ~b]
+         (cond
+           (false? b#) false
+           (and (true? a#) (true? b#)) true)))))
+
+(defn- emit-and-list [& ops]
+  (reduce emit-and ops))
+
 (defn- and-nil-op [x]
   (reify-expr core/Expression
     (-attach-cache [_ cache]
@@ -65,6 +77,8 @@
                (and (true? a) (true? b)) true))))
        (core/-eval op context resource scope)
        ops))
+    (-template [_]
+      [emit-and-list (into [op] ops) []])
     (-form [_]
       `(~'and ~(core/-form op) ~@(map core/-form ops)))))
 
@@ -126,6 +140,8 @@
             (cond
               (false? b) false
               (and (true? a) (true? b)) true)))))
+    (-template [_]
+      [emit-and [a b] []])
     (-form [_]
       (list 'and (core/-form a) (core/-form b)))))
 
@@ -161,6 +177,45 @@
     (not operand)))
 
 ;; 13.4. Or
+(defn- emit-or [a b]
+  `(let [a# ~a]
+     (if (true? a#)
+       true
+       (let [b# ~b]
+         (cond
+           (true? b#) true
+           (and (false? a#) (false? b#)) false)))))
+
+(defn- emit-or-list-tuple
+  "Emits the code of one `[op bf]` tuple of an `or-list-op` evaluating `next`
+  if neither `op` is true nor the Bloom filter decides the result."
+  [op bf next]
+  (if (nil? bf)
+    `(if ~op true ~next)
+    `(let [r# (let [bf# ~bf]
+                (if-some [exact-result# (bloom-filter/exact-result bf# ~'resource)]
+                  (do (prom/inc! ec/bloom-filter-useful-total "or")
+                      exact-result#)
+                  (if (bloom-filter/might-contain? bf# ~'resource)
+                    (do (prom/inc! ec/bloom-filter-not-useful-total "or")
+                        (if ~op
+                          true
+                          (do (prom/inc! ec/bloom-filter-false-positive-total "or")
+                              ::continue)))
+                    (do (prom/inc! ec/bloom-filter-useful-total "or")
+                        false))))]
+       (if (identical? ::continue r#) ~next r#))))
+
+(defn- emit-or-list
+  "Emits the code of an `or-list-op` from the code of its operands followed by
+  the code of its Bloom filters."
+  [& codes]
+  (let [[ops bfs] (split-at (quot (count codes) 2) codes)]
+    (reduce
+     (fn [next [op bf]] (emit-or-list-tuple op bf next))
+     false
+     (reverse (map vector ops bfs)))))
+
 (defn- or-nil-op [x]
   (reify-expr core/Expression
     (-attach-cache [_ cache]
@@ -208,19 +263,24 @@
        (fn [_ [op bf]]
          ;; TODO: handle nil
          (if bf
-           (if (bloom-filter/might-contain? bf resource)
-             (do (prom/inc! ec/bloom-filter-not-useful-total "or")
-                 (if (core/-eval op context resource scope)
-                   (reduced true)
-                   (do (prom/inc! ec/bloom-filter-false-positive-total "or")
-                       false)))
+           (if-some [exact-result (bloom-filter/exact-result bf resource)]
              (do (prom/inc! ec/bloom-filter-useful-total "or")
-                 (reduced false)))
+                 (reduced exact-result))
+             (if (bloom-filter/might-contain? bf resource)
+               (do (prom/inc! ec/bloom-filter-not-useful-total "or")
+                   (if (core/-eval op context resource scope)
+                     (reduced true)
+                     (do (prom/inc! ec/bloom-filter-false-positive-total "or")
+                         false)))
+               (do (prom/inc! ec/bloom-filter-useful-total "or")
+                   (reduced false))))
            (if (core/-eval op context resource scope)
              (reduced true)
              false)))
        false
        tuples))
+    (-template [_]
+      [emit-or-list (mapv first tuples) (mapv second tuples)])
     (-form [_]
       `(~'or ~@(map (comp core/-form first) tuples)))))
 
@@ -282,6 +342,8 @@
             (cond
               (true? b) true
               (and (false? a) (false? b)) false)))))
+    (-template [_]
+      [emit-or [a b] []])
     (-form [_]
       (list 'or (core/-form a) (core/-form b)))))
 
@@ -307,6 +369,11 @@
 ;; 13.5 Xor
 (declare dynamic-xor)
 
+(defn- emit-xor [a b]
+  `(when-some [a# ~a]
+     (when-some [b# ~b]
+       (if a# (not b#) b#))))
+
 (defn- xor-op [a b]
   (reify-expr core/Expression
     (-attach-cache [_ cache]
@@ -331,6 +398,8 @@
       (when-some [a (core/-eval a context resource scope)]
         (when-some [b (core/-eval b context resource scope)]
           (if a (not b) b))))
+    (-template [_]
+      [emit-xor [a b] []])
     (-form [_]
       (list 'xor (core/-form a) (core/-form b)))))
 
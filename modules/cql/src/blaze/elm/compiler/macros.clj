@@ -44,6 +44,8 @@
      ~(if-let [form (find-form '-form body)]
         form
         (list '-form ['_] 'nil))
+     ~@(when-let [form (find-form '-template body)]
+         [`core/Template form])
 
      Object
      (~'equals [~'this ~'other]
@@ -61,6 +63,18 @@
 (defn- compile-kw [name]
   (keyword "elm.compiler.type" (clojure.core/name name)))
 
+(defn- impl-sym
+  "Returns the symbol of the function that implements the evaluation of the
+  operator with `name` on already evaluated operands."
+  [name]
+  (symbol (str name "-impl")))
+
+(defn- qualified-impl-sym [name]
+  (symbol (str *ns*) (str (impl-sym name))))
+
+(defn- impl-doc [name]
+  (str "Evaluates the " name " operator on already evaluated operands."))
+
 (defmacro defunop
   {:arglists '([name attr-map? bindings & body])}
   [name & more]
@@ -142,20 +156,23 @@
                       `(~caching-op
                         (core/-optimize ~operand ~'db))))
                  (~'-eval [~'_ ~context ~resource ~scope]
-                   (if (bloom-filter/might-contain? ~bloom-filter ~resource)
-                     (let [res# (let ~(generate-binding-vector
-                                       operand-binding `(core/-eval ~operand
-                                                                    ~context
-                                                                    ~resource
-                                                                    ~scope)
-                                       elm-expr-binding elm-expr)
-                                  ~@body)]
-                       (prom/inc! ec/bloom-filter-not-useful-total ~(clojure.core/name name))
-                       (when-not res#
-                         (prom/inc! ec/bloom-filter-false-positive-total ~(clojure.core/name name)))
-                       res#)
+                   (if-some [exact-result# (bloom-filter/exact-result ~bloom-filter ~resource)]
                      (do (prom/inc! ec/bloom-filter-useful-total ~(clojure.core/name name))
-                         false)))
+                         exact-result#)
+                     (if (bloom-filter/might-contain? ~bloom-filter ~resource)
+                       (let [res# (let ~(generate-binding-vector
+                                         operand-binding `(core/-eval ~operand
+                                                                      ~context
+                                                                      ~resource
+                                                                      ~scope)
+                                         elm-expr-binding elm-expr)
+                                    ~@body)]
+                         (prom/inc! ec/bloom-filter-not-useful-total ~(clojure.core/name name))
+                         (when-not res#
+                           (prom/inc! ec/bloom-filter-false-positive-total ~(clojure.core/name name)))
+                         res#)
+                       (do (prom/inc! ec/bloom-filter-useful-total ~(clojure.core/name name))
+                           false))))
                  (~'-form [~'_]
                    (list (quote ~name) (core/-form ~operand)))))
 
@@ -219,6 +236,11 @@
                  (~'-form [~'_]
                    (list (quote ~name) (core/-form ~operand)))))))
 
+       (defn ~(impl-sym name)
+         ~(impl-doc name)
+         ~(cond-> [operand-binding] elm-expr-binding (conj elm-expr-binding))
+         ~@body)
+
        (defn ~op
          ~(str "Creates a " name " operator that will only delegate cache attachment.")
          ~(cond-> [operand] elm-expr-binding (conj elm-expr))
@@ -255,6 +277,10 @@
                     operand-binding `(core/-eval ~operand ~context ~resource ~scope)
                     elm-expr-binding elm-expr)
                ~@body))
+           (~'-template [~'_]
+             [(quote ~(qualified-impl-sym name))
+              [~operand]
+              ~(if elm-expr-binding [elm-expr] [])])
            (~'-form [~'_]
              (list (quote ~name) (core/-form ~operand)))))
 
@@ -290,6 +316,11 @@
         op-1 (gensym "op-1")
         op-2 (gensym "op-2")]
     `(do
+       (defn ~(impl-sym name)
+         ~(impl-doc name)
+         [~op-1-binding ~op-2-binding]
+         ~@body)
+
        (defn ~op [~op-1 ~op-2]
          (reify-expr core/Expression
            (~'-attach-cache [~'_ ~'cache]
@@ -306,6 +337,8 @@
              (let [~op-1-binding (core/-eval ~op-1 context# resource# scope#)
                    ~op-2-binding (core/-eval ~op-2 context# resource# scope#)]
                ~@body))
+           (~'-template [~'_]
+             [(quote ~(qualified-impl-sym name)) [~op-1 ~op-2] []])
            (~'-form [~'_]
              (list (quote ~name) (core/-form ~op-1) (core/-form ~op-2)))))
 
@@ -328,6 +361,11 @@
         op-2 (gensym "op-2")
         op-3 (gensym "op-3")]
     `(do
+       (defn ~(impl-sym name)
+         ~(impl-doc name)
+         [~op-1-binding ~op-2-binding ~op-3-binding]
+         ~@body)
+
        (defn ~op [~op-1 ~op-2 ~op-3]
          (reify-expr core/Expression
            (~'-attach-cache [~'_ ~'cache]
@@ -346,6 +384,8 @@
                    ~op-2-binding (core/-eval ~op-2 context# resource# scope#)
                    ~op-3-binding (core/-eval ~op-3 context# resource# scope#)]
                ~@body))
+           (~'-template [~'_]
+             [(quote ~(qualified-impl-sym name)) [~op-1 ~op-2 ~op-3] []])
            (~'-form [~'_]
              (list (quote ~name) (core/-form ~op-1) (core/-form ~op-2)
                    (core/-form ~op-3)))))
@@ -421,6 +461,11 @@
         operand (gensym "operand")
         precision (gensym "precision")]
     `(do
+       (defn ~(impl-sym name)
+         ~(impl-doc name)
+         [~operand-binding ~precision-binding]
+         ~@body)
+
        (defn ~op [~operand ~precision-binding ~precision]
          (reify-expr core/Expression
            (~'-attach-cache [~'_ ~'cache]
@@ -441,6 +486,8 @@
            (~'-eval [~'_ context# resource# scope#]
              (let [~operand-binding (core/-eval ~operand context# resource# scope#)]
                ~@body))
+           (~'-template [~'_]
+             [(quote ~(qualified-impl-sym name)) [~operand] [~precision-binding]])
            (~'-form [~'_]
              (list (quote ~name) (core/-form ~operand) ~precision))))
 
@@ -465,6 +512,11 @@
         op-2 (gensym "op-2")
         precision (gensym "precision")]
     `(do
+       (defn ~(impl-sym name)
+         ~(impl-doc name)
+         [~op-1-binding ~op-2-binding ~precision-binding]
+         ~@body)
+
        ~(when-not precision-required
           `(defn ~op [~op-1 ~op-2]
              (reify-expr core/Expression
@@ -483,6 +535,8 @@
                        ~op-2-binding (core/-eval ~op-2 context# resource# scope#)
                        ~precision-binding nil]
                    ~@body))
+               (~'-template [~'_]
+                 [(quote ~(qualified-impl-sym name)) [~op-1 ~op-2] [nil]])
                (~'-form [~'_]
                  (list (quote ~name) (core/-form ~op-1) (core/-form ~op-2))))))
 
@@ -511,6 +565,8 @@
              (let [~op-1-binding (core/-eval ~op-1 context# resource# scope#)
                    ~op-2-binding (core/-eval ~op-2 context# resource# scope#)]
                ~@body))
+           (~'-template [~'_]
+             [(quote ~(qualified-impl-sym name)) [~op-1 ~op-2] [~precision-binding]])
            (~'-form [~'_]
              (list (quote ~name) (core/-form ~op-1) (core/-form ~op-2)
                    ~precision))))
@@ -9,6 +9,7 @@
    [blaze.async.comp :as ac]
    [blaze.coll.core :as coll]
    [blaze.db.api :as d]
+   [blaze.elm.compiler.bytecode :as bytecode]
    [blaze.elm.compiler.core :as core]
    [blaze.elm.compiler.macros :refer [reify-expr]]
    [blaze.elm.protocols :as p]
@@ -283,9 +284,9 @@
           context (dissoc context :optimizations)
           source (core/compile* context expression)
           relationship-xform-factories (mapv #(compile-relationship-clause context alias %) relationships)
-          where-xform-factory (some->> where (core/compile* context) (where-xform-factory alias))
+          where-xform-factory (some->> where (core/compile* context) (bytecode/compile-if-enabled context) (where-xform-factory alias))
           distinct (if (contains? optimizations :non-distinct) false distinct)
-          return-xform-factory (or (some->> return (core/compile* context) (return-xform-factory alias distinct))
+          return-xform-factory (or (some->> return (core/compile* context) (bytecode/compile-if-enabled context) (return-xform-factory alias distinct))
                                    (when distinct (distinct-xform-factory)))
           xform-factory (if return-xform-factory
                           (xform-factory relationship-xform-factories where-xform-factory return-xform-factory)
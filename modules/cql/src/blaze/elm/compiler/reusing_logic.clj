@@ -11,6 +11,8 @@
    [blaze.elm.compiler.macros :refer [reify-expr]]
    [blaze.elm.concept :refer [concept]]
    [blaze.elm.date-time :as date-time]
+   [blaze.elm.expression :as-alias expr]
+   [blaze.elm.expression.subject-cache :as subject-cache]
    [blaze.elm.interval :as interval]
    [blaze.elm.protocols :as p]
    [blaze.elm.quantity :as quantity]
@@ -28,10 +30,45 @@
 (defn- expression-not-found-anom [context name]
   (ba/incorrect (format "Expression `%s` not found." name) :context context))
 
+(declare resolved-expr-ref)
+
+(defn- resolved-expr-ref*
+  "Wraps the resolved `expression` of the expression definition with `name`,
+  so that its results can be taken from a subject cache if one is available
+  in the evaluation context."
+  [name expression]
+  (reify-expr core/Expression
+    (-attach-cache [_ cache]
+      (let [[attach & more] (core/-attach-cache expression cache)]
+        (into [#(update (attach) 0 (partial resolved-expr-ref name))] more)))
+    (-patient-count [_]
+      (core/-patient-count expression))
+    (-resolve-refs [_ expression-defs]
+      (resolved-expr-ref name (core/-resolve-refs expression expression-defs)))
+    (-resolve-params [_ parameters]
+      (resolved-expr-ref name (core/-resolve-params expression parameters)))
+    (-optimize [_ db]
+      (resolved-expr-ref name (core/-optimize expression db)))
+    (-eval [_ {::expr/keys [subject-cache] :as context} resource _]
+      (if subject-cache
+        (subject-cache/get-or-eval
+         subject-cache name resource
+         #(core/-eval expression context resource nil))
+        (core/-eval expression context resource nil)))
+    (-form [_]
+      (core/-form expression))))
+
+(defn- resolved-expr-ref [name expression]
+  (if (core/static? expression)
+    expression
+    (resolved-expr-ref* name expression)))
+
 (defn- expr-ref [name]
   (reify-expr core/Expression
     (-resolve-refs [expr expression-defs]
-      (or (:expression (get expression-defs name)) expr))
+      (if-let [expression (:expression (get expression-defs name))]
+        (resolved-expr-ref name expression)
+        expr))
     (-eval [_ {:keys [expression-defs] :as context} resource _]
       (if-let [{:keys [expression]} (get expression-defs name)]
         (core/-eval expression context resource nil)
@@ -125,8 +125,19 @@
     (close [_]
       (swap! state update :num-running-bloom-filter-creations dec))))
 
+(defn- count-creation
+  "Returns a CompletableFuture that will complete with the result of calling
+  `create` on `executor` counting it as running Bloom filter creation until it
+  completes."
+  [state executor create]
+  (let [counter (bloom-filter-creation-counter state)]
+    (-> (ac/completed-future nil)
+        (ac/then-compose-async (fn [_] (create)) executor)
+        (ac/when-complete (fn [_ _] (.close counter))))))
+
 (defn- mem-cache
-  [state {:keys [kv-store] :as node} executor max-size-in-mb refresh]
+  [state {:keys [kv-store] :as node} executor max-size-in-mb refresh
+   max-exact-patient-count]
   (-> (Caffeine/newBuilder)
       (.weigher weigher)
       (.maximumWeight (* max-size-in-mb u/mib))
@@ -138,27 +149,30 @@
          (asyncLoad [_ expression executor]
            (if-let [bloom-filter (load-bloom-filter-from-expr kv-store expression)]
              (ac/completed-future bloom-filter)
-             (ac/supply-async
-              #(with-open [_ (bloom-filter-creation-counter state)]
-                 (let [bloom-filter (bloom-filter/create node expression)]
-                   (kv/write!
-                    kv-store
-                    [(codec/put-entry bloom-filter)
-                     (codec-by-t/put-entry bloom-filter)])
-                   bloom-filter))
-              executor)))
+             (count-creation
+              state executor
+              #(-> (bloom-filter/create node executor expression
+                                        max-exact-patient-count)
+                   (ac/then-apply
+                    (fn [bloom-filter]
+                      (kv/write!
+                       kv-store
+                       [(codec/put-entry bloom-filter)
+                        (codec-by-t/put-entry bloom-filter)])
+                      bloom-filter))))))
          (asyncReload [_ expression old-bloom-filter executor]
-           (ac/supply-async
-            #(with-open [_ (bloom-filter-creation-counter state)]
-               (let [bloom-filter (bloom-filter/recreate node old-bloom-filter
-                                                         expression)]
-                 (kv/write!
-                  kv-store
-                  [(codec/put-entry bloom-filter)
-                   (codec-by-t/delete-entry old-bloom-filter)
-                   (codec-by-t/put-entry bloom-filter)])
-                 bloom-filter))
-            executor))))))
+           (count-creation
+            state executor
+            #(-> (bloom-filter/recreate node executor old-bloom-filter expression
+                                        max-exact-patient-count)
+                 (ac/then-apply
+                  (fn [bloom-filter]
+                    (kv/write!
+                     kv-store
+                     [(codec/put-entry bloom-filter)
+                      (codec-by-t/delete-entry old-bloom-filter)
+                      (codec-by-t/put-entry bloom-filter)])
+                    bloom-filter)))))))))
 
 (def ^:private ^:const ^long expression-size-limit
   "The limit of form size of cacheable expressions.
@@ -225,15 +239,19 @@
     (.estimatedSize (.synchronous mem-cache))))
 
 (defmethod m/pre-init-spec ::expr/cache [_]
-  (s/keys :req-un [:blaze.db/node ::executor] :opt-un [::max-size-in-mb ::refresh]))
+  (s/keys :req-un [:blaze.db/node ::executor]
+          :opt-un [::max-size-in-mb ::refresh ::max-exact-patient-count]))
 
 (defmethod ig/init-key ::expr/cache
   [_
-   {:keys [executor max-size-in-mb refresh] {:keys [kv-store] :as node} :node
-    :or {max-size-in-mb 100 refresh (time/hours 24)}}]
-  (log/info "Create CQL expression cache with a memory size of" max-size-in-mb "MiB and a refresh duration of" (str refresh))
+   {:keys [executor max-size-in-mb refresh max-exact-patient-count]
+    {:keys [kv-store] :as node} :node
+    :or {max-size-in-mb 100 refresh (time/hours 24) max-exact-patient-count 0}}]
+  (log/info "Create CQL expression cache with a memory size of" max-size-in-mb "MiB, a refresh duration of" (str refresh) "and exact patient ids up to" max-exact-patient-count "patients")
   (let [state (atom {:num-running-bloom-filter-creations 0})]
-    (->Cache state (mem-cache state node executor max-size-in-mb refresh) node kv-store)))
+    (->Cache state (mem-cache state node executor max-size-in-mb refresh
+                              max-exact-patient-count)
+             node kv-store)))
 
 (defmethod ig/halt-key! ::expr/cache
   [_ {:keys [mem-cache]}]
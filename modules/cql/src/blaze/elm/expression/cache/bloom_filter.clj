@@ -1,6 +1,7 @@
 (ns blaze.elm.expression.cache.bloom-filter
   (:refer-clojure :exclude [merge])
   (:require
+   [blaze.async.comp :as ac :refer [do-sync]]
    [blaze.db.api :as d]
    [blaze.elm.compiler.core :as core]
    [blaze.elm.expression :as expr]
@@ -45,55 +46,311 @@
       (< (d/t (.-db resource)) (.-t bloom-filter))
       (.mightContain ^BloomFilter (.-filter bloom-filter) (:id resource))))
 
+(defn exact-result
+  "Returns true if `resource` was put in `bloom-filter`, false if not or nil if
+  `bloom-filter` has no exact patient ids or can't be used to draw conclusions
+  about the database state of `resource`.
+
+  In case a boolean is returned, it is the result of the expression of
+  `bloom-filter` for `resource` and the expression doesn't have to be
+  evaluated."
+  {:arglists '([bloom-filter resource])}
+  [^BloomFilterContainer bloom-filter ^Resource resource]
+  (when (and (.-patientIds bloom-filter)
+             (<= (.-lastChangeT resource) (.-t bloom-filter) (d/t (.-db resource))))
+    (.containsPatient bloom-filter (:id resource))))
+
 (defn merge [bloom-filter-a bloom-filter-b]
   (.merge ^BloomFilterContainer bloom-filter-a bloom-filter-b))
 
 (defn- calc-mem-size [n p]
   (long (/ (* (- n) (Math/log p)) (* (Math/log 2) (Math/log 2)) 8)))
 
-(defn build-bloom-filter [expression t resource-ids]
-  (let [n (count resource-ids)
-        p (double 0.01)
-        filter (BloomFilter/create codec/id-funnel (int (max 10000 n)) p)
-        mem-size (calc-mem-size (max 10000 n) p)
-        expr-form (pr-str (core/-form expression))]
-    (prom/observe! bloom-filter-bytes mem-size)
-    (run! #(.put filter %) resource-ids)
-    (BloomFilterContainer. (form/hash expr-form) t expr-form n filter mem-size)))
-
-(defn- calc-bloom-filter [db xform expression]
-  (with-open [batch-db (d/new-batch-db db)
-              _ (prom/timer bloom-filter-creation-duration-seconds)]
-    (build-bloom-filter
-     expression
-     (d/t batch-db)
-     (into
-      []
-      (comp (map (partial cr/mk-resource batch-db))
-            xform
-            (filter (partial expr/eval {:db batch-db :now (bt/offset-date-time)} expression))
-            (map :id))
-      (d/type-list db "Patient")))))
+(defn build-bloom-filter
+  "Builds a Bloom filter of `resource-ids` for `expression` at `t`.
+
+  If there are not more than `max-exact-patient-count` resource ids, they are
+  also kept exactly, so that the Bloom filter can answer positives too. A
+  `max-exact-patient-count` of zero disables keeping exact ids."
+  ([expression t resource-ids]
+   (build-bloom-filter expression t resource-ids 0))
+  ([expression t resource-ids max-exact-patient-count]
+   (let [n (count resource-ids)
+         p (double 0.01)
+         filter (BloomFilter/create codec/id-funnel (int (max 10000 n)) p)
+         patient-ids (when (<= 1 n (long max-exact-patient-count))
+                       (into-array String (sort resource-ids)))
+         mem-size (cond-> (calc-mem-size (max 10000 n) p)
+                    patient-ids (+ (codec/patient-ids-mem-size patient-ids)))
+         expr-form (pr-str (core/-form expression))]
+     (prom/observe! bloom-filter-bytes mem-size)
+     (run! #(.put filter %) resource-ids)
+     (BloomFilterContainer. (form/hash expr-form) t expr-form n filter mem-size
+                            patient-ids))))
+
+(def ^:private ^:const ^long chunk-size
+  "The number of patients evaluated sequentially in one task."
+  10000)
+
+(def ^:private ^:const ^long parallelism
+  "The maximum number of chunks evaluated at the same time."
+  4)
+
+(defn- patient-handles [db start-id]
+  (if start-id
+    (d/type-list db "Patient" start-id)
+    (d/type-list db "Patient")))
+
+(defn- take-chunk!
+  "Returns the next chunk of patient handles of `db` not taken by another worker
+  or nil if all patient handles are taken.
+
+  The volatile `state` holds the id of the first patient of the next chunk. One
+  additional handle is read in order to find that id."
+  [db state]
+  (locking state
+    (let [{:keys [start-id done?]} @state]
+      (when-not done?
+        (let [handles (into [] (take (inc chunk-size)) (patient-handles db start-id))]
+          (if (< chunk-size (count handles))
+            (do (vreset! state {:start-id (:id (peek handles))})
+                (pop handles))
+            (do (vreset! state {:done? true})
+                (not-empty handles))))))))
+
+(defn- chunk-worker
+  "Calls `f` with the next chunk of patient handles of `db` not taken by another
+  worker on `executor` and conjoins the result to `results`, until all chunks
+  are taken."
+  [db executor f state results]
+  (-> (ac/supply-async
+       #(when-let [handles (take-chunk! db state)]
+          (swap! results conj (f handles)))
+       executor)
+      (ac/then-compose
+       (fn [more?]
+         (if more?
+           (chunk-worker db executor f state results)
+           (ac/completed-future nil))))))
+
+(defn- chunk-results
+  "Returns a CompletableFuture that will complete with the results of calling
+  `f` with chunks of all patient handles of `db` in no particular order.
+
+  At most `parallelism` chunks are evaluated on `executor` at the same time, so
+  that the chunks are read from the database only when they are evaluated."
+  [db executor f]
+  (let [state (volatile! {})
+        results (atom [])
+        workers (mapv (fn [_] (chunk-worker db executor f state results))
+                      (range parallelism))]
+    (do-sync [_ (ac/all-of workers)]
+      @results)))
+
+(defn- with-creation-timer [future]
+  (let [timer (prom/timer bloom-filter-creation-duration-seconds)]
+    (ac/when-complete future (fn [_ _] (prom/observe-duration! timer)))))
+
+(defn- matching-ids [db now matches? expression handles]
+  (with-open [batch-db (d/new-batch-db db)]
+    (into
+     []
+     (comp (map (partial cr/mk-resource batch-db))
+           (filter (partial matches? (partial expr/eval {:db batch-db :now now} expression)))
+           (map :id))
+     handles)))
+
+(defn- calc-bloom-filter
+  [db executor matches? expression max-exact-patient-count]
+  (-> (chunk-results db executor (partial matching-ids db (bt/offset-date-time)
+                                          matches? expression))
+      (ac/then-apply
+       (fn [chunks]
+         (build-bloom-filter expression (d/t db) (into [] cat chunks)
+                             max-exact-patient-count)))))
+
+(defn- eval-matches? [eval resource]
+  (eval resource))
 
 (defn- create-bloom-filter-msg [expression db]
   (format "Create Bloom filter for expression `%s` evaluating it for %d patients."
           (core/-form expression) (d/type-total db "Patient")))
 
-(defn create [node expression]
-  (let [db (d/db node)]
-    (log/debug (create-bloom-filter-msg expression db))
-    (calc-bloom-filter db identity expression)))
+(defn create
+  "Returns a CompletableFuture that will complete with a Bloom filter of
+  `expression` created by evaluating it for all patients.
+
+  Chunks of patients are evaluated in parallel on `executor`. Patient ids are
+  kept exactly if there are not more than `max-exact-patient-count` matching
+  patients."
+  ([node executor expression]
+   (create node executor expression 0))
+  ([node executor expression max-exact-patient-count]
+   (let [db (d/db node)]
+     (log/debug (create-bloom-filter-msg expression db))
+     (-> (calc-bloom-filter db executor eval-matches? expression
+                            max-exact-patient-count)
+         (with-creation-timer)))))
 
 (defn- recreate-bloom-filter-msg [expr-form t db]
   (format "Recreate Bloom filter for expression `%s` last created at t = %d evaluating it for %d patients."
           expr-form t (d/type-total db "Patient")))
 
+(defn- recreate-matches?
+  "Uses the exact result of `old-bloom-filter` for patients that didn't change
+  since it was created and evaluates the expression only for patients the old
+  Bloom filter might contain otherwise."
+  [old-bloom-filter eval resource]
+  (let [result (exact-result old-bloom-filter resource)]
+    (if (some? result)
+      result
+      (and (might-contain? old-bloom-filter resource)
+           (eval resource)))))
+
+(defn- in-old-bloom-filter?
+  [^BloomFilterContainer old-bloom-filter id]
+  (if (.-patientIds old-bloom-filter)
+    (.containsPatient old-bloom-filter id)
+    (.mightContain ^BloomFilter (.-filter old-bloom-filter) id)))
+
+(defn- old-patient-handle
+  "Returns the handle of the patient with `id` in `old-db` or nil if the patient
+  didn't exist at that time."
+  [old-db id]
+  (when-let [handle (d/resource-handle old-db "Patient" id)]
+    (when-not (d/deleted? handle)
+      handle)))
+
+(defn- matched-before?
+  "Returns true if the patient of `old-handle` matched the expression at the `t`
+  of `old-bloom-filter`.
+
+  Uses the exact patient ids of `old-bloom-filter` if available. Otherwise
+  evaluates the expression on the old database state only for patients
+  `old-bloom-filter` might contain, because Bloom filters have no false
+  negatives."
+  [^BloomFilterContainer old-bloom-filter old-eval old-batch-db old-handle]
+  (let [id (:id old-handle)]
+    (if (.-patientIds old-bloom-filter)
+      (.containsPatient old-bloom-filter id)
+      (and (.mightContain ^BloomFilter (.-filter old-bloom-filter) id)
+           (boolean (old-eval (cr/mk-resource old-batch-db old-handle)))))))
+
+(defn- changes
+  "Evaluates the expression only for patients of `handles` that changed since
+  `old-bloom-filter` was created.
+
+  Returns a map of:
+   * :added        - the ids of changed patients that have to be added
+   * :num-removed  - the number of changed patients that matched before but
+                     don't match anymore
+   * :num-existing - the number of patients that already existed at the `t` of
+                     `old-bloom-filter`
+   * :delta        - the change in the number of matching patients
+   * :matching     - the ids of all matching patients, if `old-bloom-filter`
+                     has exact patient ids"
+  [db now ^BloomFilterContainer old-bloom-filter expression handles]
+  (with-open [batch-db (d/new-batch-db db)
+              old-batch-db (d/new-batch-db (d/as-of db (.-t old-bloom-filter)))]
+    (let [exact? (some? (.-patientIds old-bloom-filter))
+          eval (partial expr/eval {:db batch-db :now now} expression)
+          old-eval (partial expr/eval {:db old-batch-db :now now} expression)]
+      (reduce
+       (fn [ret handle]
+         (let [resource (cr/mk-resource batch-db handle)
+               id (:id resource)]
+           (if (< (.-t old-bloom-filter) (.-lastChangeT ^Resource resource))
+             (let [old-handle (old-patient-handle old-batch-db id)
+                   before? (and (some? old-handle)
+                                (matched-before? old-bloom-filter old-eval
+                                                 old-batch-db old-handle))
+                   now? (boolean (eval resource))]
+               (cond-> ret
+                 old-handle (update :num-existing inc)
+                 (and now? (not (in-old-bloom-filter? old-bloom-filter id)))
+                 (update :added conj id)
+                 (and before? (not now?)) (update :num-removed inc)
+                 now? (update :delta inc)
+                 before? (update :delta dec)
+                 (and exact? now?) (update :matching conj id)))
+             (cond-> (update ret :num-existing inc)
+               (and exact? (.containsPatient old-bloom-filter id))
+               (update :matching conj id)))))
+       {:added [] :num-removed 0 :num-existing 0 :delta 0
+        :matching (when exact? [])}
+       handles))))
+
+(defn- merge-changes [changes]
+  {:added (into [] (mapcat :added) changes)
+   :num-removed (transduce (map :num-removed) + changes)
+   :num-existing (transduce (map :num-existing) + changes)
+   :delta (transduce (map :delta) + changes)
+   :matching (some->> (seq (keep :matching changes)) (into [] cat))})
+
+(defn- patient-count
+  "Returns the number of matching patients after applying `changes` to
+  `old-bloom-filter`."
+  [^BloomFilterContainer old-bloom-filter {:keys [delta matching]}]
+  (if matching
+    (count matching)
+    (+ (.-patientCount old-bloom-filter) (long delta))))
+
+(defn- add-to-copy
+  "Returns a copy of `old-bloom-filter` at `t` with `added` ids put into it or
+  nil if the copy would exceed the false positive probability."
+  [^BloomFilterContainer old-bloom-filter t {:keys [added matching] :as changes}
+   max-exact-patient-count]
+  (let [filter (.copy ^BloomFilter (.-filter old-bloom-filter))]
+    (run! #(.put filter %) added)
+    (when (< (.expectedFpp filter) 0.01)
+      (let [patient-ids (when (<= 1 (count matching) (long max-exact-patient-count))
+                          (into-array String (sort matching)))
+            mem-size (+ (- (.-memSize old-bloom-filter)
+                           (codec/patient-ids-mem-size (.-patientIds old-bloom-filter)))
+                        (codec/patient-ids-mem-size patient-ids))]
+        (prom/observe! bloom-filter-bytes mem-size)
+        (BloomFilterContainer. (.-hash old-bloom-filter) t
+                               (.-exprForm old-bloom-filter)
+                               (patient-count old-bloom-filter changes)
+                               filter mem-size patient-ids)))))
+
+(defn- rebuild [db executor old-bloom-filter expression max-exact-patient-count]
+  (calc-bloom-filter db executor (partial recreate-matches? old-bloom-filter)
+                     expression max-exact-patient-count))
+
 (defn recreate
-  {:arglists '([node old-bloom-filter expression])}
-  [node {::keys [t expr-form] :as old-bloom-filter} expression]
-  (let [db (d/db node)]
-    (log/debug (recreate-bloom-filter-msg expr-form t db))
-    (calc-bloom-filter
-     db
-     (filter (partial might-contain? old-bloom-filter))
-     expression)))
+  "Returns a CompletableFuture that will complete with a recreated
+  `old-bloom-filter` of `expression`.
+
+  Only patients that changed since `old-bloom-filter` was created are
+  evaluated. If no patient has to be removed and no patient was deleted, their
+  ids are put into a copy of `old-bloom-filter`. Otherwise the Bloom filter is
+  rebuilt by evaluating all patients that might be contained in
+  `old-bloom-filter`.
+
+  Chunks of patients are evaluated in parallel on `executor`. Patient ids are
+  kept exactly if there are not more than `max-exact-patient-count` matching
+  patients."
+  {:arglists '([node executor old-bloom-filter expression]
+               [node executor old-bloom-filter expression max-exact-patient-count])}
+  ([node executor old-bloom-filter expression]
+   (recreate node executor old-bloom-filter expression 0))
+  ([node executor {::keys [t expr-form] :as old-bloom-filter} expression
+    max-exact-patient-count]
+   (let [db (d/db node)]
+     (log/debug (recreate-bloom-filter-msg expr-form t db))
+     (-> (chunk-results db executor (partial changes db (bt/offset-date-time)
+                                             old-bloom-filter expression))
+         (ac/then-compose
+          (fn [changes]
+            (let [{:keys [num-removed num-existing] :as changes} (merge-changes changes)
+                  old-num-patients (d/type-total (d/as-of db t) "Patient")]
+              (or (when (and (zero? num-removed)
+                             (= old-num-patients num-existing))
+                    (some-> (add-to-copy old-bloom-filter (d/t db) changes
+                                         max-exact-patient-count)
+                            (ac/completed-future)))
+                  (do (log/debug (format "Rebuild Bloom filter for expression `%s` because %d patients have to be removed, %d patients were deleted or too many have to be added." expr-form num-removed (- old-num-patients num-existing)))
+                      (rebuild db executor old-bloom-filter expression
+                               max-exact-patient-count))))))
+         (with-creation-timer)))))
@@ -25,5 +25,8 @@
 (s/def ::bloom-filter/mem-size
   nat-int?)
 
+(s/def ::bloom-filter/patient-ids
+  (s/nilable #(instance? (Class/forName "[Ljava.lang.String;") %)))
+
 (s/def ::ec/bloom-filter
   #(instance? BloomFilterContainer %))
@@ -8,17 +8,27 @@
    [com.fasterxml.jackson.databind.util ByteBufferBackedInputStream]
    [com.google.common.hash BloomFilter Funnel Funnels HashCode]
    [java.io ByteArrayOutputStream DataOutputStream]
-   [java.nio.charset StandardCharsets]))
+   [java.nio.charset StandardCharsets]
+   [java.util Arrays]))
 
 (set! *warn-on-reflection* true)
 
 (def ^:private ^:const ^long version 0)
 
+(def ^:private ^:const ^long exact-version
+  "The version of values that contain the exact patient ids after the Bloom
+  filter."
+  1)
+
 (definterface IBloomFilterContainer
-  (merge [other]))
+  (merge [other])
+  (containsPatient [id]))
 
+;; The patient ids are either nil or a sorted array of the ids of all patients
+;; put into the Bloom filter.
 (deftype BloomFilterContainer [hash ^long t exprForm ^long patientCount
-                               ^BloomFilter filter ^long memSize]
+                               ^BloomFilter filter ^long memSize
+                               ^"[Ljava.lang.String;" patientIds]
   IBloomFilterContainer
   (merge [_ other]
     (when (.isCompatible filter (.-filter ^BloomFilterContainer other))
@@ -26,7 +36,9 @@
         (when (< (.expectedFpp newFilter) 0.01)
           (BloomFilterContainer. nil (min t (.-t ^BloomFilterContainer other)) nil
                                  (.approximateElementCount newFilter)
-                                 newFilter memSize)))))
+                                 newFilter memSize nil)))))
+  (containsPatient [_ id]
+    (<= 0 (Arrays/binarySearch patientIds id)))
   ILookup
   (valAt [r key]
     (.valAt r key nil))
@@ -38,20 +50,46 @@
       ::bloom-filter/patient-count patientCount
       ::bloom-filter/filter filter
       ::bloom-filter/mem-size memSize
+      ::bloom-filter/patient-ids patientIds
       not-found)))
 
 (def ^Funnel id-funnel
   (Funnels/stringFunnel StandardCharsets/ISO_8859_1))
 
-(defn- encode-value [{::bloom-filter/keys [t expr-form filter]}]
+(defn patient-ids-mem-size
+  "Returns the approximate number of bytes the sorted array of `patient-ids`
+  occupies on heap."
+  [patient-ids]
+  (transduce (map #(+ 48 (count %))) + 0 patient-ids))
+
+(defn- write-patient-ids!
+  "Writes the sorted `patient-ids` front coded, so that each id only stores the
+  suffix that differs from its predecessor."
+  [^DataOutputStream out patient-ids]
+  (.writeInt out (count patient-ids))
+  (reduce
+   (fn [^bytes prev ^String id]
+     (let [bytes (.getBytes id StandardCharsets/ISO_8859_1)
+           mismatch (Arrays/mismatch prev bytes)
+           prefix-length (int (if (neg? mismatch) (alength bytes) mismatch))
+           suffix-length (int (- (alength bytes) prefix-length))]
+       (.writeByte out prefix-length)
+       (.writeByte out suffix-length)
+       (.write out bytes prefix-length suffix-length)
+       bytes))
+   (byte-array 0)
+   patient-ids))
+
+(defn- encode-value [{::bloom-filter/keys [t expr-form filter patient-ids]}]
   (let [out (ByteArrayOutputStream.)
         data-out (DataOutputStream. out)
         form (.getBytes ^String expr-form StandardCharsets/UTF_8)]
-    (.writeByte data-out version)
+    (.writeByte data-out (if patient-ids exact-version version))
     (.writeLong data-out t)
     (.writeInt data-out (alength form))
     (.write data-out ^bytes form)
     (.writeTo ^BloomFilter filter data-out)
+    (some->> patient-ids (write-patient-ids! data-out))
     (.toByteArray out)))
 
 (defn put-entry
@@ -68,13 +106,33 @@
   [{::bloom-filter/keys [hash]}]
   [:delete :cql-bloom-filter (.asBytes ^HashCode hash)])
 
+(defn- read-patient-ids! [buf]
+  (let [ids (make-array String (bb/get-int! buf))
+        bytes (byte-array 64)]
+    (dotimes [i (alength ^objects ids)]
+      (let [prefix-length (bb/get-byte! buf)
+            suffix-length (bb/get-byte! buf)]
+        (bb/copy-into-byte-array! buf bytes prefix-length suffix-length)
+        (aset ^objects ids i (String. bytes 0 (int (+ prefix-length suffix-length))
+                                      StandardCharsets/ISO_8859_1))))
+    ids))
+
 (defn- decode-value* [hash buf]
-  (assert (zero? (bb/get-byte! buf)) "assume version is always zero")
-  (let [t (bb/get-long! buf)
+  (let [version (bb/get-byte! buf)
+        _ (assert (<= version exact-version) "assume a known version")
+        t (bb/get-long! buf)
         expr-form (form/decode! buf)
-        mem-size (bb/remaining buf)
+        filter-size (bb/remaining buf)
         filter (BloomFilter/readFrom (ByteBufferBackedInputStream. buf) id-funnel)]
-    (BloomFilterContainer. hash t expr-form (.approximateElementCount filter) filter mem-size)))
+    (if (= exact-version version)
+      (let [filter-size (- filter-size (bb/remaining buf))
+            patient-ids (read-patient-ids! buf)]
+        (BloomFilterContainer. hash t expr-form (alength ^objects patient-ids)
+                               filter
+                               (+ filter-size (patient-ids-mem-size patient-ids))
+                               patient-ids))
+      (BloomFilterContainer. hash t expr-form (.approximateElementCount filter)
+                             filter filter-size nil))))
 
 (defn decode-value [hash byte-array]
   (decode-value* hash (bb/wrap byte-array)))
@@ -13,6 +13,9 @@
 (s/def ::ec/refresh
   time/duration?)
 
+(s/def ::ec/max-exact-patient-count
+  nat-int?)
+
 (s/def ::ec/executor
   ex/executor?)
 
@@ -8,7 +8,9 @@
    [blaze.elm.expression.cache.protocols :as p]
    [blaze.elm.spec]
    [clojure.spec.alpha :as s]
-   [java-time.api :as time]))
+   [java-time.api :as time])
+  (:import
+   [com.github.benmanes.caffeine.cache Cache]))
 
 (s/def ::now
   time/offset-date-time?)
@@ -16,9 +18,16 @@
 (s/def ::expr/cache
   #(satisfies? p/Cache %))
 
+(s/def ::expr/subject-cache
+  #(instance? Cache %))
+
 (s/def ::parameters
   (s/map-of :elm/name ::c/expression))
 
+(s/def ::population-eval?
+  boolean?)
+
 (s/def ::expr/context
   (s/keys :req-un [:blaze.db/db ::now]
-          :opt-un [::c/expression-defs ::parameters]))
+          :opt [::expr/subject-cache]
+          :opt-un [::c/expression-defs ::parameters ::population-eval?]))
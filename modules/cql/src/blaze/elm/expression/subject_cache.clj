@@ -0,0 +1,77 @@
+(ns blaze.elm.expression.subject-cache
+  "A cache of results of expression definitions per subject.
+
+  The cache is meant to be used during one evaluation of several expressions
+  against the same database, like one $evaluate-measure run. Expression
+  definitions that are referenced from several populations or stratifiers are
+  evaluated only once per subject."
+  (:require
+   [blaze.elm.resource :as cr]
+   [prometheus.alpha :as prom :refer [defcounter]])
+  (:import
+   [com.github.benmanes.caffeine.cache Cache Caffeine]))
+
+(set! *warn-on-reflection* true)
+
+(defcounter hits-total
+  "Number of times the result of an expression definition was found in the
+  subject cache."
+  {:namespace "blaze"
+   :subsystem "cql_subject_cache"})
+
+(defcounter misses-total
+  "Number of times the result of an expression definition was not found in the
+  subject cache."
+  {:namespace "blaze"
+   :subsystem "cql_subject_cache"})
+
+(defn create
+  "Creates a subject cache that holds up to `max-size` results."
+  [max-size]
+  (-> (Caffeine/newBuilder)
+      (.maximumSize max-size)
+      (.build)))
+
+(defn- realize
+  "Realizes lazy lists like eductions of retrieves, so that they are evaluated
+  only once."
+  [result]
+  (if (and (sequential? result) (not (vector? result)))
+    (vec result)
+    result))
+
+(defn- cacheable?
+  "Returns true if `result` can be used independently of the database it was
+  evaluated against.
+
+  Resources are bound to the database they were retrieved from, which is only
+  open while one chunk of subjects is evaluated. Lists which are not realized
+  can be bound to that database as well."
+  [result]
+  (cond
+    (cr/resource? result) false
+    (vector? result) (every? cacheable? result)
+    (sequential? result) false
+    (map? result) (every? cacheable? (vals result))
+    :else true))
+
+(defn get-or-eval
+  "Returns the result of the expression definition with `name` on `subject`
+  from `cache` or calls `eval` and caches its result.
+
+  Results are realized before they are cached. Results which hold resources
+  are not cached, because they can't be used with other databases.
+
+  Doesn't use `cache` if `subject` is nil."
+  [^Cache cache name subject eval]
+  (if (nil? subject)
+    (eval)
+    (let [key [name (:id subject)]]
+      (if-some [result (.getIfPresent cache key)]
+        (do (prom/inc! hits-total)
+            (when-not (identical? ::nil result) result))
+        (let [result (realize (eval))]
+          (prom/inc! misses-total)
+          (when (cacheable? result)
+            (.put cache key (if (nil? result) ::nil result)))
+          result)))))
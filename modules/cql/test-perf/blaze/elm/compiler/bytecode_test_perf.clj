@@ -0,0 +1,61 @@
+(ns blaze.elm.compiler.bytecode-test-perf
+  (:require
+   [blaze.cql.translator :as t]
+   [blaze.db.api :as d]
+   [blaze.db.api-stub :as api-stub :refer [with-system-data]]
+   [blaze.elm.compiler.library :as library]
+   [blaze.elm.compiler.library-spec]
+   [blaze.elm.expression :as expr]
+   [blaze.elm.resource :as cr]
+   [blaze.fhir.spec.type.system]
+   [blaze.terminology-service :as ts]
+   [blaze.terminology-service.local]
+   [clojure.test :refer [deftest testing]]
+   [criterium.core :as criterium]
+   [taoensso.timbre :as log])
+  (:import
+   [java.time OffsetDateTime ZoneOffset]))
+
+(log/set-min-level! :info)
+
+(def ^:private library
+  (t/translate "library Retrieve
+using FHIR version '4.0.0'
+include FHIRHelpers version '4.0.0'
+
+context Patient
+
+define InInitialPopulation:
+  AgeInYearsAt(@2020-01-01) >= 18 and
+  AgeInYearsAt(@2020-01-01) < 75 and
+  Patient.gender = 'female' and
+  (Patient.birthDate + 18 years) < @2020-01-01 and
+  exists (from Patient.name N where N.family = 'Smith' or N.given contains 'Anna')
+"))
+
+(defn- expression [system opts]
+  (let [{:keys [expression-defs]}
+        (library/compile-library
+         {:node (:blaze.db/node system) :terminology-service (::ts/local system)}
+         library opts)]
+    (-> expression-defs (library/resolve-all-refs) (get "InInitialPopulation")
+        :expression)))
+
+(deftest eval-test
+  (with-system-data [{:blaze.db/keys [node] :as system} api-stub/mem-node-config]
+    [[[:put {:fhir/type :fhir/Patient :id "0"
+             :gender #fhir/code "female"
+             :birthDate #fhir/date "1990-05-17"
+             :name [#fhir/HumanName{:family #fhir/string "Smith"}]}]]]
+
+    (let [db (d/db node)
+          context {:db db :now (OffsetDateTime/now (ZoneOffset/ofHours 0))}
+          patient (cr/mk-resource db (d/resource-handle db "Patient" "0"))]
+
+      (testing "interpreted"
+        (let [expression (expression system {})]
+          (criterium/bench (expr/eval context expression patient))))
+
+      (testing "bytecode"
+        (let [expression (expression system {:bytecode-compilation true})]
+          (criterium/bench (expr/eval context expression patient)))))))
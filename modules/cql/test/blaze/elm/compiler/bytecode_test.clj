@@ -0,0 +1,117 @@
+(ns blaze.elm.compiler.bytecode-test
+  (:require
+   [blaze.elm.compiler :as c]
+   [blaze.elm.compiler.bytecode :as bytecode]
+   [blaze.elm.compiler.core :as core]
+   [blaze.elm.compiler.test-util :as ctu]
+   [blaze.elm.literal :as elm]
+   [blaze.elm.literal-spec]
+   [clojure.spec.test.alpha :as st]
+   [clojure.test :as test :refer [are deftest is testing]]
+   [prometheus.alpha :as prom]))
+
+(st/instrument)
+(ctu/instrument-compile)
+
+(defn- fixture [f]
+  (st/instrument)
+  (ctu/instrument-compile)
+  (f)
+  (st/unstrument))
+
+(test/use-fixtures :each fixture)
+
+(defn- compile-both [elm]
+  (let [expr (ctu/dynamic-compile elm)]
+    [expr (bytecode/compile expr)]))
+
+(deftest compile-test
+  (testing "evaluates the same as the interpreter"
+    (are [elm] (let [[expr compiled] (compile-both elm)]
+                 (and (not (identical? expr compiled))
+                      (= (ctu/dynamic-eval expr) (ctu/dynamic-eval compiled))))
+      (elm/greater [(elm/add [#elm/parameter-ref "1" #elm/parameter-ref "2"])
+                    #elm/parameter-ref "2"])
+      (elm/greater [(elm/add [#elm/parameter-ref "1" #elm/parameter-ref "nil"])
+                    #elm/parameter-ref "2"])
+      (elm/and [(elm/less [#elm/parameter-ref "1" #elm/parameter-ref "2"])
+                (elm/not #elm/parameter-ref "nil")])
+      (elm/and [(elm/less [#elm/parameter-ref "2" #elm/parameter-ref "1"])
+                #elm/parameter-ref "nil"])
+      (elm/or [(elm/less [#elm/parameter-ref "2" #elm/parameter-ref "1"])
+               (elm/greater [#elm/parameter-ref "3" #elm/integer "2"])])
+      (elm/or [(elm/less [#elm/parameter-ref "2" #elm/parameter-ref "1"])
+               #elm/parameter-ref "nil"])
+      (elm/xor [(elm/less [#elm/parameter-ref "1" #elm/parameter-ref "2"])
+                (elm/greater [#elm/parameter-ref "1" #elm/parameter-ref "2"])])))
+
+  (testing "keeps the form"
+    (let [[expr compiled] (compile-both
+                           (elm/greater [(elm/add [#elm/parameter-ref "1"
+                                                   #elm/integer "1"])
+                                         #elm/parameter-ref "2"]))]
+      (is (= (c/form expr) (c/form compiled)))
+      (is (= expr compiled))))
+
+  (testing "expressions without operands with template stay unchanged"
+    (are [elm] (let [expr (ctu/dynamic-compile elm)]
+                 (identical? expr (bytecode/compile expr)))
+      #elm/parameter-ref "1"
+      (elm/greater [#elm/parameter-ref "1" #elm/parameter-ref "2"])))
+
+  (testing "static expressions stay unchanged"
+    (is (= 3 (bytecode/compile 3))))
+
+  (testing "new shapes stay unchanged if the maximum number of classes is reached"
+    (let [expr (ctu/dynamic-compile
+                (elm/less [(elm/subtract [#elm/parameter-ref "1"
+                                          #elm/parameter-ref "2"])
+                           (elm/multiply [#elm/parameter-ref "1"
+                                          #elm/parameter-ref "2"])]))]
+      (is (identical? expr (bytecode/compile expr 1)))))
+
+  (testing "compiled shapes are reused if the maximum number of classes is reached"
+    (let [elm (elm/greater [(elm/add [#elm/parameter-ref "1" #elm/parameter-ref "2"])
+                            #elm/parameter-ref "2"])
+          expr (ctu/dynamic-compile elm)]
+      (bytecode/compile expr)
+      (let [compiled (bytecode/compile expr 1)]
+        (is (not (identical? expr compiled)))
+        (is (= (ctu/dynamic-eval expr) (ctu/dynamic-eval compiled))))))
+
+  (testing "resolving params compiles the result again"
+    (let [[_ compiled] (compile-both
+                        (elm/greater [(elm/add [#elm/parameter-ref "1"
+                                                #elm/parameter-ref "2"])
+                                      #elm/parameter-ref "x"]))
+          resolved (c/resolve-params compiled {"x" 2})]
+      (is (false? (core/-static resolved)))
+      (is (true? (ctu/dynamic-eval resolved))))))
+
+(deftest compile-if-enabled-test
+  (let [expr (ctu/dynamic-compile
+              (elm/greater [(elm/add [#elm/parameter-ref "1"
+                                      #elm/parameter-ref "2"])
+                            #elm/parameter-ref "2"]))]
+    (testing "disabled"
+      (is (identical? expr (bytecode/compile-if-enabled {} expr))))
+
+    (testing "enabled"
+      (is (not (identical? expr (bytecode/compile-if-enabled
+                                 {:bytecode-compilation true} expr)))))
+
+    (testing "enabled with maximum number of classes"
+      (is (not (identical? expr (bytecode/compile-if-enabled
+                                 {:bytecode-compilation true
+                                  :bytecode-max-classes 10000} expr)))))))
+
+(deftest classes-total-test
+  (testing "a new shape generates two classes"
+    (let [classes-total (prom/get bytecode/classes-total)
+          ;; the integer literal is inlined, so the shape is new
+          expr (ctu/dynamic-compile
+                (elm/greater [(elm/add [#elm/parameter-ref "1"
+                                        (elm/integer (str (rand-int 1000000)))])
+                              #elm/parameter-ref "2"]))]
+      (bytecode/compile expr)
+      (is (= (+ classes-total 2) (prom/get bytecode/classes-total))))))
@@ -222,6 +222,240 @@
 
               (has-form (c/optimize expr db) [])))))
 
+      (testing "with one code in population evaluation"
+        (with-system-data [{:blaze.db/keys [node] terminology-service ::ts/local} api-stub/mem-node-config]
+          [[[:put {:fhir/type :fhir/Patient :id "0"}]
+            [:put {:fhir/type :fhir/Patient :id "1"}]
+            [:put {:fhir/type :fhir/Observation :id "0"
+                   :subject #fhir/Reference{:reference #fhir/string "Patient/1"}}]
+            [:put {:fhir/type :fhir/Observation :id "1"
+                   :code
+                   #fhir/CodeableConcept
+                    {:coding
+                     [#fhir/Coding
+                       {:system #fhir/uri "system-192253"
+                        :code #fhir/code "code-192300"}]}
+                   :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]]]
+
+          (let [context
+                {:node node
+                 :eval-context "Patient"
+                 :library
+                 {:codeSystems
+                  {:def
+                   [{:name "sys-def-131750"
+                     :id "system-192253"}]}}
+                 :terminology-service terminology-service}
+                elm #elm/retrieve
+                     {:type "Observation"
+                      :codes #elm/list [#elm/code ["sys-def-131750"
+                                                   "code-192300"]]}
+                db (d/db node)
+                expr (c/optimize (c/compile context elm) db)
+                population-context (assoc (eval-context db) :population-eval? true)
+                compartment-queries (atom 0)
+                execute-query d/execute-query]
+
+            (with-redefs [d/execute-query
+                          (fn
+                            ([db query]
+                             (execute-query db query))
+                            ([db query id]
+                             (swap! compartment-queries inc)
+                             (execute-query db query id)))]
+
+              (testing "patient with a matching observation"
+                (given (expr/eval population-context expr (ctu/resource db "Patient" "0"))
+                  count := 1
+                  [0 :fhir/type] := :fhir/Observation
+                  [0 :id] := "1"))
+
+              (testing "patient without a matching observation"
+                (is (empty? (expr/eval population-context expr (ctu/resource db "Patient" "1")))))
+
+              (testing "only the patient with a matching observation is queried"
+                (is (= 1 @compartment-queries))))
+
+            (testing "without population evaluation"
+              (is (empty? (expr/eval (eval-context db) expr (ctu/resource db "Patient" "1"))))))))
+
+      (testing "with more matching resources than patients in population evaluation"
+        (with-system-data [{:blaze.db/keys [node] terminology-service ::ts/local} api-stub/mem-node-config]
+          [[[:put {:fhir/type :fhir/Patient :id "0"}]
+            [:put {:fhir/type :fhir/Patient :id "1"}]
+            [:put {:fhir/type :fhir/Patient :id "2"}]
+            [:put {:fhir/type :fhir/Observation :id "0"
+                   :code
+                   #fhir/CodeableConcept
+                    {:coding
+                     [#fhir/Coding
+                       {:system #fhir/uri "system-192253"
+                        :code #fhir/code "code-192300"}]}
+                   :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]
+            [:put {:fhir/type :fhir/Observation :id "1"
+                   :code
+                   #fhir/CodeableConcept
+                    {:coding
+                     [#fhir/Coding
+                       {:system #fhir/uri "system-192253"
+                        :code #fhir/code "code-192300"}]}
+                   :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]
+            [:put {:fhir/type :fhir/Observation :id "2"
+                   :code
+                   #fhir/CodeableConcept
+                    {:coding
+                     [#fhir/Coding
+                       {:system #fhir/uri "system-192253"
+                        :code #fhir/code "code-192300"}]}
+                   :subject #fhir/Reference{:reference #fhir/string "Patient/2"}}]]]
+
+          (let [context
+                {:node node
+                 :eval-context "Patient"
+                 :library
+                 {:codeSystems
+                  {:def
+                   [{:name "sys-def-131750"
+                     :id "system-192253"}]}}
+                 :terminology-service terminology-service}
+                elm #elm/retrieve
+                     {:type "Observation"
+                      :codes #elm/list [#elm/code ["sys-def-131750"
+                                                   "code-192300"]]}
+                db (d/db node)
+                expr (c/optimize (c/compile context elm) db)
+                population-context (assoc (eval-context db) :population-eval? true)
+                compartment-queries (atom 0)
+                execute-query d/execute-query]
+
+            (with-redefs [d/execute-query
+                          (fn
+                            ([db query]
+                             (execute-query db query))
+                            ([db query id]
+                             (swap! compartment-queries inc)
+                             (execute-query db query id)))]
+
+              (testing "patient with two matching observations"
+                (given (expr/eval population-context expr (ctu/resource db "Patient" "0"))
+                  count := 2
+                  [0 :id] := "0"
+                  [1 :id] := "1"))
+
+              (testing "patient without a matching observation"
+                (is (empty? (expr/eval population-context expr (ctu/resource db "Patient" "1")))))
+
+              (testing "only the patient with matching observations is queried"
+                (is (= 1 @compartment-queries)))))))
+
+      (testing "with all patients matching in population evaluation"
+        (with-system-data [{:blaze.db/keys [node] terminology-service ::ts/local} api-stub/mem-node-config]
+          [[[:put {:fhir/type :fhir/Patient :id "0"}]
+            [:put {:fhir/type :fhir/Observation :id "0"
+                   :code
+                   #fhir/CodeableConcept
+                    {:coding
+                     [#fhir/Coding
+                       {:system #fhir/uri "system-192253"
+                        :code #fhir/code "code-192300"}]}
+                   :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]]]
+
+          (let [context
+                {:node node
+                 :eval-context "Patient"
+                 :library
+                 {:codeSystems
+                  {:def
+                   [{:name "sys-def-131750"
+                     :id "system-192253"}]}}
+                 :terminology-service terminology-service}
+                elm #elm/retrieve
+                     {:type "Observation"
+                      :codes #elm/list [#elm/code ["sys-def-131750"
+                                                   "code-192300"]]}
+                db (d/db node)
+                expr (c/optimize (c/compile context elm) db)
+                population-context (assoc (eval-context db) :population-eval? true)
+                compartment-queries (atom 0)
+                execute-query d/execute-query]
+
+            (with-redefs [d/execute-query
+                          (fn
+                            ([db query]
+                             (execute-query db query))
+                            ([db query id]
+                             (swap! compartment-queries inc)
+                             (execute-query db query id)))]
+
+              (testing "falls back to the compartment query"
+                (given (expr/eval population-context expr (ctu/resource db "Patient" "0"))
+                  count := 1
+                  [0 :id] := "0")
+                (is (= 1 @compartment-queries)))))))
+
+      (testing "with exists in population evaluation"
+        (with-system-data [{:blaze.db/keys [node] terminology-service ::ts/local} api-stub/mem-node-config]
+          [[[:put {:fhir/type :fhir/Patient :id "0"}]
+            [:put {:fhir/type :fhir/Patient :id "1"}]
+            [:put {:fhir/type :fhir/Patient :id "2"}]
+            [:put {:fhir/type :fhir/Observation :id "0"
+                   :code
+                   #fhir/CodeableConcept
+                    {:coding
+                     [#fhir/Coding
+                       {:system #fhir/uri "system-192253"
+                        :code #fhir/code "code-192300"}]}
+                   :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]
+            [:put {:fhir/type :fhir/Observation :id "1"
+                   :code
+                   #fhir/CodeableConcept
+                    {:coding
+                     [#fhir/Coding
+                       {:system #fhir/uri "system-192253"
+                        :code #fhir/code "code-192300"}]}
+                   :subject #fhir/Reference{:reference #fhir/string "Patient/2"}}]]]
+
+          (let [context
+                {:node node
+                 :eval-context "Patient"
+                 :library
+                 {:codeSystems
+                  {:def
+                   [{:name "sys-def-131750"
+                     :id "system-192253"}]}}
+                 :terminology-service terminology-service}
+                elm #elm/exists
+                     #elm/retrieve
+                      {:type "Observation"
+                       :codes #elm/list [#elm/code ["sys-def-131750"
+                                                    "code-192300"]]}
+                db (d/db node)
+                expr (c/optimize (c/compile context elm) db)
+                population-context (assoc (eval-context db) :population-eval? true)
+                compartment-queries (atom 0)
+                execute-query d/execute-query]
+
+            (with-redefs [d/execute-query
+                          (fn
+                            ([db query]
+                             (execute-query db query))
+                            ([db query id]
+                             (swap! compartment-queries inc)
+                             (execute-query db query id)))]
+
+              (testing "patient with a matching observation"
+                (is (true? (expr/eval population-context expr (ctu/resource db "Patient" "0")))))
+
+              (testing "patient without a matching observation"
+                (is (false? (expr/eval population-context expr (ctu/resource db "Patient" "1")))))
+
+              (testing "no patient is queried"
+                (is (zero? @compartment-queries))))
+
+            (testing "without population evaluation"
+              (is (true? (expr/eval (eval-context db) expr (ctu/resource db "Patient" "0"))))
+              (is (false? (expr/eval (eval-context db) expr (ctu/resource db "Patient" "1"))))))))
+
       (testing "with two codes"
         (with-system-data [{:blaze.db/keys [node] terminology-service ::ts/local} api-stub/mem-node-config]
           [[[:put {:fhir/type :fhir/Patient :id "0"}]
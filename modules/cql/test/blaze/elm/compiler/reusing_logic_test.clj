@@ -12,10 +12,13 @@
    [blaze.elm.compiler.core-spec]
    [blaze.elm.compiler.function :as function]
    [blaze.elm.compiler.function-spec]
+   [blaze.elm.compiler.macros :refer [reify-expr]]
    [blaze.elm.compiler.test-util :as ctu :refer [has-form]]
    [blaze.elm.concept :refer [concept]]
    [blaze.elm.date-time :as date-time]
+   [blaze.elm.expression :as-alias expr]
    [blaze.elm.expression.cache :as ec]
+   [blaze.elm.expression.subject-cache :as subject-cache]
    [blaze.elm.interval :as interval]
    [blaze.elm.literal :as elm]
    [blaze.elm.literal-spec]
@@ -70,7 +73,46 @@
 
       (has-form expr '(expr-ref "name-170312"))
 
-      (is (false? (core/-static expr))))))
+      (is (false? (core/-static expr)))))
+
+  (testing "resolve expression references"
+    (let [library {:statements {:def [{:type "ExpressionDef"
+                                       :name "name-170312"}]}}
+          expr (c/compile {:library library} #elm/expression-ref "name-170312")]
+
+      (testing "static expressions are inlined"
+        (is (= 1 (c/resolve-refs expr {"name-170312" {:expression 1}}))))
+
+      (testing "dynamic expressions keep their form"
+        (let [def-expr (c/compile {} #ctu/optimizeable "x")
+              expr (c/resolve-refs expr {"name-170312" {:expression def-expr}})]
+          (has-form expr '(optimizeable "x"))
+
+          (testing "and are optimized"
+            (has-form (st/with-instrument-disabled (c/optimize expr nil))
+                      '(optimized "x")))))
+
+      (testing "results are taken from the subject cache"
+        (let [eval-count (atom 0)
+              def-expr (reify-expr core/Expression
+                         (-eval [_ _ _ _]
+                           (swap! eval-count inc)
+                           ::result)
+                         (-form [_]
+                           'def-expr))
+              expr (c/resolve-refs expr {"name-170312" {:expression def-expr}})
+              context {::expr/subject-cache (subject-cache/create 10)}
+              subject-0 {:id "0"}
+              subject-1 {:id "1"}]
+          (is (= ::result (core/-eval expr context subject-0 nil)))
+          (is (= ::result (core/-eval expr context subject-0 nil)))
+          (is (= 1 @eval-count))
+          (is (= ::result (core/-eval expr context subject-1 nil)))
+          (is (= 2 @eval-count))
+
+          (testing "without subject cache"
+            (is (= ::result (core/-eval expr {} subject-0 nil)))
+            (is (= 3 @eval-count))))))))
 
 ;; 9.4. FunctionRef
 ;;
@@ -4,8 +4,10 @@
    [blaze.db.api-stub :as api-stub :refer [with-system-data]]
    [blaze.elm.compiler :as c]
    [blaze.elm.compiler.test-util :as ctu]
+   [blaze.elm.expression :as expr]
    [blaze.elm.expression.cache.bloom-filter :as bloom-filter]
    [blaze.elm.expression.cache.bloom-filter-spec]
+   [blaze.elm.expression.cache.codec :as codec]
    [blaze.elm.expression.cache.codec-spec]
    [blaze.elm.expression.cache.codec.by-t-spec]
    [blaze.elm.expression.cache.codec.form-spec]
@@ -17,7 +19,9 @@
    [clojure.spec.test.alpha :as st]
    [clojure.test :as test :refer [deftest is testing]]
    [juxt.iota :refer [given]]
-   [taoensso.timbre :as log]))
+   [taoensso.timbre :as log])
+  (:import
+   [java.util.concurrent ForkJoinPool]))
 
 (st/instrument)
 (ctu/instrument-compile)
@@ -32,6 +36,9 @@
 
 (test/use-fixtures :each fixture)
 
+(def ^:private executor
+  (ForkJoinPool/commonPool))
+
 (deftest might-contain-test
   (testing "Bloom filter created on the same database state"
     (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
@@ -43,7 +50,7 @@
       (let [elm #elm/exists #elm/retrieve{:type "Observation"}
             expr (c/compile {:node node :eval-context "Patient"} elm)
             db (d/db node)
-            bloom-filter (bloom-filter/create node expr)]
+            bloom-filter @(bloom-filter/create node executor expr)]
 
         (testing "Patient 0 with an Observation is in the Bloom filter"
           (let [resource (cr/mk-resource db (d/resource-handle db "Patient" "0"))]
@@ -59,7 +66,7 @@
 
       (let [elm #elm/exists #elm/retrieve{:type "Observation"}
             expr (c/compile {:node node :eval-context "Patient"} elm)
-            bloom-filter (bloom-filter/create node expr)]
+            bloom-filter @(bloom-filter/create node executor expr)]
 
         @(d/transact node [[:put {:fhir/type :fhir/Observation :id "0"
                                   :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]])
@@ -82,17 +89,87 @@
         @(d/transact node [[:delete "Observation" "0"]])
 
         (testing "the Bloom filter created after the deletion doesn't contain Patient 0, but it can't be trusted for the older database"
-          (let [bloom-filter (bloom-filter/create node expr)
+          (let [bloom-filter @(bloom-filter/create node executor expr)
                 resource (cr/mk-resource db (d/resource-handle db "Patient" "0"))]
             (is (true? (bloom-filter/might-contain? bloom-filter resource)))))))))
 
+(deftest exact-result-test
+  (testing "Bloom filter without exact patient ids"
+    (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]
+        [:put {:fhir/type :fhir/Observation :id "0"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]]]
+
+      (let [elm #elm/exists #elm/retrieve{:type "Observation"}
+            expr (c/compile {:node node :eval-context "Patient"} elm)
+            db (d/db node)
+            bloom-filter @(bloom-filter/create node executor expr)
+            resource (cr/mk-resource db (d/resource-handle db "Patient" "0"))]
+        (is (nil? (bloom-filter/exact-result bloom-filter resource))))))
+
+  (testing "Bloom filter with exact patient ids"
+    (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]
+        [:put {:fhir/type :fhir/Observation :id "0"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]
+        [:put {:fhir/type :fhir/Patient :id "1"}]
+        [:put {:fhir/type :fhir/Patient :id "10"}]
+        [:put {:fhir/type :fhir/Observation :id "1"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/10"}}]]]
+
+      (let [elm #elm/exists #elm/retrieve{:type "Observation"}
+            expr (c/compile {:node node :eval-context "Patient"} elm)
+            db (d/db node)
+            bloom-filter @(bloom-filter/create node executor expr 10)
+            resource #(cr/mk-resource db (d/resource-handle db "Patient" %))]
+
+        (testing "Patients 0 and 10 with an Observation are in the Bloom filter"
+          (is (true? (bloom-filter/exact-result bloom-filter (resource "0"))))
+          (is (true? (bloom-filter/exact-result bloom-filter (resource "10")))))
+
+        (testing "Patient 1 without an Observation is not in the Bloom filter"
+          (is (false? (bloom-filter/exact-result bloom-filter (resource "1")))))
+
+        (testing "the exact patient ids survive encoding"
+          (let [[_ _ _ value] (codec/put-entry bloom-filter)
+                bloom-filter (codec/decode-value
+                              (::bloom-filter/hash bloom-filter) value)]
+            (given bloom-filter
+              ::bloom-filter/patient-count := 2
+              [::bloom-filter/patient-ids seq] := ["0" "10"])
+            (is (true? (bloom-filter/exact-result bloom-filter (resource "10"))))
+            (is (false? (bloom-filter/exact-result bloom-filter (resource "1")))))))))
+
+  (testing "Bloom filter older than the last change in the patient's compartment"
+    (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]
+        [:put {:fhir/type :fhir/Patient :id "1"}]
+        [:put {:fhir/type :fhir/Observation :id "1"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/1"}}]]]
+
+      (let [elm #elm/exists #elm/retrieve{:type "Observation"}
+            expr (c/compile {:node node :eval-context "Patient"} elm)
+            bloom-filter @(bloom-filter/create node executor expr 10)]
+
+        @(d/transact node [[:put {:fhir/type :fhir/Observation :id "0"
+                                  :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]])
+
+        (let [db (d/db node)
+              resource #(cr/mk-resource db (d/resource-handle db "Patient" %))]
+
+          (testing "the exact result can't be used for Patient 0 anymore"
+            (is (nil? (bloom-filter/exact-result bloom-filter (resource "0")))))
+
+          (testing "the exact result can still be used for Patient 1"
+            (is (true? (bloom-filter/exact-result bloom-filter (resource "1"))))))))))
+
 (deftest create-test
   (testing "with empty database"
     (with-system [{:blaze.db/keys [node]} api-stub/mem-node-config]
       (let [elm #elm/exists #elm/retrieve{:type "Observation"}
             expr (c/compile {:node node :eval-context "Patient"} elm)]
 
-        (given (bloom-filter/create node expr)
+        (given @(bloom-filter/create node executor expr)
           ::bloom-filter/t := 0
           ::bloom-filter/expr-form := "(exists (retrieve \"Observation\"))"
           ::bloom-filter/patient-count := 0
@@ -107,7 +184,7 @@
       (let [elm #elm/exists #elm/retrieve{:type "Observation"}
             expr (c/compile {:node node :eval-context "Patient"} elm)]
 
-        (given (bloom-filter/create node expr)
+        (given @(bloom-filter/create node executor expr)
           ::bloom-filter/t := 1
           ::bloom-filter/expr-form := "(exists (retrieve \"Observation\"))"
           ::bloom-filter/patient-count := 1
@@ -123,7 +200,7 @@
       (let [elm #elm/exists #elm/retrieve{:type "Observation"}
             expr (c/compile {:node node :eval-context "Patient"} elm)]
 
-        (given (bloom-filter/create node expr)
+        (given @(bloom-filter/create node executor expr)
           ::bloom-filter/t := 1
           ::bloom-filter/expr-form := "(exists (retrieve \"Observation\"))"
           ::bloom-filter/patient-count := 1
@@ -134,9 +211,9 @@
     (with-system [{:blaze.db/keys [node]} api-stub/mem-node-config]
       (let [elm #elm/exists #elm/retrieve{:type "Observation"}
             expr (c/compile {:node node :eval-context "Patient"} elm)
-            bloom-filter (bloom-filter/create node expr)]
+            bloom-filter @(bloom-filter/create node executor expr)]
 
-        (given (bloom-filter/recreate node bloom-filter expr)
+        (given @(bloom-filter/recreate node executor bloom-filter expr)
           ::bloom-filter/t := 0
           ::bloom-filter/expr-form := "(exists (retrieve \"Observation\"))"
           ::bloom-filter/patient-count := 0
@@ -146,13 +223,13 @@
     (with-system [{:blaze.db/keys [node]} api-stub/mem-node-config]
       (let [elm #elm/exists #elm/retrieve{:type "Observation"}
             expr (c/compile {:node node :eval-context "Patient"} elm)
-            bloom-filter (bloom-filter/create node expr)]
+            bloom-filter @(bloom-filter/create node executor expr)]
 
         @(d/transact node [[:put {:fhir/type :fhir/Patient :id "0"}]
                            [:put {:fhir/type :fhir/Observation :id "0"
                                   :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]])
 
-        (given (bloom-filter/recreate node bloom-filter expr)
+        (given @(bloom-filter/recreate node executor bloom-filter expr)
           ::bloom-filter/t := 1
           ::bloom-filter/expr-form := "(exists (retrieve \"Observation\"))"
           ::bloom-filter/patient-count := 1
@@ -164,14 +241,126 @@
 
       (let [elm #elm/exists #elm/retrieve{:type "Observation"}
             expr (c/compile {:node node :eval-context "Patient"} elm)
-            bloom-filter (bloom-filter/create node expr)]
+            bloom-filter @(bloom-filter/create node executor expr)]
 
         @(d/transact node [[:put {:fhir/type :fhir/Patient :id "1"}]
                            [:put {:fhir/type :fhir/Observation :id "1"
                                   :subject #fhir/Reference{:reference #fhir/string "Patient/1"}}]])
 
-        (given (bloom-filter/recreate node bloom-filter expr)
+        (given @(bloom-filter/recreate node executor bloom-filter expr)
           ::bloom-filter/t := 2
           ::bloom-filter/expr-form := "(exists (retrieve \"Observation\"))"
           ::bloom-filter/patient-count := 1
-          ::bloom-filter/mem-size := 11981)))))
+          ::bloom-filter/mem-size := 11981))))
+
+  (testing "reuses exact results of unchanged patients"
+    (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]
+        [:put {:fhir/type :fhir/Observation :id "0"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]
+        [:put {:fhir/type :fhir/Patient :id "1"}]]]
+
+      (let [elm #elm/exists #elm/retrieve{:type "Observation"}
+            expr (c/compile {:node node :eval-context "Patient"} elm)
+            bloom-filter @(bloom-filter/create node executor expr 10)]
+
+        @(d/transact node [[:put {:fhir/type :fhir/Observation :id "1"
+                                  :subject #fhir/Reference{:reference #fhir/string "Patient/1"}}]])
+
+        (given @(bloom-filter/recreate node executor bloom-filter expr 10)
+          ::bloom-filter/t := 2
+          ::bloom-filter/patient-count := 2
+          [::bloom-filter/patient-ids seq] := ["0" "1"]))))
+
+  (testing "only evaluates changed patients"
+    (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]
+        [:put {:fhir/type :fhir/Observation :id "0"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]
+        [:put {:fhir/type :fhir/Patient :id "1"}]
+        [:put {:fhir/type :fhir/Patient :id "2"}]]]
+
+      (let [elm #elm/exists #elm/retrieve{:type "Observation"}
+            expr (c/compile {:node node :eval-context "Patient"} elm)
+            bloom-filter @(bloom-filter/create node executor expr)
+            evaluations (atom 0)
+            eval expr/eval]
+
+        @(d/transact node [[:put {:fhir/type :fhir/Observation :id "1"
+                                  :subject #fhir/Reference{:reference #fhir/string "Patient/1"}}]])
+
+        (with-redefs [expr/eval (fn [context expression resource]
+                                  (swap! evaluations inc)
+                                  (eval context expression resource))]
+          (given @(bloom-filter/recreate node executor bloom-filter expr)
+            ::bloom-filter/t := 2
+            ::bloom-filter/patient-count := 2))
+
+        (is (= 1 @evaluations)))))
+
+  (testing "rebuilds if a patient has to be removed"
+    (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]
+        [:put {:fhir/type :fhir/Observation :id "0"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]
+        [:put {:fhir/type :fhir/Patient :id "1"}]
+        [:put {:fhir/type :fhir/Observation :id "1"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/1"}}]]]
+
+      (let [elm #elm/exists #elm/retrieve{:type "Observation"}
+            expr (c/compile {:node node :eval-context "Patient"} elm)
+            bloom-filter @(bloom-filter/create node executor expr)]
+
+        @(d/transact node [[:delete "Observation" "0"]])
+
+        (let [bloom-filter @(bloom-filter/recreate node executor bloom-filter expr)
+              db (d/db node)
+              resource #(cr/mk-resource db (d/resource-handle db "Patient" %))]
+
+          (given bloom-filter
+            ::bloom-filter/t := 2
+            ::bloom-filter/patient-count := 1)
+
+          (testing "Patient 0 is removed"
+            (is (false? (bloom-filter/might-contain? bloom-filter (resource "0")))))
+
+          (testing "Patient 1 is still contained"
+            (is (true? (bloom-filter/might-contain? bloom-filter (resource "1")))))))))
+
+  (testing "counts a changed patient that matched before only once"
+    (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]
+        [:put {:fhir/type :fhir/Observation :id "0"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]
+        [:put {:fhir/type :fhir/Patient :id "1"}]]]
+
+      (let [elm #elm/exists #elm/retrieve{:type "Observation"}
+            expr (c/compile {:node node :eval-context "Patient"} elm)
+            bloom-filter @(bloom-filter/create node executor expr)]
+
+        @(d/transact node [[:put {:fhir/type :fhir/Observation :id "1"
+                                  :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]])
+
+        (given @(bloom-filter/recreate node executor bloom-filter expr)
+          ::bloom-filter/t := 2
+          ::bloom-filter/patient-count := 1))))
+
+  (testing "rebuilds if a patient was deleted"
+    (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]
+        [:put {:fhir/type :fhir/Observation :id "0"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]
+        [:put {:fhir/type :fhir/Patient :id "1"}]
+        [:put {:fhir/type :fhir/Observation :id "1"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/1"}}]]]
+
+      (let [elm #elm/exists #elm/retrieve{:type "Observation"}
+            expr (c/compile {:node node :eval-context "Patient"} elm)
+            bloom-filter @(bloom-filter/create node executor expr)]
+
+        @(d/transact node [[:delete "Observation" "1"]
+                           [:delete "Patient" "1"]])
+
+        (given @(bloom-filter/recreate node executor bloom-filter expr)
+          ::bloom-filter/t := 2
+          ::bloom-filter/patient-count := 1)))))
@@ -88,6 +88,13 @@
       [:cause-data ::s/problems 0 :via] := [::ec/refresh]
       [:cause-data ::s/problems 0 :val] := ::invalid))
 
+  (testing "invalid max exact patient count"
+    (given-failed-system (assoc-in config [::expr/cache :max-exact-patient-count] ::invalid)
+      :key := ::expr/cache
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::ec/max-exact-patient-count]
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
   (testing "init"
     (with-system [{::expr/keys [cache]} config]
       (is (s/valid? ::expr/cache cache)))))
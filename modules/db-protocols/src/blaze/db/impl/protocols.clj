@@ -53,6 +53,8 @@
 
   (-rev-include [db resource-handle] [db resource-handle source-type code])
 
+  (-compartment-ids [db code resource-handle])
+
   (-patient-everything [db patient-handle start end])
 
   (-re-index-total [db search-param-url])
@@ -102,6 +104,8 @@
 
   (-pull-content [pull resource-handle variant])
 
+  (-pull-raw [pull resource-handle])
+
   (-pull-many [pull resource-handles opts])
 
   (-pull-fn [pull opts]))
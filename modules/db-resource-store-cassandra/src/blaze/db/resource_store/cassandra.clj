@@ -6,23 +6,30 @@
    [blaze.cassandra :as cass]
    [blaze.cassandra.spec]
    [blaze.db.resource-store :as rs]
+   [blaze.db.resource-store.cassandra.spec]
    [blaze.db.resource-store.cassandra.statement :as statement]
+   [blaze.executors :as ex]
    [blaze.fhir.parsing-context.spec]
    [blaze.fhir.spec :as fhir-spec]
    [blaze.fhir.writing-context.spec]
    [blaze.module :as m :refer [reg-collector]]
+   [blaze.util :as u]
    [clojure.spec.alpha :as s]
    [cognitect.anomalies :as anom]
    [integrant.core :as ig]
    [prometheus.alpha :as prom :refer [defhistogram]]
    [taoensso.timbre :as log])
   (:import
-   [java.lang AutoCloseable]))
+   [java.lang AutoCloseable]
+   [java.util.concurrent TimeUnit]))
 
 (set! *warn-on-reflection* true)
 
 (defhistogram duration-seconds
-  "Durations in Cassandra resource store."
+  "Durations in Cassandra resource store.
+
+  The op `get-queue` is the time a get of a multi-get waits until it can be
+  executed, the other ops are the durations of Cassandra requests."
   {:namespace "blaze"
    :subsystem "db_resource_store_cassandra"}
   (take 12 (iterate #(* 2 %) 0.0001))
@@ -50,35 +57,71 @@
                ::anom/message (parse-msg hash (::anom/message %))
                :blaze.resource/hash hash))))
 
-(defn- read-content [parsing-context result-set key]
+(defn- read-content [read result-set key]
   (when-ok [row (cass/first-row result-set)]
-    (parse-cbor parsing-context row key)))
+    (read row key)))
 
 (defn- map-execute-get-error [hash e]
   (assoc e :op :get :blaze.resource/hash hash))
 
-(defn- execute-get* [session parsing-context statement [_ hash :as key]]
-  (-> (execute session "get" (cass/bind statement (str hash)))
-      (ac/then-apply-async #(read-content parsing-context % key))
+(defn- read-content-async
+  "Reads the content of `result-set` using `read` on `executor` if available,
+  so that the I/O threads of the driver are never used for parsing."
+  [executor read result-set-stage key]
+  (if executor
+    (ac/then-apply-async result-set-stage #(read-content read % key) executor)
+    (ac/then-apply-async result-set-stage #(read-content read % key))))
+
+(defn- execute-get*
+  [{:keys [session read executor]} statement [_ hash :as key]]
+  (-> (read-content-async executor read
+                          (execute session "get" (cass/bind statement (str hash)))
+                          key)
       (ac/exceptionally (partial map-execute-get-error hash))))
 
 (defn- execute-get-with-escalation
-  [session parsing-context get-statement get-quorum-statement key]
-  (-> (execute-get* session parsing-context get-statement key)
+  [{:keys [get-statement get-quorum-statement] :as context} key]
+  (-> (execute-get* context get-statement key)
       (ac/exceptionally-compose
        (fn [e]
          (if (ba/not-found? e)
-           (execute-get* session parsing-context get-quorum-statement key)
+           (execute-get* context get-quorum-statement key)
            (ac/completed-future e))))))
 
-(defn- execute-get [session parsing-context get-statement get-quorum-statement key]
-  (-> (ac/retry #(execute-get-with-escalation session parsing-context
-                                              get-statement get-quorum-statement key)
+(defn- execute-get [context key]
+  (-> (ac/retry #(execute-get-with-escalation context key)
                 "resource-store-cassandra-get" 5)
       (ac/exceptionally #(when-not (ba/not-found? %) %))))
 
-(defn- execute-multi-get [session parsing-context get-statement get-quorum-statement keys]
-  (mapv #(ac/->completable-future (execute-get session parsing-context get-statement get-quorum-statement %)) keys))
+(defn- open-gate! [gates idx]
+  (when (< idx (count gates))
+    (ac/complete! (gates idx) nil)))
+
+(defn- execute-multi-get
+  "Returns a vector of futures of the gets of all `keys`.
+
+  At most `multi-get-window` gets are executed concurrently. The get of the key
+  at index i is started when the get at index i - `multi-get-window` completed.
+  The time a get waits for that is observed as `get-queue` duration."
+  [{:keys [multi-get-window] :as context} keys]
+  (let [start (System/nanoTime)
+        gates (vec (repeatedly (count keys) ac/future))
+        futures
+        (into
+         []
+         (map-indexed
+          (fn [idx key]
+            (-> (gates idx)
+                (ac/then-compose
+                 (fn [_]
+                   (prom/observe! duration-seconds "get-queue" (u/duration-s start))
+                   (execute-get context key)))
+                (ac/when-complete
+                 (fn [_ _] (open-gate! gates (+ idx (long multi-get-window)))))
+                (ac/->completable-future))))
+         keys)]
+    (run! (partial open-gate! gates) (range (min (count gates) multi-get-window)))
+    futures))
 
 (defn- bind-put [writing-context statement hash resource]
   (let [content (bb/wrap (fhir-spec/write-cbor writing-context resource))]
@@ -113,16 +156,22 @@
         (recur map hashes resources))
       (persistent! map))))
 
-(deftype CassandraResourceStore [session parsing-context writing-context
-                                 get-statement get-quorum-statement put-statement]
+(defn- raw-content [row _key]
+  row)
+
+(deftype CassandraResourceStore [context session writing-context put-statement]
   rs/ResourceStore
   (-get [_ [_ hash :as key]]
     (log/trace "get resource with hash:" hash)
-    (execute-get session parsing-context get-statement get-quorum-statement key))
+    (execute-get context key))
+
+  (-get-content [_ [_ hash :as key]]
+    (log/trace "get resource content with hash:" hash)
+    (execute-get (assoc context :read raw-content) key))
 
   (-multi-get [_ keys]
     (log/trace "multi-get" (count keys) "resource(s)")
-    (let [futures (execute-multi-get session parsing-context get-statement get-quorum-statement keys)]
+    (let [futures (execute-multi-get context keys)]
       (do-sync [_ (ac/all-of futures)]
         (zipmap-found keys (map ac/join futures)))))
 
@@ -142,23 +191,29 @@
                    ::cass/put-consistency-level
                    ::cass/max-concurrent-read-requests
                    ::cass/max-read-request-queue-size
-                   ::cass/request-timeout]))
+                   ::cass/request-timeout
+                   ::multi-get-window
+                   ::executor]))
 
 (defn- init-msg [config]
   (str "Open Cassandra resource store with the following settings: "
        (cass/format-config config)))
 
 (defmethod ig/init-key ::rs/cassandra
-  [_ {:keys [parsing-context writing-context put-consistency-level]
-      :or {put-consistency-level "TWO"} :as config}]
-  (log/info (init-msg (dissoc config :parsing-context :writing-context)))
+  [_ {:keys [parsing-context writing-context put-consistency-level
+             multi-get-window executor]
+      :or {put-consistency-level "TWO" multi-get-window 128} :as config}]
+  (log/info (init-msg (dissoc config :parsing-context :writing-context :executor)))
   (let [session (cass/session config)]
     (->CassandraResourceStore
+     {:session session
+      :read (partial parse-cbor parsing-context)
+      :executor executor
+      :multi-get-window multi-get-window
+      :get-statement (cass/prepare session statement/get-statement)
+      :get-quorum-statement (cass/prepare session statement/get-quorum-statement)}
      session
-     parsing-context
      writing-context
-     (cass/prepare session statement/get-statement)
-     (cass/prepare session statement/get-quorum-statement)
      (cass/prepare session (statement/put-statement put-consistency-level)))))
 
 (defmethod ig/halt-key! ::rs/cassandra
@@ -168,6 +223,27 @@
 
 (derive ::rs/cassandra :blaze.db/resource-store)
 
+(defmethod m/pre-init-spec ::executor [_]
+  (s/keys :opt-un [::num-threads]))
+
+(defn- executor-init-msg [num-threads]
+  (format "Init Cassandra resource store executor with %d threads" num-threads))
+
+(defmethod ig/init-key ::executor
+  [_ {:keys [num-threads] :or {num-threads 4}}]
+  (log/info (executor-init-msg num-threads))
+  (ex/io-pool num-threads "resource-store-cassandra-%d"))
+
+(defmethod ig/halt-key! ::executor
+  [_ executor]
+  (log/info "Stopping Cassandra resource store executor...")
+  (ex/shutdown! executor)
+  (if (ex/await-termination executor 10 TimeUnit/SECONDS)
+    (log/info "Cassandra resource store executor was stopped successfully")
+    (log/warn "Got timeout while stopping the Cassandra resource store executor")))
+
+(derive ::executor :blaze.metrics/thread-pool-executor)
+
 (reg-collector ::duration-seconds
   duration-seconds)
 
@@ -0,0 +1,13 @@
+(ns blaze.db.resource-store.cassandra.spec
+  (:require
+   [blaze.executors :as ex]
+   [clojure.spec.alpha :as s]))
+
+(s/def :blaze.db.resource-store.cassandra/multi-get-window
+  pos-int?)
+
+(s/def :blaze.db.resource-store.cassandra/executor
+  ex/executor?)
+
+(s/def :blaze.db.resource-store.cassandra/num-threads
+  pos-int?)
@@ -6,8 +6,9 @@
    [blaze.cassandra :as cass]
    [blaze.cassandra-spec]
    [blaze.db.resource-store :as rs]
-   [blaze.db.resource-store.cassandra]
+   [blaze.db.resource-store.cassandra :as rs-cassandra]
    [blaze.db.resource-store.cassandra.statement :as statement]
+   [blaze.executors :as ex]
    [blaze.fhir.hash :as hash]
    [blaze.fhir.hash-spec]
    [blaze.fhir.parsing-context]
@@ -33,7 +34,7 @@
    [com.datastax.oss.driver.api.core.servererrors WriteTimeoutException WriteType]
    [java.net InetSocketAddress]
    [java.nio ByteBuffer]
-   [java.util.concurrent CompletionStage]))
+   [java.util.concurrent CompletionStage TimeUnit]))
 
 (set! *warn-on-reflection* true)
 (st/instrument)
@@ -91,6 +92,15 @@
    :blaze.fhir/writing-context
    {:structure-definition-repo structure-definition-repo}})
 
+(def ^:private config-with-executor
+  (assoc
+   (assoc-in config [::rs/cassandra :executor] (ig/ref ::rs-cassandra/executor))
+   ::rs-cassandra/executor {}))
+
+(defn- executor-thread? [thread-name]
+  (or (str/starts-with? thread-name "resource-store-cassandra-")
+      (= (.getName (Thread/currentThread)) thread-name)))
+
 (deftest init-test
   (testing "nil config"
     (given-failed-system {::rs/cassandra nil}
@@ -117,7 +127,33 @@
       :reason := ::ig/build-failed-spec
       [:value :contact-points] := ::invalid
       [:cause-data ::s/problems 0 :path] := [:contact-points]
-      [:cause-data ::s/problems 0 :val] := ::invalid)))
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
+  (testing "invalid multi-get-window"
+    (given-failed-system (assoc-in config [::rs/cassandra :multi-get-window] 0)
+      :key := ::rs/cassandra
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::rs-cassandra/multi-get-window]
+      [:cause-data ::s/problems 0 :val] := 0)))
+
+(deftest executor-init-test
+  (testing "invalid num-threads"
+    (given-failed-system {::rs-cassandra/executor {:num-threads ::invalid}}
+      :key := ::rs-cassandra/executor
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::rs-cassandra/num-threads]
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
+  (testing "zero num-threads"
+    (given-failed-system {::rs-cassandra/executor {:num-threads 0}}
+      :key := ::rs-cassandra/executor
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::rs-cassandra/num-threads]
+      [:cause-data ::s/problems 0 :val] := 0))
+
+  (testing "with default num-threads"
+    (with-system [{::rs-cassandra/keys [executor]} {::rs-cassandra/executor {}}]
+      (is (ex/executor? executor)))))
 
 (deftest get-test
   (testing "parsing error"
@@ -306,6 +342,54 @@
               [meta :thread-name] :? mtu/common-pool-thread?
               identity := content)))))))
 
+(deftest get-content-test
+  (testing "success"
+    (let [hash (hash "0")
+          content (write-cbor {:fhir/type :fhir/Patient :id "0"})
+          row (row-with 0 content)
+          session
+          (reify CqlSession
+            (^PreparedStatement prepare [_ ^SimpleStatement statement]
+              (cond
+                (= statement/get-statement statement)
+                (prepared-statement-with [(str hash)] bound-get-statement)
+                (= statement/get-quorum-statement statement)
+                (prepared-statement-with [(str hash)] bound-get-quorum-statement)
+                (= (statement/put-statement "TWO") statement)
+                nil
+                :else
+                (throw (Error.))))
+            (^CompletionStage executeAsync [_ ^Statement statement]
+              (assert (= bound-get-statement statement))
+              (ac/completed-future (resultset-with row)))
+            (close [_]))]
+
+      (with-redefs [cass/session (fn [_] session)]
+        (with-system [{store ::rs/cassandra} config]
+          (is (= (vec content) (vec @(rs/get-content store [:fhir/Patient hash :complete]))))))))
+
+  (testing "not found"
+    (let [hash (hash "0")
+          session
+          (reify CqlSession
+            (^PreparedStatement prepare [_ ^SimpleStatement statement]
+              (cond
+                (= statement/get-statement statement)
+                (prepared-statement-with [(str hash)] bound-get-statement)
+                (= statement/get-quorum-statement statement)
+                (prepared-statement-with [(str hash)] bound-get-quorum-statement)
+                (= (statement/put-statement "TWO") statement)
+                nil
+                :else
+                (throw (Error.))))
+            (^CompletionStage executeAsync [_ ^Statement _]
+              (ac/completed-future (resultset-with nil)))
+            (close [_]))]
+
+      (with-redefs [cass/session (fn [_] session)]
+        (with-system [{store ::rs/cassandra} config]
+          (is (nil? @(rs/get-content store [:fhir/Patient hash :complete]))))))))
+
 (deftest multi-get-test
   (testing "not found"
     (let [hash (hash "0")
@@ -357,7 +441,65 @@
         (with-system [{store ::rs/cassandra} config]
           (given @(mtu/assoc-thread-name (rs/multi-get store [[:fhir/Patient hash :complete]]))
             [meta :thread-name] :? mtu/common-pool-thread?
-            identity := {[:fhir/Patient hash :complete] content}))))))
+            identity := {[:fhir/Patient hash :complete] content})))))
+
+  (testing "with parsing on executor"
+    (let [content {:fhir/type :fhir/Patient :id "0"}
+          hash (hash/generate content)
+          row (row-with 0 (write-cbor content))
+          session
+          (reify CqlSession
+            (^PreparedStatement prepare [_ ^SimpleStatement statement]
+              (cond
+                (= statement/get-statement statement)
+                (prepared-statement-with [(str hash)] bound-get-statement)
+                (= statement/get-quorum-statement statement)
+                (prepared-statement-with [(str hash)] bound-get-quorum-statement)
+                (= (statement/put-statement "TWO") statement)
+                nil
+                :else
+                (throw (Error.))))
+            (^CompletionStage executeAsync [_ ^Statement statement]
+              (assert (= bound-get-statement statement))
+              (ac/completed-future (resultset-with row)))
+            (close [_]))]
+
+      (with-redefs [cass/session (fn [_] session)]
+        (with-system [{store ::rs/cassandra} config-with-executor]
+          (given @(mtu/assoc-thread-name (rs/multi-get store [[:fhir/Patient hash :complete]]))
+            [meta :thread-name] :? executor-thread?
+            identity := {[:fhir/Patient hash :complete] content})))))
+
+  (testing "at most multi-get-window gets are executed concurrently"
+    (let [contents (mapv #(hash-map :fhir/type :fhir/Patient :id (str %)) (range 20))
+          rows (into {} (map (juxt (comp str hash/generate) (comp (partial row-with 0) write-cbor))) contents)
+          in-flight (atom 0)
+          max-in-flight (atom 0)
+          session
+          (reify CqlSession
+            (^PreparedStatement prepare [_ ^SimpleStatement _]
+              (reify PreparedStatement
+                (bind [_ values]
+                  (let [hash (first values)]
+                    (reify BoundStatement
+                      (toString [_] hash))))))
+            (^CompletionStage executeAsync [_ ^Statement statement]
+              (swap! max-in-flight max (swap! in-flight inc))
+              (ac/supply-async
+               (fn []
+                 (swap! in-flight dec)
+                 (resultset-with (rows (str statement))))
+               (ac/delayed-executor 10 TimeUnit/MILLISECONDS)))
+            (close [_]))
+          keys (mapv #(vector :fhir/Patient (hash/generate %) :complete) contents)]
+
+      (with-redefs [cass/session (fn [_] session)]
+        (with-system [{store ::rs/cassandra} (assoc-in config [::rs/cassandra :multi-get-window] 4)]
+          (testing "all resources are found"
+            (is (= (zipmap keys contents) @(rs/multi-get store keys))))
+
+          (testing "the window was used"
+            (is (<= 1 @max-in-flight 4))))))))
 
 (def bound-put-statement (reify BoundStatement))
 
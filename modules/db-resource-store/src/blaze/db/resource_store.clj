@@ -7,6 +7,8 @@
 
   (-get [store key])
 
+  (-get-content [store key])
+
   (-multi-get [store key])
 
   (-put [store entries]))
@@ -19,6 +21,16 @@
   [store key]
   (-get store key))
 
+(defn get-content
+  "Returns a CompletableFuture that will complete with the CBOR encoded resource
+  content of the resource with `key` as byte array or will complete with nil if
+  it was not found.
+
+  The key is a tuple of `type`, `hash` and `variant`. Because the content isn't
+  parsed, the variant has to be :complete."
+  [store key]
+  (-get-content store key))
+
 (defn multi-get
   "Returns a CompletableFuture that will complete with a map from `key` to the
   resource content of all found `keys`.
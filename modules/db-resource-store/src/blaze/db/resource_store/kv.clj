@@ -80,6 +80,9 @@
   (-get [_ key]
     (get-and-parse-async kv-store parsing-context executor key))
 
+  (-get-content [_ [_ hash]]
+    (get-content-async kv-store executor hash))
+
   (-multi-get [_ keys]
     (log/trace "multi-get" (count keys) "hash(es)")
     (let [futures (multi-get-and-parse-async kv-store parsing-context executor keys)]
@@ -11,6 +11,10 @@
   :args (s/cat :store :blaze.db/resource-store :key ::rs/key)
   :ret ac/completable-future?)
 
+(s/fdef rs/get-content
+  :args (s/cat :store :blaze.db/resource-store :key ::rs/key)
+  :ret ac/completable-future?)
+
 (s/fdef rs/multi-get
   :args (s/cat :store :blaze.db/resource-store :keys (s/coll-of ::rs/key))
   :ret ac/completable-future?)
@@ -208,6 +208,24 @@
         ::anom/category := ::anom/fault
         ::anom/message := error-msg))))
 
+(deftest get-content-test
+  (testing "success"
+    (with-system [{store ::rs/kv kv-store ::kv/mem :blaze.fhir/keys [writing-context]} config]
+      (put! kv-store writing-context (hash) {:fhir/type :fhir/Patient :id "0"})
+
+      (is (= (vec (fhir-spec/write-cbor writing-context {:fhir/type :fhir/Patient :id "0"}))
+             (vec @(rs/get-content store [:fhir/Patient (hash) :complete]))))))
+
+  (testing "not-found"
+    (with-system [{store ::rs/kv} config]
+      (is (nil? @(rs/get-content store [:fhir/Patient (hash) :complete])))))
+
+  (testing "error"
+    (with-system [{store ::rs/kv} (failing-kv-store-config error-msg)]
+      (given-failed-future (rs/get-content store [:fhir/Patient (hash) :complete])
+        ::anom/category := ::anom/fault
+        ::anom/message := error-msg))))
+
 (deftest multi-get-test
   (testing "success"
     (testing "with one hash"
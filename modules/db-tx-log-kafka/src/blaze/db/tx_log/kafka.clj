@@ -19,10 +19,11 @@
    [java.time Duration]
    [java.util Map]
    [java.util.concurrent TimeUnit]
-   [org.apache.kafka.clients.consumer Consumer KafkaConsumer]
+   [org.apache.kafka.clients.consumer Consumer ConsumerRecord ConsumerRecords KafkaConsumer]
    [org.apache.kafka.clients.producer Callback KafkaProducer Producer ProducerRecord RecordMetadata]
    [org.apache.kafka.common TopicPartition]
-   [org.apache.kafka.common.errors RecordTooLargeException]))
+   [org.apache.kafka.common.errors RecordTooLargeException]
+   [org.apache.kafka.common.serialization ByteArrayDeserializer ByteArraySerializer]))
 
 (set! *warn-on-reflection* true)
 
@@ -35,13 +36,15 @@
   (take 12 (iterate #(* 2 %) 0.0001))
   "node" "op")
 
-(defn create-producer [config]
+(defn create-producer
+  "Creates a producer of records with already encoded values."
+  [config]
   (KafkaProducer. ^Map (c/producer-config config)
-                  codec/serializer codec/serializer))
+                  (ByteArraySerializer.) (ByteArraySerializer.)))
 
 (defn create-consumer ^Consumer [tx-partition config]
   (doto (KafkaConsumer. ^Map (c/consumer-config config)
-                        codec/deserializer codec/deserializer)
+                        (ByteArrayDeserializer.) codec/deserializer)
     (.assign [tx-partition])))
 
 (defn- metadata->t
@@ -65,30 +68,191 @@
                            (ex-message e)))
     (ba/fault (ex-message e))))
 
+(def ^:private ^:const default-max-request-size
+  "The default of the `max.request.size` producer config."
+  1048576)
+
+(def ^:private ^:const record-overhead
+  "The number of bytes reserved for the overhead of a record and its batch in
+  addition to the value."
+  1024)
+
+(defn- chunk-size
+  "Returns the maximum number of bytes of encoded transaction commands that are
+  written into one record."
+  [{:keys [max-request-size] :or {max-request-size default-max-request-size}}]
+  (max (- (long max-request-size) record-overhead) record-overhead))
+
+(defn- send!
+  "Sends a record with `value` to the topic of `config`.
+
+  Returns a CompletableFuture that will complete with the metadata of the
+  record or will complete exceptionally with an anomaly."
+  [^Producer producer {:keys [topic] :as config} num-of-tx-cmds value]
+  (let [future (ac/future)]
+    (.send producer (ProducerRecord. topic value)
+           (reify Callback
+             (onCompletion [_ metadata e]
+               (if e
+                 (ac/complete-exceptionally!
+                  future (ba/ex-anom (producer-anomaly e config num-of-tx-cmds)))
+                 (ac/complete! future metadata)))))
+    future))
+
+(defn- record-offset [future]
+  (.offset ^RecordMetadata (ac/join future)))
+
+(defn- send-chunks!
+  "Sends the encoded transaction commands `data` in chunks followed by a
+  manifest of the chunks, after all chunks were written.
+
+  The manifest is sent on `executor`, because the futures of the chunks
+  complete on the I/O thread of the producer. Sending from there would block
+  the I/O thread if the buffer of the producer is full, which only the I/O
+  thread itself can drain.
+
+  The metadata of the manifest record determines the point in time `t` of the
+  transaction."
+  [producer executor config num-of-tx-cmds data]
+  (let [chunks (codec/encode-chunks data (chunk-size config))
+        futures (mapv (partial send! producer config num-of-tx-cmds) chunks)]
+    (log/debug "Send transaction with" num-of-tx-cmds "commands in"
+               (count chunks) "chunks")
+    (ac/then-compose-async
+     (ac/all-of futures)
+     (fn [_]
+       (send! producer config num-of-tx-cmds
+              (codec/encode-manifest (mapv record-offset futures))))
+     executor)))
+
+(defn- send-tx-cmds!
+  "Sends `tx-cmds` in one record.
+
+  With compact encoding, sends `tx-cmds` in chunks if they are larger than one
+  record can hold."
+  [producer executor {:keys [compact-encoding] :as config} tx-cmds]
+  (if compact-encoding
+    (let [data (codec/encode-compact-tx-cmds tx-cmds)]
+      (if (< (long (chunk-size config)) (alength data))
+        (send-chunks! producer executor config (count tx-cmds) data)
+        (send! producer config (count tx-cmds) data)))
+    (send! producer config (count tx-cmds) (codec/encode-tx-cmds tx-cmds))))
+
+(defn- with-value
+  "Returns a copy of `record` with `value`."
+  [^ConsumerRecord record value]
+  (ConsumerRecord. (.topic record) (.partition record) (.offset record)
+                   (.timestamp record) (.timestampType record)
+                   (.serializedKeySize record) (.serializedValueSize record)
+                   (.key record) value (.headers record) (.leaderEpoch record)))
+
+(def ^:private ^:const max-empty-chunk-polls
+  "The number of polls without records after which fetching chunks fails."
+  10)
+
+(defn- missing-chunks-msg [offsets]
+  (format "Missing the transaction chunks with offsets %s." (vec offsets)))
+
+(defn- chunk-entries [offsets]
+  (keep
+   (fn [^ConsumerRecord record]
+     (when (and (contains? offsets (.offset record))
+                (codec/chunk? (.value record)))
+       [(.offset record) (.value record)]))))
+
+(defn- fetch-chunks
+  "Reads the chunks stored in the records with `offsets` using `consumer` and
+  returns a map of offset to chunk.
+
+  Seeks back to the position `consumer` had before, so that polling continues
+  where it stopped."
+  [^Consumer consumer ^TopicPartition partition offsets timeout]
+  (let [position (.position consumer partition)
+        offsets (set offsets)
+        end (inc (long (apply max offsets)))]
+    (.seek consumer partition (long (apply min offsets)))
+    (try
+      (loop [chunks {}
+             empty-polls 0]
+        (let [missing (remove chunks offsets)]
+          (cond
+            (empty? missing)
+            chunks
+
+            (or (<= end (.position consumer partition))
+                (<= max-empty-chunk-polls empty-polls))
+            (throw (ex-info (missing-chunks-msg (sort missing))
+                            {:offsets (sort missing)}))
+
+            :else
+            (let [records (.poll consumer ^Duration timeout)]
+              (recur (into chunks (chunk-entries offsets) records)
+                     (if (.isEmpty ^ConsumerRecords records)
+                       (inc empty-polls)
+                       0))))))
+      (finally
+        (.seek consumer partition position)))))
+
+(defn- chunked-tx-cmds [consumer partition timeout chunks manifest]
+  (let [offsets (codec/manifest-offsets manifest)
+        missing (remove chunks offsets)
+        chunks (cond-> chunks
+                 (seq missing)
+                 (merge (fetch-chunks consumer partition missing timeout)))]
+    (codec/decode-chunks (map chunks offsets))))
+
+(defn- chunk-resolver
+  "Returns a stateful transducer that removes records holding chunks of
+  transaction commands and replaces the value of records holding manifests by
+  the transaction commands of their chunks.
+
+  Chunks which aren't part of the records seen so far are fetched with
+  `consumer`."
+  [consumer partition timeout]
+  (fn [rf]
+    (let [chunks (volatile! {})]
+      (fn
+        ([] (rf))
+        ([result] (rf result))
+        ([result ^ConsumerRecord record]
+         (let [value (.value record)]
+           (cond
+             (codec/chunk? value)
+             (do (vswap! chunks assoc (.offset record) value)
+                 result)
+
+             (codec/manifest? value)
+             (rf result (with-value record (chunked-tx-cmds consumer partition
+                                                            timeout @chunks
+                                                            value)))
+
+             :else
+             (rf result record))))))))
+
 (defn- end-offset [node-name ^Consumer consumer tx-partition]
   (with-open [_ (prom/timer duration-seconds node-name "end-offset")]
     (get (.endOffsets consumer [tx-partition]) tx-partition)))
 
 (deftype KafkaTxLog [node-name config ^TopicPartition partition ^Producer producer
                      ^Consumer poll-consumer poll-position last-t-consumer
-                     last-t-executor]
+                     last-t-executor send-executor]
   tx-log/TxLog
   (-submit [_ tx-cmds _]
     (log/trace "submit" (count tx-cmds) "tx-cmds")
     (let [timer (prom/timer duration-seconds node-name "submit")
           future (ac/future)]
-      (.send producer (ProducerRecord. (:topic config) tx-cmds)
-             (reify Callback
-               (onCompletion [_ metadata e]
-                 (prom/observe-duration! timer)
-                 ;; completes asynchronously, because otherwise all the work
-                 ;; depending on the submit would run on the I/O thread of the
-                 ;; producer, delaying the sending of every other transaction
-                 (ac/complete-async!
-                  future
-                  (if e
-                    #(producer-anomaly e config (count tx-cmds))
-                    #(metadata->t metadata))))))
+      (ac/when-complete
+       (send-tx-cmds! producer send-executor config tx-cmds)
+       (fn [metadata anomaly]
+         (prom/observe-duration! timer)
+         ;; completes asynchronously, because otherwise all the work
+         ;; depending on the submit would run on the I/O thread of the
+         ;; producer, delaying the sending of every other transaction
+         (ac/complete-async!
+          future
+          (if anomaly
+            (constantly anomaly)
+            #(metadata->t metadata)))))
       future))
 
   (-last-t [_]
@@ -100,7 +264,8 @@
     (when-not (= offset @poll-position)
       (log/trace "seek to offset =" offset)
       (.seek poll-consumer partition ^long (dec offset)))
-    (let [tx-data (into [] u/record-transformer
+    (let [tx-data (into [] (comp (chunk-resolver poll-consumer partition timeout)
+                                 u/record-transformer)
                         (.poll poll-consumer ^Duration timeout))]
       (vreset! poll-position (if-let [{last-t :t} (peek tx-data)]
                                (inc last-t)
@@ -119,8 +284,10 @@
 (defmethod m/pre-init-spec :blaze.db.tx-log/kafka [_]
   (s/keys :req-un [::bootstrap-servers
                    ::topic
-                   ::last-t-executor]
+                   ::last-t-executor
+                   ::send-executor]
           :opt-un [::max-request-size
+                   ::compact-encoding
                    ::compression-type
                    ::security-protocol
                    ::truststore-location
@@ -136,7 +303,7 @@
     (->KafkaTxLog (u/node-name key) config partition (create-producer config)
                   (create-consumer partition config) (volatile! nil)
                   (create-last-t-consumer partition config)
-                  (:last-t-executor config))))
+                  (:last-t-executor config) (:send-executor config))))
 
 (defmethod ig/halt-key! :blaze.db.tx-log/kafka
   [_ tx-log]
@@ -157,5 +324,18 @@
     (log/info "Last-t executor was stopped successfully")
     (log/warn "Got timeout while stopping the last-t executor")))
 
+(defmethod ig/init-key ::send-executor
+  [_ _]
+  (log/info "Init send executor")
+  (ex/single-thread-executor "db-tx-log-kafka-send"))
+
+(defmethod ig/halt-key! ::send-executor
+  [_ executor]
+  (log/info "Stopping send executor...")
+  (ex/shutdown! executor)
+  (if (ex/await-termination executor 10 TimeUnit/SECONDS)
+    (log/info "Send executor was stopped successfully")
+    (log/warn "Got timeout while stopping the send executor")))
+
 (reg-collector ::duration-seconds
   duration-seconds)
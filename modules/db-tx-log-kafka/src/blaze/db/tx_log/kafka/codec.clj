@@ -1,31 +1,121 @@
 (ns blaze.db.tx-log.kafka.codec
+  "Encoding of transaction commands into the values of Kafka records.
+
+  Transaction commands are encoded as plain CBOR arrays by default, which all
+  versions can read.
+
+  In the compact encoding, transaction commands are encoded in CBOR using
+  string references, so that repeated resource types and ids are only written
+  once, and are compressed with Deflate. Hashes are written as raw bytes.
+  Compact encoded transaction commands larger than one record are split into
+  chunks, each written into its own record, followed by a manifest record
+  holding the offsets of the chunks.
+
+  The first byte of a value distinguishes the formats. Values starting with
+  the first byte of a CBOR array are plain encoded transaction commands. The
+  compact encoding can only be read by versions which know its format bytes."
   (:require
    [blaze.byte-buffer :as bb]
    [blaze.fhir.hash :as hash]
    [jsonista.core :as j]
    [taoensso.timbre :as log])
   (:import
-   [com.fasterxml.jackson.dataformat.cbor CBORFactory]
+   [com.fasterxml.jackson.dataformat.cbor CBORFactory CBORGenerator$Feature]
+   [java.io ByteArrayInputStream ByteArrayOutputStream InputStream]
+   [java.util Arrays]
+   [java.util.zip DeflaterOutputStream InflaterInputStream]
    [org.apache.kafka.common.serialization Serializer Deserializer]))
 
 (set! *warn-on-reflection* true)
 
+(def ^:private ^:const tx-cmds-format 1)
+(def ^:private ^:const chunk-format 2)
+(def ^:private ^:const manifest-format 3)
+
 (def ^:private cbor-object-mapper
   (j/object-mapper
    {:factory (CBORFactory.)
     :decode-key-fn true
     :modules [hash/object-mapper-module]}))
 
-(deftype CborSerializer []
-  Serializer
-  (serialize [_ _ data]
-    (j/write-value-as-bytes data cbor-object-mapper)))
+(def ^:private compact-object-mapper
+  (j/object-mapper
+   {:factory (-> (CBORFactory/builder)
+                 (.enable CBORGenerator$Feature/STRINGREF)
+                 (.build))
+    :decode-key-fn true
+    :modules [hash/object-mapper-module]}))
 
-(def ^Serializer serializer (CborSerializer.))
+(deftype Chunk [^bytes data])
+
+(deftype Manifest [offsets])
+
+(defn chunk?
+  "Returns true if `x` is a chunk of encoded transaction commands."
+  [x]
+  (instance? Chunk x))
+
+(defn manifest?
+  "Returns true if `x` is a manifest of chunked transaction commands."
+  [x]
+  (instance? Manifest x))
+
+(defn manifest-offsets
+  "Returns the offsets of the records holding the chunks of `manifest` in
+  order."
+  [manifest]
+  (.-offsets ^Manifest manifest))
 
-(defn- parse-cbor [data]
+(defn encode-tx-cmds
+  "Encodes `tx-cmds` into a byte array using the plain encoding."
+  ^bytes [tx-cmds]
+  (j/write-value-as-bytes tx-cmds cbor-object-mapper))
+
+(defn encode-compact-tx-cmds
+  "Encodes `tx-cmds` into a byte array using the compact encoding."
+  ^bytes [tx-cmds]
+  (let [out (ByteArrayOutputStream.)]
+    (.write out (int tx-cmds-format))
+    (with-open [deflater-out (DeflaterOutputStream. out)]
+      (j/write-value deflater-out tx-cmds compact-object-mapper))
+    (.toByteArray out)))
+
+(defn encode-chunks
+  "Splits the compact encoded transaction commands `data` into chunks of at
+  most `chunk-size` bytes and returns a vector of encoded chunks."
+  [^bytes data chunk-size]
+  (let [size (alength data)]
+    (mapv
+     (fn [start]
+       (let [end (min size (+ (long start) (long chunk-size)))
+             chunk (byte-array (inc (- end (long start))))]
+         (aset chunk 0 (byte chunk-format))
+         (System/arraycopy data start chunk 1 (- end (long start)))
+         chunk))
+     (range 0 size chunk-size))))
+
+(defn encode-manifest
+  "Encodes a manifest of the chunks stored in the records with `offsets`."
+  ^bytes [offsets]
+  (let [out (ByteArrayOutputStream.)]
+    (.write out (int manifest-format))
+    (j/write-value out (vec offsets) cbor-object-mapper)
+    (.toByteArray out)))
+
+(defn- input-stream ^InputStream [^bytes data]
+  (ByteArrayInputStream. data 1 (dec (alength data))))
+
+(defn- parse-tx-cmds [^bytes data]
+  (with-open [in (InflaterInputStream. (input-stream data))]
+    (j/read-value in compact-object-mapper)))
+
+(defn- parse [^bytes data]
   (try
-    (j/read-value data cbor-object-mapper)
+    (condp = (long (aget data 0))
+      tx-cmds-format (parse-tx-cmds data)
+      chunk-format (Chunk. (Arrays/copyOfRange data 1 (alength data)))
+      manifest-format (Manifest. (j/read-value (input-stream data) cbor-object-mapper))
+      (j/read-value data cbor-object-mapper))
     (catch Exception e
       (log/warn (format "Error while parsing tx-data: %s" (ex-message e))))))
 
@@ -38,9 +128,31 @@
   (when (sequential? cmds)
     (mapv decode-hash cmds)))
 
+(defn- decode [value]
+  (if (or (chunk? value) (manifest? value))
+    value
+    (decode-hashes value)))
+
+(defn decode-chunks
+  "Decodes the transaction commands split into `chunks`.
+
+  Returns nil if the chunks don't form valid transaction commands."
+  [chunks]
+  (let [out (ByteArrayOutputStream.)]
+    (doseq [^Chunk chunk chunks]
+      (.writeBytes out (.-data chunk)))
+    (decode-hashes (parse (.toByteArray out)))))
+
+(deftype CborSerializer []
+  Serializer
+  (serialize [_ _ data]
+    (encode-tx-cmds data)))
+
+(def ^Serializer serializer (CborSerializer.))
+
 (deftype CborDeserializer []
   Deserializer
   (deserialize [_ _ data]
-    (decode-hashes (parse-cbor data))))
+    (decode (parse data))))
 
 (def ^Deserializer deserializer (CborDeserializer.))
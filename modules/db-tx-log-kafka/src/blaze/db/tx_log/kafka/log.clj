@@ -1,6 +1,5 @@
 (ns blaze.db.tx-log.kafka.log
   (:require
-   [blaze.db.tx-log.kafka :as-alias kafka]
    [blaze.db.tx-log.kafka.util :as u]
    [clojure.string :as str]))
 
@@ -14,7 +13,7 @@
 
 (defn- format-config [config]
   (->> config
-       (remove (fn [[k]] (= ::kafka/last-t-executor k)))
+       (remove (fn [[k]] (#{:last-t-executor :send-executor} k)))
        (keep
         (fn [[k v]] (when (some? v) (str (name k) " = " (format-value k v)))))
        (str/join ", ")))
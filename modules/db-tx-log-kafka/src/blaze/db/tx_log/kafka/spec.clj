@@ -13,6 +13,12 @@
 (s/def ::kafka/last-t-executor
   ex/executor?)
 
+(s/def ::kafka/send-executor
+  ex/executor?)
+
+(s/def ::kafka/compact-encoding
+  boolean?)
+
 (s/def ::kafka/max-request-size
   nat-int?)
 
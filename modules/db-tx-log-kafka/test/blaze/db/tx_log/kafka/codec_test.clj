@@ -2,11 +2,16 @@
   (:require
    [blaze.db.tx-log.kafka.codec :as codec]
    [blaze.db.tx-log.spec]
+   [blaze.fhir.hash :as hash]
+   [blaze.fhir.hash-spec]
    [blaze.test-util :as tu :refer [satisfies-prop]]
    [clojure.spec.alpha :as s]
    [clojure.spec.test.alpha :as st]
    [clojure.test :as test :refer [deftest is testing]]
-   [clojure.test.check.properties :as prop]))
+   [clojure.test.check.properties :as prop]
+   [jsonista.core :as j])
+  (:import
+   [com.fasterxml.jackson.dataformat.cbor CBORFactory]))
 
 (set! *warn-on-reflection* true)
 (st/instrument)
@@ -24,6 +29,64 @@
     (prop/for-all [tx-cmds (s/gen :blaze.db/tx-cmds)]
       (= tx-cmds (deserialize (serialize tx-cmds))))))
 
+(deftest compact-round-trip-test
+  (satisfies-prop 100
+    (prop/for-all [tx-cmds (s/gen :blaze.db/tx-cmds)]
+      (= tx-cmds (deserialize (codec/encode-compact-tx-cmds tx-cmds))))))
+
+(defn- tx-cmds [n]
+  (mapv
+   (fn [id]
+     (let [patient {:fhir/type :fhir/Patient :id (str id)}]
+       {:op "create" :type "Patient" :id (str id) :hash (hash/generate patient)
+        :refs [["Organization" "0"]]}))
+   (range n)))
+
+(def ^:private legacy-object-mapper
+  (j/object-mapper
+   {:factory (CBORFactory.)
+    :modules [hash/object-mapper-module]}))
+
+(defn- legacy-serialize [tx-cmds]
+  (j/write-value-as-bytes tx-cmds legacy-object-mapper))
+
+(deftest legacy-test
+  (testing "transaction commands written by earlier versions can be read"
+    (let [tx-cmds (tx-cmds 10)]
+      (is (= tx-cmds (deserialize (legacy-serialize tx-cmds))))))
+
+  (testing "transaction commands are written readable by earlier versions"
+    (let [tx-cmds (tx-cmds 10)]
+      (is (= (seq (legacy-serialize tx-cmds)) (seq (serialize tx-cmds)))))))
+
+(deftest size-test
+  (testing "the compact encoding is smaller than the one of earlier versions"
+    (let [tx-cmds (tx-cmds 100)]
+      (is (< (* 2 (count (codec/encode-compact-tx-cmds tx-cmds)))
+             (count (legacy-serialize tx-cmds)))))))
+
+(deftest chunk-test
+  (let [tx-cmds (tx-cmds 100)
+        chunks (codec/encode-chunks (codec/encode-compact-tx-cmds tx-cmds) 100)]
+
+    (testing "chunks don't exceed the chunk size plus the format byte"
+      (is (< 1 (count chunks)))
+      (is (every? #(<= (count %) 101) chunks)))
+
+    (testing "chunks are deserialized into chunks"
+      (is (every? codec/chunk? (map deserialize chunks))))
+
+    (testing "decoding the chunks in order returns the transaction commands"
+      (is (= tx-cmds (codec/decode-chunks (map deserialize chunks)))))
+
+    (testing "decoding only some of the chunks returns nil"
+      (is (nil? (codec/decode-chunks (map deserialize (butlast chunks))))))))
+
+(deftest manifest-test
+  (let [manifest (deserialize (codec/encode-manifest [1 2 4]))]
+    (is (codec/manifest? manifest))
+    (is (= [1 2 4] (codec/manifest-offsets manifest)))))
+
 (defn- invalid-cbor-content
   "`0xA1` is the start of a map with one entry."
   []
@@ -17,6 +17,12 @@
     (is (= "Open Kafka transaction log with the following settings: bootstrap-servers = localhost:9092, key-password = [hidden]"
            (l/init-msg nil {:bootstrap-servers "localhost:9092" :key-password "foo"}))))
 
+  (testing "without executors"
+    (is (= "Open Kafka transaction log with the following settings: bootstrap-servers = localhost:9092"
+           (l/init-msg nil {:bootstrap-servers "localhost:9092"
+                            :last-t-executor ::executor
+                            :send-executor ::executor}))))
+
   (testing "non default key"
     (is (= "Open admin Kafka transaction log with the following settings: bootstrap-servers = localhost:9092"
            (l/init-msg [::tx-log/kafka :blaze.db.admin/tx-log] {:bootstrap-servers "localhost:9092"})))))
@@ -3,6 +3,7 @@
    [blaze.anomaly-spec]
    [blaze.db.tx-log :as tx-log]
    [blaze.db.tx-log.kafka :as kafka]
+   [blaze.db.tx-log.kafka.codec :as codec]
    [blaze.db.tx-log.kafka.spec]
    [blaze.db.tx-log.kafka.util-test :refer [consumer-record]]
    [blaze.executors :as ex]
@@ -25,9 +26,10 @@
    [java.lang AutoCloseable]
    [java.time Duration Instant]
    [java.util Map]
+   [java.util.concurrent ArrayBlockingQueue]
    [org.apache.kafka.clients.consumer Consumer ConsumerRecords]
    [org.apache.kafka.clients.producer
-    Callback KafkaProducer Producer RecordMetadata]
+    Callback KafkaProducer Producer ProducerRecord RecordMetadata]
    [org.apache.kafka.common TopicPartition]
    [org.apache.kafka.common.errors
     AuthorizationException RecordTooLargeException]
@@ -48,15 +50,19 @@
   {::tx-log/kafka
    {:bootstrap-servers bootstrap-servers
     :topic "tx"
-    :last-t-executor (ig/ref ::kafka/last-t-executor)}
-   ::kafka/last-t-executor {}})
+    :last-t-executor (ig/ref ::kafka/last-t-executor)
+    :send-executor (ig/ref ::kafka/send-executor)}
+   ::kafka/last-t-executor {}
+   ::kafka/send-executor {}})
 
 (def none-default-key-config
   {[::tx-log/kafka :blaze.db.admin/tx-log]
    {:bootstrap-servers bootstrap-servers
     :topic "tx-admin"
-    :last-t-executor (ig/ref ::kafka/last-t-executor)}
-   ::kafka/last-t-executor {}})
+    :last-t-executor (ig/ref ::kafka/last-t-executor)
+    :send-executor (ig/ref ::kafka/send-executor)}
+   ::kafka/last-t-executor {}
+   ::kafka/send-executor {}})
 
 (defn- no-op-producer [{servers :bootstrap-servers}]
   (assert (= bootstrap-servers servers))
@@ -85,7 +91,8 @@
       :reason := ::ig/build-failed-spec
       [:cause-data ::s/problems 0 :pred] := `(fn ~'[%] (contains? ~'% :bootstrap-servers))
       [:cause-data ::s/problems 1 :pred] := `(fn ~'[%] (contains? ~'% :topic))
-      [:cause-data ::s/problems 2 :pred] := `(fn ~'[%] (contains? ~'% :last-t-executor))))
+      [:cause-data ::s/problems 2 :pred] := `(fn ~'[%] (contains? ~'% :last-t-executor))
+      [:cause-data ::s/problems 3 :pred] := `(fn ~'[%] (contains? ~'% :send-executor))))
 
   (testing "missing topic"
     (given-failed-system (update config ::tx-log/kafka dissoc :topic)
@@ -99,6 +106,12 @@
       :reason := ::ig/build-failed-spec
       [:cause-data ::s/problems 0 :pred] := `(fn ~'[%] (contains? ~'% :last-t-executor))))
 
+  (testing "missing send-executor"
+    (given-failed-system (update config ::tx-log/kafka dissoc :send-executor)
+      :key := ::tx-log/kafka
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :pred] := `(fn ~'[%] (contains? ~'% :send-executor))))
+
   (testing "invalid bootstrap servers"
     (given-failed-system (assoc-in config [::tx-log/kafka :bootstrap-servers] ::invalid)
       :key := ::tx-log/kafka
@@ -120,6 +133,20 @@
       [:cause-data ::s/problems 0 :via] := [::kafka/last-t-executor]
       [:cause-data ::s/problems 0 :val] := ::invalid))
 
+  (testing "invalid send-executor"
+    (given-failed-system (assoc-in config [::tx-log/kafka :send-executor] ::invalid)
+      :key := ::tx-log/kafka
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::kafka/send-executor]
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
+  (testing "invalid compact-encoding"
+    (given-failed-system (assoc-in config [::tx-log/kafka :compact-encoding] ::invalid)
+      :key := ::tx-log/kafka
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::kafka/compact-encoding]
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
   (testing "non default key"
     (with-redefs
      [kafka/create-producer
@@ -340,8 +367,188 @@
 
           (is (= (inc durations) (submit-durations))))))))
 
+;; An in-process stand-in of the single partition of the transaction topic. The
+;; producer appends the values of its records to `log` and the consumers read
+;; them from there, returning at most `max-poll-records` records per poll.
+(defn- in-process-producer [log]
+  (fn [{servers :bootstrap-servers}]
+    (assert (= bootstrap-servers servers))
+    (reify
+      Producer
+      (send [_ record callback]
+        (let [log (swap! log conj (.value ^ProducerRecord record))]
+          (.onCompletion ^Callback callback
+                         (RecordMetadata. nil (dec (count log)) 0 0 0 0) nil))
+        nil)
+      AutoCloseable
+      (close [_]))))
+
+(defn- in-process-consumer [log max-poll-records]
+  (fn [tx-partition {servers :bootstrap-servers}]
+    (assert (= bootstrap-servers servers))
+    (let [position (volatile! 0)]
+      (reify
+        Consumer
+        (^void seek [_ ^TopicPartition partition ^long offset]
+          (assert (= tx-partition partition))
+          (vreset! position offset))
+        (^long position [_ ^TopicPartition partition]
+          (assert (= tx-partition partition))
+          @position)
+        (^ConsumerRecords poll [_ ^Duration _]
+          (let [log @log
+                start @position
+                end (min (count log) (+ start max-poll-records))
+                records (mapv
+                         #(consumer-record % 0 TimestampType/LOG_APPEND_TIME
+                                           (.deserialize codec/deserializer "tx" (nth log %)))
+                         (range start end))]
+            (vreset! position (max start end))
+            (if (seq records)
+              (ConsumerRecords. (Map/of tx-partition records) (Map/of))
+              (ConsumerRecords. (Map/of) (Map/of)))))
+        AutoCloseable
+        (close [_])))))
+
+(defn- large-tx-cmds [n]
+  (mapv
+   (fn [id]
+     (let [patient {:fhir/type :fhir/Patient :id (str id)}]
+       {:op "create" :type "Patient" :id (str id) :hash (hash/generate patient)}))
+   (range n)))
+
+(defn- poll-n!
+  "Polls `tx-log` starting at `offset` until `n` transaction data are returned.
+
+  Polls with the same offset again if a poll returns no transaction data,
+  because polls can return only chunks of a transaction."
+  [tx-log offset n]
+  (loop [offset offset
+         tx-data []
+         polls 0]
+    (if (or (<= n (count tx-data)) (< 1000 polls))
+      tx-data
+      (let [new-tx-data (tx-log/poll! tx-log offset (time/seconds 1))]
+        (recur (if-let [{:keys [t]} (peek new-tx-data)] (inc t) offset)
+               (into tx-data new-tx-data)
+               (inc polls))))))
+
+(deftest chunked-transaction-test
+  (let [config (update config ::tx-log/kafka assoc :max-request-size 2048
+                       :compact-encoding true)
+        large-tx-cmds (large-tx-cmds 200)]
+    (doseq [max-poll-records [1 2 500]]
+      (testing (str "with at most " max-poll-records " records per poll")
+        (let [log (atom [])]
+          (with-redefs
+           [kafka/create-producer (in-process-producer log)
+            kafka/create-consumer (in-process-consumer log max-poll-records)
+            kafka/create-last-t-consumer no-op-consumer]
+            (with-system [{tx-log ::tx-log/kafka} config]
+              (let [t-1 @(tx-log/submit tx-log [tx-cmd] nil)
+                    t-2 @(tx-log/submit tx-log large-tx-cmds nil)
+                    t-3 @(tx-log/submit tx-log [tx-cmd] nil)]
+
+                (testing "the large transaction is split into several records"
+                  (is (= 1 t-1))
+                  (is (< 4 (- t-2 t-1)))
+                  (is (= (inc t-2) t-3)))
+
+                (testing "the transaction data are returned in order"
+                  (given (poll-n! tx-log 1 3)
+                    count := 3
+                    [0 :t] := t-1
+                    [0 :tx-cmds] := [tx-cmd]
+                    [1 :t] := t-2
+                    [1 :tx-cmds] := large-tx-cmds
+                    [2 :t] := t-3
+                    [2 :tx-cmds] := [tx-cmd]))
+
+                (testing "polling after the large transaction starts with
+                          the next transaction"
+                  (given (tx-log/poll! tx-log (inc t-2) (time/seconds 1))
+                    [0 :t] := t-3))))))))))
+
+(deftest plain-encoding-test
+  (testing "without compact encoding, a large transaction is sent in one
+            record"
+    (let [log (atom [])
+          large-tx-cmds (large-tx-cmds 200)]
+      (with-redefs
+       [kafka/create-producer (in-process-producer log)
+        kafka/create-consumer (in-process-consumer log 500)
+        kafka/create-last-t-consumer no-op-consumer]
+        (with-system [{tx-log ::tx-log/kafka} config]
+          (is (= 1 @(tx-log/submit tx-log large-tx-cmds nil)))
+          (is (= 1 (count @log)))
+
+          (given (tx-log/poll! tx-log 1 (time/seconds 1))
+            count := 1
+            [0 :t] := 1
+            [0 :tx-cmds] := large-tx-cmds))))))
+
 (def callback-thread-name "kafka-callback")
 
+(defn- buffered-producer
+  "Returns a function creating a producer with a buffer of `capacity` records.
+
+  Like a real producer, `send` blocks while the buffer is full and a single I/O
+  thread named `callback-thread-name` drains the buffer, appends the values of
+  the records to `log` and calls the callbacks."
+  [log capacity]
+  (fn [{servers :bootstrap-servers}]
+    (assert (= bootstrap-servers servers))
+    (let [buffer (ArrayBlockingQueue. (int capacity))
+          io-thread
+          (Thread.
+           ^Runnable
+           (fn []
+             (try
+               (while true
+                 (let [[value callback] (.take buffer)
+                       log (swap! log conj value)]
+                   (.onCompletion ^Callback callback
+                                  (RecordMetadata. nil (dec (count log)) 0 0 0 0)
+                                  nil)))
+               (catch InterruptedException _)))
+           ^String callback-thread-name)]
+      (.start io-thread)
+      (reify
+        Producer
+        (send [_ record callback]
+          (.put buffer [(.value ^ProducerRecord record) callback])
+          nil)
+        AutoCloseable
+        (close [_]
+          (.interrupt io-thread))))))
+
+(deftest chunked-transaction-full-buffer-test
+  (testing "concurrent large transactions with more chunks than the buffer of
+            the producer can hold complete, because the manifests aren't sent
+            from the I/O thread of the producer"
+    (let [config (update config ::tx-log/kafka assoc :max-request-size 2048
+                         :compact-encoding true)
+          large-tx-cmds-1 (large-tx-cmds 200)
+          large-tx-cmds-2 (large-tx-cmds 300)
+          log (atom [])]
+      (with-redefs
+       [kafka/create-producer (buffered-producer log 2)
+        kafka/create-consumer (in-process-consumer log 500)
+        kafka/create-last-t-consumer no-op-consumer]
+        (with-system [{tx-log ::tx-log/kafka} config]
+          (let [submit-1 (future @(tx-log/submit tx-log large-tx-cmds-1 nil))
+                submit-2 (future @(tx-log/submit tx-log large-tx-cmds-2 nil))
+                t-1 (deref submit-1 10000 ::timeout)
+                t-2 (deref submit-2 10000 ::timeout)]
+
+            (testing "both transactions complete"
+              (is (int? t-1))
+              (is (int? t-2)))
+
+            (testing "both transactions can be read"
+              (is (= #{large-tx-cmds-1 large-tx-cmds-2}
+                     (set (map :tx-cmds (poll-n! tx-log 1 2))))))))))))
+
 (defn- callback-thread-producer
   "Returns a function creating a producer that calls the callback of `send` on
   its own thread named `callback-thread-name`, like the I/O thread of a real
@@ -391,6 +598,23 @@
       count := 1
       [0] := tx-partition)))
 
+(deftest send-executor-shutdown-timeout-test
+  (let [{::kafka/keys [send-executor] :as system}
+        (ig/init {::kafka/send-executor {}})
+        ;; blocks until released, so halting the system produces a timeout
+        release! (tu/submit-blocking-task! #(ex/execute! send-executor %))]
+
+    (ig/halt! system)
+
+    ;; the executor is shut down
+    (is (ex/shutdown? send-executor))
+
+    ;; but it isn't terminated yet
+    (is (not (ex/terminated? send-executor)))
+
+    ;; release the blocking task, so its thread is freed
+    (release!)))
+
 (deftest last-t-executor-shutdown-timeout-test
   (let [{::kafka/keys [last-t-executor] :as system}
         (ig/init {::kafka/last-t-executor {}})
@@ -566,6 +566,18 @@
   ([db resource-handle source-type code]
    (p/-rev-include db resource-handle source-type code)))
 
+(defn compartment-ids
+  "Returns a reducible collection of the ids of all compartments with `code`
+  the resource of `resource-handle` is linked to.
+
+  The compartments are the ones the compartment definition with `code` links
+  the resource to by references. The compartments don't need to exist.
+
+  One example are the ids of the Patients whose compartment contains an
+  Observation because its subject or performer references them."
+  [db code resource-handle]
+  (p/-compartment-ids db code resource-handle))
+
 (defn patient-everything
   "Returns a reducible collection of resource handles in the compartment of
   `patient-handle` including supporting resources like Practitioners,
@@ -617,6 +629,21 @@
   [node-or-db resource-handle]
   (p/-pull-content node-or-db resource-handle :complete))
 
+(defn pull-raw
+  "Returns a CompletableFuture that will complete with the resource of
+  `resource-handle` or an anomaly in case of errors.
+
+  Like `pull`, but if the resource content isn't cached, it isn't parsed before
+  returning. Instead, a raw resource is returned that can only be written as
+  JSON (see `blaze.fhir.spec/raw-resource`). So use this function only if the
+  resource will be written as JSON without further processing. The resource
+  content is still parsed into the resource cache asynchronously, so that
+  subsequent pulls are served from the cache.
+
+  The metadata of raw resources is the same as the one of pulled resources."
+  [node-or-db resource-handle]
+  (p/-pull-raw node-or-db resource-handle))
+
 (defn pull-many
   "Returns a CompletableFuture that will complete with a vector of all resources
   of all `resource-handles` in the same order.
@@ -645,6 +672,9 @@
   pulling resources individually, for example streaming them as their handles
   become available, without the batching overhead of `pull-many`.
 
+  In addition, the option :raw? can be set to pull resources like `pull-raw`.
+  It is ignored if :variant :summary or :elements are given.
+
   The returned future completes exceptionally with an anomaly if the resource
   content was not found.
 
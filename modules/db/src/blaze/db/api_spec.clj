@@ -280,6 +280,11 @@
                :source-type (s/? :fhir.resource/type) :code (s/? string?))
   :ret (cs/coll-of :blaze.db/resource-handle))
 
+(s/fdef d/compartment-ids
+  :args (s/cat :db :blaze.db/db :code string?
+               :resource-handle :blaze.db/resource-handle)
+  :ret (cs/coll-of :blaze.resource/id))
+
 (s/fdef d/patient-everything
   :args (s/cat :db :blaze.db/db :patient-handle :blaze.db/resource-handle
                :date-range (s/? (s/cat :start (s/nilable :system/date)
@@ -305,6 +310,11 @@
                :resource-handle :blaze.db/resource-handle)
   :ret ac/completable-future?)
 
+(s/fdef d/pull-raw
+  :args (s/cat :node-or-db (s/or :node :blaze.db/node :db :blaze.db/db)
+               :resource-handle :blaze.db/resource-handle)
+  :ret ac/completable-future?)
+
 (s/fdef d/pull-many
   :args (s/cat :node-or-db (s/or :node :blaze.db/node :db :blaze.db/db)
                :resource-handles (s/coll-of :blaze.db/resource-handle)
@@ -205,6 +205,17 @@
     (rev-include db snapshot (rh/tid-id resource-handle)
                  (codec/tid source-type) (codec/c-hash code)))
 
+  (-compartment-ids [db code resource-handle]
+    (let [search-param-registry (:search-param-registry node)
+          type (name (:fhir/type resource-handle))
+          tid (codec/tid code)]
+      (coll/eduction
+       (comp
+        (mapcat #(spc/target-ids db resource-handle (codec/c-hash %) tid))
+        (map codec/id-string)
+        (distinct))
+       (sr/compartment-resources search-param-registry code type))))
+
   (-patient-everything [db patient-handle start end]
     (pe/patient-everything db patient-handle start end))
 
@@ -272,6 +283,9 @@
   (-pull-content [_ resource-handle variant]
     (p/-pull-content node resource-handle variant))
 
+  (-pull-raw [_ resource-handle]
+    (p/-pull-raw node resource-handle))
+
   (-pull-many [_ resource-handles opts]
     (p/-pull-many node resource-handles opts))
 
@@ -167,6 +167,10 @@
     (with-open-coll [batch-db (batch-db/new-batch-db node basis-t t since-t)]
       (p/-rev-include batch-db resource-handle source-type code)))
 
+  (-compartment-ids [_ code resource-handle]
+    (with-open-coll [batch-db (batch-db/new-batch-db node basis-t t since-t)]
+      (p/-compartment-ids batch-db code resource-handle)))
+
   (-patient-everything [_ patient-handle start end]
     (with-open-coll [batch-db (batch-db/new-batch-db node basis-t t since-t)]
       (p/-patient-everything batch-db patient-handle start end)))
@@ -237,6 +241,9 @@
   (-pull-content [_ resource-handle variant]
     (p/-pull-content node resource-handle variant))
 
+  (-pull-raw [_ resource-handle]
+    (p/-pull-raw node resource-handle))
+
   (-pull-many [_ resource-handles opts]
     (p/-pull-many node resource-handles opts))
 
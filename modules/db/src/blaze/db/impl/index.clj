@@ -3,9 +3,12 @@
   (:require
    [blaze.anomaly :as ba :refer [if-ok]]
    [blaze.async.comp :as ac :refer [do-sync]]
+   [blaze.byte-string :as bs]
    [blaze.coll.core :as coll]
+   [blaze.db.impl.codec :as codec]
    [blaze.db.impl.index.index-handle :as ih]
    [blaze.db.impl.index.plan :as plan]
+   [blaze.db.impl.index.resource-handle :as rh]
    [blaze.db.impl.protocols :as p]
    [blaze.db.impl.search-param :as search-param]
    [blaze.db.impl.search-param.util :as u]
@@ -261,12 +264,86 @@
     (resource-handle-mapper batch-db tid scan-clauses other-clauses)
     (ordered-index-handles batch-db tid scan-clauses start-id))))
 
+(defn- scan-segments
+  "Splits the disjunction `first-clause` into single-value clauses in the order
+  `index-handles` scans them."
+  [first-clause]
+  (into
+   []
+   (mapcat
+    (fn [[search-param modifier values compiled-values]]
+      (map #(vector search-param modifier [%1] [%2]) values compiled-values)))
+   first-clause))
+
+(defn- resource-handle-pred [batch-db clause]
+  (let [f ((matcher batch-db clause) (fn [_ _] true))]
+    #(f nil %)))
+
+(defn- start-segment-index
+  "Returns the index of the first of `segments` the resource with `start-id`
+  matches or nil if there is none.
+
+  Because the unordered scan emits every resource only at the first segment it
+  matches, that segment is the one the previous page stopped in."
+  [batch-db tid segments start-id]
+  (when-let [handle (p/-resource-handle batch-db tid start-id)]
+    (when-not (rh/deleted? handle)
+      (first
+       (keep-indexed
+        (fn [idx segment]
+          (when ((resource-handle-pred batch-db segment) handle) idx))
+        segments)))))
+
+(defn- emitted-before-start-id-filter
+  "Returns a transducer that removes resource handles that were already emitted
+  before `start-id` in an unordered scan over `segments` resumed in the segment
+  with index `k`.
+
+  Those are resource handles matching one of the segments before `k` or
+  matching segment `k` with an id lower than `start-id`."
+  [batch-db segments k start-id]
+  (let [earlier-preds (mapv (partial resource-handle-pred batch-db)
+                            (subvec segments 0 k))
+        start-segment-pred (resource-handle-pred batch-db (nth segments k))]
+    (remove
+     (fn [{:keys [id] :as handle}]
+       (or (some #(% handle) earlier-preds)
+           (and (bs/< (codec/id-byte-string id) start-id)
+                (start-segment-pred handle)))))))
+
+(defn- id-ordered-segments
+  "Returns the single-value segments of `first-clause` if there are more than
+  one and all of them support ordered index handles. Returns nil otherwise.
+
+  Only the index handles of such segments are ordered by id. Other segments,
+  like string prefixes or date ranges, are ordered by value first, so they
+  can't be resumed at a start-id."
+  [batch-db tid first-clause]
+  (let [segments (scan-segments first-clause)]
+    (when (and (< 1 (count segments))
+               (every? (partial supports-ordered-index-handles batch-db tid)
+                       segments))
+      segments)))
+
+(defn- segment-index-handles [batch-db tid segments]
+  (coll/eduction
+   (mapcat (partial ordered-index-handles** batch-db tid))
+   segments))
+
+(defn- resumed-index-handles [batch-db tid segments k start-id]
+  (coll/eduction
+   cat
+   [(ordered-index-handles** batch-db tid (nth segments k) start-id)
+    (segment-index-handles batch-db tid (subvec segments (inc k)))]))
+
 (defn- unordered-resource-handles
   ([batch-db tid [first-clause & other-clauses :as clauses]]
    (coll/eduction
     (comp (resource-handle-mapper batch-db tid clauses other-clauses)
           (distinct))
-    (index-handles batch-db tid first-clause)))
+    (if-let [segments (id-ordered-segments batch-db tid first-clause)]
+      (segment-index-handles batch-db tid segments)
+      (index-handles batch-db tid first-clause))))
   ([batch-db tid [first-clause & other-clauses :as clauses] start-id]
    (if (and (= 1 (count first-clause))
             (= 1 (count (peek (first first-clause)))))
@@ -274,9 +351,19 @@
       (comp (resource-handle-mapper batch-db tid clauses other-clauses)
             (distinct))
       (index-handles* batch-db tid (first first-clause) start-id))
-     (coll/eduction
-      (u/drop-while-not-start-id start-id)
-      (unordered-resource-handles batch-db tid clauses)))))
+     ;; instead of re-scanning all segments from the beginning, resume in the
+     ;; segment the start resource was emitted in and filter out everything
+     ;; emitted before it, so the work per page doesn't grow with page number
+     (let [segments (id-ordered-segments batch-db tid first-clause)]
+       (if-let [k (when segments (start-segment-index batch-db tid segments start-id))]
+         (coll/eduction
+          (comp (resource-handle-mapper batch-db tid clauses other-clauses)
+                (distinct)
+                (emitted-before-start-id-filter batch-db segments k start-id))
+          (resumed-index-handles batch-db tid segments k start-id))
+         (coll/eduction
+          (u/drop-while-not-start-id start-id)
+          (unordered-resource-handles batch-db tid clauses)))))))
 
 (defn type-query
   "Returns a reducible collection of resource handles from `batch-db` of type
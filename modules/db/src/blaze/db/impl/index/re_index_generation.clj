@@ -0,0 +1,52 @@
+(ns blaze.db.impl.index.re-index-generation
+  "Functions for accessing the re-index generation.
+
+  Re-indexing changes index entries of existing resources without a
+  transaction, so the `t` of a database doesn't identify the state of its
+  index entries. The re-index generation does. It's stored in the default
+  column family of the index store and incremented in the same put as the
+  index entries of every re-index batch. So every snapshot sees the
+  generation belonging to its index entries."
+  (:require
+   [blaze.coll.core :as coll]
+   [blaze.db.kv :as kv])
+  (:import
+   [com.google.common.primitives Longs]
+   [java.nio.charset StandardCharsets]))
+
+(set! *warn-on-reflection* true)
+
+(def ^:private generation-key
+  (.getBytes "re-index-generation" StandardCharsets/ISO_8859_1))
+
+(defn- decode-generation [bytes]
+  (Longs/fromByteArray bytes))
+
+(defn generation
+  "Returns the re-index generation of `snapshot`.
+
+  The initial generation is 0."
+  [snapshot]
+  (or (some-> (kv/snapshot-get snapshot :default generation-key)
+              decode-generation)
+      0))
+
+(def ^:private lock
+  (Object.))
+
+(defn put-next-generation!
+  "Stores the index `entries` of a re-index batch together with the next
+  re-index generation in `kv-store`.
+
+  Puts are serialized, so that every generation is written only once."
+  [kv-store entries]
+  (locking lock
+    (let [generation (or (some-> (kv/get kv-store :default generation-key)
+                                 decode-generation)
+                         0)]
+      (kv/put!
+       kv-store
+       (coll/eduction
+        cat
+        [entries
+         [[:default generation-key (Longs/toByteArray (inc (long generation)))]]])))))
@@ -2,6 +2,7 @@
   "Functions for accessing the SearchParamValueResource index."
   (:refer-clojure :exclude [keys])
   (:require
+   [blaze.byte-buffer :as bb]
    [blaze.byte-string :as bs]
    [blaze.byte-string-builder :as bsb]
    [blaze.coll.core :as coll]
@@ -12,7 +13,10 @@
    [blaze.db.kv :as kv]
    [blaze.fhir.hash :as hash])
   (:import
-   [blaze.db.impl.index SearchParamValueResource]))
+   [blaze.db.impl.index SearchParamValueResource SingleVersionId]
+   [clojure.lang IReduceInit]
+   [java.lang AutoCloseable]
+   [java.util ArrayDeque Arrays Comparator Iterator PriorityQueue]))
 
 (set! *warn-on-reflection* true)
 (set! *unchecked-math* :warn-on-boxed)
@@ -183,6 +187,123 @@
    (let [seek-key (encode-seek-key c-hash tid value start-id)]
      (index-handles* snapshot (inc (bs/size value)) seek-key))))
 
+(defn- starts-with? [^bytes key ^bytes prefix]
+  (let [length (alength prefix)]
+    (and (<= length (alength key))
+         (Arrays/equals key 0 length prefix 0 length))))
+
+(def ^:private ^:const ^long cursor-buffer-size
+  "The maximum number of single-version-ids read ahead for one value."
+  16)
+
+(defn- successor-key
+  "Returns the smallest key following `key`."
+  [^bytes key]
+  (Arrays/copyOf key (inc (alength key))))
+
+(defprotocol Cursor
+  (-head [cursor])
+  (-poll! [cursor])
+  (-fill! [cursor iter]))
+
+(deftype ValueCursor [^bytes prefix ^ArrayDeque svis
+                      ^:unsynchronized-mutable ^bytes next-key]
+  Cursor
+  (-head [_]
+    (.peek svis))
+  (-poll! [_]
+    (.poll svis))
+  (-fill! [_ iter]
+    (when next-key
+      (kv/seek! iter next-key)
+      (loop [n 0 last-key nil]
+        (if (and (kv/valid? iter) (< n cursor-buffer-size))
+          (let [key (kv/key iter)]
+            (if (starts-with? key prefix)
+              (do (.add svis (decode-single-version-id (bb/wrap key)))
+                  (kv/next! iter)
+                  (recur (inc n) key))
+              (set! next-key nil)))
+          (set! next-key (when (= cursor-buffer-size n)
+                           (successor-key last-key))))))))
+
+(defn- value-cursor
+  "Returns a cursor over the single-version-ids of all keys with `value` and an
+  id of at least `start-id` (optional)."
+  [c-hash tid start-id value]
+  (let [prefix (bs/to-byte-array (encode-seek-key-full-value c-hash tid value))]
+    (->ValueCursor prefix (ArrayDeque. cursor-buffer-size)
+                   (if start-id
+                     (bs/to-byte-array (encode-seek-key c-hash tid value start-id))
+                     prefix))))
+
+(defn- head-id-comp [cursor-1 cursor-2]
+  (.compareTo (.id ^SingleVersionId (-head cursor-1))
+              (.id ^SingleVersionId (-head cursor-2))))
+
+(deftype SortedValuesIterator [iter ^PriorityQueue queue]
+  Iterator
+  (hasNext [_]
+    (not (.isEmpty queue)))
+  (next [_]
+    (let [cursor (.poll queue)
+          svi (-poll! cursor)]
+      (when (nil? (-head cursor))
+        (-fill! cursor iter))
+      (when (-head cursor)
+        (.add queue cursor))
+      svi))
+  AutoCloseable
+  (close [_]
+    (.close ^AutoCloseable iter)))
+
+(defn- sorted-values-iterator
+  "Returns an iterator of the single-version-ids of keys with one of the
+  `values`, ordered by id.
+
+  The values are read ahead in one forward pass in index order. After that, the
+  value with the smallest next id is refilled by seeking the single iterator
+  only if its read-ahead buffer is empty."
+  [snapshot c-hash tid values start-id]
+  (let [iter (kv/new-iterator snapshot :search-param-value-index)
+        queue (PriorityQueue. (int (max 1 (count values))) ^Comparator head-id-comp)]
+    (try
+      (run!
+       (fn [value]
+         (let [cursor (value-cursor c-hash tid start-id value)]
+           (-fill! cursor iter)
+           (when (-head cursor)
+             (.add queue cursor))))
+       values)
+      (SortedValuesIterator. iter queue)
+      (catch Throwable e
+        (.close ^AutoCloseable iter)
+        (throw e)))))
+
+(defn index-handles-sorted-values
+  "Returns a reducible and iterable collection of index handles, ordered by id,
+  from keys with one of the `values` and an id of at least `start-id`
+  (optional).
+
+  The `values` have to be sorted in index order. All values are read using a
+  single iterator, instead of merging one iterator per value. The values are
+  merged by id using a priority queue of cursors, each holding at most
+  16 single-version-ids read ahead, so the index handles are streamed and
+  stopping early, as by paging, doesn't read all keys."
+  ([snapshot c-hash tid values]
+   (index-handles-sorted-values snapshot c-hash tid values nil))
+  ([snapshot c-hash tid values start-id]
+   (coll/eduction
+    u/by-id-grouper
+    (reify
+      IReduceInit
+      (reduce [coll rf init]
+        (with-open [iter ^AutoCloseable (.iterator coll)]
+          (clojure.core.protocols/iterator-reduce! iter rf init)))
+      Iterable
+      (iterator [_]
+        (sorted-values-iterator snapshot c-hash tid values start-id))))))
+
 (defn index-handles'
   "Returns a reducible collection of index handles from keys starting at
   `start-value` and ending when `prefix-length` bytes of `start-value` is no
@@ -251,16 +372,20 @@
   [c-hash tid value id hash]
   [:search-param-value-index (encode-key c-hash tid value id hash) bytes/empty])
 
+(defn- estimated-scan-size* [kv-store seek-key]
+  (let [key-range [seek-key (bs/concat seek-key (bs/from-hex "FF"))]]
+    (kv/estimate-scan-size kv-store :search-param-value-index key-range)))
+
 (defn estimated-scan-size
   "Returns a relative estimation for the amount of work to do while scanning the
   SearchParamValueResource index with the prefix consisting of `c-hash`, `tid`
-  and `value`.
+  and `value` (optional).
 
   The metric is relative and unitless. It can be only used to compare the amount
   of scan work between different prefixes.
 
   Returns an anomaly if estimating the scan size isn't supported by `kv-store`."
-  [kv-store c-hash tid value]
-  (let [seek-key (encode-seek-key c-hash tid value)
-        key-range [seek-key (bs/concat seek-key (bs/from-hex "FF"))]]
-    (kv/estimate-scan-size kv-store :search-param-value-index key-range)))
+  ([kv-store c-hash tid]
+   (estimated-scan-size* kv-store (encode-seek-key c-hash tid)))
+  ([kv-store c-hash tid value]
+   (estimated-scan-size* kv-store (encode-seek-key c-hash tid value))))
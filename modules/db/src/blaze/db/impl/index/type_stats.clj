@@ -19,6 +19,7 @@
    [blaze.byte-string :as bs]
    [blaze.byte-string-builder :as bsb]
    [blaze.db.impl.codec :as codec]
+   [blaze.db.impl.index.util :refer [read-t!]]
    [blaze.db.impl.iterators :as i]))
 
 (set! *warn-on-reflection* true)
@@ -44,6 +45,16 @@
   (i/seek-value snapshot :type-stats-index decode-value! codec/tid-size
                 (bs/from-byte-array (encode-key tid t))))
 
+(defn- decode-t! [buf]
+  (read-t! buf codec/tid-size))
+
+(defn last-change-t
+  "Returns the `t` of the most recent transaction, according to `t,` that
+  changed resources of `tid` if there is any."
+  [snapshot tid t]
+  (i/seek-key snapshot :type-stats-index decode-t! codec/tid-size
+              (bs/from-byte-array (encode-key tid t))))
+
 (defn- encode-value [{:keys [total num-changes]}]
   (-> (bsb/allocate value-size)
       (bsb/put-long! total)
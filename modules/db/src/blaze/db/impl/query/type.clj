@@ -9,21 +9,61 @@
    [blaze.db.impl.index.resource-handle :as rh]
    [blaze.db.impl.protocols :as p]
    [blaze.db.impl.query.util :as qu]
-   [blaze.db.impl.search-param.chained :as spc]))
+   [blaze.db.impl.search-param.chained :as spc]
+   [blaze.db.search-result-cache :as src]))
 
-(defrecord TypeQuery [tid clauses]
+(defn- search-result-cache [batch-db]
+  (-> batch-db :node :search-result-cache))
+
+(defn- cached-handles
+  "Returns the cached resource handles of the query with `cache-key` if there
+  are any."
+  [batch-db tid cache-key]
+  (when cache-key
+    (when-let [cache (search-result-cache batch-db)]
+      (src/cached-handles cache batch-db tid cache-key))))
+
+(defn- from-start-id
+  "Returns the subvector of `handles` starting with the handle with `start-id`
+  or nil if there is none."
+  [handles start-id]
+  (let [n (count handles)]
+    (loop [i 0]
+      (when (< i n)
+        (if (= start-id (:id (nth handles i)))
+          (subvec handles i)
+          (recur (inc i)))))))
+
+;; A type query over resources with `tid`. The `cache-key` is nil if the results
+;; of the query can't be cached in the search result cache.
+(defrecord TypeQuery [tid clauses cache-key]
   p/Query
   (-count [_ batch-db]
-    (index/type-query-total batch-db tid (:search-clauses clauses)))
+    (if-let [handles (cached-handles batch-db tid cache-key)]
+      (ac/completed-future (count handles))
+      (index/type-query-total batch-db tid (:search-clauses clauses))))
   (-execute [_ batch-db]
-    (index/type-query batch-db tid clauses))
+    (let [cache (search-result-cache batch-db)]
+      (if (and cache cache-key)
+        (src/resource-handles cache batch-db tid cache-key
+                              #(index/type-query batch-db tid clauses))
+        (index/type-query batch-db tid clauses))))
   (-execute [_ batch-db start-id]
-    (index/type-query batch-db tid clauses (codec/id-byte-string start-id)))
+    (or (some-> (cached-handles batch-db tid cache-key) (from-start-id start-id))
+        (index/type-query batch-db tid clauses (codec/id-byte-string start-id))))
   (-query-clauses [_]
     (qu/decode-clauses clauses))
   (-query-plan [_ batch-db]
     (index/type-query-plan batch-db tid clauses)))
 
+(defn type-query
+  "Returns a type query over resources with `tid` and `clauses`.
+
+  The results of the query are cached in the search result cache of the node,
+  if the node has one and the results can be cached."
+  [tid clauses]
+  (->TypeQuery tid clauses (src/cache-key tid clauses)))
+
 (def ^:private ^:const ^long patient-compartment-hash (codec/c-hash "Patient"))
 (def ^:private ^:const ^long patient-code-hash (codec/c-hash "patient"))
 (def ^:private ^:const ^long patient-tid (codec/tid "Patient"))
@@ -198,8 +198,12 @@
 (defn- compile-concept [{:keys [system code]}]
   (codec/v-hash (str (:value system) "|" (:value code))))
 
-(defn- compile-concepts [url value-set]
-  (let [hashes (mapv compile-concept (:contains (:expansion value-set)))]
+(defn- compile-concepts
+  "Returns a vector of distinct hashes of the concepts of the expansion of
+  `value-set`, sorted in index order."
+  [url value-set]
+  (let [hashes (vec (into (sorted-set) (map compile-concept)
+                          (:contains (:expansion value-set))))]
     (log/trace "Compiled" (count hashes) "hashes from the expansion of value set with URL:" url)
     hashes))
 
@@ -207,13 +211,59 @@
   (-> (ts/expand-value-set terminology-service (parameters url))
       (ac/then-apply (partial compile-concepts url))))
 
-(defn- compile-value-set-cache [terminology-service]
+(defn- versioned? [url]
+  (str/includes? url "|"))
+
+(defn- compile-value-set-cache
+  "Creates a cache of compiled value sets by URL.
+
+  Value sets with unversioned URLs are refreshed after one hour. Value sets
+  with versioned URLs are immutable and so are kept until they are evicted."
+  [terminology-service]
   (-> (Caffeine/newBuilder)
       (.maximumSize 1000)
       (.refreshAfterWrite (time/hours 1))
       (^[AsyncCacheLoader] Caffeine/.buildAsync
-       (fn [url _]
-         (compile-value-set* terminology-service url)))))
+       (reify AsyncCacheLoader
+         (asyncLoad [_ url _]
+           (compile-value-set* terminology-service url))
+         (asyncReload [_ url hashes _]
+           (if (versioned? url)
+             (ac/completed-future hashes)
+             (compile-value-set* terminology-service url)))))))
+
+(def ^:private ^:const ^long merge-scan-threshold
+  "The number of codes of value sets from which on the index is read in one
+  pass over all codes instead of merging one scan per code."
+  100)
+
+(defn- merge-scan? [compiled-values]
+  (<= merge-scan-threshold (count compiled-values)))
+
+(defn- sorted-compiled-values
+  "Returns the distinct hashes of all compiled value sets in index order."
+  [compiled-values]
+  (if (= 1 (count compiled-values))
+    (first compiled-values)
+    (vec (into (sorted-set) cat compiled-values))))
+
+(defn- in-estimated-scan-size
+  "Estimates the scan size of all `hashes` of a compiled value set. Uses the
+  whole range of `c-hash` and `tid` for large value sets, because they are
+  read in one pass and estimating every hash would be costly itself."
+  [kv-store c-hash tid hashes]
+  (if (merge-scan? hashes)
+    (sp-vr/estimated-scan-size kv-store c-hash tid)
+    (transduce
+     (comp (map (partial sp-vr/estimated-scan-size kv-store c-hash tid))
+           (halt-when ba/anomaly?))
+     + hashes)))
+
+(defn- in-index-handles
+  "Returns index handles, ordered by id, of resources having one of the
+  `hashes` of a compiled value set, starting at `start-id` (optional)."
+  [{:keys [snapshot]} c-hash tid hashes start-id]
+  (sp-vr/index-handles-sorted-values snapshot c-hash tid hashes start-id))
 
 (defn- expand-value-set-msg [url cause-msg]
   (format "Error while expanding the ValueSet `%s`. Cause: %s" url cause-msg))
@@ -307,8 +357,10 @@
       (ac/completed-future (codec/v-hash value))))
 
   (-estimated-scan-size [_ batch-db tid modifier compiled-value]
-    (let [c-hash (c-hash-w-modifier c-hash code (canonical-url-modifier expression-type modifier))]
-      (sp-vr/estimated-scan-size (:kv-store batch-db) c-hash tid compiled-value)))
+    (if (= "in" modifier)
+      (in-estimated-scan-size (:kv-store batch-db) c-hash tid compiled-value)
+      (let [c-hash (c-hash-w-modifier c-hash code (canonical-url-modifier expression-type modifier))]
+        (sp-vr/estimated-scan-size (:kv-store batch-db) c-hash tid compiled-value))))
 
   (-supports-ordered-index-handles [_ _ _ _ _]
     true)
@@ -317,8 +369,14 @@
     [search-param batch-db tid modifier compiled-values]
     (if (= "in" modifier)
       (let [all-compiled-values (flatten compiled-values)]
-        (if (empty? all-compiled-values)
+        (cond
+          (empty? all-compiled-values)
           []
+
+          (merge-scan? all-compiled-values)
+          (in-index-handles batch-db c-hash tid (sorted-compiled-values compiled-values) nil)
+
+          :else
           (p/-ordered-index-handles search-param batch-db tid nil all-compiled-values)))
       (if (= 1 (count compiled-values))
         (p/-index-handles search-param batch-db tid modifier (first compiled-values))
@@ -328,7 +386,10 @@
   (-ordered-index-handles
     [search-param batch-db tid modifier compiled-values start-id]
     (if (= "in" modifier)
-      (p/-ordered-index-handles search-param batch-db tid nil (flatten compiled-values) start-id)
+      (let [all-compiled-values (flatten compiled-values)]
+        (if (merge-scan? all-compiled-values)
+          (in-index-handles batch-db c-hash tid (sorted-compiled-values compiled-values) start-id)
+          (p/-ordered-index-handles search-param batch-db tid nil all-compiled-values start-id)))
       (if (= 1 (count compiled-values))
         (p/-index-handles search-param batch-db tid modifier (first compiled-values) start-id)
         (let [index-handles #(p/-index-handles search-param batch-db tid modifier % start-id)]
@@ -96,6 +96,7 @@
    [blaze.db.node.subscription :as sub]
    [blaze.db.node.transaction :as tx]
    [blaze.db.node.tx-indexer :as tx-indexer]
+   [blaze.db.node.tx-indexer.expand :as expand]
    [blaze.db.node.tx-indexer.util :as tx-u]
    [blaze.db.node.tx-indexer.verify :as verify]
    [blaze.db.node.util :as node-util]
@@ -104,10 +105,12 @@
    [blaze.db.node.waiters :as waiters]
    [blaze.db.resource-cache :as rc]
    [blaze.db.resource-cache.spec]
+   [blaze.db.search-result-cache.spec]
    [blaze.db.resource-store :as rs]
    [blaze.db.search-param-registry :as sr]
    [blaze.db.tx-log :as tx-log]
    [blaze.fhir.canonical :as canonical]
+   [blaze.fhir.spec :as fhir-spec]
    [blaze.fhir.spec.references :as fsr]
    [blaze.fhir.spec.type :as type]
    [blaze.fhir.util :as fu]
@@ -180,6 +183,21 @@
   (take 11 (iterate #(* 2 %) 1))
   "node")
 
+(defhistogram commit-group-transactions
+  "Number of transactions the indexer commits together in one group.
+
+  With a maximum commit group size above one, the indexing loop verifies a
+  transaction against the database value of the transactions before it, even if
+  they aren't committed yet, and commits up to that many transactions with a
+  single write of their success or error entries. A group never spans batches,
+  so the number of transactions per group is bounded by the batch as well.
+
+  The `node` label distinguishes the individual nodes like main and admin."
+  {:namespace "blaze"
+   :subsystem "db_node"}
+  (take 11 (iterate #(* 2 %) 1))
+  "node")
+
 (defcounter submit-rejections-total
   "Number of transaction submits rejected because the maximum number of
   in-flight transactions was already reached.
@@ -190,6 +208,8 @@
   "node")
 
 (def ^:private ^:const default-max-in-flight-transactions 1024)
+(def ^:private ^:const default-max-commit-group-size 1)
+(def ^:private ^:const default-tx-chunk-size 10000)
 
 (defn- closed-node-msg [node-name]
   (format "The database node `%s` is closed." node-name))
@@ -389,11 +409,6 @@
                                (update :waiters waiters/remove-ready t)))]
     (waiters/complete-ready! old-waiters t current-t)))
 
-(defn- commit-error! [{:keys [kv-store state]} t anomaly]
-  (log/trace "commit transaction error with t =" t)
-  (kv/put! kv-store [(tx-error/index-entry t anomaly)])
-  (advance-error-t! state t))
-
 (defn- store-tx-entries! [node-name kv-store entries]
   (log/trace "store" (count entries) "transaction index entries")
   (with-open [_ (prom/timer duration-seconds node-name "store-tx-entries")]
@@ -748,12 +763,6 @@
           (ac/complete! publish-finished true)
           (log/trace "exit changed resources publisher"))))))
 
-(defn- commit-success! [{:keys [node-name kv-store state]} t instant]
-  (log/trace "commit transaction success with t =" t)
-  (with-open [_ (prom/timer duration-seconds node-name "store-tx-success-entries")]
-    (kv/put! kv-store (tx-success-entries t instant)))
-  (advance-t! state t))
-
 (defn- observe-index-resources!
   "Observes `timer` after all chunks of a transaction completed, so that it
   measures when its resources were actually indexed and not when the loop got
@@ -767,29 +776,47 @@
   (-> (ac/all-of (mapv second pending))
       (ac/when-complete (fn [_ _] (prom/observe-duration! timer)))))
 
+(defn- last-t
+  "Returns the t of the last transaction of `group` that passes `xf` or nil if
+  there is none."
+  [xf group]
+  (transduce (comp xf (map (comp :t :tx-data))) (completing (fn [_ t] t))
+             nil group))
+
+(defn- db-before
+  "Returns the database value the head transaction is verified against.
+
+  That is the database value of the last successful transaction of `group`, the
+  transactions applied already but not committed yet, because all their index
+  entries and resources are written and only their success entries are missing.
+  It's the database value of `node` otherwise."
+  [node group]
+  (if-let [t (last-t (remove :anomaly) group)]
+    (db/db node t)
+    (np/-db node)))
+
 (defn- verify-tx!
-  "Verifies the transaction of `tx-chunk-state` against the database value
-  before it and stores its transaction index entries — step 2 of applying a
-  transaction.
+  "Verifies the transaction of `tx-chunk-state` against `db-before` and stores
+  its transaction index entries — step 2 of applying a transaction.
 
   Doesn't wait for the resources of that transaction, because the entries it
-  writes are keyed by its `t` and stay invisible until `commit-tx!` moves the
+  writes are keyed by its `t` and stay invisible until `commit-group!` moves the
   head of the TxSuccess index. Only that last step needs the resources to be
   indexed.
 
   Returns `tx-chunk-state` marked as verified, carrying the anomaly of a
-  rejected transaction, so that `commit-tx!` commits the error instead of the
+  rejected transaction, so that `commit-group!` commits the error instead of the
   success.
 
   Drops the chunks of a rejected transaction that aren't dispatched yet, because
   a transaction that produces no version references none of the index entries
   they would write. The ones already dispatched are still awaited, so that no
   task outlives the loop."
-  [{:keys [node-name kv-store read-only-matcher stats] :as node}
+  [{:keys [node-name kv-store read-only-matcher stats]} db-before
    {{:keys [t tx-cmds] :as tx-data} :tx-data
     :keys [chunks pending timer] :as tx-chunk-state}]
   (log/trace "index transaction with t =" t "and" (count tx-cmds) "command(s)")
-  (let [result (index-tx node-name {:db-before (np/-db node)
+  (let [result (index-tx node-name {:db-before db-before
                                     :read-only-matcher read-only-matcher
                                     :stats @stats} tx-data)]
     (if (ba/anomaly? result)
@@ -807,16 +834,47 @@
         (vreset! stats (:stats result))
         (assoc tx-chunk-state :verified? true)))))
 
-(defn- commit-tx!
-  "Commits either the success or the error of the transaction of
-  `tx-chunk-state` — step 3 of applying a transaction.
-
-  Runs after the resources of that transaction were indexed, because the success
-  marker is what makes them reachable."
-  [node {{:keys [t instant]} :tx-data :keys [anomaly]}]
+(defn- commit-entries [{{:keys [t instant]} :tx-data :keys [anomaly]}]
   (if anomaly
-    (commit-error! node t anomaly)
-    (commit-success! node t instant)))
+    [(tx-error/index-entry t anomaly)]
+    (tx-success-entries t instant)))
+
+(defn- store-commit-entries! [node-name kv-store group]
+  (let [entries (into [] (mapcat commit-entries) group)]
+    (if (every? :anomaly group)
+      (kv/put! kv-store entries)
+      (with-open [_ (prom/timer duration-seconds node-name "store-tx-success-entries")]
+        (kv/put! kv-store entries)))))
+
+(defn- commit-group!
+  "Commits either the success or the error of each transaction of `group` —
+  step 3 of applying a transaction — with a single write.
+
+  Runs after the resources of all transactions of `group` were indexed, because
+  the success marker is what makes them reachable. Advances the state only once
+  for the successful and once for the failed transactions, so that the waiters
+  of the whole group are released together."
+  [{:keys [node-name kv-store state]} group]
+  (log/trace "commit" (count group) "transaction(s) up to t ="
+             (:t (:tx-data (peek group))))
+  (prom/observe! commit-group-transactions node-name (count group))
+  (store-commit-entries! node-name kv-store group)
+  (when-let [t (last-t (remove :anomaly) group)]
+    (advance-t! state t))
+  (when-let [t (last-t (filter :anomaly) group)]
+    (advance-error-t! state t)))
+
+(defn- commit-group?
+  "Returns true if `group` has to be committed before the loop moves on to the
+  transaction after `head`.
+
+  That is the case if the group is full, if `head` is the last transaction of
+  the batch, because a group never outlives its batch, or if the loop is asked
+  to stop."
+  [{:keys [state] {:keys [commit-group-size]} :index-bounds} group head n]
+  (or (<= commit-group-size (count group))
+      (= (inc head) n)
+      (not (:run? @state))))
 
 (defn- cmd-rs-keys
   "Returns the resource store keys of all resources of `tx-cmds` that have to be
@@ -874,12 +932,8 @@
   [resource-indexer last-updated fetch chunk]
   (-> (fetch chunk)
       (ac/then-compose
-       (fn [entries]
-         (ac/all-of
-          (mapv (fn [[hash resource]]
-                  (resource-indexer/index-resource resource-indexer last-updated
-                                                   hash resource))
-                entries))))))
+       (partial resource-indexer/index-resources resource-indexer
+                last-updated))))
 
 (defn- dispatch-chunk!
   "Dispatches the next chunk of `tx-chunk-state`, returning `tx-chunk-state`
@@ -963,6 +1017,11 @@
   transaction waits for them, and a rejected one doesn't dispatch the chunks it
   has left at all.
 
+  Transactions whose resources are indexed are collected into a commit group of
+  at most `:commit-group-size` transactions. The next head is verified against
+  the database value of that group already, so that the group can be committed
+  with a single write at its end, instead of one write per transaction.
+
   Chunks are awaited in dispatch order and transactions are applied in order, so
   the order of the observable effects is unchanged. Stops after the transaction
   that turned `:run?` of `state` off, which makes closing responsive
@@ -979,7 +1038,8 @@
     (try
       (loop [head 0
              dispatch (next-dispatch @tx-chunk-states 0)
-             in-flight 0]
+             in-flight 0
+             group []]
         (when (< head n)
           (let [current @tx-chunk-states
                 next-size (when (< dispatch n)
@@ -989,25 +1049,30 @@
               (do (vswap! tx-chunk-states assoc dispatch
                           (dispatch-chunk! node (nth current dispatch)))
                   (recur head (next-dispatch @tx-chunk-states dispatch)
-                         (long (+ in-flight next-size))))
+                         (long (+ in-flight next-size)) group))
 
               (not (:verified? (nth current head)))
               (do (vswap! tx-chunk-states assoc head
-                          (verify-tx! node (nth current head)))
+                          (verify-tx! node (db-before node group)
+                                      (nth current head)))
                   ;; a rejected transaction drops the chunks it has left, so the
                   ;; dispatch index can point at a transaction without chunks now
-                  (recur head (next-dispatch @tx-chunk-states dispatch) in-flight))
+                  (recur head (next-dispatch @tx-chunk-states dispatch) in-flight
+                         group))
 
               (seq (:pending (nth current head)))
               (let [[tx-chunk-state size] (await-chunk! node-name
                                                         (nth current head))]
                 (vswap! tx-chunk-states assoc head tx-chunk-state)
-                (recur head dispatch (long (- in-flight size))))
+                (recur head dispatch (long (- in-flight size)) group))
 
               :else
-              (do (commit-tx! node (nth current head))
-                  (when (:run? @state)
-                    (recur (inc head) dispatch in-flight)))))))
+              (let [group (conj group (nth current head))]
+                (if (commit-group? node group head n)
+                  (do (commit-group! node group)
+                      (when (:run? @state)
+                        (recur (inc head) dispatch in-flight [])))
+                  (recur (inc head) dispatch in-flight group)))))))
       (finally
         (drain! @tx-chunk-states)))))
 
@@ -1082,6 +1147,21 @@
     (-> (update resource :meta enhance-resource-meta t tx)
         (with-meta (mk-meta handle tx)))))
 
+(defn- raw-resource [tx-cache handle content]
+  (let [t (:t handle)
+        {:blaze.db.tx/keys [instant] :as tx} (tx-success/tx tx-cache t)]
+    (-> (fhir-spec/raw-resource (:fhir/type handle) (:id handle) content
+                                (type/id (str t)) (node-util/instant instant))
+        (with-meta (mk-meta handle tx)))))
+
+(defn- raw-or-not-found
+  "Returns the raw resource of `resource-handle` with `content` or a not-found
+  anomaly if `content` is nil."
+  [tx-cache resource-handle content]
+  (if content
+    (raw-resource tx-cache resource-handle content)
+    (resource-content-not-found-anom resource-handle)))
+
 (defn- rs-keys-of-non-deleted [resource-handles variant]
   (into [] (comp (remove rh/deleted?) (map #(node-util/rs-key % variant))) resource-handles))
 
@@ -1117,6 +1197,25 @@
     (ac/completed-future (deleted-resource resource-handle))
     (get resource-cache (node-util/rs-key resource-handle variant))))
 
+(defn- pull-raw
+  "Returns a CompletableFuture that will complete with the cached resource of
+  `resource-handle` or with a raw resource read from `resource-store`.
+
+  The resource content read from the store is parsed into the resource cache
+  asynchronously if `insert?` is true."
+  [tx-cache resource-cache resource-store insert? resource-handle]
+  (if (rh/deleted? resource-handle)
+    (do-sync [resource (get-resource resource-cache rc/get resource-handle :complete)]
+      (enhance-or-not-found tx-cache resource-handle resource))
+    (let [key (node-util/rs-key resource-handle :complete)]
+      (if-let [future (rc/get-if-present resource-cache key)]
+        (do-sync [resource future]
+          (enhance-or-not-found tx-cache resource-handle resource))
+        (do-sync [content (rs/get-content resource-store key)]
+          (when (and insert? content)
+            (rc/put-content! resource-cache key content))
+          (raw-or-not-found tx-cache resource-handle content))))))
+
 (defn- single-clause-with-code-fn? [codes]
   (fn [clauses]
     (and (= 1 (count clauses)) (contains? codes (:code (ffirst clauses))))))
@@ -1175,7 +1274,7 @@
          (if (empty? clauses)
            (qt/->EmptyTypeQuery (codec/tid type))
            (or (try-compile-patient-type-query search-param-registry type clauses)
-               (qt/->TypeQuery (codec/tid type) clauses)))))))
+               (qt/type-query (codec/tid type) clauses)))))))
 
 (defn- compile-system-query [search-param-registry clauses lenient?]
   (do-sync [clauses (index/resolve-search-params search-param-registry "Resource" clauses lenient?)]
@@ -1229,10 +1328,38 @@
   (-> (index/resolve-search-params search-param-registry "Resource" clauses false)
       (ac/then-apply (fn [clauses] (batch-db/->Matcher (:search-clauses clauses))))))
 
+(defn- put-resources!
+  "Stores the resource contents of `entries` in `resource-store`.
+
+  Stores large transactions in chunks of `chunk-size` resources one after
+  another, so that only the encoded contents of one chunk are held in memory at
+  a time. The parsed resources of `entries` stay in memory until the
+  transaction is submitted."
+  [resource-store chunk-size entries]
+  (if (< chunk-size (count entries))
+    (reduce
+     (fn [future chunk]
+       (ac/then-compose future (fn [_] (rs/put! resource-store (into {} chunk)))))
+     (ac/completed-future nil)
+     (partition-all chunk-size entries))
+    (rs/put! resource-store entries)))
+
+(defn- local-payload
+  "Returns the resource contents of `entries` as local payload of the
+  transaction or nil for large transactions.
+
+  The resources of large transactions are fetched from the resource store by
+  the indexer, chunk by chunk, instead of keeping them in the transaction log
+  queue until the transaction is indexed."
+  [chunk-size entries]
+  (when (<= (count entries) chunk-size)
+    entries))
+
 (defrecord Node [node-name context tx-log tx-cache kv-store resource-cache
                  resource-store sync-fn search-param-registry resource-indexer
                  index-bounds read-only-matcher acquire-in-flight! state stats
-                 poll-timeout queue-capacity index-finished publish-finished]
+                 poll-timeout queue-capacity index-finished publish-finished
+                 search-result-cache]
   np/Node
   (-db [node]
     (db/db node (:t @state)))
@@ -1261,10 +1388,13 @@
         :else
         (if-ok [_ (validation/validate-ops tx-ops)
                 _ (acquire-in-flight!)]
-          (let [[tx-cmds entries] (tx/prepare-ops context tx-ops)]
-            (-> (rs/put! resource-store entries)
+          (let [[tx-cmds entries] (tx/prepare-ops context tx-ops)
+                chunk-size (:blaze.db/tx-chunk-size context)]
+            (-> (put-resources! resource-store chunk-size entries)
                 (ac/then-compose-async
-                 (fn [_] (tx-log/submit tx-log tx-cmds entries)))
+                 (fn [_]
+                   (tx-log/submit tx-log tx-cmds (local-payload chunk-size
+                                                                entries))))
                 (ac/when-complete (fn [t _] (swap! state settle-in-flight t)))))
           ac/completed-future))))
 
@@ -1318,6 +1448,9 @@
       (or (some-> resource (with-meta (meta resource-handle)))
           (resource-content-not-found-anom resource-handle))))
 
+  (-pull-raw [_ resource-handle]
+    (pull-raw tx-cache resource-cache resource-store true resource-handle))
+
   (-pull-many [_ resource-handles opts]
     (let [{:keys [variant elements skip-cache-insertion?]
            :or {variant :complete}} opts
@@ -1334,15 +1467,19 @@
          resource-handles))))
 
   (-pull-fn [_ opts]
-    (let [{:keys [variant elements skip-cache-insertion?] :or {variant :complete}} opts
-          get (if skip-cache-insertion?
-                rc/get-skip-cache-insertion
-                rc/get)
-          subset (some-> elements subset-resource-fn)]
-      (fn [resource-handle]
-        (do-sync [resource (get-resource resource-cache get resource-handle variant)]
-          (cond-> (enhance-or-not-found tx-cache resource-handle resource)
-            (and subset resource) subset)))))
+    (let [{:keys [variant elements skip-cache-insertion? raw?]
+           :or {variant :complete}} opts]
+      (if (and raw? (= :complete variant) (empty? elements))
+        (partial pull-raw tx-cache resource-cache resource-store
+                 (not skip-cache-insertion?))
+        (let [get (if skip-cache-insertion?
+                    rc/get-skip-cache-insertion
+                    rc/get)
+              subset (some-> elements subset-resource-fn)]
+          (fn [resource-handle]
+            (do-sync [resource (get-resource resource-cache get resource-handle variant)]
+              (cond-> (enhance-or-not-found tx-cache resource-handle resource)
+                (and subset resource) subset)))))))
 
   AutoCloseable
   (close [_]
@@ -1414,11 +1551,13 @@
             "referential integrity checks"))
 
 (defn- ctx
-  [{:keys [enforce-referential-integrity allow-multiple-delete]
+  [{:keys [enforce-referential-integrity allow-multiple-delete tx-chunk-size]
     :or {enforce-referential-integrity true
-         allow-multiple-delete false}}]
+         allow-multiple-delete false
+         tx-chunk-size default-tx-chunk-size}}]
   {:blaze.db/enforce-referential-integrity enforce-referential-integrity
-   :blaze.db/allow-multiple-delete allow-multiple-delete})
+   :blaze.db/allow-multiple-delete allow-multiple-delete
+   :blaze.db/tx-chunk-size tx-chunk-size})
 
 (def ^:private expected-kv-store-version 0)
 
@@ -1492,16 +1631,21 @@
    [:blaze.db/enforce-referential-integrity
     :blaze.db/allow-multiple-delete
     :blaze.db/max-in-flight-transactions
+    :blaze.db/max-commit-group-size
+    :blaze.db/tx-chunk-size
+    :blaze.db/search-result-cache
     ::poll-timeout
     ::queue-capacity]))
 
 (defmethod ig/init-key :blaze.db/node
   [key {:keys [storage tx-log tx-cache kv-store resource-indexer resource-cache
                resource-store search-param-registry scheduler poll-timeout
-               queue-capacity max-in-flight-transactions]
+               queue-capacity max-in-flight-transactions max-commit-group-size
+               search-result-cache]
         :or {poll-timeout (time/seconds 1)
              queue-capacity 16
-             max-in-flight-transactions default-max-in-flight-transactions}
+             max-in-flight-transactions default-max-in-flight-transactions
+             max-commit-group-size default-max-commit-group-size}
         :as config}]
   (init-msg key config)
   (check-version! kv-store)
@@ -1513,8 +1657,9 @@
         node (->Node node-name (ctx config) tx-log tx-cache
                      kv-store resource-cache resource-store (sync-fn storage)
                      search-param-registry resource-indexer
-                     (node-util/index-bounds
-                      (resource-indexer/pool-size resource-indexer))
+                     (assoc (node-util/index-bounds
+                             (resource-indexer/pool-size resource-indexer))
+                            :commit-group-size max-commit-group-size)
                      (compile-read-only-matcher search-param-registry)
                      (acquire-in-flight-fn node-name state
                                            max-in-flight-transactions)
@@ -1523,7 +1668,8 @@
                      poll-timeout
                      queue-capacity
                      (ac/future)
-                     (ac/future))]
+                     (ac/future)
+                     search-result-cache)]
     (when (= :building (:type (plc/state kv-store)))
       (sched/submit scheduler #(build-patient-last-change-index key node)))
     (thread/start-thread! #(index-loop node)
@@ -1591,6 +1737,9 @@
 (reg-collector ::index-batch-transactions
   index-batch-transactions)
 
+(reg-collector ::commit-group-transactions
+  commit-group-transactions)
+
 (reg-collector ::submit-rejections-total
   submit-rejections-total)
 
@@ -1599,3 +1748,6 @@
 
 (reg-collector ::tx-indexer/duration-seconds
   tx-u/duration-seconds)
+
+(reg-collector ::tx-indexer/conditional-queries-total
+  expand/conditional-queries-total)
@@ -6,6 +6,7 @@
    [blaze.coll.core :as coll]
    [blaze.db.impl.codec :as codec]
    [blaze.db.impl.index.compartment.resource :as cr]
+   [blaze.db.impl.index.re-index-generation :as rig]
    [blaze.db.impl.search-param :as search-param]
    [blaze.db.kv :as kv]
    [blaze.db.kv.spec]
@@ -109,17 +110,67 @@
   indexed.
 
   The `last-updated` instant is used to index the _lastUpdated search parameter
-  because the property doesn't exist in the resource itself.
-
-  Indexes a single resource, because the number of resources indexed at once is
-  decided by the indexing loop of the node, which bounds it across transaction
-  boundaries."
+  because the property doesn't exist in the resource itself."
   [{:keys [kv-store search-param-registry executor]} last-updated hash resource]
   (ac/supply-async
    #(put! kv-store (resource-index-entries search-param-registry last-updated
                                            hash resource))
    executor))
 
+(def ^:private ^:const max-write-batch-entries
+  "The number of index entries after which a write batch is closed."
+  10000)
+
+(defn- write-batches
+  "Returns the index entries of `entries-by-resource` grouped into write batches
+  of about `max-write-batch-entries` entries.
+
+  Never splits the entries of a single resource, so the bound is driven by the
+  number of entries and not by the number of resources."
+  [entries-by-resource]
+  (let [[batches batch]
+        (reduce
+         (fn [[batches batch] entries]
+           (let [batch (into batch entries)]
+             (if (<= max-write-batch-entries (count batch))
+               [(conj batches batch) []]
+               [batches batch])))
+         [[] []]
+         entries-by-resource)]
+    (cond-> batches (seq batch) (conj batch))))
+
+(defn- index-entries-future
+  [{:keys [search-param-registry executor]} last-updated [hash resource]]
+  (ac/supply-async
+   #(resource-index-entries search-param-registry last-updated hash resource)
+   executor))
+
+(defn- put-future [{:keys [kv-store executor]} entries]
+  (ac/supply-async #(put! kv-store entries) executor))
+
+(defn index-resources
+  "Returns a CompletableFuture that completes after all resources of
+  `hash-resource-pairs` are indexed.
+
+  Calculates the index entries of the resources in parallel but writes them
+  with one put per write batch of about `max-write-batch-entries` entries
+  instead of one put per resource, which is what the costs of indexing small
+  resources like Observations are dominated by.
+
+  Indexes the resources of one chunk only, because the number of resources
+  indexed at once is decided by the indexing loop of the node, which bounds it
+  across transaction boundaries."
+  [resource-indexer last-updated hash-resource-pairs]
+  (let [futures (mapv (partial index-entries-future resource-indexer
+                               last-updated)
+                      hash-resource-pairs)]
+    (-> (ac/all-of futures)
+        (ac/then-compose
+         (fn [_]
+           (ac/all-of
+            (mapv (partial put-future resource-indexer)
+                  (write-batches (map ac/join futures)))))))))
+
 (defn pool-size
   "Returns the number of threads of the executor of `resource-indexer`.
 
@@ -133,9 +184,13 @@
   (log/trace "Re-index resource with hash" (str hash))
   (search-param-index-entries search-param nil hash resource))
 
-(defn async-re-index-resources [kv-store executor search-param resources]
+(defn async-re-index-resources
+  "Writes the index entries of `resources` for `search-param` together with the
+  next re-index generation, so that cached search results of the previous
+  generation are no longer used."
+  [kv-store executor search-param resources]
   (ac/supply-async
-   #(kv/put!
+   #(rig/put-next-generation!
      kv-store
      (coll/eduction
       (mapcat (partial re-index-resource search-param))
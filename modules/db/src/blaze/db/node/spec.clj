@@ -19,6 +19,10 @@
 (s/def :blaze.db.node.index-bounds/look-ahead
   pos-int?)
 
+(s/def :blaze.db.node.index-bounds/commit-group-size
+  pos-int?)
+
 (s/def :blaze.db.node/index-bounds
   (s/keys :req-un [:blaze.db.node.index-bounds/chunk-size
-                   :blaze.db.node.index-bounds/look-ahead]))
+                   :blaze.db.node.index-bounds/look-ahead]
+          :opt-un [:blaze.db.node.index-bounds/commit-group-size]))
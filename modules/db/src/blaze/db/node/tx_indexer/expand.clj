@@ -11,25 +11,60 @@
    [blaze.db.node.tx-indexer.util :as tx-u]
    [blaze.db.search-param-registry :as sr]
    [cognitect.anomalies :as anom]
-   [prometheus.alpha :as prom]))
+   [prometheus.alpha :as prom :refer [defcounter]])
+  (:import
+   [java.util HashMap]))
 
 (set! *warn-on-reflection* true)
 
+(defcounter conditional-queries-total
+  "Number of queries of conditional creates and deletes.
+
+  The `result` label is `executed` for queries executed against the database
+  and `reused` for queries identical to a query already executed for the same
+  transaction."
+  {:namespace "blaze"
+   :subsystem "db_tx_indexer"}
+  "result")
+
+(defn- query-matches-fn
+  "Returns a function of `type`, `clauses` and `n` that returns a
+  CompletableFuture that will complete with at most `n` resource handles of
+  `type` in `db` matching `clauses`.
+
+  Identical queries are executed only once, because all commands of a
+  transaction are expanded based on the same database. The returned function
+  isn't thread-safe."
+  [db]
+  (let [futures (HashMap.)]
+    (fn [type clauses n]
+      (let [key [type clauses n]]
+        (if-let [future (.get futures key)]
+          (do (prom/inc! conditional-queries-total "reused")
+              future)
+          (let [future (-> (d/type-query db type clauses)
+                           (ac/then-apply #(into [] (take n) %)))]
+            (prom/inc! conditional-queries-total "executed")
+            (.put futures key future)
+            future))))))
+
 (defmulti expand
   "Expands `command` into possibly many commands.
 
+  The `context` contains the database before the transaction under :db-before
+  and a function returned by `query-matches-fn` under :query-matches.
+
   Returns a CompletableFuture that completes with the expanded commands or
   completes exceptionally with an anomaly on errors."
-  {:arglists '([db-before command])}
+  {:arglists '([context command])}
   (fn [_ {:keys [op]}] op))
 
 (defn- failing-conditional-create-query-msg [type clauses {::anom/keys [message]}]
   (format "Conditional create of a %s with query `%s` failed. Cause: %s"
           type (tx-u/clauses->query-params clauses) message))
 
-(defn- conditional-create-matches [db type clauses]
-  (-> (d/type-query db type clauses)
-      (ac/then-apply #(into [] (take 2) %))
+(defn- conditional-create-matches [query-matches type clauses]
+  (-> (query-matches type clauses 2)
       (ac/exceptionally #(ba/incorrect (failing-conditional-create-query-msg type clauses %)))))
 
 (defn- format-handle [type {:keys [id t]}]
@@ -46,10 +81,10 @@
    :http/status 412))
 
 (defmethod expand "create"
-  [db-before {:keys [type if-none-exist] :as command}]
+  [{:keys [query-matches]} {:keys [type if-none-exist] :as command}]
   (with-open [_ (prom/timer tx-u/duration-seconds "expand-create")]
     (if if-none-exist
-      (do-sync [[h1 h2] (conditional-create-matches db-before type if-none-exist)]
+      (do-sync [[h1 h2] (conditional-create-matches query-matches type if-none-exist)]
         (cond
           h2 (multiple-existing-resources-anom type if-none-exist [h1 h2])
           h1 [(assoc command :op "hold" :id (:id h1))]
@@ -77,8 +112,8 @@
   (format "Conditional delete of %ss with query `%s` failed. Cause: %s"
           type (tx-u/clauses->query-params clauses) message))
 
-(defn- conditional-delete-matches [db type clauses]
-  (-> (d/type-query db type clauses)
+(defn- conditional-delete-matches [query-matches type clauses n]
+  (-> (query-matches type clauses n)
       (ac/exceptionally #(ba/incorrect (failing-conditional-delete-query-msg type clauses %)))))
 
 (defn- multiple-matches-msg
@@ -98,10 +133,11 @@
    :http/status 412))
 
 (defmethod expand "conditional-delete"
-  [db-before {:keys [type clauses allow-multiple] :as command}]
+  [{:keys [db-before query-matches]} {:keys [type clauses allow-multiple] :as command}]
   (with-open [_ (prom/timer tx-u/duration-seconds "expand-conditional-delete")]
     (-> (if clauses
-          (conditional-delete-matches db-before type clauses)
+          (conditional-delete-matches query-matches type clauses
+                                      (if allow-multiple (inc max-multiple-deletes) 2))
           (ac/completed-future (d/type-list db-before type)))
         (ac/then-apply
          (fn [matches]
@@ -135,7 +171,7 @@
      (sr/compartment-resources search-param-registry "Patient"))))
 
 (defmethod expand "patient-purge"
-  [db-before {:keys [id check-refs] :or {check-refs false}}]
+  [{:keys [db-before]} {:keys [id check-refs] :or {check-refs false}}]
   (with-open [_ (prom/timer tx-u/duration-seconds "expand-patient-purge")]
     (ac/completed-future
      (when-let [handle (d/resource-handle db-before "Patient" id)]
@@ -150,11 +186,15 @@
 (defn expand-tx-cmds
   "Expands all non-terminal `tx-cmds` into terminal transaction commands.
 
+  Queries of conditional creates and deletes are executed only once per
+  transaction, even if many commands have identical queries.
+
   Returns a CompletableFuture that completes with the expanded commands or
   completes exceptionally with an anomaly on errors."
   [db-before tx-cmds]
   (let [timer (prom/timer tx-u/duration-seconds "expand-tx-cmds")
-        futures (mapv (partial expand db-before) tx-cmds)]
+        context {:db-before db-before :query-matches (query-matches-fn db-before)}
+        futures (mapv (partial expand context) tx-cmds)]
     (-> (ac/all-of futures)
         (ac/then-apply (fn [_] (into [] (mapcat ac/join) futures)))
         (ac/when-complete (fn [_ _] (.close timer))))))
@@ -11,6 +11,8 @@
    [blaze.db.resource-cache.spec]
    [blaze.db.resource-store :as rs]
    [blaze.db.resource-store.spec]
+   [blaze.fhir.parsing-context.spec]
+   [blaze.fhir.spec :as fhir-spec]
    [blaze.module :as m]
    [clojure.spec.alpha :as s]
    [integrant.core :as ig]
@@ -22,7 +24,8 @@
    [com.github.benmanes.caffeine.cache.stats CacheStats]
    [java.lang.reflect Array]
    [java.util ArrayList Collection Collections HashMap Map]
-   [java.util.concurrent CompletableFuture]))
+   [java.util.concurrent CompletableFuture]
+   [java.util.function BiFunction]))
 
 (set! *warn-on-reflection* true)
 
@@ -45,6 +48,14 @@
   [cache key]
   (p/-get-skip-cache-insertion cache key))
 
+(defn get-if-present
+  "Returns a CompletableFuture that will complete with the cached resource
+  content of the resource with `key` or nil if it isn't cached.
+
+  The key is a tuple of `type`, `hash` and `variant`."
+  [cache key]
+  (p/-get-if-present cache key))
+
 (defn multi-get
   "Returns a CompletableFuture that will complete with a map from `key` to the
   resource content of all found `keys`.
@@ -64,6 +75,18 @@
   [cache keys]
   (p/-multi-get-skip-cache-insertion cache keys))
 
+(defn put-content!
+  "Inserts the resource parsed from the CBOR encoded `content` under `key`
+  asynchronously if `key` isn't cached already.
+
+  Used if the resource content was read from the store without the cache, so
+  that the cache is still filled without reading the content a second time.
+
+  The key is a tuple of `type`, `hash` and `variant`. The variant has to be
+  :complete."
+  [cache key content]
+  (p/-put-content cache key content))
+
 (defn- all-of [^Collection coll]
   (-> (.toArray coll ^CompletableFuture/1 (Array/newInstance CompletableFuture 0))
       (CompletableFuture/allOf)))
@@ -77,7 +100,15 @@
   (do-sync [_ (ac/all-of [futures-1 futures-2])]
     (merge (ac/join futures-1) (ac/join futures-2))))
 
-(deftype DefaultResourceCache [^AsyncLoadingCache cache resource-store]
+(defn- parse-fn [parsing-context content]
+  (reify BiFunction
+    (apply [_ key executor]
+      (ac/supply-async
+       #(fhir-spec/parse-cbor parsing-context (name (nth key 0)) content)
+       executor))))
+
+(deftype DefaultResourceCache [^AsyncLoadingCache cache resource-store
+                               parsing-context]
   p/ResourceCache
   (-get [_ key]
     (.get cache key))
@@ -88,6 +119,9 @@
         ;; the spec of the rs/get function
         (rs/-get resource-store key)))
 
+  (-get-if-present [_ key]
+    (.getIfPresent cache key))
+
   (-multi-get [_ keys]
     (.getAll cache keys))
 
@@ -106,6 +140,11 @@
         ;; satisfy the spec of the rs/multi-get function
         (merge-futures (rs/-multi-get resource-store (Collections/unmodifiableList keys-to-load))))))
 
+  (-put-content [_ key content]
+    (when parsing-context
+      (.get cache key ^BiFunction (parse-fn parsing-context content)))
+    nil)
+
   ccp/StatsCache
   (-stats [_]
     (.stats (.synchronous cache)))
@@ -122,13 +161,15 @@
       (Base/memSize resource))))
 
 (defmethod m/pre-init-spec :blaze.db/resource-cache [_]
-  (s/keys :req-un [:blaze.db/resource-store] :opt-un [::max-size-ratio]))
+  (s/keys :req-un [:blaze.db/resource-store]
+          :opt-un [:blaze.fhir/parsing-context ::max-size-ratio]))
 
 (def ^:private ^:const default-max-size-ratio 0.25)
 (def ^:private ^:const max-max-size-ratio 0.8)
 
 (defmethod ig/init-key :blaze.db/resource-cache
-  [_ {:keys [resource-store max-size-ratio] :or {max-size-ratio default-max-size-ratio}}]
+  [_ {:keys [resource-store parsing-context max-size-ratio]
+       :or {max-size-ratio default-max-size-ratio}}]
   (let [max-memory (.maxMemory (Runtime/getRuntime))
         max-size-ratio (if (< max-max-size-ratio max-size-ratio) max-max-size-ratio max-size-ratio)
         max-size-in-bytes (long (* max-memory max-size-ratio))]
@@ -143,12 +184,16 @@
         (-get-skip-cache-insertion [_ key]
           (rs/get resource-store key))
 
+        (-get-if-present [_ _])
+
         (-multi-get [_ keys]
           (rs/multi-get resource-store keys))
 
         (-multi-get-skip-cache-insertion [_ keys]
           (rs/multi-get resource-store keys))
 
+        (-put-content [_ _ _])
+
         ccp/StatsCache
         (-stats [_]
           (CacheStats/empty))
@@ -169,4 +214,5 @@
                ;; use the protocol method directly because keys will not
                ;; satisfy the spec of the rs/multi-get function
                 (rs/-multi-get resource-store keys)))))
-       resource-store))))
+       resource-store
+       parsing-context))))
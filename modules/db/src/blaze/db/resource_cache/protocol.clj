@@ -5,6 +5,10 @@
 
   (-get-skip-cache-insertion [cache key])
 
+  (-get-if-present [cache key])
+
   (-multi-get [cache key])
 
-  (-multi-get-skip-cache-insertion [cache key]))
+  (-multi-get-skip-cache-insertion [cache key])
+
+  (-put-content [cache key content]))
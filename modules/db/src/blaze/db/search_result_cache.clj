@@ -0,0 +1,153 @@
+(ns blaze.db.search-result-cache
+  "A cache for the resource handles matching type queries.
+
+  Clients often poll the same search repeatedly. The results of those searches
+  only change if a transaction changes resources of the queried type. Every
+  such transaction writes an entry into the TypeStats index at its `t`. So the
+  `t` of the most recent TypeStats entry of a type, called change t here,
+  identifies the state of all resources of that type.
+
+  Re-indexing a search parameter changes the results of queries without a
+  transaction. So entries also hold the re-index generation, which is
+  incremented in the same write as every re-index batch. Because it's stored
+  in the index store, it's seen by every database reading that index store,
+  not only by the node doing the re-index.
+
+  Entries are keyed by the type and the clauses of the query and hold the
+  state, the change t and re-index generation, they were computed at. An
+  entry is only used if the state of the database is still the same.
+  Otherwise the query is executed again.
+
+  Queries are only cached after they were seen at least once before, so that
+  queries executed only once don't have to be realized fully. The same holds
+  after a change of the type, so that polling a type which is also written
+  doesn't realize the result after every write. Results with more than
+  `max-result-size` resource handles aren't cached, even after changes of the
+  type."
+  (:require
+   [blaze.db.impl.index.re-index-generation :as rig]
+   [blaze.db.impl.index.type-stats :as type-stats]
+   [blaze.db.impl.query.util :as qu]
+   [blaze.db.impl.search-param.chained]
+   [blaze.db.search-result-cache.spec]
+   [blaze.module :as m]
+   [clojure.spec.alpha :as s]
+   [integrant.core :as ig]
+   [taoensso.timbre :as log])
+  (:import
+   [blaze.db.impl.search_param.chained ChainedSearchParam]
+   [com.github.benmanes.caffeine.cache Cache Caffeine Weigher]))
+
+(set! *warn-on-reflection* true)
+
+(def ^:const ^long max-result-size
+  "The maximum number of resource handles of a single cached result."
+  10000)
+
+;; The `state` is a tuple of change t and re-index generation. The `handles`
+;; are either a vector of resource handles, nil if the query was only seen
+;; before or ::too-large if the result was too large to be cached.
+(deftype Entry [state handles])
+
+(defn- state
+  "Returns the state of resources of `tid` in `batch-db` as tuple of their
+  change t and the re-index generation or nil if results of `batch-db` can't
+  be cached.
+
+  Results of since databases aren't cached, because they see only a part of
+  the changes. Results of as-of databases are only cached if no resource of
+  `tid` was changed after their `t`, because purges after `t` are visible in
+  them."
+  [{:keys [snapshot basis-t t since-t]} tid]
+  (when (zero? (long since-t))
+    (let [change-t (or (type-stats/last-change-t snapshot tid t) 0)]
+      (when (or (= basis-t t)
+                (= change-t (or (type-stats/last-change-t snapshot tid basis-t) 0)))
+        [change-t (rig/generation snapshot)]))))
+
+(defn- valid-entry [^Cache cache key state]
+  (when-let [^Entry entry (.getIfPresent cache key)]
+    (when (= state (.-state entry))
+      entry)))
+
+(defn cached-handles
+  "Returns the vector of resource handles of the query with `key` over
+  resources of `tid` in `batch-db` if it is cached and still valid."
+  [cache batch-db tid key]
+  (when-let [state (state batch-db tid)]
+    (when-let [^Entry entry (valid-entry cache key state)]
+      (let [handles (.-handles entry)]
+        (when (vector? handles)
+          handles)))))
+
+(defn- reset-handles
+  "Returns the handles of an entry whose state is outdated. Only keeps the
+  knowledge that the result is too large, because realizing a result again is
+  only worth it if it was seen again after the change."
+  [handles]
+  (when (identical? ::too-large handles) ::too-large))
+
+(defn- realize! [^Cache cache key state execute]
+  (let [handles (into [] (take (inc max-result-size)) (execute))]
+    (if (< max-result-size (count handles))
+      (do (.put cache key (Entry. state ::too-large))
+          (execute))
+      (do (.put cache key (Entry. state handles))
+          handles))))
+
+(defn resource-handles
+  "Returns a reducible collection of the resource handles of the query with
+  `key` over resources of `tid` in `batch-db`.
+
+  Uses the cached resource handles if they are still valid. Otherwise calls
+  `execute` with no arguments, which has to return a reducible collection of
+  the resource handles of the query."
+  [^Cache cache batch-db tid key execute]
+  (if-let [state (state batch-db tid)]
+    (if-let [^Entry entry (.getIfPresent cache key)]
+      (let [handles (.-handles entry)]
+        (cond
+          (not= state (.-state entry))
+          (do (.put cache key (Entry. state (reset-handles handles)))
+              (execute))
+          (vector? handles) handles
+          (nil? handles) (realize! cache key state execute)
+          :else (execute)))
+      (do (.put cache key (Entry. state nil))
+          (execute)))
+    (execute)))
+
+(def ^:private weigher
+  (reify Weigher
+    (weigh [_ _ entry]
+      (let [handles (.-handles ^Entry entry)]
+        (if (vector? handles) (inc (count handles)) 1)))))
+
+(defn- cacheable-clause? [[search-param modifier]]
+  (not (or (instance? ChainedSearchParam search-param)
+           (#{"_has" "_list"} (:code search-param))
+           (#{"in" "not-in" "above" "below"} modifier))))
+
+(defn cache-key
+  "Returns the key of the query over resources with `tid` and `clauses` or nil
+  if its results can't be cached.
+
+  The results of queries with clauses which also depend on resources of other
+  types, like chained, _has or _list clauses, or on terminology can't be
+  cached, because they can change without a change of resources of `tid`."
+  [tid {:keys [search-clauses] :as clauses}]
+  (when (every? #(every? cacheable-clause? %) search-clauses)
+    [tid (qu/decode-clauses clauses)]))
+
+(defmethod m/pre-init-spec :blaze.db/search-result-cache [_]
+  (s/keys :opt-un [::max-size]))
+
+(defmethod ig/init-key :blaze.db/search-result-cache
+  [_ {:keys [max-size] :or {max-size 0}}]
+  (log/info "Create search result cache with a size of" max-size
+            "resource handles")
+  (-> (Caffeine/newBuilder)
+      (.maximumWeight max-size)
+      (.weigher weigher)
+      (.recordStats)
+      (.build)))
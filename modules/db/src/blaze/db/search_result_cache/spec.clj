@@ -0,0 +1,11 @@
+(ns blaze.db.search-result-cache.spec
+  (:require
+   [clojure.spec.alpha :as s])
+  (:import
+   [com.github.benmanes.caffeine.cache Cache]))
+
+(s/def :blaze.db/search-result-cache
+  #(instance? Cache %))
+
+(s/def :blaze.db.search-result-cache/max-size
+  nat-int?)
@@ -43,8 +43,12 @@
 (s/def :blaze.db/resource-handle
   rh/resource-handle?)
 
+(s/def :blaze.db.pull-opts/raw?
+  boolean?)
+
 (s/def :blaze.db/pull-opts
-  (s/keys :opt-un [:blaze.resource/variant :blaze.resource/elements]))
+  (s/keys :opt-un [:blaze.resource/variant :blaze.resource/elements
+                   :blaze.db.pull-opts/raw?]))
 
 (s/def :blaze.db/query
   #(satisfies? p/Query %))
@@ -117,3 +121,9 @@
 
 (s/def :blaze.db/max-in-flight-transactions
   pos-int?)
+
+(s/def :blaze.db/max-commit-group-size
+  pos-int?)
+
+(s/def :blaze.db/tx-chunk-size
+  pos-int?)
@@ -18,6 +18,7 @@
    [blaze.db.node-spec]
    [blaze.db.node.protocols :as np]
    [blaze.db.node.resource-indexer :as resource-indexer]
+   [blaze.db.resource-cache :as rc]
    [blaze.db.resource-store :as rs]
    [blaze.db.search-param-registry]
    [blaze.db.test-util :refer [config non-referential-integrity-config wait-for
@@ -26,6 +27,7 @@
    [blaze.db.tx-log-spec]
    [blaze.db.tx-log.local-spec]
    [blaze.fhir.hash :as hash]
+   [blaze.fhir.spec :as fhir-spec]
    [blaze.fhir.spec.generators :as fg]
    [blaze.fhir.spec.type :as type]
    [blaze.fhir.spec.type.system :as system]
@@ -4391,6 +4393,96 @@
                  (= (into [] (map :id) @(d/type-query db "Patient" clauses start-id))
                     (drop-while #(not= start-id %) sorted-ids)))))))))
 
+(deftest type-query-unordered-start-id-test
+  (testing "multiple values of an unordered scan clause"
+    (with-system-data [{:blaze.db/keys [node]} config]
+      [(forv [id (range 30)]
+         [:put {:fhir/type :fhir/Patient :id (format "%02d" id)
+                :name
+                [(type/human-name
+                  {:given
+                   (cond-> []
+                     (zero? (rem id 2)) (conj #fhir/string "alpha")
+                     (zero? (rem id 3)) (conj #fhir/string "beta")
+                     (zero? (rem id 5)) (conj #fhir/string "gamma"))})]}])]
+
+      (let [db (d/db node)]
+        (doseq [clauses [[["given" "alpha" "beta" "gamma"]]
+                         [["given" "gamma" "beta" "alpha"]]
+                         [["given" "beta" "gamma"] ["given" "alpha"]]]]
+          (let [ids (into [] (map :id) @(d/type-query db "Patient" clauses))]
+            (given (explain-type-query node "Patient" clauses)
+              :scan-type := :unordered)
+
+            (testing "every resource is returned only once"
+              (is (= (count ids) (count (distinct ids)))))
+
+            (testing "resuming at every start-id returns the remaining resources"
+              (doseq [start-id ids]
+                (is (= (drop-while #(not= start-id %) ids)
+                       (into [] (map :id) @(d/type-query db "Patient" clauses start-id)))))))))))
+
+  (testing "disjunction of unordered scan clauses"
+    (with-system-data [{:blaze.db/keys [node]} config]
+      [(forv [id (range 20)]
+         [:put {:fhir/type :fhir/Patient :id (format "%02d" id)
+                :name
+                [(type/human-name
+                  (cond-> {}
+                    (zero? (rem id 2)) (assoc :family #fhir/string "family")
+                    (zero? (rem id 3)) (assoc :given [#fhir/string "given"])))]}])]
+
+      (let [db (d/db node)
+            clauses [[["family" "family"] ["given" "given"]]]
+            ids (into [] (map :id) @(d/type-query db "Patient" clauses))]
+        (is (= (count ids) (count (distinct ids))))
+
+        (doseq [start-id ids]
+          (is (= (drop-while #(not= start-id %) ids)
+                 (into [] (map :id) @(d/type-query db "Patient" clauses start-id))))))))
+
+  (testing "string prefixes ordered by value before id"
+    (with-system-data [{:blaze.db/keys [node]} config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"
+               :name [#fhir/HumanName{:family #fhir/string "abz"}]}]
+        [:put {:fhir/type :fhir/Patient :id "1"
+               :name [#fhir/HumanName{:family #fhir/string "aba"}]}]
+        [:put {:fhir/type :fhir/Patient :id "2"
+               :name [#fhir/HumanName{:family #fhir/string "ba"}]}]]]
+
+      (let [db (d/db node)
+            clauses [["family" "ab" "ba"]]
+            ids (into [] (map :id) @(d/type-query db "Patient" clauses))]
+        (given (explain-type-query node "Patient" clauses)
+          :scan-type := :unordered)
+
+        (is (= ["1" "0" "2"] ids))
+
+        (doseq [start-id ids]
+          (is (= (drop-while #(not= start-id %) ids)
+                 (into [] (map :id) @(d/type-query db "Patient" clauses start-id))))))))
+
+  (testing "date ranges ordered by value before id"
+    (with-system-data [{:blaze.db/keys [node]} config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"
+               :birthDate #fhir/date #system/date "2020-12-01"}]
+        [:put {:fhir/type :fhir/Patient :id "1"
+               :birthDate #fhir/date #system/date "2020-01-01"}]
+        [:put {:fhir/type :fhir/Patient :id "2"
+               :birthDate #fhir/date #system/date "2021-05-05"}]]]
+
+      (let [db (d/db node)
+            clauses [["birthdate" "2020" "2021"]]
+            ids (into [] (map :id) @(d/type-query db "Patient" clauses))]
+        (given (explain-type-query node "Patient" clauses)
+          :scan-type := :unordered)
+
+        (is (= #{"0" "1" "2"} (set ids)))
+
+        (doseq [start-id ids]
+          (is (= (drop-while #(not= start-id %) ids)
+                 (into [] (map :id) @(d/type-query db "Patient" clauses start-id)))))))))
+
 (deftest type-query-sort-test
   (testing "sorting by _id"
     (with-system-data [{:blaze.db/keys [node]} config]
@@ -10815,6 +10907,51 @@
               [:scan-clauses 0 :values] := ["url-170214"]
               [:seek-clauses count] := 0)))))
 
+    (testing "many codes"
+      (with-redefs [ts/expand-value-set
+                    (fn [_ params]
+                      (assert (= "url-141529" (:value (:value (first (:parameter params))))))
+                      (ac/completed-future
+                       {:fhir/type :fhir/ValueSet
+                        :expansion
+                        {:fhir/type :fhir.ValueSet/expansion
+                         :contains
+                         (into
+                          [{:fhir/type :fhir.ValueSet.expansion/contains
+                            :code #fhir/code "C69.4"
+                            :system #fhir/uri "http://fhir.de/CodeSystem/bfarm/icd-10-gm"}
+                           {:fhir/type :fhir.ValueSet.expansion/contains
+                            :code #fhir/code "C71.4"
+                            :system #fhir/uri "http://fhir.de/CodeSystem/bfarm/icd-10-gm"}]
+                          (map
+                           (fn [n]
+                             {:fhir/type :fhir.ValueSet.expansion/contains
+                              :code (type/code (str "D" n))
+                              :system #fhir/uri "http://fhir.de/CodeSystem/bfarm/icd-10-gm"}))
+                          (range 200))}}))]
+        (let [clauses [["code:in" "url-141529"]]]
+          (testing "type query"
+            (given-type-query node "Condition" clauses
+              count := 2
+              [0 :id] := "0"
+              [1 :id] := "2")
+
+            (testing "it is possible to start with the second condition"
+              (given (pull-type-query node "Condition" clauses "2")
+                count := 1
+                [0 :id] := "2"))
+
+            (testing "it is possible to start with an id without a condition"
+              (given (pull-type-query node "Condition" clauses "1")
+                count := 1
+                [0 :id] := "2")))
+
+          (testing "compartment query"
+            (given (pull-compartment-query node "Patient" "0" "Condition" clauses)
+              count := 2
+              [0 :id] := "0"
+              [1 :id] := "2")))))
+
     (testing "with ValueSet expansion errors"
       (with-redefs [ts/expand-value-set (fn [_ _] (ac/completed-future (ba/fault "msg-125400")))]
         (testing "type query"
@@ -10822,6 +10959,54 @@
             ::anom/category := ::anom/fault
             ::anom/message := "Error while expanding the ValueSet `utl-161924`. Cause: msg-125400"))))))
 
+(defn- condition-with-codes [id codes]
+  {:fhir/type :fhir/Condition :id id
+   :code
+   (type/codeable-concept
+    {:coding
+     (mapv
+      #(type/coding
+        {:system #fhir/uri "http://fhir.de/CodeSystem/bfarm/icd-10-gm"
+         :code (type/code %)})
+      codes)})})
+
+(defn- condition-codes [n]
+  (cond-> [(str "D" (rem n 3))] (zero? (rem n 5)) (conj "D3")))
+
+(deftest query-token-in-many-matches-test
+  (with-system-data [{:blaze.db/keys [node]} config]
+    [(mapv
+      #(vector :put (condition-with-codes (format "%02d" %) (condition-codes %)))
+      (range 50))]
+
+    (with-redefs [ts/expand-value-set
+                  (fn [_ _]
+                    (ac/completed-future
+                     {:fhir/type :fhir/ValueSet
+                      :expansion
+                      {:fhir/type :fhir.ValueSet/expansion
+                       :contains
+                       (mapv
+                        (fn [n]
+                          {:fhir/type :fhir.ValueSet.expansion/contains
+                           :code (type/code (str "D" n))
+                           :system #fhir/uri "http://fhir.de/CodeSystem/bfarm/icd-10-gm"})
+                        (range 200))}}))]
+      (let [clauses [["code:in" "url-110329"]]
+            ids (mapv #(format "%02d" %) (range 50))]
+        (testing "all conditions are returned once ordered by id"
+          (is (= ids (mapv :id (pull-type-query node "Condition" clauses))))
+          (is (= 50 (count-type-query node "Condition" clauses))))
+
+        (testing "it is possible to start in the middle"
+          (is (= (subvec ids 25) (mapv :id (pull-type-query node "Condition" clauses "25")))))
+
+        (testing "taking the first handles only"
+          (with-open [db (d/new-batch-db (d/db node))]
+            (is (= (subvec ids 0 3)
+                   (into [] (comp (take 3) (map :id))
+                         @(d/type-query db "Condition" clauses))))))))))
+
 (deftest patient-compartment-last-change-t-test
   (testing "non-existing patient"
     (with-system [{:blaze.db/keys [node]} config]
@@ -10883,6 +11068,9 @@
            (fn [[_type hash :as key]]
              (some->> (get @store hash) (vector key))))
           keys)))
+      (-get-content [_ _]
+        ;; contents are only stored as parsed resources
+        (ac/completed-future nil))
       (-put [_ entries]
         (swap! store merge (select-keys entries hashes-to-store))
         (ac/completed-future nil)))))
@@ -11004,6 +11192,81 @@
           ::anom/message := (format "The resource content of `Patient/0` with hash `%s` was not found."
                                     (:hash resource-handle)))))))
 
+(def ^:private no-resource-cache-config
+  (assoc-in config [:blaze.db/resource-cache :max-size-ratio] 0))
+
+(deftest pull-raw-test
+  (testing "not cached resource"
+    (with-system-data [{:blaze.db/keys [node] :blaze.db.test-util/keys [writing-context]}
+                       no-resource-cache-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean true}]]]
+
+      (let [db (d/db node)
+            resource-handle (d/resource-handle db "Patient" "0")]
+        (doseq [target [node db]]
+          (let [resource @(d/pull-raw target resource-handle)]
+            (is (fhir-spec/raw-resource? resource))
+
+            (given (meta resource)
+              [:blaze.db/tx :blaze.db/t] := 1
+              :blaze.db/op := :put)
+
+            (testing "is written like the pulled resource"
+              (is (= (vec (fhir-spec/write-json-as-bytes writing-context @(d/pull target resource-handle)))
+                     (vec (fhir-spec/write-json-as-bytes writing-context resource))))))))))
+
+  (testing "not cached resource is inserted into the cache"
+    (with-system-data [{:blaze.db/keys [node resource-cache]} config]
+      [[[:put {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean true}]]]
+
+      (let [resource-handle (d/resource-handle (d/db node) "Patient" "0")
+            key [:fhir/Patient (:hash resource-handle) :complete]]
+        (is (nil? (rc/get-if-present resource-cache key)))
+
+        (is (fhir-spec/raw-resource? @(d/pull-raw node resource-handle)))
+
+        (given @(rc/get-if-present resource-cache key)
+          :fhir/type := :fhir/Patient
+          :id := "0"
+          :active := #fhir/boolean true))))
+
+  (testing "cached resource"
+    (with-system-data [{:blaze.db/keys [node]} config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]]]
+
+      (let [db (d/db node)
+            resource-handle (d/resource-handle db "Patient" "0")]
+        @(d/pull node resource-handle)
+
+        (doseq [target [node db]]
+          (given @(d/pull-raw target resource-handle)
+            :fhir/type := :fhir/Patient
+            :id := "0"
+            [:meta :versionId] := #fhir/id "1"
+            [meta :blaze.db/op] := :put)))))
+
+  (testing "deleted resource"
+    (with-system-data [{:blaze.db/keys [node]} no-resource-cache-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]]
+       [[:delete "Patient" "0"]]]
+
+      (let [resource-handle (d/resource-handle (d/db node) "Patient" "0")]
+        (given @(d/pull-raw node resource-handle)
+          :fhir/type := :fhir/Patient
+          :id := "0"
+          [:meta :versionId] := #fhir/id "2"
+          [meta :blaze.db/op] := :delete))))
+
+  (testing "resource content not-found"
+    (with-system-data [{:blaze.db/keys [node]} (defective-resource-store-config)]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]]]
+
+      (let [resource-handle (d/resource-handle (d/db node) "Patient" "0")]
+        (given-failed-future (d/pull-raw node resource-handle)
+          ::anom/category := ::anom/not-found
+          ::anom/message := (format "The resource content of `Patient/0` with hash `%s` was not found."
+                                    (:hash resource-handle)))))))
+
 (deftest pull-many-test
   (doseq [skip-cache-insertion [true false nil]]
     (with-system-data [{:blaze.db/keys [node]} config]
@@ -11221,17 +11484,75 @@
             (given-failed-future (pull resource-handle)
               ::anom/category := ::anom/not-found
               ::anom/message := (format "The resource content of `Patient/0` with hash `%s` was not found."
-                                        (:hash resource-handle)))))))))
+                                        (:hash resource-handle))))))))
+
+  (testing "raw"
+    (testing "not cached resource"
+      (doseq [skip-cache-insertion [true false]]
+        (with-system-data [{:blaze.db/keys [node resource-cache]} config]
+          [[[:put {:fhir/type :fhir/Patient :id "0"}]]]
+
+          (let [db (d/db node)
+                resource-handle (d/resource-handle db "Patient" "0")
+                key [:fhir/Patient (:hash resource-handle) :complete]
+                pull (d/pull-fn db {:raw? true
+                                    :skip-cache-insertion? skip-cache-insertion})]
+            (given @(pull resource-handle)
+              fhir-spec/raw-resource? := true
+              :fhir/type := :fhir/Patient
+              :id := "0"
+              [meta :blaze.db/op] := :put)
+
+            (testing "the resource is inserted into the cache only if allowed"
+              (is (= skip-cache-insertion
+                     (nil? (rc/get-if-present resource-cache key)))))))))
+
+    (testing "cached resource"
+      (with-system-data [{:blaze.db/keys [node]} config]
+        [[[:put {:fhir/type :fhir/Patient :id "0"}]]]
+
+        (let [db (d/db node)
+              resource-handle (d/resource-handle db "Patient" "0")]
+          @(d/pull db resource-handle)
+
+          (given @((d/pull-fn db {:raw? true}) resource-handle)
+            fhir-spec/raw-resource? := false
+            :fhir/type := :fhir/Patient
+            [:meta :versionId] := #fhir/id "1"))))
+
+    (testing "is ignored with summary variant"
+      (with-system-data [{:blaze.db/keys [node]} config]
+        [[[:put {:fhir/type :fhir/Patient :id "0"}]]]
+
+        (let [db (d/db node)
+              resource-handle (d/resource-handle db "Patient" "0")]
+          (given @((d/pull-fn db {:raw? true :variant :summary}) resource-handle)
+            fhir-spec/raw-resource? := false
+            [:meta :tag 0 :code] := #fhir/code "SUBSETTED"))))
+
+    (testing "deleted resource"
+      (with-system-data [{:blaze.db/keys [node]} config]
+        [[[:put {:fhir/type :fhir/Patient :id "0"}]]
+         [[:delete "Patient" "0"]]]
+
+        (let [db (d/db node)
+              resource-handle (d/resource-handle db "Patient" "0")]
+          (given @((d/pull-fn db {:raw? true}) resource-handle)
+            :fhir/type := :fhir/Patient
+            :id := "0"
+            [meta :blaze.db/op] := :delete))))))
 
 (deftest pull-opts-spec-test
   (testing "valid"
     (are [opts] (s/valid? :blaze.db/pull-opts opts)
       {}
       {:variant :summary}
-      {:elements [:subject]}))
+      {:elements [:subject]}
+      {:raw? true}))
 
   (testing "invalid"
-    (is (not (s/valid? :blaze.db/pull-opts "not-a-map")))))
+    (is (not (s/valid? :blaze.db/pull-opts "not-a-map")))
+    (is (not (s/valid? :blaze.db/pull-opts {:raw? "true"})))))
 
 ;; ---- Instance-Level History Functions --------------------------------------
 
@@ -11885,6 +12206,43 @@
           [0 :fhir/type] := :fhir/Observation
           [0 :id] := "1")))))
 
+(deftest compartment-ids-test
+  (with-system-data [{:blaze.db/keys [node]} config]
+    [[[:put {:fhir/type :fhir/Patient :id "0"}]
+      [:put {:fhir/type :fhir/Patient :id "1"}]
+      [:put {:fhir/type :fhir/Group :id "0"}]
+      [:put {:fhir/type :fhir/Observation :id "0"
+             :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]
+      [:put {:fhir/type :fhir/Observation :id "1"
+             :subject #fhir/Reference{:reference #fhir/string "Patient/0"}
+             :performer [#fhir/Reference{:reference #fhir/string "Patient/1"}]}]
+      [:put {:fhir/type :fhir/Observation :id "2"
+             :subject #fhir/Reference{:reference #fhir/string "Group/0"}}]
+      [:put {:fhir/type :fhir/Observation :id "3"
+             :subject #fhir/Reference{:reference #fhir/string "Patient/2"}}]]]
+
+    (let [db (d/db node)
+          compartment-ids #(vec (d/compartment-ids db "Patient" (d/resource-handle db "Observation" %)))]
+
+      (testing "subject"
+        (is (= ["0"] (compartment-ids "0"))))
+
+      (testing "subject and performer"
+        (is (= #{"0" "1"} (set (compartment-ids "1")))))
+
+      (testing "Group subject"
+        (is (empty? (compartment-ids "2"))))
+
+      (testing "non-existing Patient"
+        (is (= ["2"] (compartment-ids "3"))))
+
+      (testing "type not part of the compartment"
+        (is (empty? (d/compartment-ids db "Patient" (d/resource-handle db "Group" "0")))))
+
+      (testing "with batch-db"
+        (with-open [batch-db (d/new-batch-db db)]
+          (is (= ["0"] (vec (d/compartment-ids batch-db "Patient" (d/resource-handle batch-db "Observation" "0"))))))))))
+
 (deftest patient-everything-test
   (testing "with patient only"
     (with-system-data [{:blaze.db/keys [node]} config]
@@ -0,0 +1,12 @@
+(ns blaze.db.impl.index.re-index-generation-spec
+  (:require
+   [blaze.db.impl.index.re-index-generation :as rig]
+   [blaze.db.kv.spec]
+   [clojure.spec.alpha :as s]))
+
+(s/fdef rig/generation
+  :args (s/cat :snapshot :blaze.db.kv/snapshot)
+  :ret nat-int?)
+
+(s/fdef rig/put-next-generation!
+  :args (s/cat :kv-store :blaze.db/kv-store :entries any?))
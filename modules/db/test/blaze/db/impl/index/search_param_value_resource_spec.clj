@@ -40,9 +40,16 @@
                :hash :blaze.resource/hash)
   :ret :blaze.db.kv/put-entry)
 
+(s/fdef sp-vr/index-handles-sorted-values
+  :args (s/cat :snapshot :blaze.db.kv/snapshot
+               :c-hash :blaze.db/c-hash
+               :tid :blaze.db/tid
+               :values (s/coll-of byte-string?)
+               :start-id (s/? (s/nilable :blaze.db/id-byte-string))))
+
 (s/fdef sp-vr/estimated-scan-size
   :args (s/cat :kv-store :blaze.db/kv-store
                :c-hash :blaze.db/c-hash
                :tid :blaze.db/tid
-               :value byte-string?)
+               :value (s/? byte-string?))
   :ret (s/or :estimate-storage-size nat-int? :anomaly ::anom/anomaly))
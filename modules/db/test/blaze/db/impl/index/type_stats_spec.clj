@@ -11,6 +11,10 @@
   :args (s/cat :snapshot :blaze.db.kv/snapshot :tid :blaze.db/tid :t :blaze.db/t)
   :ret (s/nilable :blaze.db.index/stats))
 
+(s/fdef type-stats/last-change-t
+  :args (s/cat :snapshot :blaze.db.kv/snapshot :tid :blaze.db/tid :t :blaze.db/t)
+  :ret (s/nilable :blaze.db/t))
+
 (s/fdef type-stats/index-entry
   :args (s/cat :tid :blaze.db/tid :t :blaze.db/t :value :blaze.db.index/stats)
   :ret :blaze.db.kv/put-entry)
@@ -7,6 +7,10 @@
    [clojure.spec.alpha :as s]))
 
 (s/fdef qt/->TypeQuery
+  :args (s/cat :tid :blaze.db/tid :clauses ::query/clauses
+               :cache-key (s/nilable vector?)))
+
+(s/fdef qt/type-query
   :args (s/cat :tid :blaze.db/tid :clauses ::query/clauses))
 
 (s/fdef qt/patient-type-query
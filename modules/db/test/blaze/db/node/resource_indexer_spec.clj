@@ -24,6 +24,12 @@
                :resource :fhir/Resource)
   :ret ac/completable-future?)
 
+(s/fdef resource-indexer/index-resources
+  :args (s/cat :resource-indexer :blaze.db.node/resource-indexer
+               :last-updated type/instant?
+               :hash-resource-pairs (cs/coll-of (s/tuple :blaze.resource/hash :fhir/Resource)))
+  :ret ac/completable-future?)
+
 (s/fdef resource-indexer/pool-size
   :args (s/cat :resource-indexer :blaze.db.node/resource-indexer)
   :ret pos-int?)
@@ -486,6 +486,45 @@
         (is (= (c-sp-vr-tu/decode-index-entries kv-store :code :v-hash)
                [["status" (codec/v-hash "status-151938")]]))))))
 
+(deftest index-resources-test
+  (testing "fails on kv put"
+    (with-system [{::node/keys [resource-indexer]} config]
+      (let [patient {:fhir/type :fhir/Patient :id "0"}]
+        (with-redefs [kv/put! (fn [_ _] (throw (Exception. "msg-143512")))]
+          (given-failed-future
+           (resource-indexer/index-resources resource-indexer last-updated
+                                             [[(hash/generate patient) patient]])
+            ::anom/category := ::anom/fault
+            ::anom/message := "msg-143512")))))
+
+  (testing "no resources"
+    (with-system [{kv-store [::kv/mem :blaze.db/index-kv-store]
+                   ::node/keys [resource-indexer]} config]
+      @(resource-indexer/index-resources resource-indexer last-updated [])
+
+      (is (empty? (sp-vr-tu/decode-index-entries kv-store :id)))))
+
+  (testing "writes the entries of all resources with one put"
+    (with-system [{kv-store [::kv/mem :blaze.db/index-kv-store]
+                   ::node/keys [resource-indexer]} config]
+      (let [resources (mapv #(hash-map :fhir/type :fhir/Patient :id (str %)
+                                       :active #fhir/boolean true)
+                            (range 8))
+            puts (atom 0)
+            put! kv/put!]
+        (with-redefs [kv/put! (fn [store entries]
+                                (swap! puts inc)
+                                (put! store entries))]
+          @(resource-indexer/index-resources
+            resource-indexer last-updated
+            (mapv (juxt hash/generate identity) resources)))
+
+        (is (= 1 @puts))
+
+        (testing "each resource is indexed"
+          (is (= (set (map (comp vector :id) resources))
+                 (set (sp-vr-tu/decode-index-entries kv-store :id)))))))))
+
 (defn- num-threads-config [num-threads]
   (assoc-in config [::resource-indexer/executor :num-threads] num-threads))
 
@@ -70,6 +70,35 @@
         [0 :id] := "2"
         [0 :if-none-exist] := [["identifier" "120426"]]))))
 
+(deftest expand-tx-cmds-identical-queries-test
+  (with-system-data [{:blaze.db/keys [node]} config]
+    [[[:put {:fhir/type :fhir/Patient :id "2"
+             :identifier [#fhir/Identifier{:value #fhir/string "120426"}]}]]]
+
+    (let [queries (atom 0)
+          type-query d/type-query]
+      (with-redefs [d/type-query (fn [& args] (swap! queries inc) (apply type-query args))]
+        (given @(expand-tx-cmds
+                 node
+                 [{:op "create" :type "Patient" :id "0"
+                   :hash (hash/generate patient-0)
+                   :if-none-exist [["identifier" "120426"]]}
+                  {:op "create" :type "Patient" :id "1"
+                   :hash (hash/generate patient-0)
+                   :if-none-exist [["identifier" "120426"]]}
+                  {:op "conditional-delete" :type "Patient"
+                   :clauses [["identifier" "120426"]]}])
+          count := 3
+          [0 :op] := "hold"
+          [0 :id] := "2"
+          [1 :op] := "hold"
+          [1 :id] := "2"
+          [2 :op] := "delete"
+          [2 :id] := "2"))
+
+      (testing "the query is executed only once"
+        (is (= 1 @queries))))))
+
 (deftest expand-tx-cmds-conditional-delete-test
   (testing "success"
     (testing "no match"
@@ -317,6 +317,13 @@
       [:cause-data ::s/problems 0 :via] := [:blaze.db/allow-multiple-delete]
       [:cause-data ::s/problems 0 :val] := ::invalid))
 
+  (testing "invalid tx-chunk-size"
+    (given-failed-system (assoc-in config [:blaze.db/node :tx-chunk-size] ::invalid)
+      :key := :blaze.db/node
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [:blaze.db/tx-chunk-size]
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
   (testing "invalid poll-timeout"
     (given-failed-system (assoc-in config [:blaze.db/node :poll-timeout] ::invalid)
       :key := :blaze.db/node
@@ -549,6 +556,50 @@
         (is (= 2 (d/total-num-of-type-changes db "Patient")))
         (is (= 2 (d/total-num-of-system-changes db)))))))
 
+(def ^:private tx-chunk-config
+  "A config with a node that counts the puts into its resource store and
+  considers transactions of more than two resources as large."
+  (merge-with
+   merge
+   config
+   {:blaze.db/node
+    {:resource-store (ig/ref ::put-counting-resource-store)
+     :tx-chunk-size 2}
+    :blaze.db/resource-cache
+    {:resource-store (ig/ref ::put-counting-resource-store)}
+    ::node/resource-indexer
+    {:resource-store (ig/ref ::put-counting-resource-store)}
+    ::put-counting-resource-store
+    {:resource-store (ig/ref ::rs/kv)}}))
+
+(deftest tx-chunk-size-test
+  (testing "the resources of a small transaction are stored at once"
+    (with-system [{:blaze.db/keys [node]
+                   resource-store ::put-counting-resource-store}
+                  tx-chunk-config]
+      (let [{:keys [put-count]} (meta resource-store)]
+        @(d/transact node [[:put {:fhir/type :fhir/Patient :id "0"}]
+                           [:put {:fhir/type :fhir/Patient :id "1"}]])
+
+        (is (= 1 @put-count)))))
+
+  (testing "the resources of a large transaction are stored in chunks and
+            indexed from the resource store"
+    (with-system [{:blaze.db/keys [node]
+                   resource-store ::put-counting-resource-store}
+                  tx-chunk-config]
+      (let [{:keys [put-count]} (meta resource-store)
+            db @(d/transact node (mapv (fn [id] [:put {:fhir/type :fhir/Patient :id (str id)}])
+                                       (range 5)))]
+
+        (is (= 3 @put-count))
+
+        (is (= 5 (d/type-total db "Patient")))
+        (doseq [id (range 5)]
+          (given @(d/pull node (d/resource-handle db "Patient" (str id)))
+            :fhir/type := :fhir/Patient
+            :id := (str id)))))))
+
 (defn- submit-patient [node id]
   (node/submit-tx node [[:put {:fhir/type :fhir/Patient :id id}]]))
 
@@ -1339,3 +1390,93 @@
             :error-t := 1)))
 
       (is (= (inc observations) (index-resources-observations))))))
+
+(deftest commit-group-transactions-collector-init-test
+  (with-system [{collector ::node/commit-group-transactions}
+                {::node/commit-group-transactions {}}]
+    (is (s/valid? :blaze.metrics/collector collector))))
+
+(defn- committed-groups
+  "Returns the number of commit groups observed for the node `main`.
+
+  The last bucket of a Prometheus histogram is the +Inf bucket that counts all
+  observations."
+  []
+  (peek (:histogram/buckets (prom/get node/commit-group-transactions "main"))))
+
+(defn- commit-group-transactions-sum
+  "Returns the sum of the number of transactions of all commit groups observed
+  for the node `main`."
+  []
+  (:histogram/sum (prom/get node/commit-group-transactions "main")))
+
+(defn- commit-group-config [batch released commit-group-size]
+  (assoc-in (batch-tx-log-config batch released)
+            [:blaze.db/node :max-commit-group-size] commit-group-size))
+
+(defn- keep-tx-data
+  "Returns transaction data with `t` that only keeps `resource`, so that it's
+  only accepted if `resource` exists already."
+  [t resource]
+  {:t t
+   :instant (.plusSeconds Instant/EPOCH t)
+   :tx-cmds [(assoc (put-cmd resource) :op "keep")]})
+
+(deftest commit-group-test
+  (testing "each transaction is committed on its own by default"
+    (let [released (promise)
+          batch (mapv #(tx-data (inc %) [(patient (str %))]) (range 3))]
+      (with-system [{:blaze.db/keys [node]} (batch-tx-log-config batch released)]
+        (let [groups (committed-groups)
+              transactions (commit-group-transactions-sum)]
+          (deliver released true)
+
+          (is (not (identical? ::timeout (deref (d/sync node 3) 10000 ::timeout))))
+
+          (is (= (+ groups 3) (committed-groups)))
+          (is (= (+ transactions 3.0) (commit-group-transactions-sum)))))))
+
+  (testing "transactions are committed in groups of at most the maximum size,
+            not spanning the end of the batch"
+    (let [released (promise)
+          batch (mapv #(tx-data (inc %) [(patient (str %))]) (range 6))]
+      (with-system [{:blaze.db/keys [node]} (commit-group-config batch released 4)]
+        (let [groups (committed-groups)
+              transactions (commit-group-transactions-sum)]
+          (deliver released true)
+
+          (is (not (identical? ::timeout (deref (d/sync node 6) 10000 ::timeout))))
+
+          (testing "all transactions are committed"
+            (doseq [t (range 1 7)]
+              (is (= t (d/basis-t @(node/tx-result node t))))))
+
+          (testing "one group of four and one of two transactions were committed"
+            (is (= (+ groups 2) (committed-groups)))
+            (is (= (+ transactions 6.0) (commit-group-transactions-sum))))))))
+
+  (testing "a transaction is verified against the transactions of its group that
+            aren't committed yet"
+    (let [released (promise)
+          batch [(tx-data 1 [(patient "0")])
+                 (keep-tx-data 2 (patient "0"))
+                 (rejected-tx-data 3 [(patient "1")])
+                 (tx-data 4 [(patient "2")])]]
+      (with-system [{:blaze.db/keys [node]} (commit-group-config batch released 4)]
+        (deliver released true)
+
+        (is (not (identical? ::timeout (deref (d/sync node 4) 10000 ::timeout))))
+
+        (testing "the keep of the patient created in the same group succeeds"
+          (is (= 2 (d/basis-t @(node/tx-result node 2)))))
+
+        (testing "the rejected transaction failed"
+          (given-failed-future (node/tx-result node 3)
+            ::anom/category := ::anom/conflict))
+
+        (given @(:state node)
+          :t := 4
+          :error-t := 3)
+
+        (given @(d/pull node (d/resource-handle (d/db node) "Patient" "2"))
+          :id := "2")))))
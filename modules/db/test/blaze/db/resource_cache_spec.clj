@@ -16,6 +16,14 @@
   :args (s/cat :store :blaze.db/resource-cache :key ::rs/key)
   :ret ac/completable-future?)
 
+(s/fdef rc/get-if-present
+  :args (s/cat :store :blaze.db/resource-cache :key ::rs/key)
+  :ret (s/nilable ac/completable-future?))
+
+(s/fdef rc/put-content!
+  :args (s/cat :store :blaze.db/resource-cache :key ::rs/key :content bytes?)
+  :ret nil?)
+
 (s/fdef rc/multi-get
   :args (s/cat :store :blaze.db/resource-cache :keys (s/coll-of ::rs/key))
   :ret ac/completable-future?)
@@ -47,7 +47,8 @@
 
 (def ^:private config
   {:blaze.db/resource-cache
-   {:resource-store (ig/ref ::rs/kv)}
+   {:resource-store (ig/ref ::rs/kv)
+    :parsing-context (ig/ref ::dtu/parsing-context)}
    ::rs/kv
    {:kv-store (ig/ref ::kv/mem)
     :parsing-context (ig/ref ::dtu/parsing-context)
@@ -86,6 +87,13 @@
       [:cause-data ::s/problems 0 :via] := [:blaze.db/resource-store]
       [:cause-data ::s/problems 0 :val] := ::invalid))
 
+  (testing "invalid parsing-context"
+    (given-failed-system (assoc-in config [:blaze.db/resource-cache :parsing-context] ::invalid)
+      :key := :blaze.db/resource-cache
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [:blaze.fhir/parsing-context]
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
   (testing "invalid max-size-ratio"
     (given-failed-system (assoc-in config [:blaze.db/resource-cache :max-size-ratio] ::invalid)
       :key := :blaze.db/resource-cache
@@ -196,6 +204,24 @@
                      (rc/get-skip-cache-insertion
                       cache [:fhir/Patient patient-0-hash :complete]))))))))
 
+(deftest get-if-present-test
+  (testing "returns nil for a patient which isn't cached"
+    (doseq [config [config zero-config one-config]]
+      (with-system [{cache :blaze.db/resource-cache store ::rs/kv} config]
+        @(rs/put! store {patient-0-hash patient-0})
+
+        (is (nil? (rc/get-if-present cache [:fhir/Patient patient-0-hash :complete])))
+
+        (testing "doesn't insert the patient into the cache"
+          (is (nil? (rc/get-if-present cache [:fhir/Patient patient-0-hash :complete])))))))
+
+  (testing "returns an already cached patient"
+    (with-system [{cache :blaze.db/resource-cache store ::rs/kv} config]
+      @(rs/put! store {patient-0-hash patient-0})
+      @(rc/get cache [:fhir/Patient patient-0-hash :complete])
+
+      (is (= patient-0 @(rc/get-if-present cache [:fhir/Patient patient-0-hash :complete]))))))
+
 (deftest multi-get-skip-cache-insertion-test
   (testing "just returns two existing patients"
     (doseq [config [config zero-config one-config]]
@@ -285,6 +311,45 @@
 
           (is (= size-before (cache-size cache))))))))
 
+(deftest put-content-test
+  (testing "inserts the parsed resource"
+    (with-system [{cache :blaze.db/resource-cache store ::rs/kv} config]
+      @(rs/put! store {patient-0-hash patient-0})
+
+      (let [key [:fhir/Patient patient-0-hash :complete]]
+        (is (nil? (rc/put-content! cache key @(rs/get-content store key))))
+
+        (is (= patient-0 @(rc/get-if-present cache key))))))
+
+  (testing "keeps an already cached resource"
+    (with-system [{cache :blaze.db/resource-cache store ::rs/kv} config]
+      @(rs/put! store {patient-0-hash patient-0})
+
+      (let [key [:fhir/Patient patient-0-hash :complete]
+            future (rc/get cache key)]
+        (rc/put-content! cache key @(rs/get-content store key))
+
+        (is (identical? future (rc/get-if-present cache key))))))
+
+  (testing "doesn't insert anything without parsing context"
+    (with-system [{cache :blaze.db/resource-cache store ::rs/kv}
+                  (update config :blaze.db/resource-cache dissoc :parsing-context)]
+      @(rs/put! store {patient-0-hash patient-0})
+
+      (let [key [:fhir/Patient patient-0-hash :complete]]
+        (rc/put-content! cache key @(rs/get-content store key))
+
+        (is (not (contains-key? cache key))))))
+
+  (testing "doesn't insert anything with zero max size"
+    (with-system [{cache :blaze.db/resource-cache store ::rs/kv} zero-config]
+      @(rs/put! store {patient-0-hash patient-0})
+
+      (let [key [:fhir/Patient patient-0-hash :complete]]
+        (rc/put-content! cache key @(rs/get-content store key))
+
+        (is (nil? (rc/get-if-present cache key)))))))
+
 (deftest stats-test
   (testing "with non-zero max size"
     (with-system [{cache :blaze.db/resource-cache store ::rs/kv} config]
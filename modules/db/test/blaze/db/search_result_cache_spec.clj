@@ -0,0 +1,21 @@
+(ns blaze.db.search-result-cache-spec
+  (:require
+   [blaze.db.impl.codec.spec]
+   [blaze.db.index.query :as-alias query]
+   [blaze.db.search-result-cache :as src]
+   [blaze.db.search-result-cache.spec]
+   [blaze.db.spec]
+   [clojure.spec.alpha :as s]))
+
+(s/fdef src/cache-key
+  :args (s/cat :tid :blaze.db/tid :clauses ::query/clauses)
+  :ret (s/nilable vector?))
+
+(s/fdef src/cached-handles
+  :args (s/cat :cache :blaze.db/search-result-cache :batch-db :blaze.db/db
+               :tid :blaze.db/tid :key vector?)
+  :ret (s/nilable vector?))
+
+(s/fdef src/resource-handles
+  :args (s/cat :cache :blaze.db/search-result-cache :batch-db :blaze.db/db
+               :tid :blaze.db/tid :key vector? :execute fn?))
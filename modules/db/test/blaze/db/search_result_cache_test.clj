@@ -0,0 +1,155 @@
+(ns blaze.db.search-result-cache-test
+  (:require
+   [blaze.db.api :as d]
+   [blaze.db.api-spec]
+   [blaze.db.impl.index :as index]
+   [blaze.db.impl.index.re-index-generation-spec]
+   [blaze.db.search-result-cache :as src]
+   [blaze.db.search-result-cache-spec]
+   [blaze.db.test-util :as dtu :refer [with-system-data]]
+   [blaze.module.test-util :refer [given-failed-system with-system]]
+   [blaze.test-util :as tu]
+   [clojure.spec.alpha :as s]
+   [clojure.spec.test.alpha :as st]
+   [clojure.test :as test :refer [deftest is testing]]
+   [integrant.core :as ig]
+   [taoensso.timbre :as log])
+  (:import
+   [com.github.benmanes.caffeine.cache Cache]))
+
+(set! *warn-on-reflection* true)
+(st/instrument)
+(log/set-min-level! :trace)
+
+(test/use-fixtures :each tu/fixture)
+
+(deftest init-test
+  (testing "nil config"
+    (given-failed-system {:blaze.db/search-result-cache nil}
+      :key := :blaze.db/search-result-cache
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :pred] := `map?))
+
+  (testing "invalid max-size"
+    (given-failed-system {:blaze.db/search-result-cache {:max-size ::invalid}}
+      :key := :blaze.db/search-result-cache
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::src/max-size]
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
+  (testing "empty config"
+    (with-system [{cache :blaze.db/search-result-cache}
+                  {:blaze.db/search-result-cache {}}]
+      (is (instance? Cache cache)))))
+
+(def ^:private config
+  (-> (assoc-in dtu/config [:blaze.db/node :search-result-cache]
+                (ig/ref :blaze.db/search-result-cache))
+      (assoc :blaze.db/search-result-cache {:max-size 1000})))
+
+(defn- active-patient-ids
+  ([db]
+   (into [] (map :id) @(d/type-query db "Patient" [["active" "true"]])))
+  ([db start-id]
+   (into [] (map :id) @(d/type-query db "Patient" [["active" "true"]] start-id))))
+
+(defmacro with-counted-executions [[binding] & body]
+  `(let [~binding (atom 0)
+         type-query# index/type-query]
+     (with-redefs [index/type-query
+                   (fn [& args#]
+                     (swap! ~binding inc)
+                     (apply type-query# args#))]
+       ~@body)))
+
+(deftest resource-handles-test
+  (testing "repeated queries are cached"
+    (with-system-data [{:blaze.db/keys [node]} config]
+      [[[:put {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean true}]
+        [:put {:fhir/type :fhir/Patient :id "1" :active #fhir/boolean false}]
+        [:put {:fhir/type :fhir/Patient :id "2" :active #fhir/boolean true}]]]
+
+      (with-counted-executions [executions]
+        (dotimes [_ 4]
+          (is (= ["0" "2"] (active-patient-ids (d/db node)))))
+
+        (testing "the query is executed once lazily and once to realize it"
+          (is (= 2 @executions)))
+
+        (testing "pages are served from the cache"
+          (is (= ["2"] (active-patient-ids (d/db node) "2")))
+          (is (= 2 @executions)))
+
+        (testing "the count is served from the cache"
+          (let [db (d/db node)
+                query @(d/compile-type-query db "Patient" [["active" "true"]])]
+            (is (= 2 @(d/count-query db query))))))))
+
+  (testing "changes of the type invalidate the cache"
+    (with-system-data [{:blaze.db/keys [node]} config]
+      [[[:put {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean true}]]]
+
+      (dotimes [_ 2]
+        (is (= ["0"] (active-patient-ids (d/db node)))))
+
+      @(d/transact node [[:put {:fhir/type :fhir/Patient :id "1" :active #fhir/boolean true}]])
+
+      (with-counted-executions [executions]
+        (is (= ["0" "1"] (active-patient-ids (d/db node))))
+
+        (testing "the first query after the change isn't realized"
+          (is (= 1 @executions)))
+
+        (is (= ["0" "1"] (active-patient-ids (d/db node))))
+
+        (testing "the second query after the change is realized"
+          (is (= 3 @executions)))
+
+        (is (= ["0" "1"] (active-patient-ids (d/db node))))
+
+        (testing "the third query after the change is served from the cache"
+          (is (= 3 @executions))))
+
+      (testing "the old database still sees the old state"
+        (is (= ["0"] (active-patient-ids (d/as-of (d/db node) 1)))))
+
+      @(d/transact node [[:delete "Patient" "0"]])
+
+      (is (= ["1"] (active-patient-ids (d/db node))))))
+
+  (testing "changes of other types keep the cache"
+    (with-system-data [{:blaze.db/keys [node]} config]
+      [[[:put {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean true}]]]
+
+      (dotimes [_ 2]
+        (is (= ["0"] (active-patient-ids (d/db node)))))
+
+      @(d/transact node [[:put {:fhir/type :fhir/Observation :id "0"}]])
+
+      (with-counted-executions [executions]
+        (is (= ["0"] (active-patient-ids (d/db node))))
+        (is (zero? @executions)))))
+
+  (testing "chained clauses aren't cached"
+    (with-system-data [{:blaze.db/keys [node]} config]
+      [[[:put {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean true}]
+        [:put {:fhir/type :fhir/Observation :id "0"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]]]
+
+      (with-counted-executions [executions]
+        (dotimes [_ 3]
+          @(d/type-query (d/db node) "Observation" [["patient.active" "true"]]))
+        (is (= 3 @executions)))))
+
+  (testing "re-indexing invalidates the cache"
+    (with-system-data [{:blaze.db/keys [node]} config]
+      [[[:put {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean true}]]]
+
+      (dotimes [_ 2]
+        (is (= ["0"] (active-patient-ids (d/db node)))))
+
+      @(d/re-index (d/db node) "http://hl7.org/fhir/SearchParameter/Patient-active")
+
+      (with-counted-executions [executions]
+        (is (= ["0"] (active-patient-ids (d/db node))))
+        (is (= 1 @executions))))))
@@ -74,7 +74,8 @@
     :poll-timeout (time/millis 10)}
 
    :blaze.db/resource-cache
-   {:resource-store (ig/ref ::rs/kv)}
+   {:resource-store (ig/ref ::rs/kv)
+    :parsing-context (ig/ref ::parsing-context)}
 
    ::tx-log/local
    {:kv-store (ig/ref :blaze.db/transaction-kv-store)
@@ -72,6 +72,23 @@
   (log/trace (execute-type-get-msg type name opts))
   (impl/fetch (str base-uri "/" type "/$" name) opts))
 
+(defn- execute-instance-get-msg [type id name {:keys [query-params]}]
+  (format "Execute $%s on instance %s/%s with params %s" name type id
+          query-params))
+
+(defn execute-instance-get
+  "Executes the operation with `name` on the instance-level endpoint of the
+  resource with `type` and `id` using GET.
+
+  Params to the operation can be given in :query-params in `opts`.
+
+  Returns a CompletableFuture that will complete with either a Parameters
+  resource or a resource of the type of the single out parameter named
+  `return`."
+  [base-uri type id name & [opts]]
+  (log/trace (execute-instance-get-msg type id name opts))
+  (impl/fetch (str base-uri "/" type "/" id "/$" name) opts))
+
 (defn- execute-type-post-msg [type name params]
   (format "Execute $%s on type %s with params %s" name type params))
 
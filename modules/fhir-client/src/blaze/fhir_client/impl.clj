@@ -73,10 +73,9 @@
    uri
    (merge
     {:accept :fhir+json
-     :headers cache-control
      :as :fhir
      :async? true}
-    opts)
+    (update opts :headers (partial merge cache-control)))
    :body
    handle-error))
 
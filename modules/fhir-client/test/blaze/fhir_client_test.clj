@@ -292,6 +292,20 @@
         :fhir/type := :fhir/ValueSet
         :id := "0"))))
 
+(deftest execute-instance-get-test
+  (testing "success"
+    (let [{:keys [^HttpClientMock http-client] :as opts} (opts)]
+
+      (-> (.onGet http-client "http://localhost:8080/fhir/Measure/0/$evaluate-measure?periodStart=2000&periodEnd=2030")
+          (.doReturn (j/write-value-as-string {:resourceType "MeasureReport" :id "0"}))
+          (.withHeader "content-type" "application/fhir+json"))
+
+      (given @(fhir-client/execute-instance-get
+               "http://localhost:8080/fhir" "Measure" "0" "evaluate-measure"
+               (assoc opts :query-params {:periodStart "2000" :periodEnd "2030"}))
+        :fhir/type := :fhir/MeasureReport
+        :id := "0"))))
+
 (deftest execute-type-post-test
   (testing "not-found"
     (let [{:keys [^HttpClientMock http-client] :as opts} (opts)
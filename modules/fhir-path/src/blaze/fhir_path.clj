@@ -117,7 +117,7 @@
   (-eval [_ _ coll]
     coll))
 
-(deftype TypedStartExpression [rf]
+(deftype TypedStartExpression [type rf]
   Expression
   (-eval [_ _ coll]
     (.reduce ^IReduceInit coll rf [])))
@@ -125,7 +125,7 @@
 (defn- typed-start-expression [type-name]
   (let [fhir-type (keyword "fhir" type-name)
         pred #(identical? fhir-type (:fhir/type %))]
-    (->TypedStartExpression ((filter pred) conj))))
+    (->TypedStartExpression fhir-type ((filter pred) conj))))
 
 (deftype GetChildrenExpression [key f]
   Expression
@@ -408,6 +408,94 @@
   [_ _]
   (->ResolveFunctionExpression))
 
+;; Type Dispatch of Unions
+;;
+;; Most FHIRPath expressions of search parameters are unions of one branch per
+;; resource type, like `Condition.code | Observation.code | Procedure.code`.
+;; Evaluated on a single resource, all branches except the ones starting with
+;; the type of that resource evaluate to an empty collection. So such unions are
+;; compiled into a lookup of the branches by their start type.
+
+(defn- empty-preserving-invocation?
+  "Returns true if `invocation` evaluates to an empty collection on an empty
+  collection."
+  [invocation]
+  (or (instance? GetChildrenExpression invocation)
+      (instance? WhereFunctionExpression invocation)
+      (instance? OfTypeFunctionExpression invocation)
+      (instance? AsFunctionExpression invocation)
+      (instance? FirstFunctionExpression invocation)
+      (instance? ExtensionFunctionExpression invocation)
+      (instance? ResolveFunctionExpression invocation)))
+
+(defn- start-type
+  "Returns the FHIR type `expr` starts with, if `expr` evaluates to an empty
+  collection on every item not of that type, nil otherwise."
+  [expr]
+  (condp instance? expr
+    TypedStartExpression
+    (.-type ^TypedStartExpression expr)
+
+    InvocationExpression
+    (let [^InvocationExpression expr expr]
+      (when (empty-preserving-invocation? (.-invocation expr))
+        (start-type (.-expression expr))))
+
+    IndexerExpression
+    (start-type (.-expression ^IndexerExpression expr))
+
+    AsTypeExpression
+    (start-type (.-expression ^AsTypeExpression expr))
+
+    IsTypeExpression
+    (start-type (.-expression ^IsTypeExpression expr))
+
+    nil))
+
+(defn- distinct-coll
+  "Returns `coll` as the union with an empty collection would return it."
+  [coll]
+  (case (coll/count coll)
+    (0 1) coll
+    (vec (set coll))))
+
+(deftype TypeDispatchExpression [exprs union]
+  Expression
+  (-eval [_ context coll]
+    (if (= 1 (coll/count coll))
+      (if-some [expr (get exprs (:fhir/type (coll/nth coll 0)))]
+        (distinct-coll (-eval expr context coll))
+        [])
+      (-eval union context coll))))
+
+(defn- union-branches [expr]
+  (condp instance? expr
+    UnionExpression
+    (let [^UnionExpression expr expr]
+      (into (union-branches (.-e1 expr)) (union-branches (.-e2 expr))))
+
+    TypeDispatchExpression
+    (union-branches (.-union ^TypeDispatchExpression expr))
+
+    [expr]))
+
+(defn- add-branch [exprs type branch]
+  (update exprs type #(if % (->UnionExpression % branch) branch)))
+
+(defn- union-expression
+  "Returns a TypeDispatchExpression if all branches of the union of `e1` and
+  `e2` have a start type and there are at least two of them, the plain union
+  otherwise."
+  [e1 e2]
+  (let [union (->UnionExpression e1 e2)
+        branches (union-branches union)
+        types (mapv start-type branches)]
+    (if (and (every? some? types) (< 1 (count (set types))))
+      (->TypeDispatchExpression (reduce-kv #(add-branch %1 (types %2) %3) {}
+                                           branches)
+                                union)
+      union)))
+
 (defmethod function-expression :default
   [name paramsCtx]
   (throw-anom
@@ -467,7 +555,7 @@
         (throw-anom
          (ba/fault
           (format "UnionExpressionContext with %d expressions" (count exprs)))))
-      (->UnionExpression (-compile e1) (-compile e2))))
+      (union-expression (-compile e1) (-compile e2))))
 
   fhirpathParser$EqualityExpressionContext
   (-compile [ctx]
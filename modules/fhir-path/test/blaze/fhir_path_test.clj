@@ -391,7 +391,40 @@
            :id "id-162953"
            :gender #fhir/code "female"
            :birthDate #fhir/date #system/date "2020"})
-    identity := [#fhir/code "female" #fhir/date #system/date "2020"]))
+    identity := [#fhir/code "female" #fhir/date #system/date "2020"])
+
+  (testing "branches of different resource types"
+    (let [patient {:fhir/type :fhir/Patient :id "id-151627"
+                   :gender #fhir/code "female"}
+          observation {:fhir/type :fhir/Observation :id "id-151644"
+                       :status #fhir/code "final"
+                       :code #fhir/CodeableConcept{:text #fhir/string "text-151708"}
+                       :component
+                       [{:fhir/type :fhir.Observation/component
+                         :code #fhir/CodeableConcept{:text #fhir/string "text-151715"}}]}
+          expr "Patient.gender | Observation.status | Condition.clinicalStatus"]
+
+      (testing "only the branch of the resource type is evaluated"
+        (is (= [#fhir/code "female"] (eval expr patient)))
+        (is (= [#fhir/code "final"] (eval expr observation))))
+
+      (testing "no branch of the resource type"
+        (is (= [] (eval expr {:fhir/type :fhir/Encounter :id "id-152004"}))))
+
+      (testing "multiple branches of the same resource type"
+        (is (= #{#fhir/CodeableConcept{:text #fhir/string "text-151708"}
+                 #fhir/CodeableConcept{:text #fhir/string "text-151715"}}
+               (set (eval "Condition.code | Observation.code | Observation.component.code"
+                          observation)))))
+
+      (testing "branches with functions"
+        (is (= [#fhir/code "female"]
+               (eval "Patient.gender.where(true) | Observation.status.first()"
+                     patient))))
+
+      (testing "a branch not starting with a type disables the dispatch"
+        (is (= #{"foo" #fhir/code "female"}
+               (set (eval "Patient.gender | Observation.status | 'foo'" patient))))))))
 
 ;; 6. Operations
 
@@ -0,0 +1,195 @@
+package blaze;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An {@link Interner} that holds at most a fixed number of values.
+ * <p>
+ * Values are stored in shards of open-addressing tables without locks. A key can only be stored in a small window of
+ * slots following its hash. If all slots of the window are taken, the first value not used since the last eviction
+ * in the window is evicted (second chance). Evicted values stay valid, they are only no longer shared by later calls
+ * to {@link #intern(Object)}.
+ * <p>
+ * Concurrent calls with the same key may create more than one value. Because interned values are only shared to save
+ * memory and are always compared by value, that is fine.
+ * <p>
+ * The tables of the shards are allocated on first use, so that interners of rarely used types stay small.
+ * <p>
+ * Evicted values aren't tracked, so that eviction stays free of allocations. Values still referenced after their
+ * eviction keep reporting a memory size of zero.
+ */
+public final class BoundedInterner<K, V> implements Interner<K, V> {
+
+    private static final int SHARD_BITS = 4;
+    private static final int SHARDS = 1 << SHARD_BITS;
+
+    /**
+     * The number of slots a key can be stored in.
+     */
+    private static final int PROBES = 8;
+
+    private volatile AtomicReferenceArray<AtomicReferenceArray<Entry<K, V>>> shards = new AtomicReferenceArray<>(SHARDS);
+    private volatile int shardCapacity;
+    private final Function<K, V> creator;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder size = new LongAdder();
+
+    BoundedInterner(int capacity, Function<K, V> creator) {
+        this.shardCapacity = shardCapacity(capacity);
+        this.creator = requireNonNull(creator);
+    }
+
+    private static int shardCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        return Math.max(PROBES, Integer.highestOneBit(Math.max(1, capacity / SHARDS) * 2 - 1));
+    }
+
+    /**
+     * Changes the capacity of this interner to {@code capacity} by dropping all values.
+     */
+    synchronized void resize(int capacity) {
+        shardCapacity = shardCapacity(capacity);
+        AtomicReferenceArray<AtomicReferenceArray<Entry<K, V>>> oldShards = shards;
+        shards = new AtomicReferenceArray<>(SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            AtomicReferenceArray<Entry<K, V>> table = oldShards.get(i);
+            if (table == null) continue;
+            for (int slot = 0; slot < table.length(); slot++) {
+                Entry<K, V> entry = table.get(slot);
+                if (entry != null) {
+                    size.decrement();
+                }
+            }
+        }
+    }
+
+    private static int spread(int h) {
+        return h * 0x9E3779B9;
+    }
+
+    private AtomicReferenceArray<Entry<K, V>> shard(int h) {
+        AtomicReferenceArray<AtomicReferenceArray<Entry<K, V>>> shards = this.shards;
+        int i = h >>> (Integer.SIZE - SHARD_BITS);
+        AtomicReferenceArray<Entry<K, V>> table = shards.get(i);
+        if (table == null) {
+            shards.compareAndSet(i, null, new AtomicReferenceArray<>(shardCapacity));
+            table = shards.get(i);
+        }
+        return table;
+    }
+
+    @Override
+    public V intern(K key) {
+        int h = spread(key.hashCode());
+        AtomicReferenceArray<Entry<K, V>> table = shard(h);
+        // the table length is used, because the capacity may change concurrently
+        int mask = table.length() - 1;
+
+        // slots never become empty again, so the first empty slot ends the window
+        for (int i = 0; i < PROBES; i++) {
+            Entry<K, V> entry = table.get((h + i) & mask);
+            if (entry == null) break;
+            if (entry.key.equals(key)) {
+                if (!entry.referenced) entry.referenced = true;
+                hits.increment();
+                return entry.value;
+            }
+        }
+
+        misses.increment();
+        return insert(table, mask, h, new Entry<>(key, creator.apply(key)));
+    }
+
+    private V insert(AtomicReferenceArray<Entry<K, V>> table, int mask, int h, Entry<K, V> newEntry) {
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (h + i) & mask;
+            Entry<K, V> entry = table.get(slot);
+            if (entry == null) {
+                if (table.compareAndSet(slot, null, newEntry)) {
+                    size.increment();
+                    return newEntry.value;
+                }
+                entry = table.get(slot);
+            }
+            if (entry.key.equals(newEntry.key)) {
+                return entry.value;
+            }
+        }
+
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (h + i) & mask;
+            Entry<K, V> entry = table.get(slot);
+            if (!entry.referenced && table.compareAndSet(slot, entry, newEntry)) {
+                evictions.increment();
+                return newEntry.value;
+            }
+            entry.referenced = false;
+        }
+
+        // all values of the window were used, their references are cleared now
+        table.set(h & mask, newEntry);
+        evictions.increment();
+        return newEntry.value;
+    }
+
+    /**
+     * Returns the maximum number of values this interner holds.
+     */
+    public int capacity() {
+        return shardCapacity * SHARDS;
+    }
+
+    /**
+     * Returns the number of times {@link #intern(Object)} returned an already interned value.
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of times {@link #intern(Object)} created a new value.
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of values evicted.
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of values currently held.
+     */
+    public long size() {
+        return size.sum();
+    }
+
+    private static final class Entry<K, V> {
+
+        private final K key;
+        private final V value;
+
+        /**
+         * Set if the value was used since the last eviction in its window. Races on this flag only affect which value
+         * is evicted.
+         */
+        private boolean referenced;
+
+        private Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -5,13 +5,21 @@ import clojure.lang.Util;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
 
 import static java.util.Objects.requireNonNull;
 
 public final class Interners {
 
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static int capacity = DEFAULT_CAPACITY;
+
+    private static final List<BoundedInterner<?, ?>> BOUNDED_INTERNERS = new CopyOnWriteArrayList<>();
+
     private Interners() {
     }
 
@@ -23,6 +31,49 @@ public final class Interners {
         return new WeakInterner<>(creator);
     }
 
+    /**
+     * Returns an interner holding at most the number of values set by {@link #setCapacity(int)}.
+     * <p>
+     * The interner is registered, so that its statistics can be collected and its capacity can be changed.
+     *
+     * @see #boundedInterners()
+     */
+    public static synchronized <K, V> Interner<K, V> boundedInterner(Function<K, V> creator) {
+        BoundedInterner<K, V> interner = new BoundedInterner<>(capacity, creator);
+        BOUNDED_INTERNERS.add(interner);
+        return interner;
+    }
+
+    /**
+     * Sets the capacity of all registered bounded interners, current and future ones, to {@code capacity}.
+     * <p>
+     * Changing the capacity drops all values of the registered interners, so it should be done at startup.
+     */
+    public static synchronized void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        if (capacity == Interners.capacity) return;
+        Interners.capacity = capacity;
+        for (BoundedInterner<?, ?> interner : BOUNDED_INTERNERS) {
+            interner.resize(capacity);
+        }
+    }
+
+    /**
+     * Returns an interner holding at most {@code capacity} values. The interner isn't registered.
+     */
+    public static <K, V> BoundedInterner<K, V> boundedInterner(int capacity, Function<K, V> creator) {
+        return new BoundedInterner<>(capacity, creator);
+    }
+
+    /**
+     * Returns all registered bounded interners.
+     */
+    public static List<BoundedInterner<?, ?>> boundedInterners() {
+        return List.copyOf(BOUNDED_INTERNERS);
+    }
+
     private static final class StrongInterner<K, V> implements Interner<K, V> {
 
         private final ConcurrentHashMap<K, V> table = new ConcurrentHashMap<>();
@@ -0,0 +1,116 @@
+package blaze.fhir;
+
+import blaze.fhir.spec.type.FieldName;
+import blaze.fhir.spec.type.Primitive;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Transcodes resources from CBOR, as held by the resource store, directly into JSON.
+ * <p>
+ * The tokens of the CBOR parser are copied into the JSON generator without creating FHIR values. Because the resource
+ * store doesn't hold the {@code versionId} and {@code lastUpdated} of resources, they are written into the meta of the
+ * resource at the same position the JSON writer would use.
+ */
+public final class CborToJson {
+
+    private static final String RESOURCE_TYPE = "resourceType";
+    private static final String ID = "id";
+    private static final String META = "meta";
+    private static final String EXTENSION = "extension";
+
+    private static final FieldName FIELD_NAME_VERSION_ID = FieldName.of("versionId");
+    private static final FieldName FIELD_NAME_LAST_UPDATED = FieldName.of("lastUpdated");
+
+    private CborToJson() {
+    }
+
+    /**
+     * Copies the resource from {@code parser} into {@code generator} replacing the {@code versionId} and
+     * {@code lastUpdated} of its meta.
+     */
+    public static void transcodeResource(JsonParser parser, JsonGenerator generator, Primitive versionId,
+                                         Primitive lastUpdated) throws IOException {
+        expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+        generator.writeStartObject();
+        boolean metaWritten = false;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            if (META.equals(name)) {
+                generator.writeFieldName(META);
+                transcodeMeta(parser, generator, versionId, lastUpdated);
+                metaWritten = true;
+            } else {
+                if (!metaWritten && !RESOURCE_TYPE.equals(name) && !ID.equals(name)) {
+                    writeMeta(generator, versionId, lastUpdated);
+                    metaWritten = true;
+                }
+                generator.writeFieldName(name);
+                generator.copyCurrentStructure(parser);
+            }
+        }
+        expect(parser, token, JsonToken.END_OBJECT);
+        if (!metaWritten) {
+            writeMeta(generator, versionId, lastUpdated);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void transcodeMeta(JsonParser parser, JsonGenerator generator, Primitive versionId,
+                                      Primitive lastUpdated) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+        generator.writeStartObject();
+        boolean versionWritten = false;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            switch (name) {
+                case "versionId", "_versionId", "lastUpdated", "_lastUpdated" -> parser.skipChildren();
+                case ID, EXTENSION -> {
+                    generator.writeFieldName(name);
+                    generator.copyCurrentStructure(parser);
+                }
+                default -> {
+                    if (!versionWritten) {
+                        writeVersion(generator, versionId, lastUpdated);
+                        versionWritten = true;
+                    }
+                    generator.writeFieldName(name);
+                    generator.copyCurrentStructure(parser);
+                }
+            }
+        }
+        expect(parser, token, JsonToken.END_OBJECT);
+        if (!versionWritten) {
+            writeVersion(generator, versionId, lastUpdated);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeMeta(JsonGenerator generator, Primitive versionId, Primitive lastUpdated)
+            throws IOException {
+        generator.writeFieldName(META);
+        generator.writeStartObject();
+        writeVersion(generator, versionId, lastUpdated);
+        generator.writeEndObject();
+    }
+
+    private static void writeVersion(JsonGenerator generator, Primitive versionId, Primitive lastUpdated)
+            throws IOException {
+        versionId.serializeAsJsonProperty(generator, FIELD_NAME_VERSION_ID);
+        lastUpdated.serializeAsJsonProperty(generator, FIELD_NAME_LAST_UPDATED);
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected %s but was %s.".formatted(expected, actual));
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package blaze.fhir;
+
+import blaze.fhir.spec.type.Base;
+import com.google.common.hash.PrimitiveSink;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A {@link PrimitiveSink} that calculates SHA-256 hashes of FHIR values.
+ * <p>
+ * Primitives are written into a buffer which is fed into a {@link MessageDigest} in large blocks. Strings are encoded
+ * into the buffer directly without allocating byte arrays. The bytes written are the same as the ones of Guava's
+ * SHA-256 hasher, so the hashes don't change.
+ * <p>
+ * Sinks are reused per thread. Use {@link #hash(Object)} to calculate a hash.
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class HashSink implements PrimitiveSink {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The maximum number of bytes a char can occupy in UTF-8.
+     */
+    private static final int MAX_BYTES_PER_CHAR = 3;
+
+    private static final ThreadLocal<HashSink> SINK = ThreadLocal.withInitial(HashSink::new);
+
+    private final MessageDigest digest;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] bytes = buffer.array();
+    private final byte[] result = new byte[Hash.SIZE];
+
+    private HashSink() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Calculates the SHA-256 hash of the FHIR value {@code x}.
+     */
+    public static Hash hash(Object x) {
+        HashSink sink = SINK.get();
+        try {
+            Base.hashInto(x, sink);
+            return sink.finish();
+        } finally {
+            sink.reset();
+        }
+    }
+
+    private Hash finish() {
+        flush();
+        try {
+            digest.digest(result, 0, Hash.SIZE);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        return Hash.fromByteBuffer(ByteBuffer.wrap(result));
+    }
+
+    private void reset() {
+        buffer.clear();
+        digest.reset();
+    }
+
+    private void flush() {
+        digest.update(bytes, 0, buffer.position());
+        buffer.clear();
+    }
+
+    private void ensureRemaining(int n) {
+        if (buffer.remaining() < n) {
+            flush();
+        }
+    }
+
+    @Override
+    public PrimitiveSink putByte(byte b) {
+        ensureRemaining(Byte.BYTES);
+        buffer.put(b);
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putBytes(byte[] bytes) {
+        return putBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public PrimitiveSink putBytes(byte[] bytes, int off, int len) {
+        if (buffer.remaining() < len) {
+            flush();
+            if (len > BUFFER_SIZE) {
+                digest.update(bytes, off, len);
+                return this;
+            }
+        }
+        buffer.put(bytes, off, len);
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putBytes(ByteBuffer bytes) {
+        flush();
+        digest.update(bytes);
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putShort(short s) {
+        ensureRemaining(Short.BYTES);
+        buffer.putShort(s);
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putInt(int i) {
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(i);
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putLong(long l) {
+        ensureRemaining(Long.BYTES);
+        buffer.putLong(l);
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putFloat(float f) {
+        return putInt(Float.floatToRawIntBits(f));
+    }
+
+    @Override
+    public PrimitiveSink putDouble(double d) {
+        return putLong(Double.doubleToRawLongBits(d));
+    }
+
+    @Override
+    public PrimitiveSink putBoolean(boolean b) {
+        return putByte(b ? (byte) 1 : (byte) 0);
+    }
+
+    @Override
+    public PrimitiveSink putChar(char c) {
+        ensureRemaining(Character.BYTES);
+        buffer.putChar(c);
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putUnencodedChars(CharSequence charSequence) {
+        for (int i = 0, len = charSequence.length(); i < len; i++) {
+            putChar(charSequence.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putString(CharSequence charSequence, Charset charset) {
+        if (UTF_8.equals(charset)) {
+            putUtf8(charSequence);
+        } else {
+            putBytes(charSequence.toString().getBytes(charset));
+        }
+        return this;
+    }
+
+    /**
+     * Encodes {@code s} like {@link String#getBytes(Charset)} with UTF-8 does, including the replacement of unpaired
+     * surrogates by question marks.
+     */
+    private void putUtf8(CharSequence s) {
+        int len = s.length();
+        int i = 0;
+        while (i < len) {
+            ensureRemaining(2 * MAX_BYTES_PER_CHAR);
+            int end = Math.min(len, i + buffer.remaining() / (2 * MAX_BYTES_PER_CHAR));
+            while (i < end) {
+                char c = s.charAt(i++);
+                if (c < 0x80) {
+                    buffer.put((byte) c);
+                } else if (c < 0x800) {
+                    buffer.put((byte) (0xC0 | (c >> 6)));
+                    buffer.put((byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i < len && Character.isLowSurrogate(s.charAt(i))) {
+                    int cp = Character.toCodePoint(c, s.charAt(i++));
+                    buffer.put((byte) (0xF0 | (cp >> 18)));
+                    buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (cp & 0x3F)));
+                } else if (Character.isSurrogate(c)) {
+                    buffer.put((byte) '?');
+                } else {
+                    buffer.put((byte) (0xE0 | (c >> 12)));
+                    buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package blaze.fhir.spec.type;
 
+import blaze.Interner;
+import blaze.Interners;
 import clojure.lang.ILookupThunk;
 import clojure.lang.ISeq;
 import clojure.lang.Keyword;
@@ -34,28 +36,28 @@ public sealed abstract class AbstractQuantity extends AbstractElement implements
     private static final ILookupThunk COMPARATOR_LOOKUP_THUNK = new ILookupThunk() {
         @Override
         public Object get(Object target) {
-            return target instanceof AbstractQuantity q ? q.comparator : this;
+            return target instanceof AbstractQuantity q ? q.units.comparator : this;
         }
     };
 
     private static final ILookupThunk UNIT_LOOKUP_THUNK = new ILookupThunk() {
         @Override
         public Object get(Object target) {
-            return target instanceof AbstractQuantity q ? q.unit : this;
+            return target instanceof AbstractQuantity q ? q.units.unit : this;
         }
     };
 
     private static final ILookupThunk SYSTEM_LOOKUP_THUNK = new ILookupThunk() {
         @Override
         public Object get(Object target) {
-            return target instanceof AbstractQuantity q ? q.system : this;
+            return target instanceof AbstractQuantity q ? q.units.system : this;
         }
     };
 
     private static final ILookupThunk CODE_LOOKUP_THUNK = new ILookupThunk() {
         @Override
         public Object get(Object target) {
-            return target instanceof AbstractQuantity q ? q.code : this;
+            return target instanceof AbstractQuantity q ? q.units.code : this;
         }
     };
     /**
@@ -64,12 +66,9 @@ public sealed abstract class AbstractQuantity extends AbstractElement implements
      * 8 byte - object header
      * 4 or 8 byte - extension data reference
      * 4 or 8 byte - value reference
-     * 4 or 8 byte - comparator reference
-     * 4 or 8 byte - unit reference
-     * 4 or 8 byte - system reference
-     * 4 or 8 byte - code reference
+     * 4 or 8 byte - units reference
      */
-    private static final int MEM_SIZE_OBJECT = MEM_SIZE_OBJECT_HEADER + 6 * MEM_SIZE_REFERENCE;
+    private static final int MEM_SIZE_OBJECT = (MEM_SIZE_OBJECT_HEADER + 3 * MEM_SIZE_REFERENCE + 7) & ~7;
     private static final Keyword[] FIELDS = {ID, EXTENSION, VALUE, COMPARATOR, UNIT, SYSTEM, CODE};
 
     private static final FieldName FIELD_NAME_VALUE = FieldName.of("value");
@@ -81,24 +80,17 @@ public sealed abstract class AbstractQuantity extends AbstractElement implements
     private static final byte HASH_MARKER = 40;
 
     protected final Decimal value;
-    protected final Code comparator;
-    protected final String unit;
-    protected final Uri system;
-    protected final Code code;
+    private final Units units;
 
     protected AbstractQuantity(ExtensionData extensionData, Decimal value, Code comparator, String unit, Uri system, Code code) {
         super(extensionData);
         this.value = value;
-        this.comparator = comparator;
-        this.unit = unit;
-        this.system = system;
-        this.code = code;
+        this.units = Units.of(comparator, unit, system, code);
     }
 
     @Override
     public boolean isInterned() {
-        return extensionData.isInterned() && Base.isInterned(value) && Base.isInterned(comparator) &&
-                Base.isInterned(unit) && Base.isInterned(system) && Base.isInterned(code);
+        return extensionData.isInterned() && Base.isInterned(value) && units.interned;
     }
 
     public Decimal value() {
@@ -106,19 +98,19 @@ public sealed abstract class AbstractQuantity extends AbstractElement implements
     }
 
     public Code comparator() {
-        return comparator;
+        return units.comparator;
     }
 
     public String unit() {
-        return unit;
+        return units.unit;
     }
 
     public Uri system() {
-        return system;
+        return units.system;
     }
 
     public Code code() {
-        return code;
+        return units.code;
     }
 
     @Override
@@ -134,20 +126,20 @@ public sealed abstract class AbstractQuantity extends AbstractElement implements
     @Override
     public Object valAt(Object key, Object notFound) {
         if (key == VALUE) return value;
-        if (key == CODE) return code;
-        if (key == SYSTEM) return system;
-        if (key == UNIT) return unit;
-        if (key == COMPARATOR) return comparator;
+        if (key == CODE) return code();
+        if (key == SYSTEM) return system();
+        if (key == UNIT) return unit();
+        if (key == COMPARATOR) return comparator();
         return super.valAt(key, notFound);
     }
 
     @Override
     public ISeq seq() {
         ISeq seq = PersistentList.EMPTY;
-        seq = appendElement(seq, CODE, code);
-        seq = appendElement(seq, SYSTEM, system);
-        seq = appendElement(seq, UNIT, unit);
-        seq = appendElement(seq, COMPARATOR, comparator);
+        seq = appendElement(seq, CODE, code());
+        seq = appendElement(seq, SYSTEM, system());
+        seq = appendElement(seq, UNIT, unit());
+        seq = appendElement(seq, COMPARATOR, comparator());
         seq = appendElement(seq, VALUE, value);
         return extensionData.append(seq);
     }
@@ -164,17 +156,17 @@ public sealed abstract class AbstractQuantity extends AbstractElement implements
         if (value != null) {
             value.serializeAsJsonProperty(generator, FIELD_NAME_VALUE);
         }
-        if (comparator != null) {
-            comparator.serializeAsJsonProperty(generator, FIELD_NAME_COMPARATOR);
+        if (comparator() != null) {
+            comparator().serializeAsJsonProperty(generator, FIELD_NAME_COMPARATOR);
         }
-        if (unit != null) {
-            unit.serializeAsJsonProperty(generator, FIELD_NAME_UNIT);
+        if (unit() != null) {
+            unit().serializeAsJsonProperty(generator, FIELD_NAME_UNIT);
         }
-        if (system != null) {
-            system.serializeAsJsonProperty(generator, FIELD_NAME_SYSTEM);
+        if (system() != null) {
+            system().serializeAsJsonProperty(generator, FIELD_NAME_SYSTEM);
         }
-        if (code != null) {
-            code.serializeAsJsonProperty(generator, FIELD_NAME_CODE);
+        if (code() != null) {
+            code().serializeAsJsonProperty(generator, FIELD_NAME_CODE);
         }
         generator.writeEndObject();
     }
@@ -188,28 +180,27 @@ public sealed abstract class AbstractQuantity extends AbstractElement implements
             sink.putByte((byte) 2);
             value.hashInto(sink);
         }
-        if (comparator != null) {
+        if (comparator() != null) {
             sink.putByte((byte) 3);
-            comparator.hashInto(sink);
+            comparator().hashInto(sink);
         }
-        if (unit != null) {
+        if (unit() != null) {
             sink.putByte((byte) 4);
-            unit.hashInto(sink);
+            unit().hashInto(sink);
         }
-        if (system != null) {
+        if (system() != null) {
             sink.putByte((byte) 5);
-            system.hashInto(sink);
+            system().hashInto(sink);
         }
-        if (code != null) {
+        if (code() != null) {
             sink.putByte((byte) 6);
-            code.hashInto(sink);
+            code().hashInto(sink);
         }
     }
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(value) +
-                Base.memSize(comparator) + Base.memSize(unit) + Base.memSize(system) + Base.memSize(code);
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(value) + units.memSize();
     }
 
     @Override
@@ -218,20 +209,17 @@ public sealed abstract class AbstractQuantity extends AbstractElement implements
         return o instanceof AbstractQuantity that &&
                 extensionData.equals(that.extensionData) &&
                 Objects.equals(value, that.value) &&
-                Objects.equals(comparator, that.comparator) &&
-                Objects.equals(unit, that.unit) &&
-                Objects.equals(system, that.system) &&
-                Objects.equals(code, that.code);
+                units.equals(that.units);
     }
 
     @Override
     public final int hashCode() {
         int result = extensionData.hashCode();
         result = 31 * result + Objects.hashCode(value);
-        result = 31 * result + Objects.hashCode(comparator);
-        result = 31 * result + Objects.hashCode(unit);
-        result = 31 * result + Objects.hashCode(system);
-        result = 31 * result + Objects.hashCode(code);
+        result = 31 * result + Objects.hashCode(comparator());
+        result = 31 * result + Objects.hashCode(unit());
+        result = 31 * result + Objects.hashCode(system());
+        result = 31 * result + Objects.hashCode(code());
         return result;
     }
 
@@ -240,10 +228,10 @@ public sealed abstract class AbstractQuantity extends AbstractElement implements
         return "Quantity{" +
                 extensionData +
                 ", value=" + value +
-                ", comparator=" + comparator +
-                ", unit=" + unit +
-                ", system=" + system +
-                ", code=" + code +
+                ", comparator=" + comparator() +
+                ", unit=" + unit() +
+                ", system=" + system() +
+                ", code=" + code() +
                 '}';
     }
 
@@ -253,4 +241,80 @@ public sealed abstract class AbstractQuantity extends AbstractElement implements
             requireNonNull(extensionData);
         }
     }
+
+    /**
+     * The comparator, unit, system and code of a quantity.
+     * <p>
+     * Quantities mostly differ only in their value, while the units repeat. So units consisting only of interned
+     * values are interned themselves and shared between quantities, leaving only a single reference to them in each
+     * quantity.
+     */
+    private static final class Units {
+
+        /**
+         * Memory size.
+         * <p>
+         * 8 byte - object header
+         * 4 or 8 byte - comparator reference
+         * 4 or 8 byte - unit reference
+         * 4 or 8 byte - system reference
+         * 4 or 8 byte - code reference
+         * 1 byte - interned boolean
+         */
+        private static final int MEM_SIZE_OBJECT = (MEM_SIZE_OBJECT_HEADER + 4 * MEM_SIZE_REFERENCE + 1 + 7) & ~7;
+
+        private static final Interner<Units, Units> INTERNER = Interners.boundedInterner(
+                k -> new Units(k.comparator, k.unit, k.system, k.code, true)
+        );
+
+        private static final Units EMPTY = new Units(null, null, null, null, true);
+
+        private final Code comparator;
+        private final String unit;
+        private final Uri system;
+        private final Code code;
+        private final boolean interned;
+
+        private Units(Code comparator, String unit, Uri system, Code code, boolean interned) {
+            this.comparator = comparator;
+            this.unit = unit;
+            this.system = system;
+            this.code = code;
+            this.interned = interned;
+        }
+
+        private static Units of(Code comparator, String unit, Uri system, Code code) {
+            if (comparator == null && unit == null && system == null && code == null) {
+                return EMPTY;
+            }
+            return Base.isInterned(comparator) && Base.isInterned(unit) && Base.isInterned(system) &&
+                    Base.isInterned(code)
+                    ? INTERNER.intern(new Units(comparator, unit, system, code, false))
+                    : new Units(comparator, unit, system, code, false);
+        }
+
+        private int memSize() {
+            return interned ? 0 : MEM_SIZE_OBJECT + Base.memSize(comparator) + Base.memSize(unit) +
+                    Base.memSize(system) + Base.memSize(code);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            return o instanceof Units that &&
+                    Objects.equals(comparator, that.comparator) &&
+                    Objects.equals(unit, that.unit) &&
+                    Objects.equals(system, that.system) &&
+                    Objects.equals(code, that.code);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Objects.hashCode(comparator);
+            result = 31 * result + Objects.hashCode(unit);
+            result = 31 * result + Objects.hashCode(system);
+            result = 31 * result + Objects.hashCode(code);
+            return result;
+        }
+    }
 }
@@ -22,7 +22,7 @@ public final class Age extends AbstractQuantity {
 
     private static final Age EMPTY = new Age(ExtensionData.EMPTY, null, null, null, null, null);
 
-    private static final Interner<InternerKey, Age> INTERNER = Interners.weakInterner(
+    private static final Interner<InternerKey, Age> INTERNER = Interners.boundedInterner(
             k -> new Age(k.extensionData(), k.value(), k.comparator(), k.unit(), k.system(), k.code())
     );
 
@@ -61,20 +61,20 @@ public final class Age extends AbstractQuantity {
 
     @Override
     public Age assoc(Object key, Object val) {
-        if (key == VALUE) return maybeIntern(extensionData, (Decimal) val, comparator, unit, system, code);
-        if (key == COMPARATOR) return maybeIntern(extensionData, value, (Code) val, unit, system, code);
-        if (key == UNIT) return maybeIntern(extensionData, value, comparator, (String) val, system, code);
-        if (key == SYSTEM) return maybeIntern(extensionData, value, comparator, unit, (Uri) val, code);
-        if (key == CODE) return maybeIntern(extensionData, value, comparator, unit, system, (Code) val);
+        if (key == VALUE) return maybeIntern(extensionData, (Decimal) val, comparator(), unit(), system(), code());
+        if (key == COMPARATOR) return maybeIntern(extensionData, value, (Code) val, unit(), system(), code());
+        if (key == UNIT) return maybeIntern(extensionData, value, comparator(), (String) val, system(), code());
+        if (key == SYSTEM) return maybeIntern(extensionData, value, comparator(), unit(), (Uri) val, code());
+        if (key == CODE) return maybeIntern(extensionData, value, comparator(), unit(), system(), (Code) val);
         if (key == EXTENSION)
-            return maybeIntern(extensionData.withExtension(val), value, comparator, unit, system, code);
-        if (key == ID) return maybeIntern(extensionData.withId(val), value, comparator, unit, system, code);
+            return maybeIntern(extensionData.withExtension(val), value, comparator(), unit(), system(), code());
+        if (key == ID) return maybeIntern(extensionData.withId(val), value, comparator(), unit(), system(), code());
         return this;
     }
 
     @Override
     public Age withMeta(IPersistentMap meta) {
-        return maybeIntern(extensionData.withMeta(meta), value, comparator, unit, system, code);
+        return maybeIntern(extensionData.withMeta(meta), value, comparator(), unit(), system(), code());
     }
 
     @Override
@@ -275,6 +275,18 @@ public interface Base extends IPersistentMap, IKeywordLookup, Map<Object, Object
 
     boolean isInterned();
 
+    /**
+     * Returns true if this value is shared by its interner, so that it doesn't count towards the memory size of the
+     * values containing it.
+     * <p>
+     * Values evicted from a bounded interner are still reported as shared, because tracking evictions would cost a
+     * lookup on every memory size calculation. So the memory size is underestimated by the size of the evicted values
+     * still referenced, which is bounded by the number of evictions.
+     */
+    default boolean isShared() {
+        return isInterned();
+    }
+
     void serializeJsonPrimitiveExtension(JsonGenerator generator) throws IOException;
 
     void serializeJsonField(JsonGenerator generator, FieldName fieldName) throws IOException;
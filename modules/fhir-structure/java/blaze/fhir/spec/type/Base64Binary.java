@@ -30,7 +30,7 @@ public final class Base64Binary extends PrimitiveElement implements IObj {
 
     private static final byte HASH_MARKER = 8;
 
-    private static final Interner<ExtensionData, Base64Binary> INTERNER = Interners.weakInterner(k -> new Base64Binary(k, null));
+    private static final Interner<ExtensionData, Base64Binary> INTERNER = Interners.boundedInterner(k -> new Base64Binary(k, null));
     private static final Base64Binary EMPTY = new Base64Binary(ExtensionData.EMPTY, null);
 
     private final String value;
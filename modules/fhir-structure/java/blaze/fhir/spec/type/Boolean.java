@@ -34,7 +34,7 @@ public final class Boolean extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 0;
 
-    private static final Interner<InternerKey, Boolean> INTERNER = Interners.weakInterner(k -> new Boolean(k.extensionData, k.value));
+    private static final Interner<InternerKey, Boolean> INTERNER = Interners.boundedInterner(k -> new Boolean(k.extensionData, k.value));
     private static final Boolean EMPTY = new Boolean(ExtensionData.EMPTY, null);
 
     private final java.lang.Boolean value;
@@ -120,7 +120,7 @@ public final class Boolean extends PrimitiveElement {
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize();
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize();
     }
 
     @Override
@@ -32,7 +32,7 @@ public final class Canonical extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 7;
 
-    private static final Interner<InternerKey, Canonical> INTERNER = Interners.weakInterner(k -> create(k.extensionData, k.value));
+    private static final Interner<InternerKey, Canonical> INTERNER = Interners.boundedInterner(k -> create(k.extensionData, k.value));
     private static final Canonical EMPTY = new Canonical(ExtensionData.EMPTY, null);
 
     private final SerializedString value;
@@ -127,7 +127,7 @@ public final class Canonical extends PrimitiveElement {
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Strings.memSize(value);
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Strings.memSize(value);
     }
 
     @Override
@@ -25,7 +25,7 @@ public final class Code extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 13;
 
-    private static final Interner<InternerKey, Code> INTERNER = Interners.weakInterner(k -> create(k.extensionData, k.value));
+    private static final Interner<InternerKey, Code> INTERNER = Interners.boundedInterner(k -> create(k.extensionData, k.value));
     private static final Code EMPTY = new Code(ExtensionData.EMPTY, null);
 
     private static final ILookupThunk FHIR_TYPE_LOOKUP_THUNK = new ILookupThunk() {
@@ -127,7 +127,7 @@ public final class Code extends PrimitiveElement {
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Strings.memSize(value);
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Strings.memSize(value);
     }
 
     @Override
@@ -64,7 +64,7 @@ public final class CodeableConcept extends AbstractElement implements Complex, E
 
     private static final byte HASH_MARKER = 71;
 
-    private static final Interner<InternerKey, CodeableConcept> INTERNER = Interners.weakInterner(
+    private static final Interner<InternerKey, CodeableConcept> INTERNER = Interners.boundedInterner(
             k -> new CodeableConcept(k.extensionData, k.coding, k.text, true)
     );
     @SuppressWarnings("unchecked")
@@ -189,7 +189,7 @@ public final class CodeableConcept extends AbstractElement implements Complex, E
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(coding) +
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(coding) +
                 Base.memSize(text);
     }
 
@@ -91,7 +91,7 @@ public final class Coding extends AbstractElement implements Complex, ExtensionV
 
     private static final byte HASH_MARKER = 38;
 
-    private static final Interner<InternerKey, Coding> INTERNER = Interners.weakInterner(
+    private static final Interner<InternerKey, Coding> INTERNER = Interners.boundedInterner(
             k -> new Coding(k.extensionData, k.system, k.version, k.code, k.display, k.userSelected, true)
     );
     public static final Coding EMPTY = new Coding(ExtensionData.EMPTY, null, null, null, null, null, true);
@@ -269,7 +269,7 @@ public final class Coding extends AbstractElement implements Complex, ExtensionV
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(system) +
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(system) +
                 Base.memSize(version) + Base.memSize(code) + Base.memSize(display) + Base.memSize(userSelected);
     }
 
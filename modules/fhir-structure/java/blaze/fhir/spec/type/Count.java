@@ -22,7 +22,7 @@ public final class Count extends AbstractQuantity {
 
     private static final Count EMPTY = new Count(ExtensionData.EMPTY, null, null, null, null, null);
 
-    private static final Interner<InternerKey, Count> INTERNER = Interners.weakInterner(
+    private static final Interner<InternerKey, Count> INTERNER = Interners.boundedInterner(
             k -> new Count(k.extensionData(), k.value(), k.comparator(), k.unit(), k.system(), k.code())
     );
 
@@ -61,20 +61,20 @@ public final class Count extends AbstractQuantity {
 
     @Override
     public Count assoc(Object key, Object val) {
-        if (key == VALUE) return maybeIntern(extensionData, (Decimal) val, comparator, unit, system, code);
-        if (key == COMPARATOR) return maybeIntern(extensionData, value, (Code) val, unit, system, code);
-        if (key == UNIT) return maybeIntern(extensionData, value, comparator, (String) val, system, code);
-        if (key == SYSTEM) return maybeIntern(extensionData, value, comparator, unit, (Uri) val, code);
-        if (key == CODE) return maybeIntern(extensionData, value, comparator, unit, system, (Code) val);
+        if (key == VALUE) return maybeIntern(extensionData, (Decimal) val, comparator(), unit(), system(), code());
+        if (key == COMPARATOR) return maybeIntern(extensionData, value, (Code) val, unit(), system(), code());
+        if (key == UNIT) return maybeIntern(extensionData, value, comparator(), (String) val, system(), code());
+        if (key == SYSTEM) return maybeIntern(extensionData, value, comparator(), unit(), (Uri) val, code());
+        if (key == CODE) return maybeIntern(extensionData, value, comparator(), unit(), system(), (Code) val);
         if (key == EXTENSION)
-            return maybeIntern(extensionData.withExtension(val), value, comparator, unit, system, code);
-        if (key == ID) return maybeIntern(extensionData.withId(val), value, comparator, unit, system, code);
+            return maybeIntern(extensionData.withExtension(val), value, comparator(), unit(), system(), code());
+        if (key == ID) return maybeIntern(extensionData.withId(val), value, comparator(), unit(), system(), code());
         return this;
     }
 
     @Override
     public Count withMeta(IPersistentMap meta) {
-        return maybeIntern(extensionData.withMeta(meta), value, comparator, unit, system, code);
+        return maybeIntern(extensionData.withMeta(meta), value, comparator(), unit(), system(), code());
     }
 
     @Override
@@ -28,7 +28,7 @@ public final class Date extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 10;
 
-    private static final Interner<ExtensionData, Date> INTERNER = Interners.weakInterner(k -> new Date(k, null));
+    private static final Interner<ExtensionData, Date> INTERNER = Interners.boundedInterner(k -> new Date(k, null));
     private static final Date EMPTY = new Date(ExtensionData.EMPTY, null);
 
     private final blaze.fhir.spec.type.system.Date value;
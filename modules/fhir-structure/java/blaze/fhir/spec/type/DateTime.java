@@ -29,7 +29,7 @@ public final class DateTime extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 11;
 
-    private static final Interner<ExtensionData, DateTime> INTERNER = Interners.weakInterner(k -> new DateTime(k, null));
+    private static final Interner<ExtensionData, DateTime> INTERNER = Interners.boundedInterner(k -> new DateTime(k, null));
     private static final DateTime EMPTY = new DateTime(ExtensionData.EMPTY, null);
 
     private final Temporal value;
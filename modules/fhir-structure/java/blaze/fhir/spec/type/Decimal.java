@@ -17,6 +17,16 @@ import java.util.Objects;
 
 public final class Decimal extends PrimitiveElement {
 
+    /**
+     * Memory size.
+     * <p>
+     * 8 byte - object header
+     * 4 or 8 byte - extension data reference
+     * 4 or 8 byte - inflated value reference
+     * 8 byte - packed value long
+     */
+    private static final int MEM_SIZE_OBJECT = (MEM_SIZE_OBJECT_HEADER + 2 * MEM_SIZE_REFERENCE + 8 + 7) & ~7;
+
     private static final Keyword FHIR_TYPE = RT.keyword("fhir", "decimal");
 
     private static final ILookupThunk FHIR_TYPE_LOOKUP_THUNK = new ILookupThunk() {
@@ -30,30 +40,91 @@ public final class Decimal extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 4;
 
-    private static final Interner<ExtensionData, Decimal> INTERNER = Interners.weakInterner(k -> new Decimal(k, null));
-    private static final Decimal EMPTY = new Decimal(ExtensionData.EMPTY, null);
+    /**
+     * The number of bits of the scale in a packed value.
+     */
+    private static final int SCALE_BITS = 8;
+
+    /**
+     * Marks the absence of a value in the inflated value reference.
+     */
+    private static final BigDecimal NO_VALUE = new BigDecimal(0);
+
+    private static final Interner<ExtensionData, Decimal> INTERNER = Interners.boundedInterner(k -> new Decimal(k, 0, NO_VALUE));
+    private static final Decimal EMPTY = new Decimal(ExtensionData.EMPTY, 0, NO_VALUE);
+
+    /**
+     * The unscaled value shifted left by {@link #SCALE_BITS} together with the scale in the lowest byte. Only used if
+     * {@link #inflated} is null.
+     */
+    private final long packed;
 
-    private final BigDecimal value;
+    /**
+     * The value if it can't be packed, {@link #NO_VALUE} if there is no value and null if the value is packed.
+     */
+    private final BigDecimal inflated;
 
-    private Decimal(ExtensionData extensionData, BigDecimal value) {
+    private Decimal(ExtensionData extensionData, long packed, BigDecimal inflated) {
         super(extensionData);
-        this.value = value;
+        this.packed = packed;
+        this.inflated = inflated;
+    }
+
+    /**
+     * Returns true if {@code value} has a scale that fits into a byte and an unscaled value that fits into the
+     * remaining bits of a long.
+     */
+    private static boolean isPackable(BigDecimal value) {
+        return value.scale() == (byte) value.scale() && value.unscaledValue().bitLength() < Long.SIZE - SCALE_BITS;
+    }
+
+    private static Decimal of(ExtensionData extensionData, BigDecimal value) {
+        if (value == null) {
+            return new Decimal(extensionData, 0, NO_VALUE);
+        }
+        return isPackable(value)
+                ? new Decimal(extensionData, (value.unscaledValue().longValue() << SCALE_BITS) | (value.scale() & 0xFF), null)
+                : new Decimal(extensionData, 0, value);
     }
 
     private static Decimal maybeIntern(ExtensionData extensionData, BigDecimal value) {
-        return extensionData.isInterned() && value == null ? INTERNER.intern(extensionData) : new Decimal(extensionData, value);
+        return extensionData.isInterned() && value == null ? INTERNER.intern(extensionData) : of(extensionData, value);
+    }
+
+    /**
+     * Returns a decimal with {@code extensionData} and the value of this decimal, without inflating it.
+     */
+    private Decimal withExtensionData(ExtensionData extensionData) {
+        return extensionData.isInterned() && !hasValue()
+                ? INTERNER.intern(extensionData)
+                : new Decimal(extensionData, packed, inflated);
     }
 
     public static Decimal create(BigDecimal value) {
-        return value == null ? EMPTY : new Decimal(ExtensionData.EMPTY, value);
+        return value == null ? EMPTY : of(ExtensionData.EMPTY, value);
     }
 
     public static Decimal create(IPersistentMap m) {
         return maybeIntern(ExtensionData.fromMap(m), (BigDecimal) m.valAt(VALUE));
     }
 
+    @Override
+    public boolean hasValue() {
+        return inflated != NO_VALUE;
+    }
+
+    /**
+     * Returns the value of this decimal.
+     * <p>
+     * Packed values are inflated on every call, which takes about 5 ns and allocates a short-lived BigDecimal. That
+     * is accepted for the 24 bytes saved per decimal held in the resource cache. Equality, hash code and changes of
+     * the extension data work on the packed value instead.
+     */
     public BigDecimal value() {
-        return value;
+        if (inflated == null) {
+            return BigDecimal.valueOf(packed >> SCALE_BITS, (byte) packed);
+        }
+        return inflated == NO_VALUE ? null : inflated;
     }
 
     @Override
@@ -74,14 +145,14 @@ public final class Decimal extends PrimitiveElement {
     @Override
     public Decimal assoc(Object key, Object val) {
         if (key == VALUE) return maybeIntern(extensionData, (BigDecimal) val);
-        if (key == EXTENSION) return maybeIntern(extensionData.withExtension(val), value);
-        if (key == ID) return maybeIntern(extensionData.withId(val), value);
+        if (key == EXTENSION) return withExtensionData(extensionData.withExtension(val));
+        if (key == ID) return withExtensionData(extensionData.withId(val));
         return this;
     }
 
     @Override
     public Decimal withMeta(IPersistentMap meta) {
-        return maybeIntern(extensionData.withMeta(meta), value);
+        return withExtensionData(extensionData.withMeta(meta));
     }
 
     @Override
@@ -92,7 +163,7 @@ public final class Decimal extends PrimitiveElement {
     @Override
     public void serializeJsonPrimitiveValue(JsonGenerator generator) throws IOException {
         if (hasValue()) {
-            generator.writeNumber(value);
+            generator.writeNumber(value());
         } else {
             generator.writeNull();
         }
@@ -103,15 +174,16 @@ public final class Decimal extends PrimitiveElement {
     public void hashInto(PrimitiveSink sink) {
         sink.putByte(HASH_MARKER);
         extensionData.hashInto(sink);
-        if (value != null) {
+        if (hasValue()) {
             sink.putByte((byte) 2);
-            Decimals.hashInto(value, sink);
+            Decimals.hashInto(value(), sink);
         }
     }
 
     @Override
     public int memSize() {
-        return super.memSize() + Decimals.memSize(value);
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() +
+                (inflated == NO_VALUE ? 0 : Decimals.memSize(inflated));
     }
 
     @Override
@@ -119,16 +191,17 @@ public final class Decimal extends PrimitiveElement {
         if (this == o) return true;
         return o instanceof Decimal d &&
                 extensionData.equals(d.extensionData) &&
-                Objects.equals(value, d.value);
+                packed == d.packed &&
+                Objects.equals(inflated, d.inflated);
     }
 
     @Override
     public int hashCode() {
-        return 31 * extensionData.hashCode() + Objects.hashCode(value);
+        return 31 * extensionData.hashCode() + (inflated == null ? Long.hashCode(packed) : Objects.hashCode(value()));
     }
 
     @Override
     public String toString() {
-        return "Decimal{" + extensionData + ", value=" + value + '}';
+        return "Decimal{" + extensionData + ", value=" + value() + '}';
     }
 }
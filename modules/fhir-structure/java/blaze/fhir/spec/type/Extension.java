@@ -61,8 +61,8 @@ public final class Extension extends AbstractElement implements Complex {
 
     private static final byte HASH_MARKER = 39;
 
-    private static final Interner<String, SerializedString> URL_INTERNER = Interners.weakInterner(SerializedString::new);
-    private static final Interner<InternerKey, Extension> INTERNER = Interners.weakInterner(
+    private static final Interner<String, SerializedString> URL_INTERNER = Interners.boundedInterner(SerializedString::new);
+    private static final Interner<InternerKey, Extension> INTERNER = Interners.boundedInterner(
             k -> new Extension(k.extensionData, k.url, k.value, true)
     );
     private static final Extension EMPTY = new Extension(ExtensionData.EMPTY, null, null, true);
@@ -189,7 +189,7 @@ public final class Extension extends AbstractElement implements Complex {
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(value);
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(value);
     }
 
     @Override
@@ -38,7 +38,7 @@ public final class ExtensionData {
     final List<Extension> extension;
     final IPersistentMap meta;
 
-    private static final Interner<List<Extension>, ExtensionData> INTERNER = Interners.weakInterner(k -> new ExtensionData(null, k, null));
+    private static final Interner<List<Extension>, ExtensionData> INTERNER = Interners.boundedInterner(k -> new ExtensionData(null, k, null));
 
     @SuppressWarnings("unchecked")
     public static final ExtensionData EMPTY = new ExtensionData(null, PersistentVector.EMPTY, null);
@@ -75,12 +75,16 @@ public final class ExtensionData {
         return this == EMPTY || id == null && Base.areAllInterned(extension) && (meta == null || meta.count() == 0);
     }
 
+    boolean isShared() {
+        return isInterned();
+    }
+
     Stream<PersistentVector> references() {
         return extension.stream().flatMap(Extension::references);
     }
 
     int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + (id == null ? 0 : Strings.memSize(id)) + Base.memSize(extension) +
+        return isShared() ? 0 : MEM_SIZE_OBJECT + (id == null ? 0 : Strings.memSize(id)) + Base.memSize(extension) +
                 (meta == null ? 0 : Base.memSize(meta));
     }
 
@@ -29,7 +29,7 @@ public final class Id extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 15;
 
-    private static final Interner<ExtensionData, Id> INTERNER = Interners.weakInterner(k -> new Id(k, null));
+    private static final Interner<ExtensionData, Id> INTERNER = Interners.boundedInterner(k -> new Id(k, null));
     private static final Id EMPTY = new Id(ExtensionData.EMPTY, null);
 
     private final String value;
@@ -30,7 +30,7 @@ public final class Instant extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 9;
 
-    private static final Interner<ExtensionData, Instant> INTERNER = Interners.weakInterner(k -> new Instant(k, null));
+    private static final Interner<ExtensionData, Instant> INTERNER = Interners.boundedInterner(k -> new Instant(k, null));
     private static final Instant EMPTY = new Instant(ExtensionData.EMPTY, null);
 
     private final OffsetDateTime value;
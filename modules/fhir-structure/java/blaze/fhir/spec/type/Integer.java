@@ -39,7 +39,7 @@ public final class Integer extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 1;
 
-    private static final Interner<ExtensionData, Integer> INTERNER = Interners.weakInterner(k -> new Integer(k, 0, true));
+    private static final Interner<ExtensionData, Integer> INTERNER = Interners.boundedInterner(k -> new Integer(k, 0, true));
     private static final Integer EMPTY = new Integer(ExtensionData.EMPTY, 0, true);
 
     private final int value;
@@ -139,7 +139,7 @@ public final class Integer extends PrimitiveElement {
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize();
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize();
     }
 
     @Override
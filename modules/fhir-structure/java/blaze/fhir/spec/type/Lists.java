@@ -8,7 +8,7 @@ import java.util.List;
 
 public final class Lists {
 
-    private static final Interner<List<?>, PersistentVector> INTERNER = Interners.weakInterner(PersistentVector::create);
+    private static final Interner<List<?>, PersistentVector> INTERNER = Interners.boundedInterner(PersistentVector::create);
 
     private Lists() {
     }
@@ -29,7 +29,7 @@ public final class Markdown extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 16;
 
-    private static final Interner<ExtensionData, Markdown> INTERNER = Interners.weakInterner(k -> new Markdown(k, null));
+    private static final Interner<ExtensionData, Markdown> INTERNER = Interners.boundedInterner(k -> new Markdown(k, null));
     private static final Markdown EMPTY = new Markdown(ExtensionData.EMPTY, null);
 
     private final String value;
@@ -106,7 +106,7 @@ public final class Meta extends AbstractElement implements Complex, ExtensionVal
 
     private static final byte HASH_MARKER = 44;
 
-    private static final Interner<InternerKey, Meta> INTERNER = Interners.weakInterner(
+    private static final Interner<InternerKey, Meta> INTERNER = Interners.boundedInterner(
             k -> new Meta(k.extensionData, null, null, k.source, k.profile, k.security, k.tag, true)
     );
     @SuppressWarnings("unchecked")
@@ -316,7 +316,7 @@ public final class Meta extends AbstractElement implements Complex, ExtensionVal
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(versionId) +
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(versionId) +
                 Base.memSize(lastUpdated) + Base.memSize(source) + Base.memSize(profile) + Base.memSize(security) +
                 Base.memSize(tag);
     }
@@ -29,7 +29,7 @@ public final class Oid extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 14;
 
-    private static final Interner<ExtensionData, Oid> INTERNER = Interners.weakInterner(k -> new Oid(k, null));
+    private static final Interner<ExtensionData, Oid> INTERNER = Interners.boundedInterner(k -> new Oid(k, null));
     private static final Oid EMPTY = new Oid(ExtensionData.EMPTY, null);
 
     private final String value;
@@ -62,7 +62,7 @@ public final class Period extends AbstractElement implements Complex, ExtensionV
 
     private static final byte HASH_MARKER = 41;
 
-    private static final Interner<ExtensionData, Period> INTERNER = Interners.weakInterner(k -> new Period(k, null, null, true));
+    private static final Interner<ExtensionData, Period> INTERNER = Interners.boundedInterner(k -> new Period(k, null, null, true));
     private static final Period EMPTY = new Period(ExtensionData.EMPTY, null, null, true);
 
     private final DateTime start;
@@ -182,7 +182,7 @@ public final class Period extends AbstractElement implements Complex, ExtensionV
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(start) + Base.memSize(end);
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(start) + Base.memSize(end);
     }
 
     @Override
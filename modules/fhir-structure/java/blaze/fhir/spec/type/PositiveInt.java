@@ -39,7 +39,7 @@ public final class PositiveInt extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 18;
 
-    private static final Interner<ExtensionData, PositiveInt> INTERNER = Interners.weakInterner(k -> new PositiveInt(k, 0));
+    private static final Interner<ExtensionData, PositiveInt> INTERNER = Interners.boundedInterner(k -> new PositiveInt(k, 0));
     private static final PositiveInt EMPTY = new PositiveInt(ExtensionData.EMPTY, 0);
 
     private final int value;
@@ -137,7 +137,7 @@ public final class PositiveInt extends PrimitiveElement {
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize();
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize();
     }
 
     @Override
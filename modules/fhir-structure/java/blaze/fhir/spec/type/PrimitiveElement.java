@@ -43,6 +43,6 @@ abstract class PrimitiveElement extends AbstractElement implements Primitive {
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize();
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize();
     }
 }
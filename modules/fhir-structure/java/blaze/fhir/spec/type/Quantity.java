@@ -22,7 +22,7 @@ public final class Quantity extends AbstractQuantity {
 
     private static final Quantity EMPTY = new Quantity(ExtensionData.EMPTY, null, null, null, null, null);
 
-    private static final Interner<InternerKey, Quantity> INTERNER = Interners.weakInterner(
+    private static final Interner<InternerKey, Quantity> INTERNER = Interners.boundedInterner(
             k -> new Quantity(k.extensionData(), k.value(), k.comparator(), k.unit(), k.system(), k.code())
     );
 
@@ -61,20 +61,20 @@ public final class Quantity extends AbstractQuantity {
 
     @Override
     public Quantity assoc(Object key, Object val) {
-        if (key == VALUE) return maybeIntern(extensionData, (Decimal) val, comparator, unit, system, code);
-        if (key == COMPARATOR) return maybeIntern(extensionData, value, (Code) val, unit, system, code);
-        if (key == UNIT) return maybeIntern(extensionData, value, comparator, (String) val, system, code);
-        if (key == SYSTEM) return maybeIntern(extensionData, value, comparator, unit, (Uri) val, code);
-        if (key == CODE) return maybeIntern(extensionData, value, comparator, unit, system, (Code) val);
+        if (key == VALUE) return maybeIntern(extensionData, (Decimal) val, comparator(), unit(), system(), code());
+        if (key == COMPARATOR) return maybeIntern(extensionData, value, (Code) val, unit(), system(), code());
+        if (key == UNIT) return maybeIntern(extensionData, value, comparator(), (String) val, system(), code());
+        if (key == SYSTEM) return maybeIntern(extensionData, value, comparator(), unit(), (Uri) val, code());
+        if (key == CODE) return maybeIntern(extensionData, value, comparator(), unit(), system(), (Code) val);
         if (key == EXTENSION)
-            return maybeIntern(extensionData.withExtension(val), value, comparator, unit, system, code);
-        if (key == ID) return maybeIntern(extensionData.withId(val), value, comparator, unit, system, code);
+            return maybeIntern(extensionData.withExtension(val), value, comparator(), unit(), system(), code());
+        if (key == ID) return maybeIntern(extensionData.withId(val), value, comparator(), unit(), system(), code());
         return this;
     }
 
     @Override
     public Quantity withMeta(IPersistentMap meta) {
-        return maybeIntern(extensionData.withMeta(meta), value, comparator, unit, system, code);
+        return maybeIntern(extensionData.withMeta(meta), value, comparator(), unit(), system(), code());
     }
 
     @Override
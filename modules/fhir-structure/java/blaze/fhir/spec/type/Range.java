@@ -62,7 +62,7 @@ public final class Range extends AbstractElement implements Complex, ExtensionVa
 
     private static final byte HASH_MARKER = 50;
 
-    private static final Interner<ExtensionData, Range> INTERNER = Interners.weakInterner(k -> new Range(k, null, null, true));
+    private static final Interner<ExtensionData, Range> INTERNER = Interners.boundedInterner(k -> new Range(k, null, null, true));
     private static final Range EMPTY = new Range(ExtensionData.EMPTY, null, null, true);
 
     private final Quantity low;
@@ -182,7 +182,7 @@ public final class Range extends AbstractElement implements Complex, ExtensionVa
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(low) + Base.memSize(high);
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(low) + Base.memSize(high);
     }
 
     @Override
@@ -62,7 +62,7 @@ public final class Ratio extends AbstractElement implements Complex, ExtensionVa
 
     private static final byte HASH_MARKER = 48;
 
-    private static final Interner<ExtensionData, Ratio> INTERNER = Interners.weakInterner(k -> new Ratio(k, null, null, true));
+    private static final Interner<ExtensionData, Ratio> INTERNER = Interners.boundedInterner(k -> new Ratio(k, null, null, true));
     private static final Ratio EMPTY = new Ratio(ExtensionData.EMPTY, null, null, true);
 
     private final Quantity numerator;
@@ -182,7 +182,7 @@ public final class Ratio extends AbstractElement implements Complex, ExtensionVa
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(numerator) + Base.memSize(denominator);
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + Base.memSize(numerator) + Base.memSize(denominator);
     }
 
     @Override
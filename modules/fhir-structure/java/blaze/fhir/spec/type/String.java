@@ -186,7 +186,7 @@ public sealed abstract class String extends PrimitiveElement permits String.Norm
     public static final class Interned extends String {
 
         private static final Interned EMPTY = new Interned(ExtensionData.EMPTY, null);
-        private static final Interner<InternerKey, Interned> INTERNER = Interners.weakInterner(k -> create(k.extensionData, k.value));
+        private static final Interner<InternerKey, Interned> INTERNER = Interners.boundedInterner(k -> create(k.extensionData, k.value));
 
         private final SerializedString value;
 
@@ -258,7 +258,8 @@ public sealed abstract class String extends PrimitiveElement permits String.Norm
 
         @Override
         public int memSize() {
-            return 0;
+            return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() +
+                    (value == null ? 0 : Strings.memSize(value.getValue()));
         }
     }
 
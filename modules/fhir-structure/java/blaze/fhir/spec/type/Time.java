@@ -30,7 +30,7 @@ public final class Time extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 12;
 
-    private static final Interner<ExtensionData, Time> INTERNER = Interners.weakInterner(k -> new Time(k, null));
+    private static final Interner<ExtensionData, Time> INTERNER = Interners.boundedInterner(k -> new Time(k, null));
     private static final Time EMPTY = new Time(ExtensionData.EMPTY, null);
 
     private final LocalTime value;
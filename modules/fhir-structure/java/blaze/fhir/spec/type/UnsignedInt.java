@@ -39,7 +39,7 @@ public final class UnsignedInt extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 17;
 
-    private static final Interner<ExtensionData, UnsignedInt> INTERNER = Interners.weakInterner(k -> new UnsignedInt(k, -1));
+    private static final Interner<ExtensionData, UnsignedInt> INTERNER = Interners.boundedInterner(k -> new UnsignedInt(k, -1));
     private static final UnsignedInt EMPTY = new UnsignedInt(ExtensionData.EMPTY, -1);
 
     private final int value;
@@ -137,7 +137,7 @@ public final class UnsignedInt extends PrimitiveElement {
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize();
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize();
     }
 
     @Override
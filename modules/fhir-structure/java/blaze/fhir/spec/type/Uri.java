@@ -187,7 +187,7 @@ public sealed abstract class Uri extends PrimitiveElement permits Uri.Normal, Ur
     public static final class Interned extends Uri {
 
         private static final Interned EMPTY = new Interned(ExtensionData.EMPTY, null);
-        private static final Interner<InternerKey, Interned> INTERNER = Interners.weakInterner(k -> create(k.extensionData, k.value));
+        private static final Interner<InternerKey, Interned> INTERNER = Interners.boundedInterner(k -> create(k.extensionData, k.value));
 
         private final SerializedString value;
 
@@ -259,7 +259,8 @@ public sealed abstract class Uri extends PrimitiveElement permits Uri.Normal, Ur
 
         @Override
         public int memSize() {
-            return 0;
+            return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() +
+                    (value == null ? 0 : Strings.memSize(value.getValue()));
         }
     }
 
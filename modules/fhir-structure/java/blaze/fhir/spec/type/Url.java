@@ -29,7 +29,7 @@ public final class Url extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 6;
 
-    private static final Interner<ExtensionData, Url> INTERNER = Interners.weakInterner(k -> new Url(k, null));
+    private static final Interner<ExtensionData, Url> INTERNER = Interners.boundedInterner(k -> new Url(k, null));
     private static final Url EMPTY = new Url(ExtensionData.EMPTY, null);
 
     private final String value;
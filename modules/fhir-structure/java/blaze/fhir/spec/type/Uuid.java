@@ -29,7 +29,7 @@ public final class Uuid extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 19;
 
-    private static final Interner<ExtensionData, Uuid> INTERNER = Interners.weakInterner(k -> new Uuid(k, null));
+    private static final Interner<ExtensionData, Uuid> INTERNER = Interners.boundedInterner(k -> new Uuid(k, null));
     private static final Uuid EMPTY = new Uuid(ExtensionData.EMPTY, null);
     private static final int MEM_SIZE_UUID = 24;
 
@@ -114,7 +114,7 @@ public final class Uuid extends PrimitiveElement {
 
     @Override
     public int memSize() {
-        return isInterned() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + (value == null ? 0 : MEM_SIZE_UUID);
+        return isShared() ? 0 : MEM_SIZE_OBJECT + extensionData.memSize() + (value == null ? 0 : MEM_SIZE_UUID);
     }
 
     @Override
@@ -29,7 +29,7 @@ public final class Xhtml extends PrimitiveElement {
 
     private static final byte HASH_MARKER = 20;
 
-    private static final Interner<ExtensionData, Xhtml> INTERNER = Interners.weakInterner(k -> new Xhtml(k, null));
+    private static final Interner<ExtensionData, Xhtml> INTERNER = Interners.boundedInterner(k -> new Xhtml(k, null));
     private static final Xhtml EMPTY = new Xhtml(ExtensionData.EMPTY, null);
 
     private final String value;
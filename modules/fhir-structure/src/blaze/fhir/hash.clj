@@ -4,12 +4,10 @@
    [blaze.byte-string-builder :as bsb])
   (:import
    [blaze ByteString$Builder]
-   [blaze.fhir Hash]
-   [blaze.fhir.spec.type Base]
+   [blaze.fhir Hash HashSink]
    [com.fasterxml.jackson.core JsonGenerator]
    [com.fasterxml.jackson.databind.module SimpleModule]
    [com.fasterxml.jackson.databind.ser.std StdSerializer]
-   [com.google.common.hash Hashing]
    [java.io Writer]))
 
 (set! *warn-on-reflection* true)
@@ -75,11 +73,11 @@
 
   The hash need to be cryptographic because otherwise it would be possible to
   introduce a resource into Blaze which has the same hash as the target
-  resource, overwriting it."
+  resource, overwriting it.
+
+  Uses a sink per thread which feeds the digest in large blocks."
   ^Hash [resource]
-  (let [hasher (.newHasher (Hashing/sha256))]
-    (Base/hashInto resource hasher)
-    (from-byte-buffer! (bb/wrap (.asBytes (.hash hasher))))))
+  (HashSink/hash resource))
 
 (defmethod print-method Hash [^Hash hash ^Writer w]
   (.write w "#blaze/hash\"")
@@ -0,0 +1,50 @@
+(ns blaze.fhir.interner
+  "Statistics of the interners of FHIR values.
+
+  Values like codes, URIs and codings are interned while parsing into bounded
+  interners. The capacity of all of them is set by the :blaze.fhir/interner
+  component and their statistics are exported together via the cache
+  collector."
+  (:require
+   [blaze.cache-collector.protocols :as p]
+   [blaze.fhir.interner.spec]
+   [blaze.module :as m]
+   [clojure.spec.alpha :as s]
+   [integrant.core :as ig]
+   [taoensso.timbre :as log])
+  (:import
+   [blaze BoundedInterner Interners]
+   [com.github.benmanes.caffeine.cache.stats CacheStats]))
+
+(set! *warn-on-reflection* true)
+
+(defn- sum [f]
+  (transduce (map f) + (Interners/boundedInterners)))
+
+(defn stats
+  "Returns the summed up statistics of all bounded interners as CacheStats."
+  []
+  (CacheStats/of
+   (sum #(.hitCount ^BoundedInterner %))
+   (sum #(.missCount ^BoundedInterner %))
+   0 0 0
+   (sum #(.evictionCount ^BoundedInterner %))
+   0))
+
+(defn estimated-size
+  "Returns the number of values held by all bounded interners."
+  []
+  (sum #(.size ^BoundedInterner %)))
+
+(defmethod m/pre-init-spec :blaze.fhir/interner [_]
+  (s/keys :opt-un [::capacity]))
+
+(defmethod ig/init-key :blaze.fhir/interner
+  [_ {:keys [capacity] :or {capacity Interners/DEFAULT_CAPACITY}}]
+  (log/info "Init FHIR interners with a capacity of" capacity "values each")
+  (Interners/setCapacity capacity)
+  (reify p/StatsCache
+    (-stats [_]
+      (stats))
+    (-estimated-size [_]
+      (estimated-size))))
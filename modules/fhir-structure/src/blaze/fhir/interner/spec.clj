@@ -0,0 +1,7 @@
+(ns blaze.fhir.interner.spec
+  (:require
+   [blaze.fhir.interner :as-alias interner]
+   [clojure.spec.alpha :as s]))
+
+(s/def ::interner/capacity
+  pos-int?)
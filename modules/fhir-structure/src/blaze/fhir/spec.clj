@@ -13,6 +13,7 @@
    [clojure.walk :as walk]
    [cognitect.anomalies :as anom])
   (:import
+   [blaze.fhir.spec.resource RawResource]
    [blaze.fhir.spec.type Primitive]
    [java.io ByteArrayOutputStream]
    [java.nio.charset StandardCharsets]
@@ -51,10 +52,30 @@
   [x]
   (instance? Primitive x))
 
+(defn raw-resource
+  "Returns a resource of `type` with `id` which holds its CBOR encoded `content`
+  as read from the resource store instead of being parsed.
+
+  Only the :fhir/type and :id of raw resources can be looked up. The
+  `version-id` and `last-updated` are written into the meta of the resource
+  when it is written. Raw resources can only be written as JSON by
+  `write-json`, either directly or nested in a Bundle entry."
+  [type id content version-id last-updated]
+  (RawResource. type id content version-id last-updated nil))
+
+(defn raw-resource?
+  "Returns true if `x` is a raw resource."
+  [x]
+  (res/raw-resource? x))
+
 (defn write-json
-  "Writes `value` to output stream `out` closing it if done."
+  "Writes `value` to output stream `out` closing it if done.
+
+  Raw resources are transcoded from CBOR to JSON directly."
   [context out value]
-  (res/write-json context out value))
+  (if (raw-resource? value)
+    (res/write-raw-resource-json out value)
+    (res/write-json context out value)))
 
 (defn write-json-as-bytes
   [context value]
@@ -50,9 +50,10 @@
    [clojure.string :as str]
    [cognitect.anomalies :as anom])
   (:import
+   [blaze.fhir CborToJson]
    [blaze.fhir.spec.type Lists]
-   [clojure.lang PersistentArrayMap RT]
-   [com.fasterxml.jackson.core JsonFactory JsonParseException JsonParser JsonToken StreamReadConstraints]
+   [clojure.lang ILookup IObj IPersistentMap PersistentArrayMap RT]
+   [com.fasterxml.jackson.core JsonFactory JsonGenerator JsonParseException JsonParser JsonToken StreamReadConstraints]
    [com.fasterxml.jackson.core.exc InputCoercionException]
    [com.fasterxml.jackson.core.io JsonEOFException]
    [com.fasterxml.jackson.databind JsonNode ObjectMapper]
@@ -1262,3 +1263,35 @@
         (handler type-handlers gen value))
       (unsupported-type-anom (name type)))
     (ba/incorrect "Missing type.")))
+
+(deftype RawResource [type id content version-id last-updated
+                      ^IPersistentMap meta]
+  ILookup
+  (valAt [_ key]
+    (case key :fhir/type type :id id nil))
+  (valAt [_ key not-found]
+    (case key :fhir/type type :id id not-found))
+
+  IObj
+  (meta [_] meta)
+  (withMeta [_ meta]
+    (RawResource. type id content version-id last-updated meta)))
+
+(defn raw-resource? [x]
+  (instance? RawResource x))
+
+(defn write-raw-resource
+  "Writes the CBOR content of `resource` as JSON to `gen`.
+
+  The tokens of the content are copied without creating FHIR values. The
+  version-id and last-updated of `resource` are written into its meta."
+  [^JsonGenerator gen ^RawResource resource]
+  (with-open [parser (.createParser cbor-factory ^bytes (.-content resource))]
+    (CborToJson/transcodeResource parser gen (.-version-id resource)
+                                  (.-last-updated resource))))
+
+(defn write-raw-resource-json
+  "Writes the raw `resource` as JSON to output stream `out` closing it if done."
+  [out resource]
+  (with-open [gen (.createGenerator json-factory ^OutputStream out)]
+    (write-raw-resource gen resource)))
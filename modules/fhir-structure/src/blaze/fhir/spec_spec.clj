@@ -34,16 +34,25 @@
                :source bytes? :variant (s/? :blaze.resource/variant))
   :ret (s/or :resource :fhir/Resource :anomaly ::anom/anomaly))
 
+(s/fdef fhir-spec/raw-resource
+  :args (s/cat :type :fhir/type :id :blaze.resource/id :content bytes?
+               :version-id fhir-spec/primitive-val?
+               :last-updated fhir-spec/primitive-val?)
+  :ret fhir-spec/raw-resource?)
+
 (s/fdef fhir-spec/write-json
   :args (s/cat :context :blaze.fhir/writing-context
-               :out #(instance? OutputStream %) :value :fhir/value))
+               :out #(instance? OutputStream %)
+               :value (s/or :value :fhir/value :raw-resource fhir-spec/raw-resource?)))
 
 (s/fdef fhir-spec/write-json-as-bytes
-  :args (s/cat :context :blaze.fhir/writing-context :value :fhir/value)
+  :args (s/cat :context :blaze.fhir/writing-context
+               :value (s/or :value :fhir/value :raw-resource fhir-spec/raw-resource?))
   :ret (s/or :result bytes? :anomaly ::anom/anomaly))
 
 (s/fdef fhir-spec/write-json-as-string
-  :args (s/cat :context :blaze.fhir/writing-context :value :fhir/value)
+  :args (s/cat :context :blaze.fhir/writing-context
+               :value (s/or :value :fhir/value :raw-resource fhir-spec/raw-resource?))
   :ret (s/or :result string? :anomaly ::anom/anomaly))
 
 (s/fdef fhir-spec/write-cbor
@@ -104,9 +104,22 @@
         (throw (IllegalArgumentException. (format "Value `%s` is no FHIR type." %))))
      values)))
 
+(defn- write-raw-resource-field!
+  [^JsonGenerator gen ^PropertyHandler property-handler resource]
+  (.writeFieldName gen (.normal (field-name property-handler (:fhir/type resource))))
+  (res/write-raw-resource gen resource))
+
 (defn- write-field!
+  "Writes the field of `property-handler` with `value`.
+
+  Raw resources, which can appear as Bundle entry resources, are transcoded
+  from their CBOR content directly."
   [type-handlers ^JsonGenerator gen ^PropertyHandler property-handler value]
-  (if (sequential? value)
+  (cond
+    (res/raw-resource? value)
+    (write-raw-resource-field! gen property-handler value)
+
+    (sequential? value)
     (when-some [first-value (first value)]
       (when-some [type (or (.-type property-handler) (:fhir/type first-value))]
         (if-some [handler (type-handlers type)]
@@ -115,6 +128,8 @@
               (write-values! type-handlers gen property-handler handler value)
               (.writeEndArray gen))
           (Primitive/serializeJsonPrimitiveList value gen (field-name property-handler type)))))
+
+    :else
     (if-some [type (or (.-type property-handler) (:fhir/type value))]
       (if-some [handler (type-handlers type)]
         (do (.writeFieldName gen (.normal (field-name property-handler type)))
@@ -0,0 +1,48 @@
+(ns blaze.fhir.interner-test-perf
+  (:require
+   [blaze.test-util]
+   [criterium.core :as criterium])
+  (:import
+   [blaze Interner Interners]
+   [java.util.function Function]))
+
+(set! *warn-on-reflection* true)
+
+(def ^:private creator
+  (reify Function
+    (apply [_ x]
+      (String. ^String x))))
+
+(def ^:private uris
+  (mapv #(str "http://loinc.org|" %) (range 10000)))
+
+(defn- intern-all [^Interner interner]
+  (run! #(.intern interner %) uris))
+
+(defn- intern-all-parallel [^Interner interner]
+  (dorun (pmap (fn [_] (intern-all interner)) (range 8))))
+
+(comment
+  (let [interner (Interners/strongInterner creator)]
+    (intern-all interner)
+    (criterium/bench (intern-all interner)))
+
+  (let [interner (Interners/weakInterner creator)]
+    (intern-all interner)
+    (criterium/bench (intern-all interner)))
+
+  (let [interner (Interners/boundedInterner 65536 creator)]
+    (intern-all interner)
+    (criterium/bench (intern-all interner)))
+
+  ;; less capacity than keys
+  (let [interner (Interners/boundedInterner 4096 creator)]
+    (criterium/bench (intern-all interner)))
+
+  (let [interner (Interners/weakInterner creator)]
+    (intern-all interner)
+    (criterium/bench (intern-all-parallel interner)))
+
+  (let [interner (Interners/boundedInterner 65536 creator)]
+    (intern-all interner)
+    (criterium/bench (intern-all-parallel interner))))
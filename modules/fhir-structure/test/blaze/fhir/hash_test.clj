@@ -4,6 +4,8 @@
    [blaze.byte-string-builder :as bsb]
    [blaze.fhir.hash :as hash]
    [blaze.fhir.hash-spec]
+   [blaze.fhir.spec.generators :as fg]
+   [blaze.fhir.spec.type :as type]
    [blaze.fhir.structure-definition-repo]
    [blaze.test-util :as tu :refer [satisfies-prop]]
    [clojure.spec.alpha :as s]
@@ -12,7 +14,10 @@
    [clojure.test :as test :refer [deftest is testing]]
    [clojure.test.check.generators :as gen]
    [clojure.test.check.properties :as prop]
-   [integrant.core :as ig]))
+   [integrant.core :as ig])
+  (:import
+   [blaze.fhir.spec.type Base]
+   [com.google.common.hash Hashing]))
 
 (set! *warn-on-reflection* true)
 (st/instrument)
@@ -36,6 +41,28 @@
   (is (= "C9ADE22457D5AD750735B6B166E3CE8D6878D09B64C2C2868DCB6DE4C9EFBD4F"
          (str (hash/generate {:fhir/type :fhir/Patient :id "0"})))))
 
+(defn- guava-hash
+  "Calculates the hash of `resource` with Guava's SHA-256 hasher which was
+  used before."
+  [resource]
+  (let [hasher (.newHasher (Hashing/sha256))]
+    (Base/hashInto resource hasher)
+    (hash/from-byte-buffer! (bb/wrap (.asBytes (.hash hasher))))))
+
+(deftest generate-test
+  (testing "the hashes are the same as calculated with Guava"
+    (satisfies-prop 1000
+      (prop/for-all [resource (fg/observation)]
+        (= (guava-hash resource) (hash/generate resource)))))
+
+  (testing "strings longer than the buffer and outside of ASCII"
+    (let [resource {:fhir/type :fhir/Patient :id "0"
+                    :gender #fhir/code "unknown"
+                    :name [(type/human-name
+                            {:family #fhir/string "Müller 😀 \ud800"
+                             :text (type/string (str/join (repeat 10000 "Größe ä")))})]}]
+      (is (= (guava-hash resource) (hash/generate resource))))))
+
 (deftest byte-array-test
   (satisfies-prop 10000
     (prop/for-all [hash (s/gen :blaze.resource/hash)]
@@ -0,0 +1,97 @@
+(ns blaze.fhir.interner-test
+  (:require
+   [blaze.cache-collector.protocols :as p]
+   [blaze.fhir.interner :as interner]
+   [blaze.fhir.spec.type :as type]
+   [blaze.module.test-util :refer [given-failed-system]]
+   [blaze.test-util :as tu]
+   [clojure.spec.alpha :as s]
+   [clojure.spec.test.alpha :as st]
+   [clojure.test :as test :refer [deftest is testing]]
+   [integrant.core :as ig])
+  (:import
+   [blaze Interners]
+   [blaze.fhir.spec.type Base]
+   [com.github.benmanes.caffeine.cache.stats CacheStats]
+   [java.util.function Function]))
+
+(set! *warn-on-reflection* true)
+(st/instrument)
+
+(test/use-fixtures :each tu/fixture)
+
+(def ^:private to-string
+  (reify Function
+    (apply [_ x]
+      (str x))))
+
+(deftest init-test
+  (testing "nil config"
+    (given-failed-system {:blaze.fhir/interner nil}
+      :key := :blaze.fhir/interner
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :pred] := `map?))
+
+  (testing "invalid capacity"
+    (given-failed-system {:blaze.fhir/interner {:capacity 0}}
+      :key := :blaze.fhir/interner
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::interner/capacity]
+      [:cause-data ::s/problems 0 :val] := 0)))
+
+(deftest bounded-interner-test
+  (let [interner (Interners/boundedInterner 16 to-string)]
+    (testing "values are shared"
+      (is (identical? (.intern interner 1) (.intern interner 1)))
+      (is (= 1 (.hitCount interner)))
+      (is (= 1 (.missCount interner))))
+
+    (testing "the capacity is bounded"
+      (dotimes [i 1000]
+        (is (= (str i) (.intern interner i))))
+      (is (= 16 (.capacity interner)))
+      (is (<= (.size interner) 16))
+      (is (pos? (.evictionCount interner))))
+
+    (testing "evicted values stay valid but are no longer shared"
+      (let [value (.intern interner 0)]
+        (dotimes [i 10000]
+          (.intern interner (+ 1000 i)))
+        (is (= "0" value))
+        (is (= value (.intern interner 0)))
+        (is (not (identical? value (.intern interner 0)))))))
+
+  (testing "invalid capacity"
+    (is (thrown? IllegalArgumentException (Interners/boundedInterner 0 to-string)))))
+
+(deftest stats-test
+  (let [stats-cache (ig/init-key :blaze.fhir/interner {})
+        code (str (random-uuid))
+        misses (.missCount ^CacheStats (p/-stats stats-cache))]
+    (type/code code)
+
+    (testing "interning a new code is a miss"
+      (is (< misses (.missCount ^CacheStats (p/-stats stats-cache)))))
+
+    (let [hits (.hitCount ^CacheStats (p/-stats stats-cache))]
+      (type/code code)
+
+      (testing "interning the same code again is a hit"
+        (is (< hits (.hitCount ^CacheStats (p/-stats stats-cache))))))
+
+    (testing "the size is positive"
+      (is (pos? (p/-estimated-size stats-cache))))))
+
+(deftest mem-size-test
+  (let [code (type/code (str (random-uuid)))]
+    (testing "shared values don't count"
+      (is (zero? (Base/memSize code))))
+
+    (try
+      (Interners/setCapacity 1024)
+
+      (testing "values dropped by changing the capacity count at full size"
+        (is (pos? (Base/memSize code))))
+
+      (finally
+        (Interners/setCapacity Interners/DEFAULT_CAPACITY)))))
@@ -482,6 +482,14 @@
   (testing "assoc value"
     (is (= #fhir/decimal 2M (assoc #fhir/decimal 1M :value 2M))))
 
+  (testing "assoc id keeps values which can't be packed"
+    (let [value 1E+300M]
+      (is (= value (:value (assoc (type/decimal value) :id "id-103812"))))))
+
+  (testing "hash code"
+    (is (= (.hashCode #fhir/decimal 1.1M) (.hashCode (type/decimal 1.1M))))
+    (is (not= (.hashCode #fhir/decimal 1.1M) (.hashCode #fhir/decimal 1.10M))))
+
   (testing "merge"
     (is (= #fhir/decimal 2M (merge #fhir/decimal 1M {:value 2M})))
     (is (= #fhir/decimal{:id "id-153510" :value 2M} (merge #fhir/decimal 1M {:id "id-153510" :value 2M}))))
@@ -505,8 +513,8 @@
 
   (testing "mem-size"
     (are [s mem-size] (= mem-size (Base/memSize s))
-      #fhir/decimal 0M 48
-      #fhir/decimal{:id "foo"} 80))
+      #fhir/decimal 0M 24
+      #fhir/decimal{:id "foo"} 88))
 
   (testing "references"
     (is (empty? (type/references #fhir/decimal 0M))))
@@ -3060,7 +3068,7 @@
   (testing "mem-size"
     (are [x mem-size] (= mem-size (Base/memSize x))
       #fhir/Age{} 0
-      #fhir/Age{:id "foo"} 96))
+      #fhir/Age{:id "foo"} 88))
 
   (testing "print"
     (are [v s] (= s (pr-str v))
@@ -3219,7 +3227,7 @@
       #fhir.Bundle.entry/search{:id "id-130825"} 96
       #fhir.Bundle.entry/search{:extension [#fhir/Extension{}]} 24
       #fhir.Bundle.entry/search{:mode #fhir/code "match"} 24
-      #fhir.Bundle.entry/search{:score #fhir/decimal 1M} 72))
+      #fhir.Bundle.entry/search{:score #fhir/decimal 1M} 48))
 
   (testing "references"
     (is (empty? (type/references #fhir.Bundle.entry/search{}))))
@@ -3518,7 +3526,7 @@
   (testing "mem-size"
     (are [x mem-size] (= mem-size (Base/memSize x))
       #fhir/Count{} 0
-      #fhir/Count{:id "foo"} 96))
+      #fhir/Count{:id "foo"} 88))
 
   (testing "print"
     (are [v s] (= s (pr-str v))
@@ -3743,7 +3751,7 @@
   (testing "mem-size"
     (are [x mem-size] (= mem-size (Base/memSize x))
       #fhir/Distance{} 0
-      #fhir/Distance{:id "foo"} 96))
+      #fhir/Distance{:id "foo"} 88))
 
   (testing "print"
     (are [v s] (= s (pr-str v))
@@ -3781,7 +3789,7 @@
   (testing "mem-size"
     (are [x mem-size] (= mem-size (Base/memSize x))
       #fhir/Duration{} 0
-      #fhir/Duration{:id "foo"} 96))
+      #fhir/Duration{:id "foo"} 88))
 
   (testing "print"
     (are [v s] (= s (pr-str v))
@@ -4297,7 +4305,7 @@
       #fhir/Money{} 24
       #fhir/Money{:id "id-130825"} 96
       #fhir/Money{:extension [#fhir/Extension{}]} 24
-      #fhir/Money{:value #fhir/decimal 1M} 72))
+      #fhir/Money{:value #fhir/decimal 1M} 48))
 
   (testing "references"
     (is (empty? (type/references #fhir/Money{}))))
@@ -4544,11 +4552,11 @@
   (testing "mem-size"
     (are [s mem-size] (= mem-size (Base/memSize s))
       #fhir/Quantity{} 0
-      #fhir/Quantity{:id "id-141848"} 104
+      #fhir/Quantity{:id "id-141848"} 96
       #fhir/Quantity{:extension [#fhir/Extension{}]} 0
-      #fhir/Quantity{:value #fhir/decimal 1M} 80
+      #fhir/Quantity{:value #fhir/decimal 1M} 48
       #fhir/Quantity{:comparator #fhir/code "comparator-153342"} 0
-      #fhir/Quantity{:unit #fhir/string "unit-153351"} 96
+      #fhir/Quantity{:unit #fhir/string "unit-153351"} 120
       #fhir/Quantity{:unit #fhir/string-interned "unit-153351"} 0
       #fhir/Quantity{:system #fhir/uri-interned "system-153337"} 0
       #fhir/Quantity{:code #fhir/code "code-153427"} 0))
@@ -4613,9 +4621,9 @@
       #fhir/Range{} 0
       #fhir/Range{:id "id-130710"} 96
       #fhir/Range{:extension [#fhir/Extension{}]} 0
-      #fhir/Range{:low #fhir/Quantity{:value #fhir/decimal 1M}} 104
-      #fhir/Range{:high #fhir/Quantity{:value #fhir/decimal 1M}} 104
-      #fhir/Range{:low #fhir/Quantity{:value #fhir/decimal 1M} :high #fhir/Quantity{:value #fhir/decimal 2M}} 184))
+      #fhir/Range{:low #fhir/Quantity{:value #fhir/decimal 1M}} 72
+      #fhir/Range{:high #fhir/Quantity{:value #fhir/decimal 1M}} 72
+      #fhir/Range{:low #fhir/Quantity{:value #fhir/decimal 1M} :high #fhir/Quantity{:value #fhir/decimal 2M}} 120))
 
   (testing "references"
     (is (empty? (type/references #fhir/Range{}))))
@@ -4677,8 +4685,8 @@
       #fhir/Ratio{} 0
       #fhir/Ratio{:id "id-130710"} 96
       #fhir/Ratio{:extension [#fhir/Extension{}]} 0
-      #fhir/Ratio{:numerator #fhir/Quantity{:value #fhir/decimal 1M}} 104
-      #fhir/Ratio{:denominator #fhir/Quantity{:value #fhir/decimal 1M}} 104))
+      #fhir/Ratio{:numerator #fhir/Quantity{:value #fhir/decimal 1M}} 72
+      #fhir/Ratio{:denominator #fhir/Quantity{:value #fhir/decimal 1M}} 72))
 
   (testing "references"
     (is (empty? (type/references #fhir/Ratio{}))))
@@ -980,6 +980,78 @@
 (defn- sexp-value [value]
   (sexp [nil {:value value}]))
 
+(def ^:private version-id #fhir/id "1")
+
+(def ^:private last-updated
+  #fhir/instant #system/date-time "2026-01-02T03:04:05.678Z")
+
+(defn- raw-resource [{:fhir/keys [type] :keys [id] :as resource}]
+  (fhir-spec/raw-resource type (or id "0") (write-cbor resource) version-id
+                          last-updated))
+
+(defn- enhanced-resource [resource]
+  (update resource :meta #(-> (or % #fhir/Meta{})
+                              (assoc :versionId version-id)
+                              (assoc :lastUpdated last-updated))))
+
+(defn- write-raw-json [resource]
+  (String. ^bytes (write-json (raw-resource resource)) StandardCharsets/UTF_8))
+
+(defn- write-enhanced-json [resource]
+  (String. ^bytes (write-json (enhanced-resource resource)) StandardCharsets/UTF_8))
+
+(defn- search-bundle [resource]
+  {:fhir/type :fhir/Bundle
+   :type #fhir/code "searchset"
+   :entry
+   [{:fhir/type :fhir.Bundle/entry
+     :resource resource
+     :search #fhir.Bundle.entry/search{:mode #fhir/code "match"}}]})
+
+(deftest write-json-raw-resource-test
+  (testing "the raw resource is written like the parsed resource with versionId and lastUpdated"
+    (are [resource] (= (write-enhanced-json resource) (write-raw-json resource))
+      {:fhir/type :fhir/Patient}
+      {:fhir/type :fhir/Patient :id "0"}
+      {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean true}
+      {:fhir/type :fhir/Patient :active #fhir/boolean true}
+      {:fhir/type :fhir/Patient :id "0"
+       :meta #fhir/Meta{:versionId #fhir/id "42"
+                        :lastUpdated #fhir/instant #system/date-time "1970-01-01T00:00:00Z"}}
+      {:fhir/type :fhir/Patient :id "0"
+       :meta #fhir/Meta{:id "meta-id"
+                        :extension [#fhir/Extension{:url "foo"}]
+                        :profile [#fhir/canonical "bar"]}
+       :active #fhir/boolean true}
+      {:fhir/type :fhir/Observation :id "0"
+       :meta #fhir/Meta{:tag [#fhir/Coding{:code #fhir/code "tag"}]}
+       :value #fhir/Quantity{:value #fhir/decimal 14.970M :unit #fhir/string "kg/m2"}
+       :component
+       [{:fhir/type :fhir.Observation/component
+         :value #fhir/integer 1}]}
+      {:fhir/type :fhir/Patient :id "0"
+       :contained [{:fhir/type :fhir/Patient :id "1"
+                    :meta #fhir/Meta{:versionId #fhir/id "2"}}]}))
+
+  (testing "random resources"
+    (satisfies-prop 100
+      (prop/for-all [resource (gen/one-of [(fg/patient) (fg/observation)])]
+        (= (write-enhanced-json resource) (write-raw-json resource)))))
+
+  (testing "the type and id can be looked up"
+    (given (raw-resource {:fhir/type :fhir/Patient :id "0"})
+      :fhir/type := :fhir/Patient
+      :id := "0"
+      :active := nil))
+
+  (testing "in Bundle entries the raw resource is written like the parsed resource"
+    (are [resource] (= (vec (write-json (search-bundle (enhanced-resource resource))))
+                       (vec (write-json (search-bundle (raw-resource resource)))))
+      {:fhir/type :fhir/Patient :id "0"}
+      {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean true}
+      {:fhir/type :fhir/Observation :id "0"
+       :value #fhir/Quantity{:value #fhir/decimal 14.970M :unit #fhir/string "kg/m2"}})))
+
 (deftest conform-xml-test
   (testing "nil"
     (given (conform-xml nil)
@@ -2686,7 +2758,7 @@
 
   (testing "examples"
     (mem-size-test "Age"
-      {:value 11} 80 120)))
+      {:value 11} 48 64)))
 
 (deftest annotation-test
   (testing "FHIR spec"
@@ -3171,7 +3243,7 @@
 
   (testing "examples"
     (mem-size-test "Bundle.entry.search"
-      {:score 11} 72 96)))
+      {:score 11} 48 64)))
 
 (deftest codeable-concept-test
   (testing "FHIR spec"
@@ -3825,7 +3897,7 @@
 
   (testing "examples"
     (mem-size-test "Count"
-      {:value 11} 80 120)))
+      {:value 11} 48 64)))
 
 (deftest data-requirement-test
   (testing "FHIR spec"
@@ -4071,7 +4143,7 @@
 
   (testing "examples"
     (mem-size-test "Distance"
-      {:value 11} 80 120)))
+      {:value 11} 48 64)))
 
 (deftest dosage-test
   (testing "FHIR spec"
@@ -4307,7 +4379,7 @@
 
   (testing "examples"
     (mem-size-test "Duration"
-      {:value 11} 80 120)))
+      {:value 11} 48 64)))
 
 (deftest expression-test
   (testing "FHIR spec"
@@ -5579,7 +5651,7 @@
 
   (testing "examples"
     (mem-size-test "Quantity"
-      {:value 11} 80 120)))
+      {:value 11} 48 64)))
 
 (deftest range-test
   (testing "FHIR spec"
@@ -5661,8 +5733,8 @@
 
   (testing "examples"
     (mem-size-test "Range"
-      {:low {:value 11}} 104 160
-      {:low {:value 11} :high {:value 12}} 184 280)))
+      {:low {:value 11}} 72 104
+      {:low {:value 11} :high {:value 12}} 120 168)))
 
 (deftest ratio-test
   (testing "FHIR spec"
@@ -5744,8 +5816,8 @@
 
   (testing "examples"
     (mem-size-test "Ratio"
-      {:numerator {:value 11}} 104 160
-      {:numerator {:value 11} :denominator {:value 12}} 184 280)))
+      {:numerator {:value 11}} 72 104
+      {:numerator {:value 11} :denominator {:value 12}} 120 168)))
 
 (deftest reference-test
   (testing "FHIR spec"
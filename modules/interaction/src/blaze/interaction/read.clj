@@ -7,14 +7,18 @@
    [blaze.db.spec]
    [blaze.handler.fhir.util :as fhir-util]
    [blaze.interaction.util :as iu]
+   [blaze.middleware.fhir.output :as-alias output]
    [integrant.core :as ig]
    [reitit.core :as reitit]
    [taoensso.timbre :as log]))
 
 (def ^:private handler
   (fn [{{{:fhir.resource/keys [type]} :data} ::reitit/match
-        {:keys [id]} :path-params :blaze/keys [db]}]
-    (do-sync [resource (fhir-util/pull db type id)]
+        {:keys [id]} :path-params :blaze/keys [db]
+        ::output/keys [raw-resources?]}]
+    (do-sync [resource (if raw-resources?
+                         (fhir-util/pull-raw db type id)
+                         (fhir-util/pull db type id))]
       (iu/response resource))))
 
 (defmethod ig/init-key :blaze.interaction/read [_ _]
@@ -9,6 +9,7 @@
    [blaze.interaction.search.include :as include]
    [blaze.interaction.search.nav :as nav]
    [blaze.interaction.search.util :as search-util]
+   [blaze.middleware.fhir.output :as-alias output]
    [blaze.module :as m]
    [blaze.page-store :as page-store]
    [prometheus.alpha :as prom]
@@ -20,11 +21,15 @@
 
 (defn match-pull-opts
   "Returns the options for pulling the resource contents of the matches
-  according to `params`."
-  [{:keys [summary elements] :as params}]
+  according to `params`.
+
+  Matches are pulled as raw resources if `context` allows it, because they are
+  written into the bundle without further processing."
+  [{::output/keys [raw-resources?]} {:keys [summary elements] :as params}]
   (-> (cond
         (seq elements) {:elements elements}
         (= "true" summary) {:variant :summary}
+        raw-resources? {:raw? true}
         :else {})
       (wrap-cache-handling params)))
 
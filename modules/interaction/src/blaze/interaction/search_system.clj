@@ -13,6 +13,7 @@
    [blaze.interaction.search.params :as params]
    [blaze.interaction.search.util :as search-util]
    [blaze.interaction.search.util.spec]
+   [blaze.middleware.fhir.output :as-alias output]
    [blaze.module :as m :refer [reg-collector]]
    [blaze.page-store.spec]
    [clojure.spec.alpha :as s]
@@ -80,7 +81,7 @@
     {:keys [include-defs page-size page-type page-id] :as params} :params
     :as context}]
   (do-sync [query (compile-query context db)]
-    (let [pull (d/pull-fn db (page/match-pull-opts params))]
+    (let [pull (d/pull-fn db (page/match-pull-opts context params))]
       (with-open [_ (prom/timer search-duration-seconds "scan")
                   batch-db (d/new-batch-db db)]
         (when-ok [handles (if query
@@ -218,7 +219,9 @@
               :page-link-url-fn (page/page-link-url-fn request page-id-cipher
                                                        page-match params))
         handling
-        (assoc :blaze.preference/handling handling)))))
+        (assoc :blaze.preference/handling handling)
+        (::output/raw-resources? request)
+        (assoc ::output/raw-resources? true)))))
 
 (defmethod m/pre-init-spec :blaze.interaction/search-system [_]
   (s/keys :req [::search-util/link]
@@ -16,6 +16,7 @@
    [blaze.interaction.search.util :as search-util]
    [blaze.interaction.search.util.spec]
    [blaze.job.async-interaction.request :as req]
+   [blaze.middleware.fhir.output :as-alias output]
    [blaze.module :as m :refer [reg-collector]]
    [blaze.page-id-cipher.spec]
    [blaze.page-store.spec]
@@ -83,7 +84,7 @@
   [{:blaze/keys [db]
     {:keys [include-defs page-size page-id] :as params} :params :as context}]
   (do-sync [query (compile-query context db)]
-    (let [pull (d/pull-fn db (page/match-pull-opts params))]
+    (let [pull (d/pull-fn db (page/match-pull-opts context params))]
       (with-open [_ (prom/timer search-duration-seconds "scan")
                   batch-db (d/new-batch-db db)]
         (when-ok [handles (if query
@@ -243,6 +244,8 @@
                                                        page-match params))
         handling
         (assoc :blaze.preference/handling handling)
+        (::output/raw-resources? request)
+        (assoc ::output/raw-resources? true)
         respond-async
         (assoc :blaze.preference/respond-async true)))))
 
@@ -11,7 +11,9 @@
    [blaze.fhir.spec.type :as type]
    [blaze.handler.fhir.util :as fhir-util]
    [blaze.handler.util :as handler-util]
+   [blaze.interaction.transaction.batch :as batch]
    [blaze.interaction.transaction.bundle :as bundle]
+   [blaze.interaction.transaction.spec]
    [blaze.interaction.util :as iu]
    [blaze.luid :as luid]
    [blaze.module :as m]
@@ -230,7 +232,7 @@
 
 (defmethod process-entries "batch"
   [context _ entries]
-  (fhir-util/process-batch-entries context entries))
+  (batch/process-entries context entries))
 
 (defn- transact [{:keys [node] :as context} entries]
   (if-ok [entries (bundle/assoc-tx-ops (d/db node) entries)]
@@ -296,7 +298,7 @@
 (defmethod m/pre-init-spec :blaze.interaction/transaction [_]
   (s/keys :req-un [:blaze.db/node ::rest-api/batch-handler :blaze/clock :blaze/rng-fn
                    ::rest-api/db-sync-timeout]
-          :opt-un [:blaze/validator]))
+          :opt-un [:blaze/validator ::batch-concurrency]))
 
 (defmethod ig/init-key :blaze.interaction/transaction [_ context]
   (log/info "Init FHIR transaction interaction handler")
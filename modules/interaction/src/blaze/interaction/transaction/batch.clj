@@ -0,0 +1,130 @@
+(ns blaze.interaction.transaction.batch
+  "Processing of the entries of batch bundles.
+
+  Entries which don't depend on the order of processing, like reads, searches
+  and unconditional creates, are processed concurrently up to a configurable
+  number of entries at a time. All other entries are processed alone after all
+  preceding entries are finished, so that for example conditional creates or
+  updates of the same resource keep their order.
+
+  Each concurrent worker uses its own batch database, because batch databases
+  aren't thread-safe. The responses are returned in the order of the entries."
+  (:require
+   [blaze.async.comp :as ac :refer [do-sync]]
+   [blaze.db.api :as d]
+   [blaze.handler.fhir.util :as fhir-util]
+   [blaze.module :refer [reg-collector]]
+   [prometheus.alpha :as prom])
+  (:import
+   [java.lang AutoCloseable]
+   [java.util.concurrent.atomic AtomicInteger]))
+
+(set! *warn-on-reflection* true)
+
+(prom/defhistogram entry-duration-seconds
+  "Durations in seconds of processing single entries of batch bundles.
+
+  The `method` label contains the request method of the entry."
+  {:namespace "fhir_interaction"
+   :subsystem "batch"}
+  (take 16 (iterate #(* 2 %) 0.0001))
+  "method")
+
+(def ^:private ^:const default-concurrency 8)
+
+(defn- concurrent?
+  "Returns true if `entry` can be processed concurrently to other entries."
+  [{{:keys [method ifNoneExist]} :request}]
+  (case (:value method)
+    "GET" true
+    "POST" (nil? ifNoneExist)
+    false))
+
+(defn- since?
+  "Returns true if the request of `entry` has a `_since` query param."
+  [{{:keys [url]} :request}]
+  (some? (some->> url :value (re-find #"[?&]_since="))))
+
+(defn- batch-db?
+  "Returns true if `entry` can use the batch database of its worker.
+
+  Requests with a `_since` query param can't use it, because a batch database
+  doesn't support `blaze.db.api/since`."
+  [entry]
+  (and (concurrent? entry) (not (since? entry))))
+
+(defn- process-entry
+  [{:blaze/keys [db] :as context} batch-db [idx {:keys [request] :as entry}]]
+  (let [timer (prom/timer entry-duration-seconds
+                          (or (-> request :method :value) "unknown"))
+        context (assoc context :blaze/db (if (batch-db? entry) batch-db db))]
+    (-> (fhir-util/process-batch-entry context idx entry)
+        (ac/when-complete (fn [_ _] (prom/observe-duration! timer))))))
+
+(defn- process-next
+  "Processes the next entry of `entries` not taken by another worker, until all
+  entries are taken, and stores the results in `results`."
+  [context batch-db entries ^objects results ^AtomicInteger next-idx]
+  (let [i (.getAndIncrement next-idx)]
+    (if (< i (count entries))
+      (-> (process-entry context batch-db (nth entries i))
+          (ac/then-compose-async
+           (fn [result]
+             (aset results i result)
+             (process-next context batch-db entries results next-idx))))
+      (ac/completed-future nil))))
+
+(defn- worker
+  "Processes entries one after another with a batch database of its own, which
+  is closed after the last entry."
+  [{:blaze/keys [db] :as context} entries results next-idx]
+  (let [batch-db (d/new-batch-db db)]
+    (-> (process-next context batch-db entries results next-idx)
+        (ac/when-complete (fn [_ _] (.close ^AutoCloseable batch-db))))))
+
+(defn- process-concurrently
+  "Processes the indexed `entries` with at most `concurrency` entries at a time.
+
+  Returns a CompletableFuture that will complete with the results in the order
+  of `entries`."
+  [context concurrency entries]
+  (let [results (object-array (count entries))
+        next-idx (AtomicInteger.)
+        workers (mapv (fn [_] (worker context entries results next-idx))
+                      (range (min concurrency (count entries))))]
+    (do-sync [_ (ac/all-of workers)]
+      (vec results))))
+
+(defn- segments
+  "Partitions `entries` into runs of indexed entries which can be processed
+  concurrently and single indexed entries which have to be processed alone."
+  [entries]
+  (partition-by
+   (fn [[idx entry]] (if (concurrent? entry) ::concurrent idx))
+   (map-indexed vector entries)))
+
+(defn process-entries
+  "Processes `entries` of a batch bundle using :batch-handler from `context`.
+
+  Processes up to :batch-concurrency entries concurrently, each worker using a
+  batch database of :blaze/db from `context`.
+
+  Returns a CompletableFuture that will complete with the response entries in
+  the order of `entries`."
+  [{:keys [batch-concurrency] :or {batch-concurrency default-concurrency}
+    :as context}
+   entries]
+  (reduce
+   (fn [future segment]
+     (ac/then-compose
+      future
+      (fn [results]
+        (do-sync [segment-results (process-concurrently context
+                                                        batch-concurrency
+                                                        (vec segment))]
+          (into results segment-results)))))
+   (ac/completed-future [])
+   (segments entries)))
+
+(reg-collector ::entry-duration-seconds
+  entry-duration-seconds)
@@ -0,0 +1,7 @@
+(ns blaze.interaction.transaction.spec
+  (:require
+   [blaze.interaction.transaction :as-alias transaction]
+   [clojure.spec.alpha :as s]))
+
+(s/def ::transaction/batch-concurrency
+  pos-int?)
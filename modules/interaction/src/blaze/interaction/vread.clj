@@ -9,6 +9,7 @@
    [blaze.db.spec]
    [blaze.handler.fhir.util :as fhir-util]
    [blaze.interaction.util :as iu]
+   [blaze.middleware.fhir.output :as-alias output]
    [integrant.core :as ig]
    [reitit.core :as reitit]
    [taoensso.timbre :as log]))
@@ -25,10 +26,13 @@
 
 (def ^:private handler
   (fn [{{{:fhir.resource/keys [type]} :data} ::reitit/match
-        {:keys [id vid]} :path-params :blaze/keys [db]}]
+        {:keys [id vid]} :path-params :blaze/keys [db]
+        ::output/keys [raw-resources?]}]
     (if-let [t (fhir-util/parse-nat-long vid)]
       (if (<= t (d/t db))
-        (do-sync [resource (fhir-util/pull-historic db type id t)]
+        (do-sync [resource (if raw-resources?
+                             (fhir-util/pull-historic-raw db type id t)
+                             (fhir-util/pull-historic db type id t))]
           (iu/response resource))
         (ac/completed-future (not-found-anom type id t)))
       (ac/completed-future (not-found-anom type id)))))
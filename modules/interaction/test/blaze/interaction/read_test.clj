@@ -10,6 +10,9 @@
    [blaze.db.api-stub :as api-stub :refer [with-system-data]]
    [blaze.db.resource-store :as rs]
    [blaze.db.spec]
+   [blaze.fhir.spec :as fhir-spec]
+   [blaze.fhir.test-util :refer [structure-definition-repo]]
+   [blaze.fhir.writing-context]
    [blaze.interaction.read]
    [blaze.interaction.test-util :refer [wrap-error]]
    [blaze.middleware.fhir.db :refer [wrap-db]]
@@ -17,6 +20,8 @@
    [blaze.test-util :as tu]
    [clojure.spec.test.alpha :as st]
    [clojure.test :as test :refer [deftest is testing]]
+   [integrant.core :as ig]
+   [jsonista.core :as j]
    [juxt.iota :refer [given]]
    [reitit.core :as reitit]
    [taoensso.timbre :as log]))
@@ -29,6 +34,14 @@
 (def ^:private config
   (assoc api-stub/mem-node-config :blaze.interaction/read {}))
 
+(def ^:private writing-context
+  (ig/init-key
+   :blaze.fhir/writing-context
+   {:structure-definition-repo structure-definition-repo}))
+
+(defn- write-json [resource]
+  (j/read-value (fhir-spec/write-json-as-bytes writing-context resource)))
+
 (def ^:private match
   (reitit/map->Match {:data {:fhir.resource/type "Patient"}}))
 
@@ -136,3 +149,29 @@
           :id := "0"
           [:meta :versionId] := #fhir/id "1"
           [:meta :lastUpdated] := #fhir/instant #system/date-time "1970-01-01T00:00:00Z")))))
+
+(deftest raw-resources-test
+  (testing "returns a raw resource if the output allows it"
+    (with-handler [handler]
+      [[[:put {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean true}]]]
+
+      (let [{:keys [status headers body]}
+            @(handler {:path-params {:id "0"}
+                       :blaze.middleware.fhir.output/raw-resources? true})]
+
+        (is (= 200 status))
+
+        (testing "Transaction time in Last-Modified header"
+          (is (= "Thu, 1 Jan 1970 00:00:00 GMT" (get headers "Last-Modified"))))
+
+        (testing "Version in ETag header"
+          (is (= "W/\"1\"" (get headers "ETag"))))
+
+        (is (fhir-spec/raw-resource? body))
+
+        (given (write-json body)
+          "resourceType" := "Patient"
+          "id" := "0"
+          ["meta" "versionId"] := "1"
+          ["meta" "lastUpdated"] := "1970-01-01T00:00:00Z"
+          "active" := true)))))
@@ -9,7 +9,7 @@
    [cognitect.anomalies :as anom]))
 
 (s/fdef page/match-pull-opts
-  :args (s/cat :params map?)
+  :args (s/cat :context map? :params map?)
   :ret map?)
 
 (s/fdef page/include-pull-opts
@@ -9,6 +9,7 @@
    [blaze.db.api-stub :as api-stub :refer [with-system-data]]
    [blaze.db.query.plan.spec]
    [blaze.db.resource-cache :as rc]
+   [blaze.fhir.spec :as fhir-spec]
    [blaze.fhir.spec.type :as type]
    [blaze.fhir.test-util :refer [link-url]]
    [blaze.interaction.search-type]
@@ -4013,3 +4014,37 @@
                            {"_count" "1" "__t" "1" "__page-id" "2"
                             "__page-id-stack" (conj (vec (rest stack)) "1")})
                  (link-url body "next"))))))))
+
+(deftest handler-raw-resources-test
+  (with-redefs [rc/get-if-present (fn [_ _])]
+    (testing "returns raw match resources if the output allows it"
+      (with-handler [handler]
+        [[[:put {:fhir/type :fhir/Patient :id "0"}]]]
+
+        (let [{:keys [status body]}
+              @(handler {:blaze.middleware.fhir.output/raw-resources? true})]
+
+          (is (= 200 status))
+
+          (given (:entry body)
+            count := 1
+            [0 :fullUrl :value] := (str base-url context-path "/Patient/0")
+            [0 :resource fhir-spec/raw-resource?] := true
+            [0 :resource :fhir/type] := :fhir/Patient
+            [0 :resource :id] := "0"
+            [0 :search :mode] := #fhir/code "match"))))
+
+    (testing "returns parsed match resources if the summary is requested"
+      (with-handler [handler]
+        [[[:put {:fhir/type :fhir/Patient :id "0"}]]]
+
+        (let [{:keys [status body]}
+              @(handler {:params {"_summary" "true"}
+                         :blaze.middleware.fhir.output/raw-resources? true})]
+
+          (is (= 200 status))
+
+          (given (:entry body)
+            count := 1
+            [0 :resource fhir-spec/raw-resource?] := false
+            [0 :resource :id] := "0"))))))
@@ -22,12 +22,14 @@
    [blaze.interaction.search.util :as search-util]
    [blaze.interaction.test-util :refer [with-tx-in-between wrap-error]]
    [blaze.interaction.transaction]
+   [blaze.interaction.transaction.batch]
    [blaze.interaction.update]
    [blaze.interaction.util-spec]
+   [blaze.metrics.spec]
    [blaze.middleware.fhir.db :as db]
    [blaze.middleware.fhir.db-spec]
    [blaze.module-spec]
-   [blaze.module.test-util :refer [given-failed-system]]
+   [blaze.module.test-util :refer [given-failed-system with-system]]
    [blaze.page-store-spec]
    [blaze.page-store.local]
    [blaze.test-util :as tu]
@@ -263,7 +265,19 @@
       :key := :blaze.interaction/transaction
       :reason := ::ig/build-failed-spec
       [:cause-data ::s/problems 0 :via] := [:blaze/validator]
-      [:cause-data ::s/problems 0 :val] := ::invalid)))
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
+  (testing "invalid batch-concurrency"
+    (given-failed-system (assoc-in config [:blaze.interaction/transaction :batch-concurrency] 0)
+      :key := :blaze.interaction/transaction
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [:blaze.interaction.transaction/batch-concurrency]
+      [:cause-data ::s/problems 0 :val] := 0)))
+
+(deftest entry-duration-seconds-collector-init-test
+  (with-system [{collector :blaze.interaction.transaction.batch/entry-duration-seconds}
+                {:blaze.interaction.transaction.batch/entry-duration-seconds nil}]
+    (is (s/valid? :blaze.metrics/collector collector))))
 
 (defn wrap-defaults [handler router]
   (fn [request]
@@ -1867,6 +1881,118 @@
         (given response
           :status := #fhir/string "200")))))
 
+(defn- read-entry [id]
+  {:fhir/type :fhir.Bundle/entry
+   :request
+   {:fhir/type :fhir.Bundle.entry/request
+    :method #fhir/code "GET"
+    :url (type/uri (str "Patient/" id))}})
+
+(def ^:private update-entry
+  {:fhir/type :fhir.Bundle/entry
+   :resource {:fhir/type :fhir/Patient :id "0" :gender #fhir/code "male"}
+   :request
+   {:fhir/type :fhir.Bundle.entry/request
+    :method #fhir/code "PUT"
+    :url #fhir/uri "Patient/0"}})
+
+(deftest handler-batch-concurrency-test
+  (doseq [batch-concurrency [1 4]]
+    (testing (format "with a batch concurrency of %d" batch-concurrency)
+      (with-system-data [{handler :blaze.interaction/transaction
+                          router ::router}
+                         (assoc-in config [:blaze.interaction/transaction
+                                           :batch-concurrency]
+                                   batch-concurrency)]
+        [(mapv #(vector :put {:fhir/type :fhir/Patient :id (str %)}) (range 10))]
+
+        (let [handler (-> handler (wrap-defaults router) wrap-error)
+              {:keys [status] {:keys [entry]} :body}
+              @(handler
+                {:body
+                 {:fhir/type :fhir/Bundle
+                  :type #fhir/code "batch"
+                  :entry (-> (mapv read-entry (range 5))
+                             (conj update-entry)
+                             (into (map read-entry) (range 5 10))
+                             (conj (read-entry "10")))}})]
+
+          (testing "response status"
+            (is (= 200 status)))
+
+          (testing "the response entries are in the order of the entries"
+            (is (= 12 (count entry)))
+            (is (= (map str (range 5)) (map (comp :id :resource) (take 5 entry))))
+            (is (= (map str (range 5 10))
+                   (map (comp :id :resource) (take 5 (drop 6 entry))))))
+
+          (testing "the reads before the update don't see it"
+            (is (nil? (-> entry first :resource :gender))))
+
+          (testing "the update is successful"
+            (given (nth entry 5)
+              [:response :status] := #fhir/string "200"))
+
+          (testing "the read of an unknown resource fails"
+            (given (peek entry)
+              [:response :status] := #fhir/string "404")))))))
+
+(defn- search-entry [query]
+  {:fhir/type :fhir.Bundle/entry
+   :request
+   {:fhir/type :fhir.Bundle.entry/request
+    :method #fhir/code "GET"
+    :url (type/uri (str "Patient?" query))}})
+
+(deftest handler-batch-concurrent-searches-and-reads-test
+  (with-system-data [{handler :blaze.interaction/transaction
+                      router ::router}
+                     (assoc-in config [:blaze.interaction/transaction
+                                       :batch-concurrency]
+                               8)]
+    [(mapv #(vector :put {:fhir/type :fhir/Patient :id (str %)
+                          :gender (if (even? %) #fhir/code "male" #fhir/code "female")})
+           (range 20))]
+
+    (let [handler (-> handler (wrap-defaults router) wrap-error)
+          {:keys [status] {:keys [entry]} :body}
+          @(handler
+            {:body
+             {:fhir/type :fhir/Bundle
+              :type #fhir/code "batch"
+              :entry (into []
+                           (mapcat
+                            (fn [id]
+                              [(read-entry id)
+                               (search-entry (str "_id=" id))
+                               (search-entry "gender=male")]))
+                           (range 20))}})]
+
+      (testing "response status"
+        (is (= 200 status)))
+
+      (is (= 60 (count entry)))
+
+      (doseq [[id [read search-id search-gender]]
+              (map-indexed vector (partition 3 entry))]
+        (testing "the read returns the patient"
+          (given read
+            [:response :status] := #fhir/string "200"
+            [:resource :id] := (str id)))
+
+        (testing "the search by id returns the patient"
+          (given (:resource search-id)
+            :type := #fhir/code "searchset"
+            [:entry count] := 1
+            [:entry 0 :resource :id] := (str id)))
+
+        (testing "the search by gender returns all male patients"
+          (given (:resource search-gender)
+            :type := #fhir/code "searchset"
+            [:entry count] := 10)
+          (is (= (set (map str (range 0 20 2)))
+                 (set (map (comp :id :resource) (-> search-gender :resource :entry))))))))))
+
 (deftest handler-batch-missing-request-test
   (with-handler [handler]
     (let [{:keys [status] {[{:keys [response]}] :entry} :body}
@@ -8,6 +8,9 @@
    [blaze.anomaly-spec]
    [blaze.db.api-stub :as api-stub :refer [with-system-data]]
    [blaze.db.spec]
+   [blaze.fhir.spec :as fhir-spec]
+   [blaze.fhir.test-util :refer [structure-definition-repo]]
+   [blaze.fhir.writing-context]
    [blaze.interaction.test-util :refer [wrap-error]]
    [blaze.interaction.vread]
    [blaze.middleware.fhir.db :refer [wrap-db]]
@@ -15,6 +18,8 @@
    [blaze.test-util :as tu]
    [clojure.spec.test.alpha :as st]
    [clojure.test :as test :refer [deftest is testing]]
+   [integrant.core :as ig]
+   [jsonista.core :as j]
    [juxt.iota :refer [given]]
    [reitit.core :as reitit]
    [taoensso.timbre :as log]))
@@ -27,6 +32,14 @@
 (def ^:private config
   (assoc api-stub/mem-node-config :blaze.interaction/vread {}))
 
+(def ^:private writing-context
+  (ig/init-key
+   :blaze.fhir/writing-context
+   {:structure-definition-repo structure-definition-repo}))
+
+(defn- write-json [resource]
+  (j/read-value (fhir-spec/write-json-as-bytes writing-context resource)))
+
 (def ^:private match
   (reitit/map->Match {:data {:fhir.resource/type "Patient"}}))
 
@@ -190,3 +203,26 @@
             [:issue 0 :severity] := #fhir/code "error"
             [:issue 0 :code] := #fhir/code "not-found"
             [:issue 0 :diagnostics] := #fhir/string "Resource `Patient/0` with version `3` was not found."))))))
+
+(deftest raw-resources-test
+  (testing "returns a raw resource if the output allows it"
+    (with-handler [handler]
+      [[[:put {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean false}]]
+       [[:put {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean true}]]]
+
+      (let [{:keys [status headers body]}
+            @(handler {:path-params {:id "0" :vid "1"}
+                       :blaze.middleware.fhir.output/raw-resources? true})]
+
+        (is (= 200 status))
+
+        (testing "Version in ETag header"
+          (is (= "W/\"1\"" (get headers "ETag"))))
+
+        (is (fhir-spec/raw-resource? body))
+
+        (given (write-json body)
+          "resourceType" := "Patient"
+          "id" := "0"
+          ["meta" "versionId"] := "1"
+          "active" := false)))))
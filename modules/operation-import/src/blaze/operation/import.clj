@@ -0,0 +1,182 @@
+(ns blaze.operation.import
+  "Main entry point into the $import operation.
+
+  Reads resources line by line from an NDJSON body and writes them in chunks of
+  `chunk-size` resources. Each chunk is submitted as one transaction of `:put`
+  operations, so the whole import goes through the transaction log like any
+  other write, advancing t once per chunk."
+  (:require
+   [blaze.anomaly :as ba :refer [if-ok when-ok]]
+   [blaze.async.comp :as ac]
+   [blaze.db.api :as d]
+   [blaze.db.spec]
+   [blaze.executors :as ex]
+   [blaze.fhir.parsing-context.spec]
+   [blaze.fhir.spec :as fhir-spec]
+   [blaze.fhir.spec.type :as type]
+   [blaze.module :as m]
+   [blaze.operation.import.spec]
+   [clojure.java.io :as io]
+   [clojure.spec.alpha :as s]
+   [clojure.string :as str]
+   [cognitect.anomalies :as anom]
+   [integrant.core :as ig]
+   [ring.util.response :as ring]
+   [taoensso.timbre :as log])
+  (:import
+   [java.io Closeable]
+   [java.util.concurrent TimeUnit]))
+
+(set! *warn-on-reflection* true)
+
+(def ^:private ^:const default-chunk-size 1000)
+
+(defn- numbered-lines
+  "Returns a lazy seq of tuples of one-based line number and line of all
+  non-blank lines of `reader`."
+  [reader]
+  (->> (line-seq reader)
+       (map-indexed (fn [idx line] [(inc idx) line]))
+       (remove (comp str/blank? second))))
+
+(defn- invalid-line-msg [line-number msg]
+  (format "Invalid resource in line %d. %s" line-number msg))
+
+(def ^:private missing-id-anom
+  (ba/incorrect "The resource has no id." :fhir/issue "required"))
+
+(defn- parse-line [parsing-context [line-number line]]
+  (-> (when-ok [resource (fhir-spec/parse-json parsing-context line)]
+        (if (:id resource)
+          resource
+          missing-id-anom))
+      (ba/exceptionally
+       #(update % ::anom/message (partial invalid-line-msg line-number)))))
+
+(defn- resource-key [{:fhir/keys [type] :keys [id]}]
+  [type id])
+
+(defn- read-chunk
+  "Reads up to `chunk-size` resources from `lines`.
+
+  Returns a map of the :resources read, the remaining :lines and possibly a
+  :duplicate or the first anomaly.
+
+  Because a transaction can't contain the same resource twice, the chunk ends
+  before a resource with the same type and id as a resource already read. That
+  resource is returned as :duplicate tuple of its line number, its key and the
+  line number of the resource already read. It stays in the remaining lines."
+  [parsing-context chunk-size lines]
+  (loop [resources [] line-numbers {} lines lines]
+    (if-let [[[line-number :as line] & more]
+             (when (< (count resources) chunk-size) (seq lines))]
+      (if-ok [resource (parse-line parsing-context line)]
+        (let [type-id (resource-key resource)]
+          (if-let [first-line-number (line-numbers type-id)]
+            {:resources resources
+             :lines lines
+             :duplicate [line-number type-id first-line-number]}
+            (recur (conj resources resource)
+                   (assoc line-numbers type-id line-number)
+                   more)))
+        identity)
+      {:resources resources :lines lines})))
+
+(defn- import-failed [{:keys [num-resources]} anomaly]
+  (update anomaly ::anom/message
+          (partial format "Import failed after %d imported resources. %s"
+                   num-resources)))
+
+(defn- add-chunk [stats resources duplicate]
+  (cond-> (-> (update stats :num-resources + (count resources))
+              (update :num-transactions inc))
+    duplicate
+    (update :duplicates conj duplicate)))
+
+(defn- import-chunks
+  "Reads and transacts the chunks of `lines` one after another, returning a
+  CompletableFuture that will complete with the final `stats` or will complete
+  exceptionally with the anomaly of the first failing chunk.
+
+  Chunks are read on `executor`, because reading the body blocks."
+  [{:keys [node parsing-context chunk-size executor] :as context} lines stats]
+  (-> (ac/supply-async #(read-chunk parsing-context chunk-size lines) executor)
+      (ac/exceptionally (partial import-failed stats))
+      (ac/then-compose
+       (fn [{:keys [resources lines duplicate]}]
+         (if (empty? resources)
+           (ac/completed-future stats)
+           (-> (d/transact node (mapv (partial vector :put) resources))
+               (ac/exceptionally (partial import-failed stats))
+               (ac/then-compose
+                (fn [_]
+                  (import-chunks context lines
+                                 (add-chunk stats resources duplicate))))))))))
+
+(defn- diagnostics [{:keys [num-resources num-transactions]}]
+  (format "Imported %d resources in %d transactions."
+          num-resources num-transactions))
+
+(defn- duplicate-diagnostics [[line-number [type id] first-line-number]]
+  (format "The resource `%s/%s` in line %d was already in line %d of the same chunk. It was imported in the next transaction."
+          (name type) id line-number first-line-number))
+
+(defn- duplicate-issue [duplicate]
+  {:fhir/type :fhir.OperationOutcome/issue
+   :severity #fhir/code "warning"
+   :code #fhir/code "duplicate"
+   :diagnostics (type/string (duplicate-diagnostics duplicate))})
+
+(defn- success-response [{:keys [duplicates] :as stats}]
+  (ring/response
+   {:fhir/type :fhir/OperationOutcome
+    :issue
+    (into
+     [{:fhir/type :fhir.OperationOutcome/issue
+       :severity #fhir/code "success"
+       :code #fhir/code "success"
+       :diagnostics (type/string (diagnostics stats))}]
+     (map duplicate-issue)
+     duplicates)}))
+
+(defn- handler [{:keys [chunk-size] :or {chunk-size default-chunk-size}
+                 :as context}]
+  (let [context (assoc context :chunk-size chunk-size)]
+    (fn [{:keys [body]}]
+      (let [reader (io/reader body)]
+        (-> (import-chunks
+             context
+             ;; lazy, so that even the first line is read on the executor
+             (lazy-seq (numbered-lines reader))
+             {:num-resources 0 :num-transactions 0 :duplicates []})
+            (ac/when-complete (fn [_ _] (.close ^Closeable reader)))
+            (ac/then-apply success-response))))))
+
+(defmethod m/pre-init-spec :blaze.operation/import [_]
+  (s/keys :req-un [:blaze.db/node :blaze.fhir/parsing-context ::executor]
+          :opt-un [::chunk-size]))
+
+(defmethod ig/init-key :blaze.operation/import [_ context]
+  (log/info "Init FHIR $import operation handler")
+  (handler context))
+
+(defmethod m/pre-init-spec ::executor [_]
+  (s/keys :opt-un [::num-threads]))
+
+(defn- executor-init-msg [num-threads]
+  (format "Init $import operation executor with %d threads" num-threads))
+
+(defmethod ig/init-key ::executor
+  [_ {:keys [num-threads] :or {num-threads 4}}]
+  (log/info (executor-init-msg num-threads))
+  (ex/io-pool num-threads "operation-import-%d"))
+
+(defmethod ig/halt-key! ::executor
+  [_ executor]
+  (log/info "Stopping $import operation executor...")
+  (ex/shutdown! executor)
+  (if (ex/await-termination executor 10 TimeUnit/SECONDS)
+    (log/info "$import operation executor was stopped successfully")
+    (log/warn "Got timeout while stopping the $import operation executor")))
+
+(derive ::executor :blaze.metrics/thread-pool-executor)
@@ -0,0 +1,50 @@
+(ns blaze.operation.import.middleware
+  (:require
+   [blaze.anomaly :as ba :refer [if-ok]]
+   [blaze.async.comp :as ac]
+   [clojure.string :as str]
+   [integrant.core :as ig]
+   [ring.util.request :as request]))
+
+(def ^:private media-types
+  ["application/fhir+ndjson" "application/ndjson" "application/x-ndjson"])
+
+(defn- ndjson? [content-type]
+  (some (partial str/starts-with? content-type) media-types))
+
+(defn- unsupported-media-type-msg [media-type]
+  (format "Unsupported media type `%s` expect one of `application/fhir+ndjson`, `application/ndjson` or `application/x-ndjson`."
+          media-type))
+
+(defn- ndjson-request [{:keys [body] :as request}]
+  (if-let [content-type (request/content-type request)]
+    (cond
+      (not (ndjson? content-type))
+      (ba/incorrect (unsupported-media-type-msg content-type)
+                    :http/status 415)
+
+      body
+      request
+
+      :else
+      (ba/incorrect "Missing HTTP body."))
+    (ba/incorrect "Content-Type header expected, but is missing.")))
+
+(defn wrap-ndjson
+  "Middleware ensuring that the request has an NDJSON body.
+
+  The body itself is left untouched so that the handler can read it line by
+  line without holding all resources in memory.
+
+  Returns an OperationOutcome in the internal format, skipping the handler, with
+  an appropriate error when the content-type isn't one of the NDJSON media types
+  or the body is missing."
+  [handler]
+  (fn [request]
+    (if-ok [request (ndjson-request request)]
+      (handler request)
+      ac/completed-future)))
+
+(defmethod ig/init-key ::ndjson [_ _]
+  {:name ::ndjson
+   :wrap wrap-ndjson})
@@ -0,0 +1,14 @@
+(ns blaze.operation.import.spec
+  (:require
+   [blaze.executors :as ex]
+   [blaze.operation.import :as-alias import]
+   [clojure.spec.alpha :as s]))
+
+(s/def ::import/chunk-size
+  pos-int?)
+
+(s/def ::import/executor
+  ex/executor?)
+
+(s/def ::import/num-threads
+  pos-int?)
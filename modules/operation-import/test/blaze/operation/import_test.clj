@@ -0,0 +1,256 @@
+(ns blaze.operation.import-test
+  (:require
+   [blaze.async.comp :as ac]
+   [blaze.db.api :as d]
+   [blaze.db.api-stub :as api-stub :refer [with-system-data]]
+   [blaze.db.spec]
+   [blaze.handler.util :as handler-util]
+   [blaze.executors :as ex]
+   [blaze.module.test-util :refer [given-failed-system with-system]]
+   [blaze.operation.import :as import]
+   [blaze.operation.import.middleware :as middleware]
+   [blaze.test-util :as tu]
+   [clojure.spec.alpha :as s]
+   [clojure.spec.test.alpha :as st]
+   [clojure.string :as str]
+   [clojure.test :as test :refer [deftest is testing]]
+   [integrant.core :as ig]
+   [juxt.iota :refer [given]]
+   [taoensso.timbre :as log])
+  (:import
+   [java.io ByteArrayInputStream]
+   [java.nio.charset StandardCharsets]))
+
+(st/instrument)
+(log/set-min-level! :trace)
+
+(test/use-fixtures :each tu/fixture)
+
+(deftest init-test
+  (testing "nil config"
+    (given-failed-system {:blaze.operation/import nil}
+      :key := :blaze.operation/import
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :pred] := `map?))
+
+  (testing "missing config"
+    (given-failed-system {:blaze.operation/import {}}
+      :key := :blaze.operation/import
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :pred] := `(fn ~'[%] (contains? ~'% :node))
+      [:cause-data ::s/problems 1 :pred] := `(fn ~'[%] (contains? ~'% :parsing-context))
+      [:cause-data ::s/problems 2 :pred] := `(fn ~'[%] (contains? ~'% :executor))))
+
+  (testing "invalid node"
+    (given-failed-system {:blaze.operation/import {:node ::invalid}}
+      :key := :blaze.operation/import
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :pred] := `(fn ~'[%] (contains? ~'% :parsing-context))
+      [:cause-data ::s/problems 1 :pred] := `(fn ~'[%] (contains? ~'% :executor))
+      [:cause-data ::s/problems 2 :via] := [:blaze.db/node]
+      [:cause-data ::s/problems 2 :val] := ::invalid))
+
+  (testing "invalid executor"
+    (given-failed-system {:blaze.operation/import {:executor ::invalid}}
+      :key := :blaze.operation/import
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 2 :via] := [::import/executor]
+      [:cause-data ::s/problems 2 :val] := ::invalid))
+
+  (testing "invalid chunk-size"
+    (given-failed-system {:blaze.operation/import {:chunk-size 0}}
+      :key := :blaze.operation/import
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 3 :via] := [::import/chunk-size]
+      [:cause-data ::s/problems 3 :val] := 0)))
+
+(deftest executor-init-test
+  (testing "nil config"
+    (given-failed-system {::import/executor nil}
+      :key := ::import/executor
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :pred] := `map?))
+
+  (testing "invalid num-threads"
+    (given-failed-system {::import/executor {:num-threads ::invalid}}
+      :key := ::import/executor
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::import/num-threads]
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
+  (testing "with default num-threads"
+    (with-system [{::import/keys [executor]} {::import/executor {}}]
+      (is (ex/executor? executor)))))
+
+(def ^:private config
+  (assoc
+   api-stub/mem-node-config
+   :blaze.operation/import
+   {:node (ig/ref :blaze.db/node)
+    :parsing-context (ig/ref ::api-stub/parsing-context)
+    :chunk-size 2
+    :executor (ig/ref ::import/executor)}
+   ::import/executor {}
+   ::middleware/ndjson {}))
+
+(defn wrap-error [handler]
+  (fn [request]
+    (-> (handler request)
+        (ac/exceptionally handler-util/error-response))))
+
+(defmacro with-handler [[handler-binding & [node-binding]] & more]
+  (let [[txs body] (api-stub/extract-txs-body more)]
+    `(with-system-data [{node# :blaze.db/node
+                         handler# :blaze.operation/import
+                         {wrap# :wrap} ::middleware/ndjson} config]
+       ~txs
+       (let [~handler-binding (-> handler# wrap# wrap-error)
+             ~(or node-binding '_) node#]
+         ~@body))))
+
+(defn- ndjson-request [& lines]
+  {:headers {"content-type" "application/fhir+ndjson"}
+   :body (ByteArrayInputStream.
+          (.getBytes ^String (str/join "\n" lines) StandardCharsets/UTF_8))})
+
+(deftest handler-test
+  (testing "Fails on missing content-type"
+    (with-handler [handler]
+      (let [{:keys [status body]} @(handler {})]
+
+        (is (= 400 status))
+
+        (given body
+          :fhir/type := :fhir/OperationOutcome
+          [:issue 0 :severity] := #fhir/code "error"
+          [:issue 0 :code] := #fhir/code "invalid"
+          [:issue 0 :diagnostics] := #fhir/string "Content-Type header expected, but is missing."))))
+
+  (testing "Fails on unsupported content-type"
+    (with-handler [handler]
+      (let [{:keys [status body]}
+            @(handler {:headers {"content-type" "application/fhir+json"}})]
+
+        (is (= 415 status))
+
+        (given body
+          :fhir/type := :fhir/OperationOutcome
+          [:issue 0 :severity] := #fhir/code "error"
+          [:issue 0 :code] := #fhir/code "invalid"
+          [:issue 0 :diagnostics] := #fhir/string "Unsupported media type `application/fhir+json` expect one of `application/fhir+ndjson`, `application/ndjson` or `application/x-ndjson`."))))
+
+  (testing "Fails on missing body"
+    (with-handler [handler]
+      (let [{:keys [status body]}
+            @(handler {:headers {"content-type" "application/x-ndjson"}})]
+
+        (is (= 400 status))
+
+        (given body
+          :fhir/type := :fhir/OperationOutcome
+          [:issue 0 :diagnostics] := #fhir/string "Missing HTTP body."))))
+
+  (testing "Success on empty body"
+    (with-handler [handler]
+      (let [{:keys [status body]} @(handler (ndjson-request ""))]
+
+        (is (= 200 status))
+
+        (given body
+          :fhir/type := :fhir/OperationOutcome
+          [:issue 0 :severity] := #fhir/code "success"
+          [:issue 0 :code] := #fhir/code "success"
+          [:issue 0 :diagnostics] := #fhir/string "Imported 0 resources in 0 transactions."))))
+
+  (testing "Success on five resources in three chunks"
+    (with-handler [handler node]
+      [[[:put {:fhir/type :fhir/Patient :id "0"
+               :active #fhir/boolean false}]]]
+
+      (let [{:keys [status body]}
+            @(handler
+              (ndjson-request
+               "{\"resourceType\": \"Patient\", \"id\": \"0\", \"active\": true}"
+               "{\"resourceType\": \"Patient\", \"id\": \"1\"}"
+               ""
+               "{\"resourceType\": \"Observation\", \"id\": \"0\", \"status\": \"final\", \"subject\": {\"reference\": \"Patient/0\"}}"
+               "{\"resourceType\": \"Observation\", \"id\": \"1\", \"status\": \"final\"}"
+               "{\"resourceType\": \"Patient\", \"id\": \"2\"}"))]
+
+        (is (= 200 status))
+
+        (given body
+          :fhir/type := :fhir/OperationOutcome
+          [:issue 0 :severity] := #fhir/code "success"
+          [:issue 0 :diagnostics] := #fhir/string "Imported 5 resources in 3 transactions.")
+
+        (let [db (d/db node)]
+          (testing "each chunk is one transaction"
+            (is (= 4 (d/basis-t db))))
+
+          (testing "existing resources are updated"
+            (given @(d/pull db (d/resource-handle db "Patient" "0"))
+              :active := #fhir/boolean true))
+
+          (is (= 3 (d/type-total db "Patient")))
+          (is (= 2 (d/type-total db "Observation")))))))
+
+  (testing "Success on duplicate ids in one chunk"
+    (with-handler [handler node]
+      (let [{:keys [status body]}
+            @(handler
+              (ndjson-request
+               "{\"resourceType\": \"Patient\", \"id\": \"0\", \"active\": false}"
+               "{\"resourceType\": \"Patient\", \"id\": \"0\", \"active\": true}"
+               "{\"resourceType\": \"Patient\", \"id\": \"1\"}"))]
+
+        (is (= 200 status))
+
+        (given body
+          :fhir/type := :fhir/OperationOutcome
+          [:issue 0 :severity] := #fhir/code "success"
+          [:issue 0 :diagnostics] := #fhir/string "Imported 3 resources in 2 transactions."
+          [:issue 1 :severity] := #fhir/code "warning"
+          [:issue 1 :code] := #fhir/code "duplicate"
+          [:issue 1 :diagnostics] := #fhir/string "The resource `Patient/0` in line 2 was already in line 1 of the same chunk. It was imported in the next transaction.")
+
+        (let [db (d/db node)]
+          (testing "the later resource wins"
+            (given @(d/pull db (d/resource-handle db "Patient" "0"))
+              :active := #fhir/boolean true))
+
+          (is (= 2 (d/type-total db "Patient")))))))
+
+  (testing "Fails on invalid resource"
+    (with-handler [handler node]
+      (let [{:keys [status body]}
+            @(handler
+              (ndjson-request
+               "{\"resourceType\": \"Patient\", \"id\": \"0\"}"
+               "{\"resourceType\": \"Patient\", \"id\": \"1\"}"
+               "{\"resourceType\": \"Patient\", \"id\": \"2\"}"
+               "{\"resourceType\": \"Patient\", \"gender\": 1}"))]
+
+        (is (= 400 status))
+
+        (given body
+          :fhir/type := :fhir/OperationOutcome
+          [:issue 0 :severity] := #fhir/code "error"
+          [:issue 0 :diagnostics :value] :# "Import failed after 2 imported resources. Invalid resource in line 4. .*")
+
+        (testing "the first chunk was imported"
+          (is (= 2 (d/type-total (d/db node) "Patient")))))))
+
+  (testing "Fails on resource without id"
+    (with-handler [handler]
+      (let [{:keys [status body]}
+            @(handler
+              (ndjson-request "{\"resourceType\": \"Patient\"}"))]
+
+        (is (= 400 status))
+
+        (given body
+          :fhir/type := :fhir/OperationOutcome
+          [:issue 0 :severity] := #fhir/code "error"
+          [:issue 0 :code] := #fhir/code "required"
+          [:issue 0 :diagnostics] := #fhir/string "Import failed after 0 imported resources. Invalid resource in line 1. The resource has no id.")))))
@@ -9,19 +9,24 @@
    [blaze.elm.expression :as-alias expr]
    [blaze.elm.expression.spec]
    [blaze.executors :as ex]
+   [blaze.fhir.operation.evaluate-measure.cql :as cql]
    [blaze.fhir.operation.evaluate-measure.measure :as measure]
    [blaze.fhir.operation.evaluate-measure.measure.spec]
    [blaze.fhir.operation.evaluate-measure.middleware.params
     :refer [wrap-coerce-params]]
    [blaze.fhir.operation.evaluate-measure.spec]
+   [blaze.fhir.parsing-context.spec]
    [blaze.fhir.response.create :as response]
+   [blaze.handler.fhir.util :as fhir-util]
    [blaze.handler.util :as handler-util]
+   [blaze.http-client.spec]
    [blaze.job.async-interaction.request :as req]
    [blaze.module :as m :refer [reg-collector]]
    [blaze.spec]
    [blaze.terminology-service.spec]
    [blaze.util :as u :refer [str]]
    [clojure.spec.alpha :as s]
+   [clojure.string :as str]
    [cognitect.anomalies :as anom]
    [integrant.core :as ig]
    [java-time.api :as time]
@@ -69,6 +74,14 @@
       (ring/response resource))
     (ac/completed-future (ring/response resource))))
 
+(defn- forward-authorization
+  "Forwards the authorization header of the request to the peers, so that the
+  peers authenticate their requests like the original one."
+  [{:keys [peers] :as context} {:strs [authorization]}]
+  (cond-> context
+    (and peers authorization)
+    (assoc-in [:peers :authorization] authorization)))
+
 (defn- handle
   [{:keys [report-persistence] :as context}
    {:blaze/keys [base-url cancelled?]
@@ -79,9 +92,10 @@
    measure]
   (if (handler-util/preference headers "respond-async")
     (req/handle-async context request)
-    (let [context (cond-> (assoc context
-                                 :blaze/base-url base-url
-                                 ::reitit/router router)
+    (let [context (cond-> (-> (assoc context
+                                     :blaze/base-url base-url
+                                     ::reitit/router router)
+                              (forward-authorization headers))
                     cancelled?
                     (assoc :blaze/cancelled? cancelled?))]
       (-> (measure/evaluate-measure context measure params)
@@ -129,34 +143,89 @@
                     :fhir/issue "deleted")
       handle)))
 
+(defn- sync-db
+  "Returns a CompletableFuture that will complete with `db` as of the `t` of
+  `params` if given.
+
+  Peers in distributed evaluation get the `t` of the coordinator, so that all
+  peers evaluate the same database value. Fails after `db-sync-timeout`
+  milliseconds if this node doesn't reach `t`."
+  [{:keys [node db-sync-timeout] :or {db-sync-timeout 10000}} db {:keys [t]}]
+  (if t
+    (fhir-util/sync node t db-sync-timeout)
+    (ac/completed-future db)))
+
+(defn- handler* [context {:blaze/keys [db] :as request}]
+  (-> (find-measure-handle db request)
+      (ac/then-compose
+       (fn [measure-handle]
+         (-> (d/pull db measure-handle)
+             (ac/exceptionally
+              #(assoc %
+                      ::anom/category ::anom/fault
+                      :fhir/issue "incomplete")))))
+      (ac/then-compose-async (partial handle (assoc context :db db) request))))
+
 (defn- handler [context]
-  (fn [{:blaze/keys [db] :as request}]
-    (-> (find-measure-handle db request)
-        (ac/then-compose
-         (fn [measure-handle]
-           (-> (d/pull db measure-handle)
-               (ac/exceptionally
-                #(assoc %
-                        ::anom/category ::anom/fault
-                        :fhir/issue "incomplete")))))
-        (ac/then-compose-async (partial handle (assoc context :db db) request)))))
+  (fn [{:blaze/keys [db] ::keys [params] :as request}]
+    (-> (sync-db context db params)
+        (ac/then-compose #(handler* context (assoc request :blaze/db %))))))
 
 (defmethod m/pre-init-spec ::handler [_]
   (s/keys :req-un [:blaze.db/node :blaze/terminology-service ::executor
                    :blaze/clock :blaze/rng-fn]
           :opt [::expr/cache]
-          :opt-un [::timeout :blaze/context-path ::report-persistence]))
+          :opt-un [::timeout :blaze/context-path ::report-persistence
+                   ::incremental-cache-size ::bytecode-compilation
+                   ::bytecode-max-classes
+                   ::subject-cache-size ::peers ::peer-secret
+                   ::db-sync-timeout]))
 
 (defmethod ig/init-key ::handler
-  [_ {:keys [timeout report-persistence] :or {report-persistence true}
+  [_ {:keys [timeout report-persistence incremental-cache-size
+             bytecode-compilation subject-cache-size peers peer-secret]
+      :or {report-persistence true incremental-cache-size 0}
       :as context}]
   (log/info
    (cond-> "Init FHIR $evaluate-measure operation handler"
      timeout
      (str " with a timeout of " timeout)
      (not report-persistence)
-     (str " with MeasureReport persistence disabled")))
-  (wrap-coerce-params (handler (assoc context :report-persistence report-persistence))))
+     (str " with MeasureReport persistence disabled")
+     (pos? incremental-cache-size)
+     (str " with an incremental cache of " incremental-cache-size " subject results")
+     bytecode-compilation
+     (str " with bytecode compilation of CQL expressions")
+     (some-> subject-cache-size pos?)
+     (str " with a subject cache of " subject-cache-size " results per evaluation")
+     peers
+     (str " distributing population reports over " (count (:base-uris peers)) " peers")
+     peer-secret
+     (str " accepting requests of peers")))
+  (wrap-coerce-params
+   (handler
+    (cond-> (-> (assoc context :report-persistence report-persistence)
+                (dissoc :peer-secret))
+      (pos? incremental-cache-size)
+      (assoc :incremental-cache (cql/incremental-cache incremental-cache-size))))
+   peer-secret))
+
+(defmethod m/pre-init-spec ::peers [_]
+  (s/keys :req-un [:blaze.fhir.operation.evaluate-measure.peers/base-uris
+                   :blaze.fhir.operation.evaluate-measure.peers/secret
+                   :blaze/http-client :blaze.fhir/parsing-context]))
+
+(defn- split-base-uris [base-uris]
+  (into [] (comp (map str/trim) (remove str/blank?)) (str/split base-uris #",")))
+
+(defmethod ig/init-key ::peers
+  [_ {:keys [base-uris secret http-client parsing-context]}]
+  (let [base-uris (split-base-uris base-uris)]
+    (log/info (str "Init $evaluate-measure peers: " (str/join ", " base-uris)))
+    {:base-uris base-uris
+     :secret secret
+     :http-opts {:http-client http-client
+                 :parsing-context parsing-context}}))
 
 (defmethod m/pre-init-spec ::timeout [_]
   (s/keys :req-un [:blaze.fhir.operation.evaluate-measure.timeout/millis]))
@@ -7,9 +7,14 @@
    [blaze.elm.compiler :as c]
    [blaze.elm.compiler.core :as core]
    [blaze.elm.expression :as expr]
+   [blaze.elm.expression.subject-cache :as subject-cache]
    [blaze.elm.resource :as cr]
    [blaze.elm.util :as elm-util]
-   [taoensso.timbre :as log]))
+   [clojure.string :as str]
+   [taoensso.timbre :as log])
+  (:import
+   [blaze.elm.resource Resource]
+   [com.github.benmanes.caffeine.cache Cache Caffeine Weigher]))
 
 (set! *warn-on-reflection* true)
 
@@ -24,9 +29,18 @@
   (format "Error while evaluating the expression `%s`: %s" expression-name
           (ex-message e)))
 
+(defn- eval-expression
+  "Evaluates `expression` with `name` on `subject`, using the subject cache of
+  `context` if available."
+  [{::expr/keys [subject-cache] :as context} subject name expression]
+  (if subject-cache
+    (subject-cache/get-or-eval subject-cache name subject
+                               #(expr/eval context expression subject))
+    (expr/eval context expression subject)))
+
 (defn- evaluate-expression-1* [context subject name expression]
   (try
-    (expr/eval context expression subject)
+    (eval-expression context subject name expression)
     (catch Exception e
       (let [ex-data (ex-data e)]
         ;; only log if the exception hasn't ex-data because exception with
@@ -78,7 +92,8 @@
   (with-open [db (d/new-batch-db db)]
     (transduce
      (comp (map (partial cr/mk-resource db))
-           (result-xf (assoc context :db db) name expression)
+           (result-xf (assoc context :db db :population-eval? true) name
+                      expression)
            (halt-when ba/anomaly?))
      ((:reduce-op context) db) subject-handles)))
 
@@ -92,20 +107,178 @@
    #(evaluate-expression*** context expression-def subject-handles)
    executor))
 
+(defn- before? [end {:keys [id]}]
+  (neg? (compare id end)))
+
+(defn- subject-handles
+  "Returns a reducible collection of all subject handles of `subject-type`,
+  restricted to the ids in :subject-range of `context` if available."
+  [{:keys [db] [start end] :subject-range} subject-type]
+  (cond->> (if start
+             (d/type-list db subject-type start)
+             (d/type-list db subject-type))
+    end (coll/eduction (take-while (partial before? end)))))
+
 (defn- evaluate-expression-futures
-  [{:keys [db] :as context} expression-def subject-type]
+  [context expression-def subject-type]
   (into
    []
    (comp
     (partition-all eval-sequential-chunk-size)
     (map (partial evaluate-expression** context expression-def)))
-   (d/type-list db subject-type)))
+   (subject-handles context subject-type)))
+
+(defn incremental-cache
+  "Creates a cache of subject results of population evaluations that can hold
+  up to `max-subject-results` subject results."
+  [max-subject-results]
+  (-> (Caffeine/newBuilder)
+      (.maximumWeight max-subject-results)
+      (.weigher
+       (reify Weigher
+         (weigh [_ _ {:keys [subject-results]}]
+           (count subject-results))))
+      (.build)))
+
+(def ^:private evaluation-time-forms
+  "Forms of expressions whose results change during the day of evaluation."
+  #{'now 'time-of-day})
+
+(def ^:private external-data-ops
+  "Operators of forms whose results depend on more than the compartment of the
+  subject."
+  #{'value-set})
+
+(defn- op? [ops x]
+  (and (seq? x) (contains? ops (first x))))
+
+(defn- value-set-clause? [x]
+  (and (string? x) (str/ends-with? x ":in")))
+
+(defn- related-context-retrieve?
+  "Retrieves with a related context like `(retrieve (Specimen) \"Patient\")`
+  leave the compartment of the subject."
+  [x]
+  (and (op? #{'retrieve} x) (seq? (second x))))
+
+(defn- non-incremental-form? [form]
+  (some
+   #(or (contains? evaluation-time-forms %)
+        (op? external-data-ops %)
+        (value-set-clause? %)
+        (related-context-retrieve? %))
+   (tree-seq coll? seq form)))
+
+(defn- expr-ref-names [form]
+  (into
+   #{}
+   (comp (filter (partial op? #{'expr-ref}))
+         (map second))
+   (tree-seq coll? seq form)))
+
+(defn non-incremental-expression-names
+  "Returns the set of names of `expression-defs` whose results can't be cached
+  for incremental evaluation, because they can depend on more than the patient
+  compartment of the subject and the date of evaluation.
+
+  Those are expressions using Now or TimeOfDay, value sets, related context
+  retrieves or Unfiltered expression definitions and all expressions
+  referencing them. The `expression-defs` have to be compiled, but their
+  references must not be resolved yet."
+  [expression-defs]
+  (let [refs (update-vals expression-defs (comp expr-ref-names c/form :expression))]
+    (loop [names (into
+                  #{}
+                  (keep
+                   (fn [[name {:keys [context expression]}]]
+                     (when (or (= "Unfiltered" context)
+                               (non-incremental-form? (c/form expression)))
+                       name)))
+                  expression-defs)]
+      (let [more (into names (keep (fn [[name refs]] (when (some names refs) name))) refs)]
+        (if (= names more)
+          names
+          (recur more))))))
+
+(defn- subject-result
+  "Returns the result of reducing only `subject` or an anomaly in case of
+  errors."
+  [context reduce-op name expression subject]
+  (transduce
+   (comp (result-xf context name expression)
+         (halt-when ba/anomaly?))
+   reduce-op
+   (reduce-op)
+   [subject]))
+
+(defn- unchanged-since? [t subject]
+  (and t (<= (.-lastChangeT ^Resource subject) (long t))))
+
+(defn- evaluate-expression-incremental***
+  "Evaluates the expression of `expression-def` over `subject-handles`, taking
+  the results of subjects that didn't change since `t` from `subject-results`.
+
+  Returns a tuple of the combined result and a map of subject id to result of
+  all subjects with a non-initial result."
+  [{:keys [db combine-op] :as context} {:keys [name expression]}
+   {:keys [t subject-results]} subject-handles]
+  (with-open [db (d/new-batch-db db)]
+    (let [context (assoc context :db db :population-eval? true)
+          reduce-op ((:reduce-op context) db)
+          initial-result (reduce-op)]
+      (reduce
+       (fn [[ret new-subject-results] handle]
+         (let [subject (cr/mk-resource db handle)
+               id (:id subject)
+               result (if (unchanged-since? t subject)
+                        (get subject-results id initial-result)
+                        (subject-result context reduce-op name expression
+                                        subject))]
+           (if (ba/anomaly? result)
+             (reduced result)
+             [(combine-op ret result)
+              (cond-> new-subject-results
+                (not= initial-result result)
+                (assoc id result))])))
+       [(combine-op) {}]
+       subject-handles))))
+
+(defn- cached-subject-results
+  "Returns the cached subject results under `key` if they can be used for `db`."
+  [^Cache cache key db]
+  (when-let [{:keys [t] :as subject-results} (.getIfPresent cache key)]
+    (when (<= (long t) (d/t db))
+      subject-results)))
+
+(defn- evaluate-expression-incremental*
+  [{:keys [db executor combine-op incremental-cache] :as context}
+   {:keys [expression] :as expression-def} subject-type]
+  (let [key (conj (:incremental-key context) (c/form expression))
+        subject-results (cached-subject-results incremental-cache key db)
+        futures (into
+                 []
+                 (comp
+                  (partition-all eval-sequential-chunk-size)
+                  (map
+                   (fn [subject-handles]
+                     (ac/supply-async
+                      #(evaluate-expression-incremental***
+                        context expression-def subject-results subject-handles)
+                      executor))))
+                 (subject-handles context subject-type))]
+    (do-sync [_ (ac/all-of futures)]
+      (let [results (mapv ac/join futures)]
+        (.put ^Cache incremental-cache key
+              {:t (d/t db) :subject-results (into {} (map second) results)})
+        (transduce (map first) (completing combine-op) results)))))
 
 (defn- evaluate-expression* [context expression-def subject-type]
   (log/trace "Evaluate expression" (c/form (:expression expression-def)))
-  (let [futures (evaluate-expression-futures context expression-def subject-type)]
-    (do-sync [_ (ac/all-of futures)]
-      (transduce (map ac/join) (completing (:combine-op context)) futures))))
+  (if (:incremental-key context)
+    (evaluate-expression-incremental* context expression-def subject-type)
+    (let [futures (evaluate-expression-futures context expression-def subject-type)]
+      (do-sync [_ (ac/all-of futures)]
+        (transduce (map ac/join) (completing (:combine-op context)) futures)))))
 
 (defn- check-context
   "Returns an anomaly if `subject-type` differs from :context of
@@ -182,6 +355,16 @@
    * :combine-op       - a combine function that gets two already reduced
                          results and returns a new one
    * :population-basis - an optional population basis of a type like `Encounter`
+   * :incremental-cache - an optional cache of subject results created by
+                         `incremental-cache`
+   * :incremental-key  - an optional key under which the subject results are
+                         cached. Subjects that didn't change since the cached
+                         results were created, aren't evaluated again.
+   * ::expr/subject-cache - an optional cache of expression results per subject
+                         created by `blaze.elm.expression.subject-cache/create`
+   * :subject-range    - an optional tuple of start id (inclusive) and end id
+                         (exclusive) of the subjects to evaluate. Both can be
+                         nil for an open range.
 
   The context of the expression has to match `subject-type`. The result type of
   the expression has to match the `population-basis`.
@@ -254,7 +437,11 @@
 (defn stratum-expression-evaluator* [{:keys [name expression function]}]
   (if function
     (fn [context {:keys [subject-handle population-handle]}]
-      (evaluate-stratum-expression context subject-handle name (function population-handle)))
+      ;; the result depends on the population resource, so it can't be cached
+      ;; per subject
+      (evaluate-stratum-expression (dissoc context ::expr/subject-cache)
+                                   subject-handle name
+                                   (function population-handle)))
     (fn [context {:keys [subject-handle]}]
       (evaluate-stratum-expression context subject-handle name expression))))
 
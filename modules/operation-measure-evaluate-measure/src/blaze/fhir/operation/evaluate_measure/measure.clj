@@ -10,8 +10,11 @@
    [blaze.elm.compiler.library :as library]
    [blaze.elm.expression :as-alias expr]
    [blaze.elm.expression.cache :as ec]
+   [blaze.elm.expression.subject-cache :as subject-cache]
    [blaze.elm.resource :as cr]
    [blaze.fhir.canonical :as canonical]
+   [blaze.fhir.operation.evaluate-measure.cql :as cql]
+   [blaze.fhir.operation.evaluate-measure.measure.distributed :as distributed]
    [blaze.fhir.operation.evaluate-measure.measure.group :as group]
    [blaze.fhir.operation.evaluate-measure.measure.parameters :as cql-params]
    [blaze.fhir.operation.evaluate-measure.measure.population :as pop]
@@ -30,7 +33,7 @@
    [taoensso.timbre :as log])
   (:import
    [java.nio.charset StandardCharsets]
-   [java.time Clock]
+   [java.time Clock OffsetDateTime]
    [java.util Base64]))
 
 (set! *warn-on-reflection* true)
@@ -281,8 +284,44 @@
        :combine-op +
        :group/combine-op (group/combine-op-count luid-generator code)))))
 
+(defn- incremental?
+  "Subject results are only cached for population reports with boolean
+  populations, because only their stratifiers depend on expression definitions
+  alone. Evaluations of subject ranges aren't cached, because the cached
+  results have to cover all subjects. Groups using expressions that depend on
+  more than the compartment of the subject and the date of evaluation aren't
+  cached either."
+  [{:keys [incremental-cache report-type subject-handle population-basis
+           subject-range non-incremental-expression-names]}
+   group]
+  (and incremental-cache (= "population" report-type) (nil? subject-handle)
+       (nil? population-basis) (nil? subject-range)
+       (not-any? non-incremental-expression-names
+                 (u/expression-names-of-group group))))
+
+(defn- stratifier-forms [{:keys [expression-defs]} stratifier]
+  (mapv
+   #(some-> (get expression-defs %) :expression c/form)
+   (u/expression-names-of-stratifier stratifier)))
+
+(defn- incremental-key
+  "Returns the part of the key of cached subject results that is common to all
+  populations of `group`.
+
+  The date of evaluation is part of the key, because expressions using Today,
+  like AgeInYears, change their results from one day to the next."
+  [{:keys [subject-type now] :as context} {:keys [stratifier]}]
+  [subject-type (.toLocalDate ^OffsetDateTime now)
+   (mapv (partial stratifier-forms context) stratifier)])
+
+(defn- assoc-incremental-key [context group]
+  (cond-> context
+    (incremental? context group)
+    (assoc :incremental-key (incremental-key context group))))
+
 (defn- evaluate-group [context group]
   (if-ok [context (-> (assoc context :population-basis (population-basis group))
+                      (assoc-incremental-key group)
                       (assoc-ops group))]
     (evaluate-group* context group)
     ac/completed-future))
@@ -300,6 +339,53 @@
    (ac/completed-future {:result [] ::luid/generator generator :tx-ops []})
    groups))
 
+(defn- combine-partition-results
+  "Combines the results of the population with `idx` of all partial reports."
+  [combine-op partition-results idx]
+  (transduce (map #(nth % idx)) (completing combine-op) partition-results))
+
+(defn- evaluate-group-distributed
+  [context {:keys [population stratifier] :as group} reports group-idx]
+  (if-ok [{:keys [combine-op] group-combine-op :group/combine-op}
+          (assoc-ops context group)]
+    (let [partition-results
+          (mapv #(distributed/population-results
+                  (get-in % [:group group-idx]) (seq stratifier))
+                reports)]
+      (transduce
+       (map-indexed
+        (fn [idx {:keys [code]}]
+          [code (combine-partition-results combine-op partition-results idx)]))
+       group-combine-op
+       population))
+    identity))
+
+(defn- evaluate-groups-distributed*
+  "Evaluates `groups` by partitioning the subjects over the peers of `context`
+  and combining the partial reports of the peers."
+  [{:keys [db subject-type peers] ::luid/keys [generator] :as context}
+   {groups :group :as measure} params]
+  (do-sync [reports (distributed/evaluate-partitions peers db subject-type
+                                                     measure params)]
+    (transduce
+     (map-indexed vector)
+     (completing
+      (fn [{::luid/keys [generator] :as ret} [idx group]]
+        (->> (evaluate-group-distributed
+              (assoc context ::luid/generator generator :group-idx idx)
+              group reports idx)
+             (u/merge-result ret))))
+     {:result [] ::luid/generator generator :tx-ops []}
+     groups)))
+
+(defn- distributed?
+  "Only population reports over all subjects without CQL parameters are
+  distributed, because their partial results consist of counts alone."
+  [{:keys [peers report-type subject-handle subject-range]}
+   {:keys [parameters]}]
+  (and peers (= "population" report-type) (nil? subject-handle)
+       (nil? subject-range) (nil? parameters)))
+
 (defn- cancelled-groups-msg [id subject-type duration]
   (format "Evaluation of Measure with ID `%s` and subject type `%s` was cancelled after %.0f ms."
           id subject-type (* duration 1e3)))
@@ -309,10 +395,13 @@
           id subject-type (* duration 1e3)))
 
 (defn- evaluate-groups
-  [{:keys [subject-type] :as context} {:keys [id] groups :group}]
+  [{:keys [subject-type] :as context} {:keys [id] groups :group :as measure}
+   params]
   (log/debug (format "Start evaluating Measure with ID `%s`..." id))
   (let [timer (prom/timer evaluate-duration-seconds subject-type)]
-    (-> (evaluate-groups* context groups)
+    (-> (if (distributed? context params)
+          (evaluate-groups-distributed* context measure params)
+          (evaluate-groups* context groups))
         (ac/handle
          (fn [groups anom]
            (let [duration (prom/observe-duration! timer)]
@@ -430,17 +519,19 @@
         :timeout timeout))))
 
 (defn- enhance-context
-  [{:keys [clock db timeout terminology-service]
+  [{:keys [clock db timeout terminology-service subject-cache-size]
     :blaze/keys [cancelled?]
     ::expr/keys [cache]
     :or {timeout (time/hours 1)}
     :as context} measure
-   {:keys [report-type subject-ref] in-parameters :parameters}]
+   {:keys [report-type subject-ref subject-range] in-parameters :parameters}]
   (let [subject-type (subject-type measure)
         now (bt/offset-date-time clock)
         timeout-eclipsed? (timeout-eclipsed-fn clock now timeout)]
     (do-sync [{:keys [expression-defs function-defs parameter-default-values]}
-              (compile-primary-library db terminology-service measure {})]
+              (compile-primary-library db terminology-service measure
+                                       (select-keys context [:bytecode-compilation
+                                                     :bytecode-max-classes]))]
       (when-ok [subject-handle (some->> subject-ref (subject-handle db subject-type))
                 parameters (cql-params/effective-parameters
                             parameter-default-values in-parameters)]
@@ -459,7 +550,10 @@
                 :report-type report-type
                 ::luid/generator (m/luid-generator context))
                 function-defs
-                (assoc :function-defs function-defs))]
+                (assoc :function-defs function-defs)
+                (:incremental-cache context)
+                (assoc :non-incremental-expression-names
+                       (cql/non-incremental-expression-names expression-defs)))]
           (when-ok [expression-defs (library/eval-unfiltered context expression-defs)
                     expression-defs (library/resolve-all-refs expression-defs)]
             (cond-> (assoc
@@ -469,8 +563,12 @@
                          (library/resolve-params parameters)
                          (optimize)))
               cache (attach-cache (ec/with-max-t cache (d/t db)))
+              (some-> subject-cache-size pos?)
+              (assoc ::expr/subject-cache (subject-cache/create subject-cache-size))
               subject-handle
-              (assoc :subject-handle (cr/mk-resource db subject-handle)))))))))
+              (assoc :subject-handle (cr/mk-resource db subject-handle))
+              subject-range
+              (assoc :subject-range subject-range))))))))
 
 (defn evaluate-measure
   "Evaluates `measure` inside `context` with `params`.
@@ -483,7 +581,7 @@
   (-> (enhance-context context measure params)
       (ac/then-compose
        (fn [context]
-         (do-sync [[{:keys [tx-ops]} :as result] (evaluate-groups context measure)]
+         (do-sync [[{:keys [tx-ops]} :as result] (evaluate-groups context measure params)]
            (cond->
             {:resource (measure-report context measure params result)}
              (seq tx-ops)
@@ -0,0 +1,138 @@
+(ns blaze.fhir.operation.evaluate-measure.measure.distributed
+  "Distributed evaluation of population reports.
+
+  The subjects of a measure are partitioned into ranges of ids. Each range is
+  evaluated by one peer node at the same point in time `t`. The peers return
+  partial MeasureReports which are converted back into population results, so
+  that they can be combined with the usual combine operators."
+  (:refer-clojure :exclude [str])
+  (:require
+   [blaze.async.comp :as ac :refer [do-sync]]
+   [blaze.db.api :as d]
+   [blaze.fhir-client :as fhir-client]
+   [blaze.fhir.operation.evaluate-measure.middleware.params :as params]
+   [blaze.util :refer [str]]
+   [taoensso.timbre :as log]))
+
+(set! *warn-on-reflection* true)
+
+(defn subject-ranges
+  "Returns a vector of at most `n` tuples of start id (inclusive) and end id
+  (exclusive) of roughly the same number of subjects of `subject-type` in `db`.
+
+  The start of the first and the end of the last range are nil, so that the
+  ranges cover all possible ids."
+  [db subject-type n]
+  (let [size (quot (+ (d/type-total db subject-type) (dec n)) n)
+        bounds (if (pos? size)
+                 (into
+                  []
+                  (keep-indexed
+                   (fn [idx {:keys [id]}]
+                     (when (and (pos? idx) (zero? (rem idx size)))
+                       id)))
+                  (d/type-list db subject-type))
+                 [])]
+    (mapv vector (cons nil bounds) (conj bounds nil))))
+
+(defn- query-params [{[start end] :period} t [start-id end-id]]
+  (cond-> {"periodStart" (str start)
+           "periodEnd" (str end)
+           "reportType" "population"
+           "__t" (str t)}
+    start-id (assoc "__subject-start" start-id)
+    end-id (assoc "__subject-end" end-id)))
+
+(defn- evaluate-partition-msg [base-uri [start-id end-id]]
+  (format "Evaluate subjects from `%s` to `%s` on peer %s."
+          (or start-id "") (or end-id "") base-uri))
+
+(defn- headers
+  "Returns the headers of requests to peers.
+
+  The peers only accept the internal params of these requests with their shared
+  secret. The authorization of the original request is forwarded if available."
+  [{:keys [secret authorization]}]
+  (cond-> {params/peer-secret-header secret}
+    authorization (assoc "authorization" authorization)))
+
+(defn- evaluate-partition
+  [{:keys [http-opts] :as peers} {:keys [id]} params t base-uri subject-range]
+  (log/debug (evaluate-partition-msg base-uri subject-range))
+  (fhir-client/execute-instance-get
+   base-uri "Measure" id "evaluate-measure"
+   (assoc http-opts
+          :headers (headers peers)
+          :query-params (query-params params t subject-range))))
+
+(defn evaluate-partitions
+  "Partitions the subjects of `subject-type` in `db` over `peers` and evaluates
+  `measure` with `params` on each of them at the `t` of `db`.
+
+  Returns a CompletableFuture that will complete with the partial
+  MeasureReports of all peers or will complete exceptionally with an anomaly
+  if one of the peers fails."
+  [{:keys [base-uris] :as peers} db subject-type measure params]
+  (let [t (d/t db)
+        futures (mapv (partial evaluate-partition peers measure params t)
+                      base-uris
+                      (subject-ranges db subject-type (count base-uris)))]
+    (do-sync [_ (ac/all-of futures)]
+      (mapv ac/join futures))))
+
+(def ^:private stratum-value-url
+  "http://hl7.org/fhir/5.0/StructureDefinition/extension-MeasureReport.group.stratifier.stratum.value")
+
+(def ^:private stratum-component-value-url
+  "http://hl7.org/fhir/5.0/StructureDefinition/extension-MeasureReport.group.stratifier.stratum.component.value")
+
+(defn- extension-value [url {:keys [extension]}]
+  (some #(when (= url (:url %)) (:value %)) extension))
+
+(defn- component-key [component]
+  (or (extension-value stratum-component-value-url component)
+      (:value component)))
+
+(defn- stratum-key
+  "Returns the key of `stratum` under which the combine operators hold its
+  counts.
+
+  The key is the original Quantity if available and the CodeableConcept value
+  otherwise, both of which are rendered into the same stratum again."
+  [{:keys [component] :as stratum}]
+  (if (seq component)
+    (mapv component-key component)
+    (or (extension-value stratum-value-url stratum) (:value stratum))))
+
+(defn- population-count [population]
+  (-> population :count :value))
+
+(defn- stratum-population-count [code {:keys [population]}]
+  (some #(when (= code (:code %)) (population-count %)) population))
+
+(defn- population-strata [stratifiers code]
+  (mapv
+   (fn [{:keys [stratum]}]
+     (reduce
+      (fn [strata stratum]
+        (if-let [count (stratum-population-count code stratum)]
+          (assoc strata (stratum-key stratum) count)
+          strata))
+      {}
+      stratum))
+   stratifiers))
+
+(defn population-results
+  "Returns a vector of the results of the populations of the partial
+  MeasureReport `group` in the form the combine operators of population reports
+  produce.
+
+  The results contain strata if `stratified?` is true."
+  [{:keys [population stratifier]} stratified?]
+  (mapv
+   (fn [{:keys [code] :as population}]
+     (let [count (population-count population)]
+       (if stratified?
+         {:count count :strata (population-strata stratifier code)}
+         count)))
+   population))
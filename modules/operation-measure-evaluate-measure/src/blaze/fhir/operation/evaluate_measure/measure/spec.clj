@@ -16,6 +16,12 @@
   (s/or :id :blaze.resource/id
         :local-ref :blaze.fhir/literal-ref-tuple))
 
+(s/def ::measure/t
+  :blaze.db/t)
+
+(s/def ::measure/subject-range
+  (s/tuple (s/nilable :blaze.resource/id) (s/nilable :blaze.resource/id)))
+
 (s/def ::measure/population-handle
   cr/resource?)
 
@@ -77,12 +77,20 @@
 (defn- expression-name-of-population [{:keys [criteria]}]
   (expression-name-of-expression criteria))
 
-(defn- expression-names-of-stratifier [{:keys [criteria component]}]
+(defn expression-names-of-stratifier
+  "Returns the CQL expression names of the criteria or the components of
+  `stratifier`."
+  {:arglists '([stratifier])}
+  [{:keys [criteria component]}]
   (if criteria
     (some-> (expression-name-of-expression criteria) vector)
     (coll/eduction (keep expression-name-of-population) component)))
 
-(defn- expression-names-of-group [{:keys [population stratifier]}]
+(defn expression-names-of-group
+  "Returns the CQL expression names of the populations and stratifiers of
+  `group`."
+  {:arglists '([group])}
+  [{:keys [population stratifier]}]
   (-> (into [] (keep expression-name-of-population) population)
       (into (mapcat expression-names-of-stratifier) stratifier)))
 
@@ -6,7 +6,17 @@
    [blaze.fhir.operation.evaluate-measure.measure :as-alias measure]
    [blaze.fhir.operation.evaluate-measure.measure.spec]
    [blaze.fhir.spec.type.system :as system]
-   [clojure.spec.alpha :as s]))
+   [clojure.spec.alpha :as s])
+  (:import
+   [java.nio.charset StandardCharsets]
+   [java.security MessageDigest]))
+
+(set! *warn-on-reflection* true)
+
+(def peer-secret-header
+  "The name of the header holding the secret shared by the peers of a
+  distributed evaluation."
+  "blaze-peer-secret")
 
 (defn- invalid-date-param-msg [name value]
   (format "Invalid parameter `%s` with value `%s`. Should be a date in format YYYY, YYYY-MM or YYYY-MM-DD."
@@ -118,11 +128,72 @@
            :fhir.issue/expression "subject"))
         literal-ref))))
 
+(defn- invalid-t-param-msg [t]
+  (format "Invalid parameter `__t` with value `%s`. Should be a non-negative integer."
+          t))
+
+(defn- coerce-t-param
+  "Coerces the internal `__t` param used by peers in distributed evaluation."
+  [{{:strs [__t]} :params}]
+  (when __t
+    (let [t (parse-long __t)]
+      (if (and t (not (neg? t)))
+        t
+        (ba/incorrect
+         (invalid-t-param-msg __t)
+         :fhir/issue "value"
+         :fhir/operation-outcome "MSG_PARAM_INVALID"
+         :fhir.issue/expression "__t")))))
+
+(defn- subject-range
+  "Returns the range of subject ids given by the internal `__subject-start`
+  (inclusive) and `__subject-end` (exclusive) params used by peers in
+  distributed evaluation."
+  [{{start "__subject-start" end "__subject-end"} :params}]
+  (when (or start end)
+    [start end]))
+
+(def ^:private internal-param-names
+  ["__t" "__subject-start" "__subject-end"])
+
+(defn- utf8-bytes [^String s]
+  (.getBytes s StandardCharsets/UTF_8))
+
+(defn- peer?
+  "Returns true if `request` holds `peer-secret` in its peer secret header.
+
+  Compares in constant time, so that the secret can't be guessed by timing."
+  [peer-secret {:keys [headers]}]
+  (let [secret (get headers peer-secret-header)]
+    (and (some? peer-secret) (some? secret)
+         (MessageDigest/isEqual (utf8-bytes peer-secret) (utf8-bytes secret)))))
+
+(defn- internal-param-not-allowed-msg [name]
+  (format "The parameter `%s` is only allowed in requests of peers in distributed evaluation."
+          name))
+
+(defn- check-internal-params
+  "Returns an anomaly if `request` has one of the internal params used by peers
+  in distributed evaluation without holding `peer-secret`.
+
+  Without that check, any client could evaluate measures at arbitrary points in
+  time or over arbitrary subsets of the subjects."
+  [peer-secret {:keys [params] :as request}]
+  (if-let [name (some #(when (contains? params %) %) internal-param-names)]
+    (if (peer? peer-secret request)
+      request
+      (ba/forbidden
+       (internal-param-not-allowed-msg name)
+       :fhir/issue "forbidden"
+       :fhir.issue/expression name))
+    request))
+
 (def ^:private no-subject-list-on-get-msg
   "The parameter `reportType` with value `subject-list` is not supported for GET requests. Please use POST or one of `subject` or `population`.")
 
-(defn- params-request [{:keys [request-method body] :as request}]
-  (when-ok [period-start (get-required-param-value
+(defn- params-request [peer-secret {:keys [request-method body] :as request}]
+  (when-ok [_ (check-internal-params peer-secret request)
+            period-start (get-required-param-value
                           request "periodStart" coerce-date validate-date)
             period-end (get-required-param-value
                         request "periodEnd" coerce-date validate-date)
@@ -130,10 +201,12 @@
                      request "measure" coerce-noop validate-string)
             report-type (get-param-value
                          request "reportType" coerce-and-validate-report-type)
-            subject-ref (coerce-subject-ref-param request)]
+            subject-ref (coerce-subject-ref-param request)
+            t (coerce-t-param request)]
     (if (and (= :get request-method) (= "subject-list" report-type))
       (ba/unsupported no-subject-list-on-get-msg)
-      (let [parameters (get-param-value-from-resource body "parameters" :resource)]
+      (let [parameters (get-param-value-from-resource body "parameters" :resource)
+            subject-range (subject-range request)]
         (assoc request
                ::evaluate-measure/params
                (cond-> {:period [period-start period-end]
@@ -144,10 +217,21 @@
                  subject-ref
                  (assoc :subject-ref subject-ref)
                  parameters
-                 (assoc :parameters parameters)))))))
-
-(defn wrap-coerce-params [handler]
-  (fn [request]
-    (if-ok [request (params-request request)]
-      (handler request)
-      ac/completed-future)))
+                 (assoc :parameters parameters)
+                 t
+                 (assoc :t t)
+                 subject-range
+                 (assoc :subject-range subject-range)))))))
+
+(defn wrap-coerce-params
+  "Coerces the params of the $evaluate-measure operation.
+
+  The internal params used by peers in distributed evaluation are only accepted
+  in requests holding `peer-secret` in the header named `peer-secret-header`."
+  ([handler]
+   (wrap-coerce-params handler nil))
+  ([handler peer-secret]
+   (fn [request]
+     (if-ok [request (params-request peer-secret request)]
+       (handler request)
+       ac/completed-future))))
@@ -17,6 +17,45 @@
 (s/def ::evaluate-measure/report-persistence
   boolean?)
 
+(s/def ::evaluate-measure/incremental-cache-size
+  nat-int?)
+
+(s/def ::evaluate-measure/bytecode-compilation
+  boolean?)
+
+(s/def ::evaluate-measure/bytecode-max-classes
+  pos-int?)
+
+(s/def ::evaluate-measure/subject-cache-size
+  nat-int?)
+
+(s/def :blaze.fhir.operation.evaluate-measure.peers/base-uris
+  string?)
+
+(s/def :blaze.fhir.operation.evaluate-measure.peers/secret
+  string?)
+
+(s/def :blaze.fhir.operation.evaluate-measure.peers/authorization
+  string?)
+
+(s/def ::evaluate-measure/base-uris
+  (s/coll-of string? :kind vector? :min-count 1))
+
+(s/def ::evaluate-measure/http-opts
+  map?)
+
+(s/def ::evaluate-measure/peers
+  (s/keys :req-un [::evaluate-measure/base-uris
+                   :blaze.fhir.operation.evaluate-measure.peers/secret
+                   ::evaluate-measure/http-opts]
+          :opt-un [:blaze.fhir.operation.evaluate-measure.peers/authorization]))
+
+(s/def ::evaluate-measure/peer-secret
+  string?)
+
+(s/def ::evaluate-measure/db-sync-timeout
+  pos-int?)
+
 (s/def :blaze.fhir.operation.evaluate-measure.timeout/millis
   nat-int?)
 
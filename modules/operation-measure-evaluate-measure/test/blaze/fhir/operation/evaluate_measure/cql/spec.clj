@@ -9,7 +9,9 @@
    [blaze.fhir.operation.evaluate-measure.cql :as-alias cql]
    [blaze.fhir.operation.evaluate-measure.spec]
    [clojure.spec.alpha :as s]
-   [cognitect.anomalies :as anom]))
+   [cognitect.anomalies :as anom])
+  (:import
+   [com.github.benmanes.caffeine.cache Cache]))
 
 (s/def ::cql/interrupted?
   (s/fspec :args (s/cat) :ret (s/nilable ::anom/anomaly)))
@@ -28,11 +30,21 @@
 (s/def ::cql/population-basis
   (s/nilable :fhir.resource/type))
 
+(s/def ::cql/incremental-cache
+  #(instance? Cache %))
+
+(s/def ::cql/incremental-key
+  vector?)
+
+(s/def ::cql/subject-range
+  (s/tuple (s/nilable string?) (s/nilable string?)))
+
 (s/def ::cql/evaluate-expression-context
   (s/merge
    ::cql/context
    (s/keys :req-un [::evaluate-measure/executor ::cql/reduce-op ::cql/combine-op]
-           :opt-un [::cql/population-basis])))
+           :opt-un [::cql/population-basis ::cql/incremental-cache
+                    ::cql/incremental-key ::cql/subject-range])))
 
 (s/def ::cql/subject-handle
   cr/resource?)
@@ -8,6 +8,7 @@
    [blaze.elm.compiler.library :as library]
    [blaze.elm.compiler.library-spec]
    [blaze.elm.expression :as expr]
+   [blaze.elm.expression.subject-cache :as subject-cache]
    [blaze.fhir.operation.evaluate-measure.cql :as cql]
    [blaze.fhir.operation.evaluate-measure.cql-spec]
    [blaze.fhir.operation.evaluate-measure.test-util :as em-tu]
@@ -17,11 +18,13 @@
    [blaze.test-util :as tu :refer [given-failed-future]]
    [blaze.time :as bt]
    [clojure.spec.test.alpha :as st]
-   [clojure.test :as test :refer [deftest is testing]]
+   [clojure.test :as test :refer [are deftest is testing]]
    [cognitect.anomalies :as anom]
    [integrant.core :as ig]
    [juxt.iota :refer [given]]
-   [taoensso.timbre :as log]))
+   [taoensso.timbre :as log])
+  (:import
+   [com.github.benmanes.caffeine.cache Cache]))
 
 (set! *warn-on-reflection* true)
 (st/instrument)
@@ -47,6 +50,22 @@
   define Gender:
     Patient.gender")
 
+(def library-observation
+  "library Retrieve
+  using FHIR version '4.0.0'
+  include FHIRHelpers version '4.0.0'
+
+  context Patient
+
+  define Observations:
+    [Observation]
+
+  define InInitialPopulation:
+    exists Observations
+
+  define InNumerator:
+    Count(Observations) > 1")
+
 (def library-error
   "library Retrieve
   using FHIR version '4.0.0'
@@ -172,6 +191,113 @@
                             (assoc :population-basis "Encounter"))]
             (is (= 3 @(cql/evaluate-expression context "InInitialPopulation" "Patient"))))))))
 
+  (testing "incremental evaluation"
+    (with-system-data [{:blaze.db/keys [node] :as system} config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]
+        [:put {:fhir/type :fhir/Patient :id "1" :gender #fhir/code "male"}]
+        [:put {:fhir/type :fhir/Patient :id "2" :gender #fhir/code "female"}]]]
+
+      (let [incremental-context
+            #(-> (context system library-gender)
+                 (with-ops count-reduce-op +)
+                 (assoc :incremental-cache %
+                        :incremental-key ["Patient" []]))
+            cache (cql/incremental-cache 100)
+            evaluations (atom 0)
+            eval expr/eval]
+
+        (with-redefs [expr/eval (fn [context expression resource]
+                                  (swap! evaluations inc)
+                                  (eval context expression resource))]
+
+          (testing "the first evaluation evaluates all patients"
+            (is (= 1 @(cql/evaluate-expression (incremental-context cache) "InInitialPopulation" "Patient")))
+            (is (= 3 @evaluations)))
+
+          @(d/transact node [[:put {:fhir/type :fhir/Patient :id "2" :gender #fhir/code "male"}]])
+          (reset! evaluations 0)
+
+          (testing "the second evaluation evaluates only the changed patient"
+            (is (= 2 @(cql/evaluate-expression (incremental-context cache) "InInitialPopulation" "Patient")))
+            (is (= 1 @evaluations)))
+
+          @(d/transact node [[:delete "Patient" "1"]])
+          (reset! evaluations 0)
+
+          (testing "deleted patients don't count anymore"
+            (is (= 1 @(cql/evaluate-expression (incremental-context cache) "InInitialPopulation" "Patient")))
+            (is (zero? @evaluations)))))))
+
+  (testing "subject cache"
+    (with-system-data [system config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]
+        [:put {:fhir/type :fhir/Patient :id "1" :gender #fhir/code "male"}]
+        [:put {:fhir/type :fhir/Patient :id "2" :gender #fhir/code "female"}]]]
+
+      (let [context (-> (context system library-gender)
+                        (with-ops count-reduce-op +)
+                        (assoc ::expr/subject-cache (subject-cache/create 100)))
+            evaluations (atom 0)
+            eval expr/eval]
+
+        (with-redefs [expr/eval (fn [context expression resource]
+                                  (swap! evaluations inc)
+                                  (eval context expression resource))]
+
+          (testing "the first evaluation evaluates all patients"
+            (is (= 1 @(cql/evaluate-expression context "InInitialPopulation" "Patient")))
+            (is (= 3 @evaluations)))
+
+          (testing "the second evaluation takes all results from the cache"
+            (is (= 1 @(cql/evaluate-expression context "InInitialPopulation" "Patient")))
+            (is (= 3 @evaluations)))))))
+
+  (testing "subject cache with a retrieve referenced from two populations"
+    (with-system-data [system config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]
+        [:put {:fhir/type :fhir/Patient :id "1"}]
+        [:put {:fhir/type :fhir/Patient :id "2"}]
+        [:put {:fhir/type :fhir/Observation :id "0"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]
+        [:put {:fhir/type :fhir/Observation :id "1"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/0"}}]
+        [:put {:fhir/type :fhir/Observation :id "2"
+               :subject #fhir/Reference{:reference #fhir/string "Patient/1"}}]]]
+
+      (let [^Cache cache (subject-cache/create 100)
+            context (-> (context system library-observation)
+                        (with-ops count-reduce-op +)
+                        (assoc ::expr/subject-cache cache))]
+
+        (testing "each population is evaluated with its own batch database"
+          (is (= 2 @(cql/evaluate-expression context "InInitialPopulation" "Patient")))
+          (is (= 1 @(cql/evaluate-expression context "InNumerator" "Patient"))))
+
+        (testing "the observations are not cached because they are bound to a database"
+          (is (nil? (.getIfPresent cache ["Observations" "0"]))))
+
+        (testing "the population results are cached"
+          (is (true? (.getIfPresent cache ["InInitialPopulation" "0"])))
+          (is (true? (.getIfPresent cache ["InNumerator" "0"])))
+          (is (false? (.getIfPresent cache ["InNumerator" "1"])))))))
+
+  (testing "subject range"
+    (with-system-data [system config]
+      [[[:put {:fhir/type :fhir/Patient :id "0" :gender #fhir/code "male"}]
+        [:put {:fhir/type :fhir/Patient :id "1" :gender #fhir/code "male"}]
+        [:put {:fhir/type :fhir/Patient :id "2" :gender #fhir/code "male"}]]]
+
+      (let [context (with-ops (context system library-gender) conj-reduce-op into)]
+        (are [subject-range ids] (= ids (mapv (comp :id :subject-handle)
+                                      @(cql/evaluate-expression
+                                        (assoc context :subject-range subject-range)
+                                        "InInitialPopulation" "Patient")))
+          [nil nil] ["0" "1" "2"]
+          ["1" nil] ["1" "2"]
+          [nil "1"] ["0"]
+          ["1" "2"] ["1"]
+          ["2" "1"] []))))
+
   (testing "missing expression"
     (with-system [system config]
       (let [context (with-ops (context system library-empty) conj-reduce-op into)]
@@ -261,6 +387,39 @@
           ::anom/category := ::anom/interrupted
           ::anom/message := "msg-083943")))))
 
+(def library-incremental
+  "library Retrieve
+  using FHIR version '4.0.0'
+  include FHIRHelpers version '4.0.0'
+
+  context Unfiltered
+
+  define AllObservations:
+    [Observation]
+
+  context Patient
+
+  define Adult:
+    AgeInYears() >= 18
+
+  define Recent:
+    Now() > @2020-01-01T00:00
+
+  define RecentAdult:
+    Adult and Recent
+
+  define AnyObservation:
+    exists AllObservations
+
+  define Observations:
+    [Observation]")
+
+(deftest non-incremental-expression-names-test
+  (with-system [system config]
+    (let [{:keys [expression-defs]} (compile-library system library-incremental)]
+      (is (= #{"AllObservations" "Recent" "RecentAdult" "AnyObservation"}
+             (cql/non-incremental-expression-names expression-defs))))))
+
 (deftest evaluate-individual-expression-test
   (testing "counting"
     (testing "match"
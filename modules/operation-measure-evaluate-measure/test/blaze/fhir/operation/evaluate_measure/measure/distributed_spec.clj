@@ -0,0 +1,16 @@
+(ns blaze.fhir.operation.evaluate-measure.measure.distributed-spec
+  (:require
+   [blaze.db.spec]
+   [blaze.fhir.operation.evaluate-measure.measure.distributed :as distributed]
+   [blaze.fhir.spec]
+   [clojure.spec.alpha :as s]))
+
+(s/fdef distributed/subject-ranges
+  :args (s/cat :db :blaze.db/db :subject-type :fhir.resource/type
+               :n pos-int?)
+  :ret (s/coll-of (s/tuple (s/nilable string?) (s/nilable string?))
+                  :kind vector? :min-count 1))
+
+(s/fdef distributed/population-results
+  :args (s/cat :group (s/nilable map?) :stratified? any?)
+  :ret vector?)
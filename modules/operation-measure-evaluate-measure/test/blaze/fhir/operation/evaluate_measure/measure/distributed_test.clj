@@ -0,0 +1,148 @@
+(ns blaze.fhir.operation.evaluate-measure.measure.distributed-test
+  (:require
+   [blaze.async.comp :as ac]
+   [blaze.db.api :as d]
+   [blaze.db.api-stub :as api-stub :refer [with-system-data]]
+   [blaze.fhir-client :as fhir-client]
+   [blaze.fhir.operation.evaluate-measure.measure.distributed :as distributed]
+   [blaze.fhir.operation.evaluate-measure.measure.distributed-spec]
+   [blaze.fhir.spec.type :as type]
+   [blaze.fhir.test-util]
+   [blaze.test-util :as tu]
+   [clojure.spec.test.alpha :as st]
+   [clojure.test :as test :refer [are deftest is testing]]
+   [juxt.iota :refer [given]]
+   [taoensso.timbre :as log]))
+
+(st/instrument)
+(log/set-min-level! :trace)
+
+(test/use-fixtures :each tu/fixture)
+
+(deftest subject-ranges-test
+  (testing "without subjects"
+    (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      []
+
+      (is (= [[nil nil]] (distributed/subject-ranges (d/db node) "Patient" 2)))))
+
+  (testing "with subjects"
+    (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]
+        [:put {:fhir/type :fhir/Patient :id "1"}]
+        [:put {:fhir/type :fhir/Patient :id "2"}]
+        [:put {:fhir/type :fhir/Patient :id "3"}]
+        [:put {:fhir/type :fhir/Patient :id "4"}]]]
+
+      (are [n ranges] (= ranges (distributed/subject-ranges (d/db node) "Patient" n))
+        1 [[nil nil]]
+        2 [[nil "3"] ["3" nil]]
+        3 [[nil "2"] ["2" "4"] ["4" nil]]
+        5 [[nil "1"] ["1" "2"] ["2" "3"] ["3" "4"] ["4" nil]]
+        10 [[nil "1"] ["1" "2"] ["2" "3"] ["3" "4"] ["4" nil]]))))
+
+(deftest evaluate-partitions-test
+  (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+    [[[:put {:fhir/type :fhir/Patient :id "0"}]
+      [:put {:fhir/type :fhir/Patient :id "1"}]]]
+
+    (let [requests (atom [])]
+      (with-redefs
+       [fhir-client/execute-instance-get
+        (fn [base-uri _ _ _ opts]
+          (swap! requests conj [base-uri opts])
+          (ac/completed-future {:fhir/type :fhir/MeasureReport}))]
+
+        (testing "the peer secret is sent"
+          (reset! requests [])
+          @(distributed/evaluate-partitions
+            {:base-uris ["base-uri-1" "base-uri-2"] :secret "secret-134201"
+             :http-opts {}}
+            (d/db node) "Patient" {:id "0"} {:period ["2014" "2015"]})
+
+          (given @requests
+            count := 2
+            [0 0] := "base-uri-1"
+            [0 1 :headers] := {"blaze-peer-secret" "secret-134201"}
+            [0 1 :query-params "__t"] := "1"
+            [0 1 :query-params "__subject-end"] := "1"
+            [1 0] := "base-uri-2"
+            [1 1 :query-params "__subject-start"] := "1"))
+
+        (testing "the authorization is forwarded"
+          (reset! requests [])
+          @(distributed/evaluate-partitions
+            {:base-uris ["base-uri-1"] :secret "secret-134201"
+             :authorization "Bearer token-134259" :http-opts {}}
+            (d/db node) "Patient" {:id "0"} {:period ["2014" "2015"]})
+
+          (given @requests
+            [0 1 :headers] := {"blaze-peer-secret" "secret-134201"
+                               "authorization" "Bearer token-134259"}))))))
+
+(def ^:private code-ip
+  #fhir/CodeableConcept
+   {:coding
+    [#fhir/Coding
+      {:system #fhir/uri "http://terminology.hl7.org/CodeSystem/measure-population"
+       :code #fhir/code "initial-population"}]})
+
+(def ^:private code-num
+  #fhir/CodeableConcept
+   {:coding
+    [#fhir/Coding
+      {:system #fhir/uri "http://terminology.hl7.org/CodeSystem/measure-population"
+       :code #fhir/code "numerator"}]})
+
+(defn- population [code count]
+  {:fhir/type :fhir.MeasureReport.group/population
+   :code code
+   :count (type/integer count)})
+
+(deftest population-results-test
+  (testing "without stratifiers"
+    (is (= [3 1] (distributed/population-results
+                  {:population [(population code-ip 3) (population code-num 1)]}
+                  false))))
+
+  (testing "with stratifier"
+    (let [male #fhir/CodeableConcept{:text #fhir/string "male"}
+          female #fhir/CodeableConcept{:text #fhir/string "female"}]
+      (is (= [{:count 3 :strata [{male 2 female 1}]}
+              {:count 1 :strata [{male 1}]}]
+             (distributed/population-results
+              {:population [(population code-ip 3) (population code-num 1)]
+               :stratifier
+               [{:stratum
+                 [{:value male
+                   :population [(population code-ip 2) (population code-num 1)]}
+                  {:value female
+                   :population [(population code-ip 1)]}]}]}
+              true)))))
+
+  (testing "with quantity stratum"
+    (let [quantity #fhir/Quantity{:value #fhir/decimal 1M}]
+      (is (= [{:count 1 :strata [{quantity 1}]}]
+             (distributed/population-results
+              {:population [(population code-ip 1)]
+               :stratifier
+               [{:stratum
+                 [{:extension
+                   [#fhir/Extension
+                     {:url "http://hl7.org/fhir/5.0/StructureDefinition/extension-MeasureReport.group.stratifier.stratum.value"
+                      :value quantity}]
+                   :value #fhir/CodeableConcept{:text #fhir/string "1"}
+                   :population [(population code-ip 1)]}]}]}
+              true)))))
+
+  (testing "with multi-component stratum"
+    (let [male #fhir/CodeableConcept{:text #fhir/string "male"}
+          age #fhir/CodeableConcept{:text #fhir/string "40"}]
+      (is (= [{:count 1 :strata [{[male age] 1}]}]
+             (distributed/population-results
+              {:population [(population code-ip 1)]
+               :stratifier
+               [{:stratum
+                 [{:component [{:value male} {:value age}]
+                   :population [(population code-ip 1)]}]}]}
+              true))))))
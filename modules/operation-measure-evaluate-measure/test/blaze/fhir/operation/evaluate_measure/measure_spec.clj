@@ -24,7 +24,8 @@
           :opt [:blaze/cancelled? ::expr/cache]
           :req-un [:blaze/clock :blaze/rng-fn :blaze.db/db
                    ::evaluate-measure/executor]
-          :opt-un [:blaze/terminology-service ::evaluate-measure/timeout]))
+          :opt-un [:blaze/terminology-service ::evaluate-measure/timeout
+                   ::evaluate-measure/peers]))
 
 (defn- temporal? [x]
   (instance? Temporal x))
@@ -39,7 +40,9 @@
     ::measure/report-type]
    :opt-un
    [::measure/subject-ref
-    ::measure/parameters]))
+    ::measure/parameters
+    ::measure/t
+    ::measure/subject-range]))
 
 (s/fdef measure/evaluate-measure
   :args (s/cat :context ::context :measure :fhir/Resource :params ::params)
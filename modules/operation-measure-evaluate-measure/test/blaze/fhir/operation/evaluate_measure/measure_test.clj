@@ -7,6 +7,7 @@
    [blaze.elm.expression.cache :as ec]
    [blaze.elm.expression.cache.bloom-filter :as-alias bloom-filter]
    [blaze.fhir.canonical :as canonical]
+   [blaze.fhir.operation.evaluate-measure.cql :as cql]
    [blaze.fhir.operation.evaluate-measure.measure :as measure]
    [blaze.fhir.operation.evaluate-measure.measure-spec]
    [blaze.fhir.operation.evaluate-measure.measure.group-spec]
@@ -33,6 +34,7 @@
    [taoensso.timbre :as log])
   (:import
    [java.nio.charset StandardCharsets]
+   [java.time Clock Instant ZoneOffset]
    [java.util Base64]))
 
 (set! *warn-on-reflection* true)
@@ -944,6 +946,57 @@
             [:extension bloom-filter-ratio :value :denominator :value] := #fhir/decimal 1M
             [:group 0 :population 0 :count] := #fhir/integer 1000))))))
 
+(def library-adult
+  "library Retrieve
+  using FHIR version '4.0.0'
+  include FHIRHelpers version '4.0.0'
+
+  context Patient
+
+  define InInitialPopulation:
+    AgeInYears() >= 18")
+
+(defn- clock-at [instant]
+  (Clock/fixed (Instant/parse instant) ZoneOffset/UTC))
+
+(deftest evaluate-measure-incremental-test
+  (testing "age-based population evaluated on two days"
+    (with-system-data
+      [{:blaze.db/keys [node]
+        :blaze.test/keys [fixed-rng-fn executor]
+        ::ts/keys [local]} config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"
+               :birthDate #fhir/date #system/date "2000-06-15"}]
+        [:put {:fhir/type :fhir/Library :id "0" :url #fhir/uri "0"
+               :content [(library-content library-adult)]}]]]
+
+      (let [context {:rng-fn fixed-rng-fn :db (d/db node) :executor executor
+                     :terminology-service local
+                     :incremental-cache (cql/incremental-cache 100)
+                     :blaze/base-url "" ::reitit/router router}
+            measure {:fhir/type :fhir/Measure :id "0"
+                     :library [#fhir/canonical "0"]
+                     :group
+                     [{:fhir/type :fhir.Measure/group
+                       :population
+                       [{:fhir/type :fhir.Measure.group/population
+                         :code (population-concept "initial-population")
+                         :criteria (cql-expression "InInitialPopulation")}]}]}
+            params {:period [#system/date "2000" #system/date "2100"]
+                    :report-type "population"}]
+
+        (testing "the day before the 18th birthday"
+          (given (:resource @(measure/evaluate-measure
+                              (assoc context :clock (clock-at "2018-06-14T12:00:00Z"))
+                              measure params))
+            [:group 0 :population 0 :count] := #fhir/integer 0))
+
+        (testing "the day after the 18th birthday the cached result isn't used"
+          (given (:resource @(measure/evaluate-measure
+                              (assoc context :clock (clock-at "2018-06-16T12:00:00Z"))
+                              measure params))
+            [:group 0 :population 0 :count] := #fhir/integer 1))))))
+
 (defmacro testing-query [name count]
   `(testing ~name
      (is (= ~count (-> (first-population (evaluate ~name)) :count :value)))))
@@ -4,6 +4,7 @@
    [blaze.fhir.operation.evaluate-measure :as-alias evaluate-measure]
    [blaze.fhir.operation.evaluate-measure.middleware.params :as params]
    [blaze.fhir.operation.evaluate-measure.test-util :refer [wrap-error]]
+   [blaze.fhir.spec.type :as type]
    [blaze.fhir.util :as fu]
    [blaze.test-util :as tu]
    [clojure.spec.test.alpha :as st]
@@ -27,6 +28,17 @@
   (-> (params/wrap-coerce-params ac/completed-future)
       wrap-error))
 
+(def ^:private peer-secret "peer-secret-131005")
+
+(def peer-handler
+  "Like `handler` but accepting the internal params of peers with the
+  `peer-secret`."
+  (-> (params/wrap-coerce-params ac/completed-future peer-secret)
+      wrap-error))
+
+(def ^:private peer-headers
+  {params/peer-secret-header peer-secret})
+
 (deftest wrap-coerce-params-test
   (testing "period start"
     (testing "missing"
@@ -295,4 +307,83 @@
           [:details :coding 0 :system] := operation-outcome-uri
           [:details :coding 0 :code] := #fhir/code "MSG_PARAM_INVALID"
           :diagnostics := #fhir/string "Invalid parameter `subject` with value `a/1`. Should be a reference."
-          [:expression first] := #fhir/string "subject")))))
+          [:expression first] := #fhir/string "subject"))))
+
+  (testing "t"
+    (testing "valid"
+      (let [{::evaluate-measure/keys [params]}
+            @(peer-handler
+              {:request-method :get
+               :headers peer-headers
+               :params
+               {"periodStart" "2014"
+                "periodEnd" "2015"
+                "__t" "42"}})]
+
+        (given params
+          :t := 42)))
+
+    (testing "invalid"
+      (let [{:keys [status body]}
+            @(peer-handler
+              {:headers peer-headers
+               :params
+               {"periodStart" "2014"
+                "periodEnd" "2015"
+                "__t" "a"}})]
+
+        (is (= 400 status))
+
+        (given (-> body :issue first)
+          :severity := #fhir/code "error"
+          :code := #fhir/code "value"
+          :diagnostics := #fhir/string "Invalid parameter `__t` with value `a`. Should be a non-negative integer."
+          [:expression first] := #fhir/string "__t"))))
+
+  (testing "subject range"
+    (let [{::evaluate-measure/keys [params]}
+          @(peer-handler
+            {:request-method :get
+             :headers peer-headers
+             :params
+             {"periodStart" "2014"
+              "periodEnd" "2015"
+              "__subject-start" "0"
+              "__subject-end" "5"}})]
+
+      (given params
+        :subject-range := ["0" "5"]))
+
+    (testing "is absent by default"
+      (let [{::evaluate-measure/keys [params]}
+            @(handler
+              {:request-method :get
+               :params
+               {"periodStart" "2014"
+                "periodEnd" "2015"}})]
+
+        (is (not (contains? params :subject-range))))))
+
+  (testing "internal params"
+    (doseq [param ["__t" "__subject-start" "__subject-end"]]
+      (testing (str param " is forbidden")
+        (doseq [[handler headers] [[handler {}]
+                                   [handler peer-headers]
+                                   [peer-handler {}]
+                                   [peer-handler {params/peer-secret-header "wrong"}]]]
+          (let [{:keys [status body]}
+                @(handler
+                  {:request-method :get
+                   :headers headers
+                   :params
+                   {"periodStart" "2014"
+                    "periodEnd" "2015"
+                    param "1"}})]
+
+            (is (= 403 status))
+
+            (given (-> body :issue first)
+              :severity := #fhir/code "error"
+              :code := #fhir/code "forbidden"
+              :diagnostics := (type/string (format "The parameter `%s` is only allowed in requests of peers in distributed evaluation." param))
+              [:expression first] := (type/string param))))))))
@@ -177,6 +177,41 @@
       [:cause-data ::s/problems 0 :via] := [::evaluate-measure/report-persistence]
       [:cause-data ::s/problems 0 :val] := ::invalid))
 
+  (testing "invalid incremental-cache-size"
+    (given-failed-system (assoc-in config [::evaluate-measure/handler :incremental-cache-size] ::invalid)
+      :key := ::evaluate-measure/handler
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::evaluate-measure/incremental-cache-size]
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
+  (testing "invalid bytecode-max-classes"
+    (given-failed-system (assoc-in config [::evaluate-measure/handler :bytecode-max-classes] 0)
+      :key := ::evaluate-measure/handler
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::evaluate-measure/bytecode-max-classes]
+      [:cause-data ::s/problems 0 :val] := 0))
+
+  (testing "invalid subject-cache-size"
+    (given-failed-system (assoc-in config [::evaluate-measure/handler :subject-cache-size] ::invalid)
+      :key := ::evaluate-measure/handler
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::evaluate-measure/subject-cache-size]
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
+  (testing "invalid peer-secret"
+    (given-failed-system (assoc-in config [::evaluate-measure/handler :peer-secret] ::invalid)
+      :key := ::evaluate-measure/handler
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::evaluate-measure/peer-secret]
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
+  (testing "invalid db-sync-timeout"
+    (given-failed-system (assoc-in config [::evaluate-measure/handler :db-sync-timeout] ::invalid)
+      :key := ::evaluate-measure/handler
+      :reason := ::ig/build-failed-spec
+      [:cause-data ::s/problems 0 :via] := [::evaluate-measure/db-sync-timeout]
+      [:cause-data ::s/problems 0 :val] := ::invalid))
+
   (testing "init"
     (with-system [{::evaluate-measure/keys [handler]} config]
       (is (fn? handler)))
@@ -1065,6 +1100,76 @@
           [:issue 0 :diagnostics] := #fhir/string "Missing primary library. Currently only CQL expressions together with one primary library are supported."
           [:issue 0 :expression first] := #fhir/string "Measure.library")))))
 
+(def ^:private peer-secret "peer-secret-120915")
+
+(def ^:private peer-config
+  (update config ::evaluate-measure/handler assoc :peer-secret peer-secret
+          :db-sync-timeout 100))
+
+(deftest handler-peer-test
+  (with-system-data [{node :blaze.db/node
+                      job-scheduler :blaze/job-scheduler
+                      handler ::evaluate-measure/handler} peer-config]
+    [[[:put {:fhir/type :fhir/Measure :id "0"
+             :url #fhir/uri "url-181501"
+             :library [#fhir/canonical "library-url-094115"]}]
+      [:put {:fhir/type :fhir/Library :id "0"
+             :url #fhir/uri "library-url-094115"
+             :content [cql-attachment]}]]]
+
+    (let [handler (wrap-handler handler node job-scheduler)]
+      (testing "internal params are forbidden without the peer secret"
+        (doseq [headers [{} {"blaze-peer-secret" "wrong-secret"}]
+                param ["__t" "__subject-start" "__subject-end"]]
+          (let [{:keys [status body]}
+                @(handler
+                  {:request-method :get
+                   :path-params {:id "0"}
+                   :headers headers
+                   :params {"periodStart" "2014"
+                            "periodEnd" "2015"
+                            param "1"}})]
+
+            (is (= 403 status))
+
+            (given body
+              :fhir/type := :fhir/OperationOutcome
+              [:issue 0 :severity] := #fhir/code "error"
+              [:issue 0 :code] := #fhir/code "forbidden"
+              [:issue 0 :expression first] := (type/string param)))))
+
+      (testing "evaluates at the given t with the peer secret"
+        (let [{:keys [status body]}
+              @(handler
+                {:request-method :get
+                 :path-params {:id "0"}
+                 :headers {"blaze-peer-secret" peer-secret}
+                 :params {"periodStart" "2014"
+                          "periodEnd" "2015"
+                          "__t" "1"}})]
+
+          (is (= 200 status))
+
+          (given body
+            :fhir/type := :fhir/MeasureReport
+            :measure := #fhir/canonical "url-181501")))
+
+      (testing "fails after the db sync timeout if the t isn't reached"
+        (let [{:keys [status body]}
+              @(handler
+                {:request-method :get
+                 :path-params {:id "0"}
+                 :headers {"blaze-peer-secret" peer-secret}
+                 :params {"periodStart" "2014"
+                          "periodEnd" "2015"
+                          "__t" "2"}})]
+
+          (is (= 503 status))
+
+          (given body
+            :fhir/type := :fhir/OperationOutcome
+            [:issue 0 :diagnostics] := #fhir/string "Timeout while trying to acquire the database state with t=2. The indexer has probably fallen behind. Please try to lower the transaction load or increase the timeout of 100 ms by setting DB_SYNC_TIMEOUT to a higher value if you see this often."))))))
+
 (deftest indexer-executor-shutdown-timeout-test
   (let [{::evaluate-measure/keys [executor] :as system}
         (ig/init {::evaluate-measure/executor {}})
@@ -202,10 +202,13 @@
       handle)
     (ba/not-found (format "Resource `%s/%s` was not found." type id))))
 
+(defn- incomplete [future]
+  (ac/exceptionally
+   future
+   #(assoc % ::anom/category ::anom/fault :fhir/issue "incomplete")))
+
 (defn- pull* [db resource-handle variant]
-  (-> (d/pull db resource-handle variant)
-      (ac/exceptionally
-       #(assoc % ::anom/category ::anom/fault :fhir/issue "incomplete"))))
+  (incomplete (d/pull db resource-handle variant)))
 
 (defn pull
   "Returns a CompletableFuture that will complete with the resource with `type`
@@ -224,6 +227,15 @@
      (pull* db resource-handle variant)
      ac/completed-future)))
 
+(defn pull-raw
+  "Like `pull` but completes with a raw resource if the resource isn't cached.
+
+  Raw resources can only be written as JSON. See `blaze.db.api/pull-raw`."
+  [db type id]
+  (if-ok [resource-handle (resource-handle db type id)]
+    (incomplete (d/pull-raw db resource-handle))
+    ac/completed-future))
+
 (defn- historic-resource-handle-not-found-anom [type id t]
   (ba/not-found
    (format "Resource `%s/%s` with version `%d` was not found." type id t)))
@@ -257,6 +269,16 @@
     (pull* db resource-handle :complete)
     ac/completed-future))
 
+(defn pull-historic-raw
+  "Like `pull-historic` but completes with a raw resource if the resource isn't
+  cached.
+
+  Raw resources can only be written as JSON. See `blaze.db.api/pull-raw`."
+  [db type id t]
+  (if-ok [resource-handle (historic-resource-handle db type id t)]
+    (incomplete (d/pull-raw db resource-handle))
+    ac/completed-future))
+
 (defn- timeout-msg [timeout]
   (format "Timeout while trying to acquire the latest known database state. At least one known transaction hasn't been completed yet. Please try to lower the transaction load or increase the timeout of %d ms by setting DB_SYNC_TIMEOUT to a higher value if you see this often." timeout))
 
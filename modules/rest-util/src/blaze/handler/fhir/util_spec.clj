@@ -90,6 +90,15 @@
                :t :blaze.db/t)
   :ret ac/completable-future?)
 
+(s/fdef fhir-util/pull-raw
+  :args (s/cat :db :blaze.db/db :type :fhir.resource/type :id :blaze.resource/id)
+  :ret ac/completable-future?)
+
+(s/fdef fhir-util/pull-historic-raw
+  :args (s/cat :db :blaze.db/db :type :fhir.resource/type :id :blaze.resource/id
+               :t :blaze.db/t)
+  :ret ac/completable-future?)
+
 (s/fdef fhir-util/sync
   :args (s/cat :node :blaze.db/node :t (s/? :blaze.db/t)
                :timeout ::rest-api/db-sync-timeout)
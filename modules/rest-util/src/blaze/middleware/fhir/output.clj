@@ -120,13 +120,23 @@
     :text-xml (encode-response-xml response "text/xml;charset=utf-8")
     (when (:accept-all? opts) (dissoc response :body))))
 
+(defn- json-format? [format]
+  (contains? #{:fhir+json :json :text-json} format))
+
 (defn wrap-output
-  "Middleware to output resources in JSON or XML."
+  "Middleware to output resources in JSON or XML.
+
+  Sets ::raw-resources? in the request to true if resources will be output in
+  JSON, so that handlers can respond with raw resources, which are transcoded
+  directly into JSON."
   ([handler writing-context]
    (wrap-output handler writing-context {}))
   ([handler writing-context opts]
    (fn [request respond raise]
-     (handler request #(respond (handle-response writing-context opts request %)) raise))))
+     (handler
+      (cond-> request (json-format? (request-format request)) (assoc ::raw-resources? true))
+      #(respond (handle-response writing-context opts request %))
+      raise))))
 
 (defn handle-binary-response [writing-context request response]
   (case (request-format request)
@@ -4,6 +4,7 @@
    [blaze.async.comp :as ac]
    [blaze.db.api :as d]
    [blaze.db.api-stub :as api-stub :refer [with-system-data]]
+   [blaze.fhir.spec :as fhir-spec]
    [blaze.fhir.spec.generators :as fg]
    [blaze.fhir.spec.type :as type]
    [blaze.fhir.util :as fu]
@@ -388,6 +389,60 @@
           ::anom/category := ::anom/fault
           :fhir/issue := "incomplete")))))
 
+(deftest pull-raw-test
+  (testing "not-found"
+    (with-system [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      (given-failed-future (fhir-util/pull-raw (d/db node) "Patient" "0")
+        ::anom/category := ::anom/not-found
+        ::anom/message := "Resource `Patient/0` was not found.")))
+
+  (testing "deleted"
+    (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]]
+       [[:delete "Patient" "0"]]]
+
+      (given-failed-future (fhir-util/pull-raw (d/db node) "Patient" "0")
+        ::anom/category := ::anom/not-found
+        ::anom/message := "Resource `Patient/0` was deleted."
+        :http/status := 410
+        :fhir/issue := "deleted")))
+
+  (testing "found"
+    (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0"}]]]
+
+      (given @(mtu/assoc-thread-name (fhir-util/pull-raw (d/db node) "Patient" "0"))
+        [meta :thread-name] :? mtu/common-pool-thread?
+        [meta :blaze.db/tx :blaze.db/t] := 1
+        identity :? fhir-spec/raw-resource?)))
+
+  (testing "pull error"
+    (with-redefs
+     [d/pull-raw (fn [_ _] (ac/completed-future (ba/fault)))]
+      (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+        [[[:put {:fhir/type :fhir/Patient :id "0"}]]]
+
+        (given-failed-future (fhir-util/pull-raw (d/db node) "Patient" "0")
+          ::anom/category := ::anom/fault
+          :fhir/issue := "incomplete")))))
+
+(deftest pull-historic-raw-test
+  (testing "not-found"
+    (with-system [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      (given-failed-future (fhir-util/pull-historic-raw (d/db node) "Patient" "0" 0)
+        ::anom/category := ::anom/not-found
+        ::anom/message := "Resource `Patient/0` with version `0` was not found.")))
+
+  (testing "found"
+    (with-system-data [{:blaze.db/keys [node]} api-stub/mem-node-config]
+      [[[:put {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean false}]]
+       [[:put {:fhir/type :fhir/Patient :id "0" :active #fhir/boolean true}]]]
+
+      (given @(mtu/assoc-thread-name (fhir-util/pull-historic-raw (d/db node) "Patient" "0" 1))
+        [meta :thread-name] :? mtu/common-pool-thread?
+        [meta :blaze.db/tx :blaze.db/t] := 1
+        identity :? fhir-spec/raw-resource?))))
+
 (deftest match-type-id-test
   (is (= ["Patient" "164325"] (fhir-util/match-type-id "Patient/164325")))
 
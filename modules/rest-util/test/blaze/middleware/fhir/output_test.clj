@@ -140,6 +140,28 @@
     (with-open [reader (io/reader (.toByteArray out))]
       (fhir-spec/conform-xml (xml/parse reader)))))
 
+(def ^:private raw-resources-handler
+  "A handler which returns whether it may respond with raw resources."
+  (wrap-output
+   (fn [{:blaze.middleware.fhir.output/keys [raw-resources?]} respond _]
+     (respond (ring/response {:fhir/type :fhir/Basic :id (str (boolean raw-resources?))})))
+   writing-context))
+
+(deftest raw-resources-test
+  (testing "raw resources are allowed for JSON"
+    (doseq [format ["application/fhir+json" "application/json" "text/json" "json"]]
+      (given (call raw-resources-handler {:query-params {"_format" format}})
+        [:body parse-json :id] := "true"))
+
+    (testing "without accept header"
+      (given (call raw-resources-handler {})
+        [:body parse-json :id] := "true")))
+
+  (testing "raw resources are not allowed for XML"
+    (doseq [format ["application/fhir+xml" "application/xml" "text/xml" "xml"]]
+      (given (call raw-resources-handler {:query-params {"_format" format}})
+        [:body parse-xml :id] := "false"))))
+
 (deftest xml-test
   (testing "possible accept headers"
     (doseq [[accept content-type]
@@ -3,6 +3,8 @@
    [blaze.anomaly :as ba :refer [when-ok]]
    [blaze.async.comp :as ac]
    [blaze.db.api :as d]
+   [blaze.module :as m]
+   [blaze.path :as path]
    [blaze.terminology-service.local.code-system :as-alias cs]
    [blaze.terminology-service.local.code-system.core :as c]
    [blaze.terminology-service.local.code-system.loinc.context :as context :refer [url]]
@@ -11,7 +13,9 @@
    [blaze.terminology-service.local.code-system.loinc.filter.regex]
    [blaze.terminology-service.local.code-system.util :as cs-u]
    [blaze.terminology-service.local.search-index :as search-index]
+   [blaze.terminology-service.local.spec]
    [blaze.util :as u]
+   [clojure.spec.alpha :as s]
    [integrant.core :as ig]
    [taoensso.timbre :as log]))
 
@@ -108,11 +112,14 @@
     (some-> (core/satisfies-filter code-system filter concept)
             (remove-properties))))
 
+(defmethod m/pre-init-spec ::cs/loinc [_]
+  (s/keys :opt-un [::snapshot-path]))
+
 (defmethod ig/init-key ::cs/loinc
-  [_ _]
+  [_ {:keys [snapshot-path]}]
   (log/info "Start reading LOINC data...")
   (let [start (System/nanoTime)
-        context (ba/throw-when (context/build))]
+        context (ba/throw-when (context/build (some-> snapshot-path (path/resolve "loinc"))))]
     (log/info "Successfully read LOINC data in"
               (format "%.1f" (u/duration-s start)) "seconds")
     context))
@@ -230,9 +230,20 @@
               index (read-table index)]
       (read-answer-lists index))))
 
-(defn build []
+(defn- build-search-index [snapshot-path concept-index]
+  (if snapshot-path
+    (search-index/snapshot snapshot-path (str "Loinc_" version)
+                           #(search-index/build % concept-index))
+    (search-index/build concept-index)))
+
+(defn build
+  "Builds the context from the LOINC files on the classpath.
+
+  The search index is persisted in `snapshot-path` if given and only rebuilt if
+  the LOINC version changes."
+  [& [snapshot-path]]
   (when-ok [{:keys [concept-index] :as context} (build*)]
-    (assoc context :search-index (search-index/build concept-index))))
+    (assoc context :search-index (build-search-index snapshot-path concept-index))))
 
 (defn property-name-from-index [index]
   (condp = index
@@ -6,6 +6,7 @@
    [blaze.fhir.spec.type :as type]
    [blaze.fhir.util :as fu]
    [blaze.module :as m]
+   [blaze.path :as path]
    [blaze.terminology-service.local.code-system :as-alias cs]
    [blaze.terminology-service.local.code-system.core :as c]
    [blaze.terminology-service.local.code-system.sct.context :as context :refer [core-version-prefix]]
@@ -13,6 +14,7 @@
    [blaze.terminology-service.local.code-system.sct.filter.descendent-of]
    [blaze.terminology-service.local.code-system.sct.filter.equals]
    [blaze.terminology-service.local.code-system.sct.filter.is-a]
+   [blaze.terminology-service.local.code-system.sct.hierarchy :as hierarchy]
    [blaze.terminology-service.local.code-system.sct.spec]
    [blaze.terminology-service.local.code-system.sct.type :refer [parse-sctid]]
    [blaze.terminology-service.local.code-system.sct.util :as sct-u]
@@ -230,13 +232,28 @@
                          {:include-version true :include-designations true}))))))
 
 (defmethod m/pre-init-spec ::cs/sct [_]
-  (s/keys :req-un [::release-path]))
+  (s/keys :req-un [::release-path] :opt-un [::snapshot-path]))
+
+(def ^:private ^:const hierarchy-cache-size
+  "The number of module versions whose hierarchies are held in memory."
+  4)
+
+(defn- build-current-int-hierarchy!
+  "Builds the hierarchy of the current international edition, so that the first
+  is-a and descendent-of filters don't have to wait for it."
+  [{:keys [current-int-system hierarchies]}]
+  (when-let [version (-> current-int-system :version :value)]
+    (when-ok [[module-id version] (sct-u/module-version version)]
+      (hierarchy/get hierarchies module-id version))))
 
 (defmethod ig/init-key ::cs/sct
-  [_ {:keys [release-path]}]
+  [_ {:keys [release-path snapshot-path]}]
   (log/info "Start reading SNOMED CT release files...")
   (let [start (System/nanoTime)
-        context (ba/throw-when (context/build release-path))]
+        context (ba/throw-when (context/build release-path
+                                              (some-> snapshot-path (path/resolve "sct"))))
+        context (assoc context :hierarchies (hierarchy/cache context hierarchy-cache-size))]
+    (build-current-int-hierarchy! context)
     (log/info "Successfully read SNOMED CT release files in"
               (format "%.1f" (u/duration-s start)) "seconds")
     context))
@@ -8,7 +8,7 @@
    [clojure.string :as str])
   (:import
    [com.google.common.base CaseFormat]
-   [java.nio.file Files Path]
+   [java.nio.file Files LinkOption Path]
    [java.util UUID]
    [java.util.stream Stream]))
 
@@ -165,7 +165,7 @@
                     update (= 1 active) conj-vec source-id))
        (partial merge-with (partial merge-with (partial merge-with (partial merge-with into)))))))
 
-(defn- find-dependencies
+(defn find-dependencies
   "Returns a list of `[module-id version]` tuples of dependencies from module
   with `module-id` in `version`."
   [module-dependency-index module-id version]
@@ -588,12 +588,32 @@
               code (str concept-id)]]
     [code (str/join " " synonyms) module-id-str]))
 
-(defn- build-search-index [fully-specified-name-index synonym-index]
-  (search-index/build-with-modules
-   (concat (fsn-entries fully-specified-name-index)
-           (synonym-entries synonym-index))))
-
-(defn build [release-path]
+(defn- search-index-entries [fully-specified-name-index synonym-index]
+  (concat (fsn-entries fully-specified-name-index)
+          (synonym-entries synonym-index)))
+
+(defn- file-fingerprint
+  "Returns a string which changes if the file at `path` is replaced."
+  [^Path path]
+  (str (.getFileName path) ":" (Files/size path) ":"
+       (Files/getLastModifiedTime path (make-array LinkOption 0))))
+
+(defn- build-search-index
+  [snapshot-path description-file fully-specified-name-index synonym-index]
+  (if snapshot-path
+    (search-index/snapshot
+     snapshot-path (file-fingerprint description-file)
+     #(search-index/build-with-modules
+       % (search-index-entries fully-specified-name-index synonym-index)))
+    (search-index/build-with-modules
+     (search-index-entries fully-specified-name-index synonym-index))))
+
+(defn build
+  "Builds the context from the release files in `release-path`.
+
+  The search index is persisted in `snapshot-path` if given and only rebuilt if
+  the description file of the release changes."
+  [release-path & [snapshot-path]]
   (when-ok [full-path (find-file release-path "Full")
             refset-path (find-file full-path "Refset")
             language-path (find-file refset-path "Language")
@@ -617,4 +637,5 @@
      :fully-specified-name-index fully-specified-name-index
      :synonym-index synonym-index
      :acceptability-index (stream-file build-acceptability-index language-file)
-     :search-index (build-search-index fully-specified-name-index synonym-index)}))
+     :search-index (build-search-index snapshot-path description-file
+                                       fully-specified-name-index synonym-index)}))
@@ -4,8 +4,8 @@
   (include descendant codes and self)."
   (:require
    [blaze.anomaly :as ba]
-   [blaze.terminology-service.local.code-system.sct.context :as context]
    [blaze.terminology-service.local.code-system.sct.filter.core :as core]
+   [blaze.terminology-service.local.code-system.sct.hierarchy :as hierarchy]
    [blaze.terminology-service.local.code-system.sct.type :refer [parse-sctid]]
    [blaze.terminology-service.local.code-system.sct.util :as sct-u]))
 
@@ -17,13 +17,12 @@
           value sct-u/url))
 
 (defn- expand-filter
-  [{{:keys [module-dependency-index child-index]} :sct/context
-    :sct/keys [module-id version]} value]
+  [{{:keys [hierarchies]} :sct/context :sct/keys [module-id version]} value]
   (if (nil? value)
     (ba/incorrect missing-concept-filter-value-msg)
     (if-let [code (parse-sctid value)]
-      (context/transitive-neighbors-including module-dependency-index child-index
-                                              module-id version code)
+      (hierarchy/descendants-including (hierarchy/get hierarchies module-id version)
+                                       code)
       (ba/incorrect (invalid-value-msg value)))))
 
 (def ^:private missing-property-msg
@@ -41,14 +40,14 @@
     (ba/unsupported (unsupported-property-msg property))))
 
 (defn- satisfies-filter
-  [{{:keys [module-dependency-index parent-index]} :sct/context
-    :sct/keys [module-id version]} value code]
+  [{{:keys [hierarchies]} :sct/context :sct/keys [module-id version]} value
+   code]
   (if (nil? value)
     (ba/incorrect missing-concept-filter-value-msg)
     (if-let [start-code (parse-sctid value)]
       (or (= code start-code)
-          (context/find-transitive-neighbor module-dependency-index parent-index
-                                            module-id version code start-code))
+          (hierarchy/ancestor? (hierarchy/get hierarchies module-id version)
+                               code start-code))
       (ba/incorrect (invalid-value-msg value)))))
 
 (defmethod core/satisfies-filter :is-a
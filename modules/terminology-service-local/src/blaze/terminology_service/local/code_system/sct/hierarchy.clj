@@ -0,0 +1,152 @@
+(ns blaze.terminology-service.local.code-system.sct.hierarchy
+  "The precomputed is-a hierarchy of a SNOMED CT module in a certain version.
+
+  The versioned child index of the context is resolved once for all concepts.
+  Concepts are numbered densely and their children and parents are stored as
+  int arrays, so that computing transitive closures only walks arrays instead
+  of resolving versions and module dependencies for every visited concept."
+  (:refer-clojure :exclude [descendants get])
+  (:require
+   [blaze.terminology-service.local.code-system.sct.context :as context]
+   [blaze.util :as u]
+   [taoensso.timbre :as log])
+  (:import
+   [com.github.benmanes.caffeine.cache CacheLoader Caffeine LoadingCache]
+   [java.util ArrayDeque Arrays BitSet]))
+
+(set! *warn-on-reflection* true)
+
+(deftype Hierarchy [^longs ids ^objects children ^objects parents])
+
+(defn- module-ids [module-dependency-index module-id version]
+  (cons module-id (map first (context/find-dependencies module-dependency-index
+                                                        module-id version))))
+
+(defn- child-map
+  "Returns a map of concept id to the set of ids of its children of the module
+  with `module-id` in `version`."
+  [{:keys [module-dependency-index child-index]} module-id version]
+  (into
+   {}
+   (keep
+    (fn [concept-id]
+      (let [children (context/neighbors module-dependency-index child-index
+                                        module-id version concept-id)]
+        (when (seq children)
+          [concept-id children]))))
+   (into #{} (mapcat (comp keys child-index))
+         (module-ids module-dependency-index module-id version))))
+
+(defn- sorted-ids ^longs [child-map]
+  (let [ids (long-array (into #{} (mapcat (fn [[id children]] (cons id children)))
+                              child-map))]
+    (Arrays/sort ids)
+    ids))
+
+(defn- number
+  "Returns the number of the concept with `id` or a negative number if the
+  concept isn't part of the hierarchy."
+  [^longs ids id]
+  (Arrays/binarySearch ids (long id)))
+
+(defn- children-array [ids child-map]
+  (let [children (object-array (alength ^longs ids))]
+    (doseq [[id child-ids] child-map]
+      (aset children (number ids id)
+            (int-array (map (partial number ids) child-ids))))
+    children))
+
+(defn- parents-array [^objects children]
+  (let [n (alength children)
+        parents (object-array n)]
+    (dotimes [parent n]
+      (when-let [^ints child-numbers (aget children parent)]
+        (dotimes [i (alength child-numbers)]
+          (let [child (aget child-numbers i)]
+            (aset parents child (conj (or (aget parents child) []) parent))))))
+    (dotimes [i n]
+      (when-let [parent-numbers (aget parents i)]
+        (aset parents i (int-array parent-numbers))))
+    parents))
+
+(defn build
+  "Builds the hierarchy of the module with `module-id` in `version` from the
+  indices of `context`."
+  [context module-id version]
+  (let [start (System/nanoTime)
+        child-map (child-map context module-id version)
+        ids (sorted-ids child-map)
+        children (children-array ids child-map)]
+    (log/debug "Built SNOMED CT hierarchy of module" module-id "in version"
+               version "with" (alength ids) "concepts in"
+               (format "%.1f" (u/duration-s start)) "seconds")
+    (Hierarchy. ids children (parents-array children))))
+
+(defn- closure
+  "Returns the numbers of all concepts transitively reachable from the concept
+  with number `start` over `edges`, stopping early if `stop` is reached."
+  ^BitSet [^objects edges start stop]
+  (let [visited (BitSet.)
+        to-visit (ArrayDeque.)]
+    (.push to-visit start)
+    (loop []
+      (when-not (or (.isEmpty to-visit) (.get visited (int stop)))
+        (when-let [^ints neighbors (aget edges (int (.pop to-visit)))]
+          (dotimes [i (alength neighbors)]
+            (let [neighbor (aget neighbors i)]
+              (when-not (.get visited neighbor)
+                (.set visited neighbor)
+                (.push to-visit neighbor)))))
+        (recur)))
+    visited))
+
+(defn- id-set [^longs ids ^BitSet numbers]
+  (loop [i (.nextSetBit numbers 0)
+         result (transient #{})]
+    (if (neg? i)
+      (persistent! result)
+      (recur (.nextSetBit numbers (inc i)) (conj! result (aget ids i))))))
+
+(defn descendants
+  "Returns the set of ids of all transitive children of the concept with
+  `concept-id` excluding itself."
+  [^Hierarchy hierarchy concept-id]
+  (let [ids (.-ids hierarchy)
+        start (number ids concept-id)]
+    (if (neg? start)
+      #{}
+      (id-set ids (closure (.-children hierarchy) start (alength ids))))))
+
+(defn descendants-including
+  "Returns the set of ids of all transitive children of the concept with
+  `concept-id` including itself."
+  [hierarchy concept-id]
+  (conj (descendants hierarchy concept-id) concept-id))
+
+(defn ancestor?
+  "Returns true if the concept with `ancestor-id` is a transitive parent of the
+  concept with `concept-id`."
+  [^Hierarchy hierarchy concept-id ancestor-id]
+  (let [ids (.-ids hierarchy)
+        start (number ids concept-id)
+        stop (number ids ancestor-id)]
+    (when-not (or (neg? start) (neg? stop))
+      (when (.get (closure (.-parents hierarchy) start stop) (int stop))
+        true))))
+
+(defn cache
+  "Creates a cache of at most `max-size` hierarchies which are built from
+  `context` on first access."
+  [context max-size]
+  (-> (Caffeine/newBuilder)
+      (.maximumSize max-size)
+      (.build
+       (reify CacheLoader
+         (load [_ [module-id version]]
+           (build context module-id version))))))
+
+(defn get
+  "Returns the hierarchy of the module with `module-id` in `version` from
+  `cache`."
+  [cache module-id version]
+  (.get ^LoadingCache cache [module-id version]))
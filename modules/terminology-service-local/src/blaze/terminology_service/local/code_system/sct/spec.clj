@@ -13,6 +13,9 @@
 (s/def ::sct/release-path
   :blaze/dir)
 
+(s/def ::sct/snapshot-path
+  (s/nilable :blaze/dir))
+
 (s/def :sct/id
   int?)
 
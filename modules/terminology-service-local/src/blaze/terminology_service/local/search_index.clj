@@ -1,19 +1,25 @@
 (ns blaze.terminology-service.local.search-index
   "Full-text search index for code system concepts using Apache Lucene.
 
-  Builds an in-memory index from concept display names and designations,
-  enabling word-prefix and fuzzy matching for the ValueSet/$expand filter
-  parameter."
+  Builds an index from concept display names and designations, enabling
+  word-prefix and fuzzy matching for the ValueSet/$expand filter parameter.
+
+  Indices are either held in memory or persisted as snapshot in a directory
+  from which they are memory-mapped on subsequent starts."
+  (:require
+   [taoensso.timbre :as log])
   (:import
+   [java.nio.file Files LinkOption OpenOption Path]
+   [java.nio.file.attribute FileAttribute]
    [java.util Collection]
    [org.apache.lucene.analysis.standard StandardAnalyzer]
    [org.apache.lucene.document Document Field$Store StringField TextField]
    [org.apache.lucene.index DirectoryReader IndexWriter IndexWriterConfig
-    StoredFields Term]
+    IndexWriterConfig$OpenMode StoredFields Term]
    [org.apache.lucene.search BooleanClause$Occur BooleanQuery$Builder
     FuzzyQuery IndexSearcher PrefixQuery Query ScoreDoc TermInSetQuery
     TopDocs]
-   [org.apache.lucene.store ByteBuffersDirectory Directory]
+   [org.apache.lucene.store ByteBuffersDirectory Directory MMapDirectory]
    [org.apache.lucene.util BytesRef]))
 
 (set! *warn-on-reflection* true)
@@ -47,37 +53,88 @@
     (run! #(append-designation! sb %) designation)
     (.toString sb)))
 
+(defn- write-index!
+  "Writes documents to `dir` by calling `add-docs!` with an index writer,
+  replacing any index already present in `dir`. Returns `dir`."
+  [^Directory dir add-docs!]
+  (let [config (doto (IndexWriterConfig. (StandardAnalyzer.))
+                 (.setOpenMode IndexWriterConfig$OpenMode/CREATE))]
+    (with-open [writer (IndexWriter. dir config)]
+      (add-docs! writer))
+    dir))
+
 (defn build
-  "Builds an in-memory Lucene search index from a map of code to concept.
+  "Builds a Lucene search index from a map of code to concept into `dir` or an
+  in-memory directory.
 
   Each concept should have at least a :display field with a :value. Designations
   are also indexed if present."
-  [concepts]
-  (let [dir (ByteBuffersDirectory.)
-        config (IndexWriterConfig. (StandardAnalyzer.))]
-    (with-open [writer (IndexWriter. dir config)]
+  ([concepts]
+   (build (ByteBuffersDirectory.) concepts))
+  ([dir concepts]
+   (write-index!
+    dir
+    (fn [writer]
       (run!
        (fn [[code concept]]
          (let [text (concept-texts concept)]
            (when-not (empty? text)
              (add-doc writer code text))))
-       concepts))
-    dir))
+       concepts)))))
 
 (defn build-with-modules
-  "Builds an in-memory Lucene search index from a sequence of
-  `[code text module-id]` tuples. Each document stores the module-id for
-  query-time filtering."
-  [entries]
-  (let [dir (ByteBuffersDirectory.)
-        config (IndexWriterConfig. (StandardAnalyzer.))]
-    (with-open [writer (IndexWriter. dir config)]
+  "Builds a Lucene search index from a sequence of `[code text module-id]`
+  tuples into `dir` or an in-memory directory. Each document stores the
+  module-id for query-time filtering."
+  ([entries]
+   (build-with-modules (ByteBuffersDirectory.) entries))
+  ([dir entries]
+   (write-index!
+    dir
+    (fn [writer]
       (run!
        (fn [[code text module-id]]
          (when-not (empty? text)
            (add-doc writer code text module-id)))
-       entries))
-    dir))
+       entries)))))
+
+(def ^:private ^:const format-version
+  "The version of the document layout of the index. Has to be incremented on
+  every change of documents or analyzers, so that existing snapshots are
+  rebuilt."
+  1)
+
+(defn- fingerprint-file ^Path [^Path path]
+  (.resolve path "fingerprint"))
+
+(defn- fingerprint-content [fingerprint]
+  (str format-version ":" fingerprint))
+
+(defn- current-snapshot? [path fingerprint]
+  (let [file (fingerprint-file path)]
+    (and (Files/isRegularFile file (make-array LinkOption 0))
+         (= (fingerprint-content fingerprint) (Files/readString file)))))
+
+(defn snapshot
+  "Returns a memory-mapped search index persisted in the directory `path`.
+
+  The snapshot is reused if it was built from a source with the same
+  `fingerprint`. Otherwise `build-fn` is called with the directory in order to
+  build the index and `fingerprint` is recorded after the build succeeded."
+  [^Path path fingerprint build-fn]
+  (let [index-path (.resolve path "index")]
+    (if (current-snapshot? path fingerprint)
+      (do (log/debug "Open search index snapshot in" (str path))
+          (MMapDirectory. index-path))
+      (do (log/debug "Build search index snapshot in" (str path))
+          (Files/deleteIfExists (fingerprint-file path))
+          (let [dir (build-fn (MMapDirectory. (Files/createDirectories
+                                               index-path
+                                               (make-array FileAttribute 0))))]
+            (Files/writeString (fingerprint-file path)
+                               (fingerprint-content fingerprint)
+                               (make-array OpenOption 0))
+            dir)))))
 
 (defn- analyze-terms
   "Splits and lowercases the filter text into terms."
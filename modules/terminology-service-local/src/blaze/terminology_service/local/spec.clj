@@ -3,6 +3,7 @@
    [blaze.fhir.spec]
    [blaze.path.spec]
    [blaze.terminology-service.local :as-alias local]
+   [blaze.terminology-service.local.code-system.loinc :as-alias loinc]
    [clojure.spec.alpha :as s])
   (:import
    [com.github.benmanes.caffeine.cache Cache]))
@@ -33,3 +34,6 @@
 
 (s/def ::local/tx-resources
   (s/coll-of ::local/tx-resource))
+
+(s/def ::loinc/snapshot-path
+  (s/nilable :blaze/dir))
@@ -49,5 +49,5 @@
   :ret (s/coll-of string? :kind set?))
 
 (s/fdef context/build
-  :args (s/cat :path :blaze/dir)
+  :args (s/cat :path :blaze/dir :snapshot-path (s/? (s/nilable :blaze/path)))
   :ret (s/or :context :sct/context :anomaly ::anom/anomaly))
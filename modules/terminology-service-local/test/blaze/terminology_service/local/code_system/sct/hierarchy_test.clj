@@ -0,0 +1,69 @@
+(ns blaze.terminology-service.local.code-system.sct.hierarchy-test
+  (:require
+   [blaze.terminology-service.local.code-system.sct.hierarchy :as hierarchy]
+   [blaze.test-util :as tu]
+   [clojure.spec.test.alpha :as st]
+   [clojure.test :as test :refer [are deftest is testing]]))
+
+(set! *warn-on-reflection* true)
+(st/instrument)
+
+(test/use-fixtures :each tu/fixture)
+
+(defn- time-map [& kvs]
+  (apply sorted-map-by > kvs))
+
+(def ^:private module-id 900000000000207008)
+
+;; 138875005 -> 404684003 -> 64572001 -> 102272007
+;;                           -> 100000000 (until 20090731)
+;;                        -> 102272007
+(def ^:private context
+  {:module-dependency-index {}
+   :child-index
+   {module-id
+    {138875005 (time-map 20020131 {true [404684003]})
+     404684003 (time-map 20020131 {true [64572001 100000000 102272007]}
+                         20090731 {false [100000000]})
+     64572001 (time-map 20020131 {true [102272007]})}}})
+
+(deftest descendants-test
+  (testing "before 100000000 became inactive"
+    (let [hierarchy (hierarchy/build context module-id 20020131)]
+      (are [concept-id descendants] (= descendants (hierarchy/descendants hierarchy concept-id))
+        138875005 #{404684003 64572001 100000000 102272007}
+        404684003 #{64572001 100000000 102272007}
+        102272007 #{}
+        1 #{})))
+
+  (testing "after 100000000 became inactive"
+    (let [hierarchy (hierarchy/build context module-id 20090731)]
+      (is (= #{404684003 64572001 102272007}
+             (hierarchy/descendants hierarchy 138875005))))))
+
+(deftest descendants-including-test
+  (let [hierarchy (hierarchy/build context module-id 20020131)]
+    (is (= #{64572001 102272007} (hierarchy/descendants-including hierarchy 64572001)))
+    (is (= #{1} (hierarchy/descendants-including hierarchy 1)))))
+
+(deftest ancestor?-test
+  (let [hierarchy (hierarchy/build context module-id 20020131)]
+    (are [concept-id ancestor-id] (true? (hierarchy/ancestor? hierarchy concept-id ancestor-id))
+      102272007 64572001
+      102272007 404684003
+      102272007 138875005
+      100000000 138875005)
+
+    (are [concept-id ancestor-id] (nil? (hierarchy/ancestor? hierarchy concept-id ancestor-id))
+      102272007 102272007
+      138875005 102272007
+      100000000 64572001
+      1 138875005
+      102272007 1)))
+
+(deftest cache-test
+  (let [cache (hierarchy/cache context 1)]
+    (is (identical? (hierarchy/get cache module-id 20020131)
+                    (hierarchy/get cache module-id 20020131)))
+    (is (= #{64572001 102272007}
+           (hierarchy/descendants-including (hierarchy/get cache module-id 20020131) 64572001)))))
@@ -1,16 +1,21 @@
 (ns blaze.terminology-service.local.search-index-spec
   (:require
+   [blaze.path.spec]
    [blaze.terminology-service.local.search-index :as search-index]
    [clojure.spec.alpha :as s])
   (:import
    [org.apache.lucene.store Directory]))
 
 (s/fdef search-index/build
-  :args (s/cat :concepts map?)
+  :args (s/cat :dir (s/? #(instance? Directory %)) :concepts map?)
   :ret #(instance? Directory %))
 
 (s/fdef search-index/build-with-modules
-  :args (s/cat :entries seqable?)
+  :args (s/cat :dir (s/? #(instance? Directory %)) :entries seqable?)
+  :ret #(instance? Directory %))
+
+(s/fdef search-index/snapshot
+  :args (s/cat :path :blaze/path :fingerprint string? :build-fn ifn?)
   :ret #(instance? Directory %))
 
 (s/fdef search-index/search
@@ -5,7 +5,10 @@
    [blaze.test-util :as tu]
    [clojure.spec.test.alpha :as st]
    [clojure.test :as test :refer [deftest is testing]]
-   [taoensso.timbre :as log]))
+   [taoensso.timbre :as log])
+  (:import
+   [java.nio.file Files]
+   [java.nio.file.attribute FileAttribute]))
 
 (st/instrument)
 (log/set-min-level! :trace)
@@ -167,3 +170,28 @@
       (let [index (search-index/build-with-modules
                    [["123" "" "mod-a"]])]
         (is (empty? (search-index/search index "anything" 10)))))))
+
+(defn- new-temp-dir! []
+  (Files/createTempDirectory "blaze" (make-array FileAttribute 0)))
+
+(deftest snapshot-test
+  (let [path (new-temp-dir!)
+        builds (atom 0)
+        build-fn (fn [dir] (swap! builds inc) (search-index/build dir concepts))]
+
+    (testing "the first call builds the index"
+      (let [index (search-index/snapshot path "v1" build-fn)]
+        (is (= 1 @builds))
+        (is (= ["diabetes"] (search-index/search index "diab" 10)))))
+
+    (testing "a call with the same fingerprint reuses the index"
+      (let [index (search-index/snapshot path "v1" build-fn)]
+        (is (= 1 @builds))
+        (is (= ["diabetes"] (search-index/search index "diab" 10)))))
+
+    (testing "a call with another fingerprint rebuilds the index"
+      (let [index (search-index/snapshot
+                   path "v2"
+                   #(search-index/build % {"hypertension" (concepts "hypertension")}))]
+        (is (= ["hypertension"] (search-index/search index "hyper" 10)))
+        (is (empty? (search-index/search index "diab" 10)))))))